@@ -0,0 +1,122 @@
+/*-
+ *******************************************************************************
+ * Copyright (c) 2011, 2017 Diamond Light Source Ltd.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.eclipse.dawnsci.hdf5.editor;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.dawnsci.analysis.api.tree.DataNode;
+import org.eclipse.dawnsci.analysis.api.tree.GroupNode;
+import org.eclipse.dawnsci.analysis.api.tree.NodeLink;
+import org.eclipse.dawnsci.analysis.tree.TreeFactory;
+
+/**
+ * Not a unit test, run as a java application to compare finding every child of a
+ * large group as the tree used to, copying the names of the group for each child,
+ * against finding them from the index kept by {@link H5ContentProvider}.
+ *
+ * Arguments (all optional): [links in the group] [children found the old way]
+ * the default is an NXdata group of 100000 data nodes, of which 1000 children spread
+ * through the group are found the old way and the time for all of them worked out
+ * from those, as finding them all would take too long.
+ */
+public class H5ContentProviderBenchmark {
+
+	public static void main(String[] args) {
+
+		final int size   = args.length>0 ? Integer.parseInt(args[0]) : 100000;
+		final int sample = args.length>1 ? Math.min(size, Integer.parseInt(args[1])) : Math.min(size, 1000);
+
+		final GroupNode group = createGroup(size);
+
+		// Warm up, then measure
+		for (int i = 0; i < 3; i++) {
+			findCopying(group, size, sample);
+			findIndexed(group, size);
+		}
+
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		findCopying(group, size, sample);
+		final long copying      = (System.nanoTime()-start) * size / sample;
+		final long copyingBytes = bytes<0 ? -1 : (allocatedBytes()-bytes) * size / sample;
+
+		bytes = allocatedBytes();
+		start = System.nanoTime();
+		findIndexed(group, size);
+		final long indexed      = System.nanoTime()-start;
+		final long indexedBytes = bytes<0 ? -1 : allocatedBytes()-bytes;
+
+		System.out.println("Found the "+size+" children of a group");
+		report("Copying names (estimated) ", copying, copyingBytes);
+		report("Indexed                   ", indexed, indexedBytes);
+	}
+
+	/**
+	 * @return an NXdata group in an NXentry, as in a NeXus file, with one data node per frame
+	 */
+	private static GroupNode createGroup(int size) {
+		long oid = 1;
+		final GroupNode entry = TreeFactory.createGroupNode(oid++);
+		entry.addAttribute(TreeFactory.createAttribute("NX_class", "NXentry"));
+		final GroupNode data = TreeFactory.createGroupNode(oid++);
+		data.addAttribute(TreeFactory.createAttribute("NX_class", "NXdata"));
+		entry.addGroupNode("data", data);
+		for (int i = 0; i < size; i++) {
+			final DataNode frame = TreeFactory.createDataNode(oid++);
+			frame.addAttribute(TreeFactory.createAttribute("units", "counts"));
+			data.addDataNode(String.format("frame_%06d", i), frame);
+		}
+		return data;
+	}
+
+	/**
+	 * Finds children as the tree did before the index, copying the names for each
+	 */
+	private static Object findCopying(GroupNode group, int size, int sample) {
+		Object last = null;
+		for (int s = 0; s < sample; s++) {
+			final int index = (int) ((long) s * size / sample);
+			final List<String> names = new ArrayList<String>(group.getNames());
+			final NodeLink link = group.findNodeLink(names.get(index));
+			last = link;
+		}
+		return last;
+	}
+
+	/**
+	 * Finds all children with a new provider, including making its index
+	 */
+	private static Object findIndexed(GroupNode group, int size) {
+		final H5ContentProvider provider = new H5ContentProvider();
+		Object last = null;
+		for (int i = 0; i < size; i++) {
+			last = provider.getChild(group, i);
+		}
+		return last;
+	}
+
+	private static void report(String label, long nanos, long bytes) {
+		final String mem = bytes<0 ? "unknown" : (bytes/1024/1024)+" MB";
+		System.out.println(label+(nanos/1000000)+" ms, allocated "+mem);
+	}
+
+	/**
+	 * @return bytes allocated by this thread so far, or a negative number if the
+	 *         JVM cannot tell us.
+	 */
+	private static long allocatedBytes() {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean)bean).getCurrentThreadAllocatedBytes();
+		}
+		return -1;
+	}
+}
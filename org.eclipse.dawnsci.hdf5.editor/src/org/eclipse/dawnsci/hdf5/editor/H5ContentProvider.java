@@ -12,9 +12,12 @@
  *******************************************************************************/ 
 package org.eclipse.dawnsci.hdf5.editor;
 
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import javax.swing.tree.TreeNode;
 
@@ -31,94 +34,116 @@ public class H5ContentProvider implements ILazyTreeContentProvider {
 
 	private TreeViewer treeViewer;
 
+	/**
+	 * The children of each node shown, made once so that each child is found by
+	 * its index. The arrays are held softly as the links in them refer back to
+	 * the node, which would otherwise never be let go.
+	 */
+	private final Map<Node, SoftReference<Object[]>> children = new WeakHashMap<Node, SoftReference<Object[]>>();
+
 	public H5ContentProvider() {
 
 	}
 
 	@Override
 	public void dispose() {
-		// TODO Auto-generated method stub
-
+		children.clear();
 	}
 
 	@Override
 	public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+		children.clear();
 		treeViewer = (TreeViewer) viewer;
 		treeViewer.refresh();
 	}
 
 	@Override
 	public void updateElement(Object parent, int index) {
-		if (parent instanceof NodeLink) {
-			NodeLink node = (NodeLink) parent;
-			int size = 0;
-			String name = "";
-			GroupNode groupnode = null;
-			List<String> names = null;
-			NodeLink link = null;
-			if(node.getDestination() instanceof DataNode) {
-				DataNode datanode = (DataNode) node.getDestination();
-				size = datanode.getNumberOfAttributes();
-				Iterator<String> attributesNameIt = datanode.getAttributeNameIterator();
-				names = new ArrayList<String>(datanode.getNumberOfAttributes());
-				while (attributesNameIt.hasNext()) {
-					String attribute = (String) attributesNameIt.next();
-					names.add(attribute);
-				}
-				Iterator<? extends Attribute> attributesIt = datanode.getAttributeIterator();
-				List<Attribute> attributes = new ArrayList<Attribute>(datanode.getNumberOfAttributes());
-				while (attributesIt.hasNext()) {
-					Attribute attribute = (Attribute) attributesIt.next();
-					attributes.add(attribute);
-				}
-				Object att = attributes.get(index);
-				if (att instanceof NodeLink) {
-					link = (NodeLink) attributes.get(index);
-					if (treeViewer != null && index < size) {
-						name = names.get(index);
-						treeViewer.replace(parent, index, link);
-						updateChildCount(link, -1);
-					}
-				} else if (att instanceof Attribute) {
-					Attribute attribute = (Attribute)att;
-					if (treeViewer != null && index < size) {
-						name = names.get(index);
-						treeViewer.replace(parent, index, attribute);
-						updateChildCount(link, -1);
-					}
-				}
-			}
-			if (node.getDestination() instanceof GroupNode) {
-				groupnode = (GroupNode) node.getDestination();
-				size = groupnode.getNumberOfNodelinks();
-				names = new ArrayList<String>(groupnode.getNames());
-				if (treeViewer != null && index < size) {
-					name = names.get(index);
-					link = groupnode.findNodeLink(name);
-					treeViewer.replace(parent, index, link);
-					updateChildCount(link, -1);
-				}
-			}
+		if (treeViewer == null || !(parent instanceof NodeLink))
+			return;
+		Object child = getChild(((NodeLink) parent).getDestination(), index);
+		if (child != null) {
+			treeViewer.replace(parent, index, child);
+			updateChildCount(child, -1);
 		}
 	}
 
 	@Override
 	public void updateChildCount(Object element, int currentChildCount) {
-		NodeLink link = (NodeLink) element;
-		int size = 0;
-		Node destination = link != null ? link.getDestination() : null;
-		if (destination != null) {
-			if (destination instanceof DataNode) {
-				DataNode datanode = (DataNode) link.getDestination();
-				size = datanode.getNumberOfAttributes();
+		if (treeViewer == null || element == null)
+			return;
+		Node destination = element instanceof NodeLink ? ((NodeLink) element).getDestination() : null;
+		treeViewer.setChildCount(element, getChildCount(destination));
+	}
+
+	/**
+	 * @param node
+	 * @param index
+	 * @return the attribute of a data node or the link of a group node at the index,
+	 *         or null if there is none
+	 */
+	Object getChild(Node node, int index) {
+		if (node == null || index < 0)
+			return null;
+		SoftReference<Object[]> reference = children.get(node);
+		Object[] nodeChildren = reference == null ? null : reference.get();
+		if (nodeChildren == null || !isCurrent(node, nodeChildren, index)) {
+			nodeChildren = createChildren(node);
+			children.put(node, new SoftReference<Object[]>(nodeChildren));
+		}
+		return index < nodeChildren.length ? nodeChildren[index] : null;
+	}
+
+	/**
+	 * Checks the children made earlier against the node. Only the number of children
+	 * and the child asked for are compared, so that finding a child stays cheap and a
+	 * child replaced under the same name is found when it is asked for.
+	 * @return true if the child at the index is still that of the node
+	 */
+	private static boolean isCurrent(Node node, Object[] nodeChildren, int index) {
+		if (nodeChildren.length != getChildCount(node))
+			return false;
+		return index >= nodeChildren.length || isChild(node, nodeChildren[index]);
+	}
+
+	/**
+	 * @return true if the node still holds this attribute or link under its name
+	 */
+	private static boolean isChild(Node node, Object child) {
+		if (node instanceof DataNode && child instanceof Attribute)
+			return node.getAttribute(((Attribute) child).getName()) == child;
+		if (node instanceof GroupNode && child instanceof NodeLink)
+			return ((GroupNode) node).findNodeLink(((NodeLink) child).getName()) == child;
+		return false;
+	}
+
+	private static int getChildCount(Node node) {
+		if (node instanceof DataNode)
+			return ((DataNode) node).getNumberOfAttributes();
+		if (node instanceof GroupNode)
+			return ((GroupNode) node).getNumberOfNodelinks();
+		return 0;
+	}
+
+	private static Object[] createChildren(Node node) {
+		if (node instanceof DataNode) {
+			DataNode datanode = (DataNode) node;
+			List<Attribute> attributes = new ArrayList<Attribute>(datanode.getNumberOfAttributes());
+			Iterator<? extends Attribute> attributesIt = datanode.getAttributeIterator();
+			while (attributesIt.hasNext()) {
+				attributes.add(attributesIt.next());
 			}
-			if (destination instanceof GroupNode) {
-				GroupNode groupnode = (GroupNode) link.getDestination();
-				size = groupnode.getNumberOfNodelinks();
+			return attributes.toArray();
+		}
+		if (node instanceof GroupNode) {
+			GroupNode groupnode = (GroupNode) node;
+			List<NodeLink> links = new ArrayList<NodeLink>(groupnode.getNumberOfNodelinks());
+			for (String name : groupnode.getNames()) {
+				links.add(groupnode.findNodeLink(name));
 			}
+			return links.toArray();
 		}
-		if (treeViewer != null && element != null)
-			treeViewer.setChildCount(element, size);
+		return new Object[0];
 	}
 
 	@Override
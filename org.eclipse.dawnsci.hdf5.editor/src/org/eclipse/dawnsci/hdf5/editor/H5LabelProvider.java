@@ -33,6 +33,13 @@ public class H5LabelProvider extends ColumnLabelProvider implements ITableLabelP
 
 	private static final Logger logger = LoggerFactory.getLogger(H5LabelProvider.class);
 
+	/**
+	 * Nodes whose first items are kept, about a screen of rows
+	 */
+	private static final int PREVIEWS = 256;
+
+	private final H5PreviewCache previews = new H5PreviewCache(PREVIEWS);
+
 	public H5LabelProvider() {
 		
 	}
@@ -107,7 +114,7 @@ public class H5LabelProvider extends ColumnLabelProvider implements ITableLabelP
 				if (node instanceof DataNode) {
 					DataNode datanode = (DataNode) node;
 					ILazyDataset lazy = datanode.getDataset();
-					long memSize = getSize(lazy);
+					long memSize = getSize(datanode, lazy);
 					if (memSize<0) return "";
 					return formatSize(memSize);
 				}
@@ -118,34 +125,47 @@ public class H5LabelProvider extends ColumnLabelProvider implements ITableLabelP
 		}
 	}
 
-	private long getSize(ILazyDataset data) {
+	/**
+	 * Works out the size in memory of a dataset from its shape and element type,
+	 * without reading it. For strings, the length of the first string is given.
+	 */
+	private long getSize(DataNode node, ILazyDataset data) {
 		try {
-			IDataset slice = data.getSlice();
-			int bpi = slice.getItemBytes();
-			if (bpi != 0) {
-				int[] shape = slice.getShape();
-				if (shape == null)
-					return -1;
-				long size = shape[0];
-				for (int i = 1; i < shape.length; i++)
+			int[] shape = data.getShape();
+			if (shape == null)
+				return -1;
+			int bytes = getElementBytes(data.getElementClass());
+			if (bytes != 0) {
+				long size = 1;
+				for (int i = 0; i < shape.length; i++)
 					size *= shape[i];
-				return bpi * size;
-			} else {
-				if (slice instanceof StringDataset) {
-					StringDataset strdata = (StringDataset) slice;
-					String[] dataArray = strdata.getData();
-					String string = dataArray[0];
-					long size = string.length();
-					return size;
+				return bytes * data.getElementsPerItem() * size;
+			} else if (String.class.equals(data.getElementClass())) {
+				IDataset preview = previews.get(node);
+				if (preview instanceof StringDataset && preview.getSize() > 0) {
+					String string = ((StringDataset) preview).getData()[0];
+					return string == null ? 0 : string.length();
 				}
-				return -1;
 			}
+			return -1;
 		} catch (Exception e) {
 			logger.debug("Error getting size:" + e.getMessage());
 			return -1;
 		}
 	}
 
+	private static int getElementBytes(Class<?> clazz) {
+		if (clazz == Boolean.class || clazz == Byte.class)
+			return 1;
+		if (clazz == Short.class)
+			return 2;
+		if (clazz == Integer.class || clazz == Float.class)
+			return 4;
+		if (clazz == Long.class || clazz == Double.class)
+			return 8;
+		return 0;
+	}
+
 	private static final double BASE = 1024, KB = BASE, MB = KB * BASE, GB = MB * BASE;
 	private static final DecimalFormat df = new DecimalFormat("#.##");
 
@@ -164,6 +184,7 @@ public class H5LabelProvider extends ColumnLabelProvider implements ITableLabelP
 
 	@Override
 	public void dispose() {
+		previews.clear();
 	}
 
 }
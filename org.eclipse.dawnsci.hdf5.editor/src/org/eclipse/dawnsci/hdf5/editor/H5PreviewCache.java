@@ -0,0 +1,121 @@
+/*-
+ *******************************************************************************
+ * Copyright (c) 2011, 2017 Diamond Light Source Ltd.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.eclipse.dawnsci.hdf5.editor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.dawnsci.analysis.api.tree.DataNode;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.IDataset;
+import org.eclipse.january.dataset.ILazyDataset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The first few items of datasets, read once and kept for the most recently
+ * shown nodes. Only the items kept are read, never the whole dataset, so
+ * showing a node costs at most {@value #ITEMS} items of I/O. A dataset which
+ * cannot be read is not tried again for a few seconds, so a node which is drawn
+ * over and over does not read a broken dataset each time.
+ */
+class H5PreviewCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(H5PreviewCache.class);
+
+	/**
+	 * Most items read from a dataset
+	 */
+	static final int ITEMS = 5;
+
+	/**
+	 * Time in ns for which a dataset which could not be read is not read again
+	 */
+	private static final long FAILURE_TIME = TimeUnit.SECONDS.toNanos(5);
+
+	private final Map<DataNode, IDataset> previews;
+	private final Map<DataNode, Long> failures; // when each node could not be read
+
+	/**
+	 * @param capacity most nodes kept
+	 */
+	H5PreviewCache(final int capacity) {
+		previews = new LinkedHashMap<DataNode, IDataset>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<DataNode, IDataset> eldest) {
+				return size() > capacity;
+			}
+		};
+		failures = new LinkedHashMap<DataNode, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<DataNode, Long> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * @param node
+	 * @return up to {@value #ITEMS} items from the start of the last dimension of the
+	 *         dataset, the first of each other dimension, an empty dataset if the dataset
+	 *         has no items, or null if it cannot be read
+	 */
+	synchronized IDataset get(DataNode node) {
+		IDataset preview = previews.get(node);
+		if (preview != null) return preview;
+
+		final Long failed = failures.get(node);
+		if (failed != null) {
+			if (System.nanoTime() - failed < FAILURE_TIME) return null;
+			failures.remove(node);
+		}
+		final ILazyDataset lazy = node.getDataset();
+		if (lazy == null) return null;
+		try {
+			preview = read(lazy);
+		} catch (Exception e) {
+			logger.debug("Cannot read a preview of {}", lazy.getName(), e);
+			failures.put(node, System.nanoTime());
+			return null;
+		}
+		if (preview != null) previews.put(node, preview);
+		return preview;
+	}
+
+	synchronized void clear() {
+		previews.clear();
+		failures.clear();
+	}
+
+	private static IDataset read(ILazyDataset lazy) throws Exception {
+		final int[] shape = lazy.getShape();
+		if (shape == null || shape.length == 0) {
+			return lazy.getSlice();
+		}
+		final int rank = shape.length;
+		final int[] start = new int[rank];
+		final int[] stop = new int[rank];
+		boolean empty = false;
+		for (int i = 0; i < rank; i++) {
+			stop[i] = Math.min(1, shape[i]);
+			empty = empty || shape[i] == 0;
+		}
+		stop[rank - 1] = Math.min(ITEMS, shape[rank - 1]);
+		if (empty) {
+			// Nothing to read
+			return DatasetFactory.zeros(stop);
+		}
+		return lazy.getSlice(start, stop, null);
+	}
+}
@@ -25,7 +25,6 @@ import org.eclipse.dawnsci.analysis.api.tree.GroupNode;
 import org.eclipse.dawnsci.analysis.api.tree.Node;
 import org.eclipse.dawnsci.analysis.api.tree.NodeLink;
 import org.eclipse.dawnsci.analysis.api.tree.TreeAdaptable;
-import org.eclipse.january.DatasetException;
 import org.eclipse.january.dataset.IDataset;
 import org.eclipse.january.dataset.ILazyDataset;
 import org.eclipse.jface.text.source.SourceViewer;
@@ -112,6 +111,7 @@ public class H5ValuePage extends Page  implements ISelectionListener, IPartListe
 		getSite().getPage().getWorkbenchWindow().getSelectionService().removeSelectionListener(this);
 		getSite().getPage().removePartListener(this);
 		lastSelection=null;
+		previews.clear();
 	}
 
 	@Override
@@ -193,6 +193,8 @@ public class H5ValuePage extends Page  implements ISelectionListener, IPartListe
 	}
 	
 	private NumberFormat format;
+
+	private final H5PreviewCache previews = new H5PreviewCache(16);
 	
 	// Fix for http://jira.diamond.ac.uk/browse/DAWNSCI-747
 	private String getNodeLinkValue(NodeLink nl) {
@@ -201,25 +203,26 @@ public class H5ValuePage extends Page  implements ISelectionListener, IPartListe
 		if (node instanceof DataNode) {
 			DataNode hd = (DataNode)node;
 			ILazyDataset lz = hd.getDataset();
-			if (lz.getRank()==1 && lz.getShape()[0]<500) {
-				try {
-					IDataset data = lz.getSlice();
-					if (Number.class.isAssignableFrom(data.getElementClass())) {
-						buf.append("\n[");
-						if (format == null)
-							format = new DecimalFormat("#####0.0###");
-						final int size = Math.min(lz.getShape()[0], 5);
-						for (int i = 0; i < size; ++i) {
-							buf.append(format.format(data.getDouble(i)));
-							if (i < size - 1)
-								buf.append(", ");
-						}
-						if (lz.getShape()[0] > 5)
-							buf.append(" ...");
-						buf.append("]\n\n");
+			if (lz.getRank()==1) {
+				// only the first items are read
+				IDataset data = previews.get(hd);
+				if (data == null) {
+					logger.error("Could not get data from lazy dataset {}", nl.getName());
+				} else if (data.getSize() == 0) {
+					buf.append("\n[]\n\n");
+				} else if (Number.class.isAssignableFrom(data.getElementClass())) {
+					buf.append("\n[");
+					if (format == null)
+						format = new DecimalFormat("#####0.0###");
+					final int size = Math.min(data.getSize(), H5PreviewCache.ITEMS);
+					for (int i = 0; i < size; ++i) {
+						buf.append(format.format(data.getDouble(i)));
+						if (i < size - 1)
+							buf.append(", ");
 					}
-				} catch (DatasetException e) {
-					logger.error("Could not get data from lazy dataset", e);
+					if (lz.getShape()[0] > H5PreviewCache.ITEMS)
+						buf.append(" ...");
+					buf.append("]\n\n");
 				}
 			}
 		}
@@ -20,10 +20,8 @@ import java.io.Serializable;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -48,7 +46,7 @@ public class BeanScriptingManagerImpl implements IBeanScriptingManager, IObserve
 	private final PlotServer    server;
 	private ScriptingConnection window;
 	private String              viewName;
-	private BlockingDeque<PlotEvent> queue;
+	private final PlotEventLanes queue;
 	private UUID                plotID;
 
 	private final Set<IObserver> dataObservers = new CopyOnWriteArraySet<>();
@@ -65,8 +63,9 @@ public class BeanScriptingManagerImpl implements IBeanScriptingManager, IObserve
 		this.plotID = UUID.randomUUID();
 		logger.info("Plot view uuid - {}: {}", viewName, plotID);
 
-		// Blocking queue to which we add plot update events.
-		this.queue = new LinkedBlockingDeque<>(25);
+		// Lanes to which we add plot update events, data updates are coalesced
+		// and additions and region updates are never dropped.
+		this.queue = new PlotEventLanes();
 	}
 
 	private Thread plotThread;
@@ -298,41 +297,40 @@ public class BeanScriptingManagerImpl implements IBeanScriptingManager, IObserve
 		this.viewName = plotViewName;
 	}
 
+	/**
+	 * @return the plot events waiting, with counts of those coalesced and dropped in each lane
+	 */
+	public PlotEventLanes getEventLanes() {
+		return queue;
+	}
+
 	public void dispose() {
 		dataObservers.clear();
+		logger.debug("Plot events for {}: {}", viewName, queue);
 		queue.clear();
-		queue.add(new PlotEvent());
+		queue.offer(new PlotEvent());
+		queue.close();
 		getPlotServer().deleteIObserver(this);
 	}
 
 	/**
-	 * Tries to put plot event into queue or 
-	 * drops some events from the queue
-	 * 
-	 * TODO dropping of events should be done if
-	 * the event is a plot update. Region events
-	 * should never be dropped.
+	 * Puts a plot event into its lane. A data event which replaces or updates the plot
+	 * replaces the last data event waiting if that does so too, and a GUI event is
+	 * merged into the GUI event waiting, unless a region event was queued after the
+	 * waiting event. Data events which add to the plot and region events are always
+	 * queued. When a lane is full its oldest event which may be replaced is dropped,
+	 * if there is none this blocks until the plot thread takes an event.
 	 * 
 	 * @param evt
 	 */
-	public synchronized void offer(PlotEvent evt) {
+	public void offer(PlotEvent evt) {
 		if (logger.isTraceEnabled()) {
 			GuiBean bean = evt.getStashedGuiBean();
 			DataBean dataBean = evt.getDataBean();
 			logger.trace("Adding event for {} ({}): {}; {}; {}; {}", viewName, queue.size(), bean, evt.getGuiBean(),
 					dataBean, dataBean == null ? "" : dataBean.getGuiParameters());
 		}
-		if (queue.offer(evt)) {
-			return;
-		}
-		logger.warn("Queue full for {}", viewName);
-		if (queue.remove() == null) {
-			// drop the head - TODO FIXME not region events!
-			logger.warn("Dropped head of queue full but it was null - {}", viewName);
-		}
-		if (!queue.offer(evt)) {
-			throw new RuntimeException("Cannot offer plot events to queue!");
-		}
+		queue.offer(evt);
 	}
 
 }
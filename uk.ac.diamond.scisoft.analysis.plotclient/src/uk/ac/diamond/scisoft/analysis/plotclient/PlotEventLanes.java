@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.plotclient;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+import uk.ac.diamond.scisoft.analysis.plotserver.DataBean;
+import uk.ac.diamond.scisoft.analysis.plotserver.GuiBean;
+import uk.ac.diamond.scisoft.analysis.plotserver.GuiParameters;
+
+/**
+ * The plot events waiting for one plot view, kept in a lane for each kind of event.
+ * <ul>
+ * <li>Data events which replace or update the plot are coalesced, a new one replaces
+ * the data event waiting last unless that adds to the plot or a region event was
+ * queued after it. A GUI bean stashed in a replaced event is merged into its
+ * replacement.</li>
+ * <li>Data events which add to the plot ({@link GuiParameters#PLOTOP_ADD}) are never
+ * coalesced or dropped and are taken in the order given.</li>
+ * <li>GUI events are merged into the GUI event waiting, unless a region event was
+ * queued after it.</li>
+ * <li>Region events are never merged or dropped and are taken in the order given.</li>
+ * </ul>
+ * Events are taken in the order they were offered, a coalesced or merged event
+ * takes the place of the newest event it holds.
+ * <p>
+ * Each lane holds at most a given number of events. When the data or GUI lane is full
+ * the oldest event in it which may be replaced is dropped, otherwise offering blocks
+ * until an event is taken.
+ */
+public class PlotEventLanes {
+
+	/**
+	 * Default number of events each lane holds
+	 */
+	public static final int DEFAULT_CAPACITY = 25;
+
+	public enum Lane {
+		DATA, GUI, ROI
+	}
+
+	private static final class Entry {
+		final PlotEvent event;
+		final long      order;
+
+		Entry(PlotEvent event, long order) {
+			this.event = event;
+			this.order = order;
+		}
+	}
+
+	private final Deque<Entry> data = new ArrayDeque<>();
+	private final Deque<Entry> gui = new ArrayDeque<>();
+	private final Deque<Entry> roi = new ArrayDeque<>();
+	private final int capacity;
+	private long order;
+	private boolean closed;
+
+	private final long[] offered   = new long[Lane.values().length];
+	private final long[] coalesced = new long[Lane.values().length];
+	private final long[] dropped   = new long[Lane.values().length];
+
+	public PlotEventLanes() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity number of events each lane holds
+	 */
+	public PlotEventLanes(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param evt
+	 * @return lane the event goes in
+	 */
+	public static Lane getLane(PlotEvent evt) {
+		if (evt.getDataBean() != null) {
+			return Lane.DATA;
+		}
+		final GuiBean bean = evt.getStashedGuiBean();
+		if (bean != null && (bean.containsKey(GuiParameters.ROIDATA) || bean.containsKey(GuiParameters.ROIDATALIST)
+				|| bean.containsKey(GuiParameters.ROICLEARALL))) {
+			return Lane.ROI;
+		}
+		return Lane.GUI;
+	}
+
+	/**
+	 * Adds an event. When its lane is full the oldest data or GUI event which may be
+	 * replaced is dropped, otherwise this blocks until an event is taken or the lanes
+	 * are closed. Once closed, events are dropped rather than added.
+	 * @param evt
+	 * @return lane the event went in
+	 */
+	public synchronized Lane offer(PlotEvent evt) {
+		final Lane lane = getLane(evt);
+		offered[lane.ordinal()]++;
+		if (closed) {
+			dropped[lane.ordinal()]++;
+			return lane;
+		}
+		switch (lane) {
+		case DATA:
+			final Entry lastData = data.peekLast();
+			if (lastData != null && !isAdd(lastData.event) && !isAdd(evt) && isAfterLastRoi(lastData)) {
+				coalesced[Lane.DATA.ordinal()]++;
+				data.removeLast();
+				evt.setStashedGuiBean(merge(lastData.event.getStashedGuiBean(), evt.getStashedGuiBean()));
+			}
+			if (makeRoom(data, lane)) {
+				data.addLast(new Entry(evt, order++));
+			}
+			break;
+		case GUI:
+			final Entry last = gui.peekLast();
+			if (last != null && isAfterLastRoi(last) && evt.getStashedGuiBean() != null
+					&& last.event.getStashedGuiBean() != null) {
+				coalesced[Lane.GUI.ordinal()]++;
+				gui.removeLast();
+				evt.setStashedGuiBean(merge(last.event.getStashedGuiBean(), evt.getStashedGuiBean()));
+			}
+			if (makeRoom(gui, lane)) {
+				gui.addLast(new Entry(evt, order++));
+			}
+			break;
+		case ROI:
+			if (makeRoom(roi, lane)) {
+				roi.addLast(new Entry(evt, order++));
+			}
+			break;
+		}
+		notifyAll();
+		return lane;
+	}
+
+	/**
+	 * @return true if no region event was queued after the entry
+	 */
+	private boolean isAfterLastRoi(Entry entry) {
+		final Entry lastRoi = roi.peekLast();
+		return lastRoi == null || lastRoi.order < entry.order;
+	}
+
+	/**
+	 * Drops the oldest entry of a full data or GUI lane which may be replaced, or waits
+	 * for an entry to be taken. If interrupted while waiting, the lane is let grow past
+	 * its capacity rather than losing an event which must not be dropped.
+	 * @return false if the lanes were closed while waiting and the event was dropped
+	 */
+	private boolean makeRoom(Deque<Entry> queue, Lane lane) {
+		while (queue.size() >= capacity) {
+			if (lane != Lane.ROI && dropOldestReplaceable(queue, lane)) {
+				return true;
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return true;
+			}
+			if (closed) {
+				dropped[lane.ordinal()]++;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean dropOldestReplaceable(Deque<Entry> queue, Lane lane) {
+		for (Iterator<Entry> it = queue.iterator(); it.hasNext();) {
+			final Entry e = it.next();
+			if (lane == Lane.GUI || !isAdd(e.event)) {
+				it.remove();
+				dropped[lane.ordinal()]++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the event's data is added to the plot rather than replacing or updating it
+	 */
+	private static boolean isAdd(PlotEvent evt) {
+		final DataBean bean = evt.getDataBean();
+		final GuiBean gui = bean == null ? null : bean.getGuiParameters();
+		return gui != null && GuiParameters.PLOTOP_ADD.equals(gui.get(GuiParameters.PLOTOPERATION));
+	}
+
+	/**
+	 * @return a new bean with the values of the older bean replaced by those of the newer
+	 */
+	private static GuiBean merge(GuiBean older, GuiBean newer) {
+		if (older == null) return newer;
+		if (newer == null) return older;
+		final GuiBean merged = new GuiBean();
+		merged.merge(older);
+		merged.merge(newer);
+		return merged;
+	}
+
+	/**
+	 * Waits for an event.
+	 * @return the event offered first of those waiting
+	 * @throws InterruptedException
+	 */
+	public synchronized PlotEvent take() throws InterruptedException {
+		while (isEmpty()) {
+			wait();
+		}
+		Entry first = data.peekFirst();
+		Lane lane = Lane.DATA;
+		if (!gui.isEmpty() && (first == null || gui.peekFirst().order < first.order)) {
+			first = gui.peekFirst();
+			lane = Lane.GUI;
+		}
+		if (!roi.isEmpty() && (first == null || roi.peekFirst().order < first.order)) {
+			first = roi.peekFirst();
+			lane = Lane.ROI;
+		}
+		switch (lane) {
+		case DATA:
+			data.removeFirst();
+			break;
+		case GUI:
+			gui.removeFirst();
+			break;
+		case ROI:
+			roi.removeFirst();
+			break;
+		}
+		notifyAll();
+		return first.event;
+	}
+
+	public synchronized boolean isEmpty() {
+		return data.isEmpty() && gui.isEmpty() && roi.isEmpty();
+	}
+
+	/**
+	 * @return number of events waiting
+	 */
+	public synchronized int size() {
+		return data.size() + gui.size() + roi.size();
+	}
+
+	/**
+	 * Drops all the waiting events, counting them as dropped.
+	 */
+	public synchronized void clear() {
+		dropped[Lane.DATA.ordinal()] += data.size();
+		dropped[Lane.GUI.ordinal()] += gui.size();
+		dropped[Lane.ROI.ordinal()] += roi.size();
+		data.clear();
+		gui.clear();
+		roi.clear();
+		notifyAll();
+	}
+
+	/**
+	 * Stops offering from blocking, events waiting are kept and can still be taken
+	 * but events offered afterwards are dropped.
+	 */
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * @return number of events each lane holds
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return number of events waiting in the lane
+	 */
+	public synchronized int getDepth(Lane lane) {
+		switch (lane) {
+		case DATA:
+			return data.size();
+		case GUI:
+			return gui.size();
+		default:
+			return roi.size();
+		}
+	}
+
+	/**
+	 * @return number of events offered to the lane
+	 */
+	public synchronized long getOffered(Lane lane) {
+		return offered[lane.ordinal()];
+	}
+
+	/**
+	 * @return number of events replaced by or merged into a newer event
+	 */
+	public synchronized long getCoalesced(Lane lane) {
+		return coalesced[lane.ordinal()];
+	}
+
+	/**
+	 * @return number of events dropped without being taken, as the lane was full,
+	 * cleared or closed
+	 */
+	public synchronized long getDropped(Lane lane) {
+		return dropped[lane.ordinal()];
+	}
+
+	@Override
+	public synchronized String toString() {
+		final StringBuilder buf = new StringBuilder();
+		for (Lane lane : Lane.values()) {
+			if (buf.length() > 0) buf.append(", ");
+			buf.append(lane).append(' ').append(getDepth(lane)).append(" waiting ");
+			buf.append(offered[lane.ordinal()]).append(" offered ");
+			buf.append(coalesced[lane.ordinal()]).append(" coalesced ");
+			buf.append(dropped[lane.ordinal()]).append(" dropped");
+		}
+		return buf.toString();
+	}
+}
@@ -12,6 +12,7 @@ package uk.ac.diamond.scisoft.analysis.plotclient;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -40,7 +41,7 @@ import gda.observable.ObservableComponent;
 import uk.ac.diamond.scisoft.analysis.AnalysisRpcServerProvider;
 import uk.ac.diamond.scisoft.analysis.PlotServer;
 import uk.ac.diamond.scisoft.analysis.PlotServerProvider;
-import uk.ac.diamond.scisoft.analysis.plotclient.rpc.AnalysisRpcSyncExecDispatcher;
+import uk.ac.diamond.scisoft.analysis.plotclient.rpc.AnalysisRpcAsyncExecDispatcher;
 import uk.ac.diamond.scisoft.analysis.plotserver.DataBean;
 import uk.ac.diamond.scisoft.analysis.plotserver.GuiBean;
 
@@ -71,8 +72,10 @@ public class PlotWindowManager implements IPlotWindowManager, IObservable {
 			}
 
 			try {
-				// register as an RPC service
-				IAnalysisRpcHandler dispatcher = new AnalysisRpcSyncExecDispatcher(IPlotWindowManager.class, manager);
+				// register as an RPC service, all its calls open views or read the view map
+				// so are run in the UI thread. Only reading the open views may share a result.
+				IAnalysisRpcHandler dispatcher = new AnalysisRpcAsyncExecDispatcher(IPlotWindowManager.class, manager,
+						Collections.<String>emptySet(), Collections.singleton("getOpenViews"));
 				AnalysisRpcServerProvider.getInstance().addHandler(RPC_WINDOW_SERVICE_NAME, dispatcher);
 			} catch (Exception e) {
 				logger.warn("Not registered PlotWindowManager as RPC service - but might be disabled");
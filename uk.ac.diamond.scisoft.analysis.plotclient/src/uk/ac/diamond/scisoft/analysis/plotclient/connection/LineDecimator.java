@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2012, 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.analysis.plotclient.connection;
+
+import java.util.Arrays;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+
+/**
+ * Reduces a line to the lowest and highest point in each of a bounded number of
+ * buckets, which looks the same as the whole line when there are more points than
+ * pixels. Points appended since the last call are folded into the buckets without
+ * going over the earlier points again, when there are twice as many buckets as
+ * wanted neighbouring buckets are merged.
+ * <p>
+ * Not thread safe.
+ */
+class LineDecimator {
+
+	private int      size;      // points folded in
+	private int      points = 1; // points per bucket
+	private int      buckets;
+	private int[]    count;
+	private int[]    minIndex, maxIndex;
+	private double[] minY, maxY, minX, maxX;
+	private double   lastX = Double.NaN, lastY = Double.NaN;
+
+	/**
+	 * @param target number of buckets wanted, the line has at most four times as many points
+	 */
+	LineDecimator(int target) {
+		allocate(2 * Math.max(1, target) + 1);
+	}
+
+	private void allocate(int length) {
+		count    = new int[length];
+		minIndex = new int[length];
+		maxIndex = new int[length];
+		minY     = new double[length];
+		maxY     = new double[length];
+		minX     = new double[length];
+		maxX     = new double[length];
+	}
+
+	/**
+	 * @return number of points folded in
+	 */
+	int getSize() {
+		return size;
+	}
+
+	/**
+	 * Folds in the points of the line not seen before. If the line does not start
+	 * with the points already folded in it is decimated again from its start.
+	 * @param x
+	 * @param y
+	 * @return true if only appended points were folded in
+	 */
+	boolean update(Dataset x, Dataset y) {
+		final int n = Math.min(x.getSize(), y.getSize());
+		boolean appended = size > 0 && n >= size && same(x.getDouble(size - 1), lastX) && same(y.getDouble(size - 1), lastY);
+		if (!appended) {
+			size = 0;
+			points = 1;
+			buckets = 0;
+		}
+		for (int i = size; i < n; i++) {
+			add(i, x.getDouble(i), y.getDouble(i));
+		}
+		size = n;
+		if (n > 0) {
+			lastX = x.getDouble(n - 1);
+			lastY = y.getDouble(n - 1);
+		}
+		return appended;
+	}
+
+	private static boolean same(double a, double b) {
+		return Double.compare(a, b) == 0;
+	}
+
+	private void add(int i, double x, double y) {
+		if (buckets == 0 || count[buckets - 1] >= points) {
+			if (buckets == count.length) {
+				merge();
+			}
+			final int b = buckets++;
+			count[b] = 1;
+			minIndex[b] = maxIndex[b] = i;
+			minY[b] = maxY[b] = y;
+			minX[b] = maxX[b] = x;
+			return;
+		}
+		final int b = buckets - 1;
+		count[b]++;
+		if (y < minY[b] || Double.isNaN(minY[b])) {
+			minY[b] = y;
+			minX[b] = x;
+			minIndex[b] = i;
+		}
+		if (y > maxY[b] || Double.isNaN(maxY[b])) {
+			maxY[b] = y;
+			maxX[b] = x;
+			maxIndex[b] = i;
+		}
+	}
+
+	/**
+	 * Halves the number of buckets by merging neighbours.
+	 */
+	private void merge() {
+		int to = 0;
+		for (int from = 0; from < buckets; from += 2, to++) {
+			copy(from, to);
+			if (from + 1 < buckets) {
+				final int o = from + 1;
+				count[to] += count[o];
+				if (minY[o] < minY[to] || Double.isNaN(minY[to])) {
+					minY[to] = minY[o];
+					minX[to] = minX[o];
+					minIndex[to] = minIndex[o];
+				}
+				if (maxY[o] > maxY[to] || Double.isNaN(maxY[to])) {
+					maxY[to] = maxY[o];
+					maxX[to] = maxX[o];
+					maxIndex[to] = maxIndex[o];
+				}
+			}
+		}
+		buckets = to;
+		points *= 2;
+	}
+
+	private void copy(int from, int to) {
+		if (from == to) return;
+		count[to]    = count[from];
+		minIndex[to] = minIndex[from];
+		maxIndex[to] = maxIndex[from];
+		minY[to]     = minY[from];
+		maxY[to]     = maxY[from];
+		minX[to]     = minX[from];
+		maxX[to]     = maxX[from];
+	}
+
+	/**
+	 * @return x and y of the decimated line, in the order of the original points
+	 */
+	Dataset[] getLine(String xName, String yName) {
+		final double[] x = new double[2 * buckets];
+		final double[] y = new double[2 * buckets];
+		int j = 0;
+		for (int b = 0; b < buckets; b++) {
+			final boolean minFirst = minIndex[b] <= maxIndex[b];
+			x[j] = minFirst ? minX[b] : maxX[b];
+			y[j++] = minFirst ? minY[b] : maxY[b];
+			if (minIndex[b] != maxIndex[b]) {
+				x[j] = minFirst ? maxX[b] : minX[b];
+				y[j++] = minFirst ? maxY[b] : minY[b];
+			}
+		}
+		final Dataset dx = DatasetFactory.createFromObject(Arrays.copyOf(x, j));
+		dx.setName(xName);
+		final Dataset dy = DatasetFactory.createFromObject(Arrays.copyOf(y, j));
+		dy.setName(yName);
+		return new Dataset[] { dx, dy };
+	}
+}
@@ -10,7 +10,10 @@ package uk.ac.diamond.scisoft.analysis.plotclient.connection;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -43,6 +46,22 @@ class Plotting1DUI extends PlottingGUIUpdate {
 	private static final int LEGEND_LIMIT = 5; // maximum number of lines for legend otherwise it is not shown
 	private static final int TITLE_LIMIT = 3; // maximum number of lines for title to show
 
+	/**
+	 * Lines updated with more points than four times this many buckets are reduced to
+	 * the lowest and highest point of each bucket before they are plotted. The
+	 * default of zero plots every point.
+	 * <p>
+	 * Line traces have no way to append points, so a line which grew is always set
+	 * again with all its points. Decimation bounds how many points those are, without
+	 * it the whole of a grown line is sent to the plotting system on every update.
+	 */
+	public static final String DECIMATE_PROPERTY = "uk.ac.diamond.scisoft.analysis.plotclient.decimateBuckets";
+
+	private final int decimateBuckets = Integer.getInteger(DECIMATE_PROPERTY, 0);
+
+	// decimators of the lines being updated, only used by the plot event thread
+	private final Map<String, LineDecimator> decimators = new HashMap<>();
+
 	/**
 	 * Constructor of a plotting 1D 
 	 * @param plottingSystem plotting system
@@ -57,6 +76,9 @@ class Plotting1DUI extends PlottingGUIUpdate {
 		if (plotData == null)
 			return;
 
+		// Lines are decimated on this thread rather than the display thread
+		final Map<String, DecimatedLine> lines = decimate(dbPlot, plotData);
+
 		Display.getDefault().asyncExec(new Runnable() {
 			@Override
 			public void run() {
@@ -74,22 +96,11 @@ class Plotting1DUI extends PlottingGUIUpdate {
 
 					// check if same lines are being plotted
 					if (plots <= traces) {
+						Map<String, ILineTrace> lineTraces = indexLineTraces(oldTraces);
 						int nt = 0;
-						for (ITrace t : oldTraces) {
-							if (t instanceof ILineTrace lt) {
-								String oyn = t.getName();
-								Dataset ox = DatasetUtils.convertToDataset(lt.getXData());
-								String oxn = ox == null ? null : ox.getName();
-								if (oyn != null && oxn != null) {
-									for (DatasetWithAxisInformation d : plotData) {
-										String nyn = d.getData().getName();
-										String nxn = dbPlot.getAxis(d.getAxisMap().getAxisID()[0]).getName();
-										if (oyn.equals(nyn) && oxn.equals(nxn)) {
-											nt++;
-											break;
-										}
-									}
-								}
+						for (DatasetWithAxisInformation d : plotData) {
+							if (lineTraces.containsKey(getKey(dbPlot, d))) {
+								nt++;
 							}
 						}
 						useOldTraces = nt == plots;
@@ -119,30 +130,33 @@ class Plotting1DUI extends PlottingGUIUpdate {
 				}
 
 				if (useOldTraces) {
-					List<ITrace> unused = new ArrayList<ITrace>();
-					for (ITrace t : oldTraces) {
-						if (t instanceof ILineTrace lt) {
-							boolean used = false;
-							String oyn = lt.getName();
-							Dataset x = DatasetUtils.convertToDataset(lt.getXData());
-							String oxn = x == null ? null : x.getName();
-							for (DatasetWithAxisInformation d : plotData) {
-								Dataset ny = d.getData();
-								String nyn = ny.getName();
-								Dataset nx = dbPlot.getAxis(d.getAxisMap().getAxisID()[0]);
-								String nxn = nx.getName();
-								if (oyn != null && oyn.equals(nyn)) {
-									if (oxn != null && oxn.equals(nxn)) {
-										lt.setData(nx, ny);
-										lt.repaint();
-										used = true;
-										break;
-									}
-								}
+					Map<String, ILineTrace> lineTraces = indexLineTraces(oldTraces);
+					Set<ITrace> used = Collections.newSetFromMap(new IdentityHashMap<>());
+					for (DatasetWithAxisInformation d : plotData) {
+						String key = getKey(dbPlot, d);
+						ILineTrace lt = lineTraces.get(key);
+						if (lt == null || !used.add(lt)) {
+							continue;
+						}
+						Dataset ny = d.getData();
+						Dataset nx = dbPlot.getAxis(d.getAxisMap().getAxisID()[0]);
+						DecimatedLine line = lines.get(key);
+						if (line != null) {
+							if (line.unchanged) { // no new points
+								continue;
 							}
-							if (!used)
-								unused.add(t);
+							nx = line.x;
+							ny = line.y;
+						} else if (isPlotted(lt, nx, ny)) {
+							continue;
 						}
+						lt.setData(nx, ny);
+						lt.repaint();
+					}
+					List<ITrace> unused = new ArrayList<ITrace>();
+					for (ITrace t : oldTraces) {
+						if (t instanceof ILineTrace && !used.contains(t))
+							unused.add(t);
 					}
 					for (ITrace t : unused) {
 						plottingSystem.removeTrace(t);
@@ -187,6 +201,7 @@ class Plotting1DUI extends PlottingGUIUpdate {
 						IAxis ax = an == null ? firstXAxis : AxisUtils.findXAxis(an, plottingSystem);
 						Dataset nx = axisData.get(id);
 						String n = nx.getName(); // x axis dataset name
+						DecimatedLine line = lines.get(getKey(nyn, n));
 						
 						if (ax == null) {
 							if (!isEmpty(n)) { // try dataset name
@@ -256,19 +271,28 @@ class Plotting1DUI extends PlottingGUIUpdate {
 								title += "...";
 							}
 						}
+						// a decimated line is plotted from the start, as later updates only
+						// set the trace again when points are added
+						Dataset px = nx;
+						Dataset py = ny;
+						if (line != null) {
+							px = line.x;
+							py = line.y;
+							py.setName(nyn);
+						}
 						ILineTrace newTrace;
 						if (i == 0) {
 							List<IDataset> yl = new ArrayList<>();
-							yl.add(ny);
+							yl.add(py);
 							String oan = ay.getTitle();
-							Collection<ITrace> newTraces = plottingSystem.createPlot1D(nx, yl, null, null);
+							Collection<ITrace> newTraces = plottingSystem.createPlot1D(px, yl, null, null);
 							newTrace = (ILineTrace) newTraces.iterator().next();
 							ay.setTitle(oan); // workaround the rename that is needed by data browser (grr!)
 						} else {
 							newTrace = plottingSystem.createLineTrace(nyn);
 							plottingSystem.addTrace(newTrace);
 						}
-						newTrace.setData(nx, ny);
+						newTrace.setData(px, py);
 						i++;
 					}
 
@@ -286,6 +310,92 @@ class Plotting1DUI extends PlottingGUIUpdate {
 		});
 	}
 
+	/**
+	 * @return key of the line of y against x
+	 */
+	private static String getKey(String yName, String xName) {
+		return yName + '\n' + xName;
+	}
+
+	private static String getKey(DataBean dbPlot, DatasetWithAxisInformation d) {
+		return getKey(d.getData().getName(), dbPlot.getAxis(d.getAxisMap().getAxisID()[0]).getName());
+	}
+
+	/**
+	 * @return line traces by the names of their y and x data, so that each dataset
+	 *         is matched to its trace without going through all of them
+	 */
+	private static Map<String, ILineTrace> indexLineTraces(Collection<ITrace> traces) {
+		Map<String, ILineTrace> index = new HashMap<>();
+		for (ITrace t : traces) {
+			if (t instanceof ILineTrace lt) {
+				String oyn = lt.getName();
+				Dataset ox = DatasetUtils.convertToDataset(lt.getXData());
+				String oxn = ox == null ? null : ox.getName();
+				if (oyn != null && oxn != null) {
+					index.putIfAbsent(getKey(oyn, oxn), lt);
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * @return true if the trace already shows these points
+	 */
+	private static boolean isPlotted(ILineTrace lt, Dataset nx, Dataset ny) {
+		IDataset oy = lt.getYData();
+		IDataset ox = lt.getXData();
+		if (oy == null || ox == null || oy.getSize() != ny.getSize() || ox.getSize() != nx.getSize()) {
+			return false;
+		}
+		return ny.equals(oy) && nx.equals(ox);
+	}
+
+	/**
+	 * A line reduced to fewer points, and whether no points were added to it since
+	 * it was last reduced
+	 */
+	private static final class DecimatedLine {
+		final Dataset x;
+		final Dataset y;
+		final boolean unchanged;
+
+		DecimatedLine(Dataset[] line, boolean unchanged) {
+			this.x = line[0];
+			this.y = line[1];
+			this.unchanged = unchanged;
+		}
+	}
+
+	/**
+	 * Decimates the lines with more points than will show when that is switched on.
+	 * @return decimated lines by line key, or empty when lines are plotted in full
+	 */
+	private Map<String, DecimatedLine> decimate(DataBean dbPlot, List<DatasetWithAxisInformation> plotData) {
+		if (decimateBuckets <= 0) {
+			return Collections.emptyMap();
+		}
+		Map<String, DecimatedLine> lines = new HashMap<>();
+		Set<String> keys = new HashSet<>();
+		for (DatasetWithAxisInformation d : plotData) {
+			Dataset ny = d.getData();
+			Dataset nx = dbPlot.getAxis(d.getAxisMap().getAxisID()[0]);
+			if (nx == null || ny.getRank() != 1 || nx.getRank() != 1 || ny.getSize() <= 4 * decimateBuckets) {
+				continue;
+			}
+			String key = getKey(ny.getName(), nx.getName());
+			keys.add(key);
+			LineDecimator decimator = decimators.computeIfAbsent(key, k -> new LineDecimator(decimateBuckets));
+			int before = decimator.getSize();
+			boolean appended = decimator.update(nx, ny);
+			lines.put(key, new DecimatedLine(decimator.getLine(nx.getName(), ny.getName()),
+					appended && decimator.getSize() == before));
+		}
+		decimators.keySet().retainAll(keys);
+		return lines;
+	}
+
 	private static boolean isEmpty(String s) {
 		return s.trim().isEmpty();
 	}
@@ -9,10 +9,16 @@
 
 package uk.ac.diamond.scisoft.analysis.plotclient.dataset;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.HashSet;
+import java.rmi.RemoteException;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.dawnsci.analysis.api.RMIClientProvider;
 import org.eclipse.dawnsci.analysis.api.RMIServerProvider;
@@ -22,7 +28,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.diamond.scisoft.analysis.AnalysisRpcServerProvider;
-import uk.ac.diamond.scisoft.analysis.plotclient.rpc.AnalysisRpcSyncExecDispatcher;
+import uk.ac.diamond.scisoft.analysis.rpc.AnalysisRpcGenericInstanceDispatcher;
 
 
 /**
@@ -66,9 +72,10 @@ public class DatasetMailman implements IDatasetMailman, Serializable {
 				logger.warn("Unable to register PlotWindowManager for use over RMI - it might be disabled", e);
 			}
 
-			// register as an RPC service for Python
+			// register as an RPC service for Python, listeners are told off
+			// the display thread so the call does not need to wait for it
 			try {
-				IAnalysisRpcHandler dispatcher = new AnalysisRpcSyncExecDispatcher(IDatasetMailman.class, manager);
+				IAnalysisRpcHandler dispatcher = new AnalysisRpcGenericInstanceDispatcher(IDatasetMailman.class, manager);
 				AnalysisRpcServerProvider.getInstance().addHandler(RPC_DATASET_SERVICE_NAME, dispatcher);
 			} catch (Exception e) {
 				logger.warn("Not registered IDatasetManager as RPC service - but might be disabled");
@@ -105,20 +112,55 @@ public class DatasetMailman implements IDatasetMailman, Serializable {
 
 
 	private DatasetMailman() {
-		
+		// Listeners are told on one thread in the order mail arrives, a sender
+		// which gets too far ahead waits for room rather than overtake the mail queued.
+		postman = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(4), r -> {
+			Thread thread = new Thread(r, "Dataset mailman");
+			thread.setDaemon(true);
+			return thread;
+		}, (r, executor) -> {
+			try {
+				executor.getQueue().put(r);
+			} catch (InterruptedException ne) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Interrupted waiting to deliver mail", ne);
+			}
+			executor.prestartCoreThread(); // In case the postman timed out meanwhile
+		});
+		postman.allowCoreThreadTimeOut(true);
 	}
 
-	private Set<IDataMailListener> listeners;
+	private final transient ThreadPoolExecutor postman;
+	private final Set<IDataMailListener> listeners = new CopyOnWriteArraySet<IDataMailListener>();
 
 	@Override
 	public void send(String datasetName, Map<String, IDataset> data) {
 		
-		if (listeners==null) return;
+		if (listeners.isEmpty()) return;
 		
 		final DataMailEvent evt = new DataMailEvent(this, datasetName, data);
-		for (Object listener : listeners) {
-			((IDataMailListener)listener).mailReceived(evt);
+		postman.execute(() -> {
+			for (IDataMailListener listener : listeners) {
+				try {
+					listener.mailReceived(evt);
+				} catch (RuntimeException ne) {
+					logger.error("Cannot deliver {} to {}", datasetName, listener, ne);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void sendMapped(String datasetName, Map<String, String> handles) throws RemoteException {
+		if (listeners.isEmpty()) return;
+		final Map<String, IDataset> data;
+		try {
+			// Read before returning so that the sender may reuse its files
+			data = MappedDatasets.read(handles);
+		} catch (IOException | RuntimeException ne) {
+			throw new RemoteException("Cannot read mapped datasets of "+datasetName, ne);
 		}
+		send(datasetName, data);
 	}
 
 	@Override
@@ -129,13 +171,11 @@ public class DatasetMailman implements IDatasetMailman, Serializable {
 
 	@Override
 	public void addMailListener(IDataMailListener l) {
-		if (listeners==null) listeners = new HashSet<IDataMailListener>();
 		listeners.add(l);
 	}
 
 	@Override
 	public void removeMailListener(IDataMailListener l) {
-		if (listeners==null) return;
 		listeners.remove(l);
 	}
 
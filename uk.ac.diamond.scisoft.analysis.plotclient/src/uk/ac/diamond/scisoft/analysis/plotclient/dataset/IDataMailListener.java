@@ -6,7 +6,8 @@ import java.util.EventListener;
 public interface IDataMailListener extends EventListener, Serializable {
 
 	/**
-	 * Called when python client sends us some data.
+	 * Called when python client sends us some data. This is called on a
+	 * thread of the mailman and not the display thread.
 	 * @param evt
 	 */
 	public void mailReceived(DataMailEvent evt);
@@ -33,6 +33,14 @@ public interface IDatasetMailman extends Remote {
 	 * @param data
 	 */
 	public void send(String datasetName, Map<String, IDataset> data) throws RemoteException;
+
+	/**
+	 * Send some data from python to java through memory mapped files, only
+	 * a handle to each array is passed in the call.
+	 * @param datasetName
+	 * @param handles by dataset name, see {@link MappedDatasets} for their form
+	 */
+	public void sendMapped(String datasetName, Map<String, String> handles) throws RemoteException;
 	
 	/**
 	 * Get some data or null if the data does not exist.
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.plotclient.dataset;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.IDataset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads and writes arrays held in memory mapped files, so that large datasets can be
+ * passed between processes on the same machine with only a short handle going over
+ * RPC or RMI. A file in a memory backed directory such as /dev/shm is never written
+ * to disk.
+ * <p>
+ * A handle is a list of key=value pairs separated by semicolons, for instance
+ * <pre>
+ * file=/dev/shm/frame0.bin;offset=0;dtype=float64;shape=2048,2048;order=little
+ * </pre>
+ * The dtype is one of int8, int16, int32, int64, float32 or float64 and the order,
+ * which is little endian if left out, one of little or big. The values are in row
+ * major (C) order, as written by numpy. The writer owns the file and may reuse it
+ * once the send has returned.
+ * <p>
+ * Files are unmapped as soon as they have been read or written rather than when the
+ * buffer is garbage collected, as a mapped file cannot be deleted or truncated on Windows.
+ */
+public final class MappedDatasets {
+
+	private static final Logger logger = LoggerFactory.getLogger(MappedDatasets.class);
+
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			final Class<?> type = Class.forName("sun.misc.Unsafe");
+			final Field field = type.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException ne) {
+			logger.debug("Cannot unmap files, they will stay mapped until garbage collected", ne);
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private MappedDatasets() {
+	}
+
+	/**
+	 * Reads the array a handle refers to.
+	 * @param name given to the dataset
+	 * @param handle
+	 * @return dataset
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the handle is not understood
+	 */
+	public static Dataset read(String name, String handle) throws IOException {
+		final Map<String, String> values = parse(handle);
+		final String file = values.get("file");
+		final String dtype = values.get("dtype");
+		final String shapeValue = values.get("shape");
+		if (file == null || dtype == null || shapeValue == null) {
+			throw new IllegalArgumentException("Handle needs a file, dtype and shape: " + handle);
+		}
+		final long offset = values.containsKey("offset") ? Long.parseLong(values.get("offset")) : 0;
+		final ByteOrder order = getOrder(values.get("order"));
+		final int[] shape = getShape(shapeValue);
+
+		long size = 1;
+		for (int s : shape) size *= s;
+		final int itemSize = getItemSize(dtype);
+		if (size * itemSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Array is too large to hold in one dataset: " + handle);
+		}
+
+		final Object array;
+		try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+			final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, size * itemSize);
+			try {
+				array = copy(mapped.order(order), dtype, (int) size);
+			} finally {
+				unmap(mapped);
+			}
+		}
+
+		final Dataset dataset = DatasetFactory.createFromObject(array);
+		dataset.setShape(shape); // also when zero dimensional
+		dataset.setName(name);
+		return dataset;
+	}
+
+	/**
+	 * @return a new array of the values in the buffer
+	 */
+	private static Object copy(ByteBuffer buffer, String dtype, int n) {
+		final Object array;
+		switch (dtype) {
+		case "int8":
+			final byte[] b = new byte[n];
+			buffer.get(b);
+			array = b;
+			break;
+		case "int16":
+			final short[] s = new short[n];
+			buffer.asShortBuffer().get(s);
+			array = s;
+			break;
+		case "int32":
+			final int[] i = new int[n];
+			buffer.asIntBuffer().get(i);
+			array = i;
+			break;
+		case "int64":
+			final long[] l = new long[n];
+			buffer.asLongBuffer().get(l);
+			array = l;
+			break;
+		case "float32":
+			final float[] f = new float[n];
+			buffer.asFloatBuffer().get(f);
+			array = f;
+			break;
+		default:
+			final double[] d = new double[n];
+			buffer.asDoubleBuffer().get(d);
+			array = d;
+			break;
+		}
+		return array;
+	}
+
+	/**
+	 * Unmaps a buffer now, the buffer and any view of it must not be used afterwards.
+	 * Does nothing if the JVM does not allow it, the file is then unmapped when the
+	 * buffer is garbage collected.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		if (INVOKE_CLEANER == null) return;
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, buffer);
+		} catch (ReflectiveOperationException | RuntimeException ne) {
+			logger.debug("Cannot unmap buffer", ne);
+		}
+	}
+
+	/**
+	 * Reads the arrays of a map of handles.
+	 * @param handles by dataset name
+	 * @return datasets by name, in the same order
+	 * @throws IOException
+	 */
+	public static Map<String, IDataset> read(Map<String, String> handles) throws IOException {
+		final Map<String, IDataset> data = new LinkedHashMap<String, IDataset>(Math.max(4, handles.size() * 2));
+		for (Map.Entry<String, String> entry : handles.entrySet()) {
+			data.put(entry.getKey(), read(entry.getKey(), entry.getValue()));
+		}
+		return data;
+	}
+
+	/**
+	 * Writes a dataset to a file, replacing what was in it, in the form read by
+	 * {@link #read(String, String)}.
+	 * @param file
+	 * @param data
+	 * @return handle to the array
+	 * @throws IOException
+	 */
+	public static String write(Path file, IDataset data) throws IOException {
+		Dataset dataset = DatasetUtils.convertToDataset(data);
+		if (dataset.getElementsPerItem() != 1) {
+			throw new IllegalArgumentException("Only datasets of one number per item can be mapped");
+		}
+		Object array = dataset.getBuffer();
+		if (array == null || dataset.getStrides() != null || Array.getLength(array) != dataset.getSize()) {
+			dataset = dataset.clone(); // compact copy of a sliced or transposed view
+			array = dataset.getBuffer();
+		}
+
+		final String dtype = getType(array);
+		final long bytes = (long) dataset.getSize() * getItemSize(dtype);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			channel.truncate(bytes);
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+			try {
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				if (array instanceof byte[]) {
+					buffer.put((byte[]) array);
+				} else if (array instanceof short[]) {
+					buffer.asShortBuffer().put((short[]) array);
+				} else if (array instanceof int[]) {
+					buffer.asIntBuffer().put((int[]) array);
+				} else if (array instanceof long[]) {
+					buffer.asLongBuffer().put((long[]) array);
+				} else if (array instanceof float[]) {
+					buffer.asFloatBuffer().put((float[]) array);
+				} else {
+					buffer.asDoubleBuffer().put((double[]) array);
+				}
+			} finally {
+				unmap(buffer);
+			}
+		}
+
+		final StringBuilder shape = new StringBuilder();
+		for (int s : dataset.getShapeRef()) {
+			if (shape.length() > 0) shape.append(',');
+			shape.append(s);
+		}
+		return "file=" + file.toAbsolutePath() + ";offset=0;dtype=" + dtype + ";shape=" + shape + ";order=little";
+	}
+
+	private static Map<String, String> parse(String handle) {
+		final Map<String, String> values = new LinkedHashMap<String, String>(8);
+		for (String pair : handle.split(";")) {
+			final int eq = pair.indexOf('=');
+			if (eq < 1) continue;
+			values.put(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
+		}
+		return values;
+	}
+
+	private static ByteOrder getOrder(String order) {
+		if (order == null || order.equals("little") || order.equals("<")) return ByteOrder.LITTLE_ENDIAN;
+		if (order.equals("big") || order.equals(">")) return ByteOrder.BIG_ENDIAN;
+		throw new IllegalArgumentException("Unknown byte order " + order);
+	}
+
+	private static int[] getShape(String value) {
+		if (value.isEmpty()) return new int[0];
+		final String[] parts = value.split(",");
+		final int[] shape = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			shape[i] = Integer.parseInt(parts[i].trim());
+			if (shape[i] < 0) throw new IllegalArgumentException("Negative dimension in shape " + value);
+		}
+		return shape;
+	}
+
+	private static int getItemSize(String dtype) {
+		switch (dtype) {
+		case "int8":
+			return 1;
+		case "int16":
+			return 2;
+		case "int32":
+		case "float32":
+			return 4;
+		case "int64":
+		case "float64":
+			return 8;
+		default:
+			throw new IllegalArgumentException("Unknown dtype " + dtype + ", expected one of "
+					+ Arrays.asList("int8", "int16", "int32", "int64", "float32", "float64"));
+		}
+	}
+
+	private static String getType(Object array) {
+		if (array instanceof byte[]) return "int8";
+		if (array instanceof short[]) return "int16";
+		if (array instanceof int[]) return "int32";
+		if (array instanceof long[]) return "int64";
+		if (array instanceof float[]) return "float32";
+		if (array instanceof double[]) return "float64";
+		throw new IllegalArgumentException("Cannot map an array of " + array.getClass().getSimpleName());
+	}
+}
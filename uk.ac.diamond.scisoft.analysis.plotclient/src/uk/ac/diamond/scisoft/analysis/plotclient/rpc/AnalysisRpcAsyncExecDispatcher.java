@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.plotclient.rpc;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.swt.widgets.Display;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.diamond.scisoft.analysis.rpc.AnalysisRpcGenericInstanceDispatcher;
+
+/**
+ * Invokes methods on an instance class without holding the RPC server thread on
+ * the UI event loop.
+ * <p>
+ * Methods named as not touching widgets run on a shared pool of workers. The other
+ * methods are queued with {@link Display#asyncExec(Runnable)}. A call to a method named
+ * as having no side effects, equal to the last call queued while that is still waiting,
+ * shares its result rather than being queued again. A call made on the UI thread runs
+ * straight away, but calls from the RPC server always come on its own thread.
+ * <p>
+ * So a callback from Python made while the UI thread waits on a call into Python is
+ * queued behind the UI thread and cannot run. Rather than blocking the server thread
+ * for ever as a syncExec would, the callback fails at the timeout and is not run; such
+ * callbacks must be named as worker methods or not made while the UI thread waits.
+ * <p>
+ * The server thread waits for the result for up to the timeout, which is set in
+ * seconds by the system property {@value #TIMEOUT_PROPERTY}, 60 if not set. A call
+ * given up on before it starts is not run, one which has started runs to the end
+ * and its result is dropped.
+ */
+public class AnalysisRpcAsyncExecDispatcher extends AnalysisRpcGenericInstanceDispatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(AnalysisRpcAsyncExecDispatcher.class);
+
+	public static final String TIMEOUT_PROPERTY = "uk.ac.diamond.scisoft.analysis.plotclient.rpcTimeout";
+
+	private static ExecutorService workers;
+
+	private static synchronized ExecutorService getWorkers() {
+		if (workers == null) {
+			final AtomicInteger count = new AtomicInteger();
+			workers = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+				Thread thread = new Thread(r, "RPC worker " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return workers;
+	}
+
+	private final Set<String> workerMethods;
+	private final Set<String> coalescedMethods;
+	private Call    lastCall;   // last call queued for the UI thread which may be shared, while waiting
+	private Pending lastResult;
+	private long timeout = TimeUnit.SECONDS.toMillis(Long.getLong(TIMEOUT_PROPERTY, 60));  // ms
+
+	private final AtomicLong uiCalls     = new AtomicLong();
+	private final AtomicLong workerCalls = new AtomicLong();
+	private final AtomicLong coalesced   = new AtomicLong();
+	private final AtomicLong timeouts    = new AtomicLong();
+	private final AtomicLong cancelled   = new AtomicLong();
+	private final AtomicLong queueNanos  = new AtomicLong();
+	private final AtomicLong maxQueueNanos = new AtomicLong();
+
+	/**
+	 * All methods are run in the UI thread.
+	 * @see AnalysisRpcGenericInstanceDispatcher#AnalysisRpcGenericInstanceDispatcher(Class, Object)
+	 */
+	public AnalysisRpcAsyncExecDispatcher(Class<?> delegate, Object instance) {
+		this(delegate, instance, Collections.<String>emptySet());
+	}
+
+	/**
+	 * @param workerMethods names of the methods which do not touch widgets, these are run on a worker thread
+	 * @see AnalysisRpcGenericInstanceDispatcher#AnalysisRpcGenericInstanceDispatcher(Class, Object)
+	 */
+	public AnalysisRpcAsyncExecDispatcher(Class<?> delegate, Object instance, Collection<String> workerMethods) {
+		this(delegate, instance, workerMethods, Collections.<String>emptySet());
+	}
+
+	/**
+	 * @param workerMethods names of the methods which do not touch widgets, these are run on a worker thread
+	 * @param coalescedMethods names of the methods run in the UI thread which have no side effects, equal
+	 *        calls waiting together share one result
+	 * @see AnalysisRpcGenericInstanceDispatcher#AnalysisRpcGenericInstanceDispatcher(Class, Object)
+	 */
+	public AnalysisRpcAsyncExecDispatcher(Class<?> delegate, Object instance, Collection<String> workerMethods,
+			Collection<String> coalescedMethods) {
+		super(delegate, instance);
+		this.workerMethods = Collections.unmodifiableSet(new HashSet<String>(workerMethods));
+		this.coalescedMethods = Collections.unmodifiableSet(new HashSet<String>(coalescedMethods));
+	}
+
+	/**
+	 * @param timeout how long the caller waits for a result
+	 * @param unit
+	 */
+	public void setTimeout(long timeout, TimeUnit unit) {
+		this.timeout = unit.toMillis(timeout);
+	}
+
+	@Override
+	protected Object invoke(final Method method, final Object instance, final Object[] args) throws Exception {
+		final Pending pending;
+		if (workerMethods.contains(method.getName())) {
+			workerCalls.incrementAndGet();
+			pending = new Pending();
+			getWorkers().execute(() -> pending.run(method, instance, args));
+		} else if (isUIThread()) {
+			// only a caller in this process, the RPC server calls on its own thread
+			uiCalls.incrementAndGet();
+			return method.invoke(instance, args);
+		} else {
+			uiCalls.incrementAndGet();
+			pending = queue(method, instance, args, coalescedMethods.contains(method.getName()));
+		}
+
+		try {
+			return pending.future.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			timeouts.incrementAndGet();
+			if (pending.giveUp()) {
+				logger.warn("Gave up waiting for {} after {}ms, it will not be run, {}", method.getName(), timeout, this);
+			} else {
+				logger.warn("Gave up waiting for {} after {}ms, {}", method.getName(), timeout, this);
+			}
+			throw new TimeoutException("No result from " + method.getName() + " after " + timeout + "ms");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof CallException) {
+				throw ((CallException) cause).getCause();
+			}
+			throw e;
+		}
+	}
+
+	private Pending queue(final Method method, final Object instance, final Object[] args, boolean coalesce) {
+		final Pending created = new Pending();
+		synchronized (this) {
+			// Only the last call queued is shared, so no call sees the
+			// state from before a different call queued ahead of it
+			final Call key = coalesce ? new Call(method, args) : null;
+			if (key != null && key.equals(lastCall)) {
+				coalesced.incrementAndGet();
+				lastResult.waiters++;
+				return lastResult;
+			}
+			lastCall = key;
+			lastResult = key != null ? created : null;
+		}
+
+		final long start = System.nanoTime();
+		asyncExec(() -> {
+			final long queueTime = System.nanoTime() - start;
+			queueNanos.addAndGet(queueTime);
+			maxQueueNanos.accumulateAndGet(queueTime, Math::max);
+			created.run(method, instance, args);
+		});
+		return created;
+	}
+
+	private static Object call(Method method, Object instance, Object[] args) {
+		try {
+			return method.invoke(instance, args);
+		} catch (Exception e) {
+			throw new CallException(e);
+		}
+	}
+
+	protected boolean isUIThread() {
+		return Display.getCurrent() != null;
+	}
+
+	protected void asyncExec(Runnable r) {
+		Display.getDefault().asyncExec(r);
+	}
+
+	/**
+	 * @return number of calls run in or queued for the UI thread, including coalesced calls
+	 */
+	public long getUICalls() {
+		return uiCalls.get();
+	}
+
+	/**
+	 * @return number of calls run on a worker
+	 */
+	public long getWorkerCalls() {
+		return workerCalls.get();
+	}
+
+	/**
+	 * @return number of calls which shared the result of an equal call waiting in the UI queue
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	/**
+	 * @return number of calls given up waiting for
+	 */
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	/**
+	 * @return number of calls given up waiting for which were then not run
+	 */
+	public long getCancelled() {
+		return cancelled.get();
+	}
+
+	/**
+	 * @return total time calls spent waiting in the UI queue, in nanoseconds
+	 */
+	public long getQueueNanos() {
+		return queueNanos.get();
+	}
+
+	/**
+	 * @return longest time a call spent waiting in the UI queue, in nanoseconds
+	 */
+	public long getMaxQueueNanos() {
+		return maxQueueNanos.get();
+	}
+
+	@Override
+	public String toString() {
+		return "UI calls " + uiCalls + " (" + coalesced + " coalesced), worker calls " + workerCalls + ", timeouts "
+				+ timeouts + " (" + cancelled + " not run), UI queue " + TimeUnit.NANOSECONDS.toMillis(queueNanos.get()) + "ms total "
+				+ TimeUnit.NANOSECONDS.toMillis(maxQueueNanos.get()) + "ms longest";
+	}
+
+	/**
+	 * The result of a call to run, shared by the callers waiting for it. Guarded by the dispatcher.
+	 */
+	private final class Pending {
+		final CompletableFuture<Object> future = new CompletableFuture<>();
+		int     waiters = 1;
+		boolean started;
+
+		void run(Method method, Object instance, Object[] args) {
+			synchronized (AnalysisRpcAsyncExecDispatcher.this) {
+				if (future.isCancelled()) return; // Given up on
+				started = true;
+				// Calls from now on may change what this call sees
+				if (lastResult == this) {
+					lastCall = null;
+					lastResult = null;
+				}
+			}
+			try {
+				future.complete(call(method, instance, args));
+			} catch (CallException e) {
+				future.completeExceptionally(e);
+			}
+		}
+
+		/**
+		 * Called by a caller which has stopped waiting
+		 * @return true if no one is waiting any more and the call will not be run
+		 */
+		boolean giveUp() {
+			synchronized (AnalysisRpcAsyncExecDispatcher.this) {
+				if (--waiters > 0 || started) return false;
+				future.cancel(false);
+				if (lastResult == this) {
+					lastCall = null;
+					lastResult = null;
+				}
+			}
+			cancelled.incrementAndGet();
+			return true;
+		}
+	}
+
+	/**
+	 * Carries the exception of a call through the future.
+	 */
+	private static final class CallException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		CallException(Exception cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized Exception getCause() {
+			return (Exception) super.getCause();
+		}
+	}
+
+	/**
+	 * A method and its arguments, equal to a call of the same method with equal arguments.
+	 */
+	private static final class Call {
+		private final Method   method;
+		private final Object[] args;
+		private final int      hash;
+
+		Call(Method method, Object[] args) {
+			this.method = method;
+			this.args = args == null ? new Object[0] : args;
+			this.hash = 31 * method.hashCode() + Arrays.deepHashCode(this.args);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof Call)) return false;
+			final Call other = (Call) obj;
+			return hash == other.hash && method.equals(other.method) && Arrays.deepEquals(args, other.args);
+		}
+	}
+}
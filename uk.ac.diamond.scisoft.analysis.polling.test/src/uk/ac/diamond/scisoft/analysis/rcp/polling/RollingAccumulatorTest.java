@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.rcp.polling;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.junit.Test;
+
+public class RollingAccumulatorTest {
+
+	@Test
+	public void testWindowSummed() {
+		final RollingAccumulator accumulator = new RollingAccumulator();
+		assertNull(accumulator.getSum());
+
+		for (int k = 1; k <= 5; k++) {
+			accumulator.add(image(k), 3);
+			// the last three of 1, 2, 3, 4, 5
+			final double expected = k * (k + 1) / 2 - Math.max(0, k - 3) * (k - 2) / 2;
+			assertArrayEquals(new double[] { expected, 2 * expected, 3 * expected, 4 * expected },
+					accumulator.getSum().getData(), 0);
+			assertEquals(Math.min(k, 3), accumulator.size());
+		}
+		assertArrayEquals(new int[] { 2, 2 }, accumulator.getSum().getShape());
+	}
+
+	@Test
+	public void testEachTypeSummed() {
+		final RollingAccumulator accumulator = new RollingAccumulator();
+		accumulator.add(DatasetFactory.createFromObject(new byte[] { -1, 2 }, 2), 10);
+		accumulator.add(DatasetFactory.createFromObject(new short[] { 300, -4 }, 2), 10);
+		accumulator.add(DatasetFactory.createFromObject(new int[] { 70000, 6 }, 2), 10);
+		accumulator.add(DatasetFactory.createFromObject(new long[] { 1L << 40, -8 }, 2), 10);
+		accumulator.add(DatasetFactory.createFromObject(new float[] { 0.5f, 10 }, 2), 10);
+		accumulator.add(DatasetFactory.createFromObject(new double[] { 0.25, -12 }, 2), 10);
+		assertArrayEquals(new double[] { -1 + 300 + 70000 + (1L << 40) + 0.5 + 0.25, 2 - 4 + 6 - 8 + 10 - 12 },
+				accumulator.getSum().getData(), 0);
+
+		// each type taken off again
+		accumulator.trim(1);
+		assertArrayEquals(new double[] { 0.25, -12 }, accumulator.getSum().getData(), 0);
+	}
+
+	@Test
+	public void testViewSummedInItsOrder() {
+		final RollingAccumulator accumulator = new RollingAccumulator();
+		final Dataset data = DatasetFactory.createFromObject(new int[] { 0, 1, 2, 3, 4, 5 }, 2, 3);
+		accumulator.add(data.getTransposedView(), 2);
+		accumulator.add(DatasetFactory.createFromObject(new int[] { 10, 10, 10, 10, 10, 10 }, 3, 2), 2);
+		assertArrayEquals(new double[] { 10, 13, 11, 14, 12, 15 }, accumulator.getSum().getData(), 0);
+	}
+
+	@Test
+	public void testShapeChangeStartsAgain() {
+		final RollingAccumulator accumulator = new RollingAccumulator();
+		accumulator.add(image(1), 5);
+		accumulator.add(image(2), 5);
+		accumulator.add(DatasetFactory.createFromObject(new int[] { 7, 8, 9 }, 3), 5);
+		assertEquals(1, accumulator.size());
+		assertArrayEquals(new double[] { 7, 8, 9 }, accumulator.getSum().getData(), 0);
+	}
+
+	@Test
+	public void testTrim() {
+		final RollingAccumulator accumulator = new RollingAccumulator();
+		for (int k = 1; k <= 4; k++) {
+			accumulator.add(image(k), 4);
+		}
+		accumulator.trim(2);
+		assertEquals(2, accumulator.size());
+		assertArrayEquals(new double[] { 7, 14, 21, 28 }, accumulator.getSum().getData(), 0);
+
+		accumulator.trim(0); // at least one image is kept
+		assertEquals(1, accumulator.size());
+		assertArrayEquals(new double[] { 4, 8, 12, 16 }, accumulator.getSum().getData(), 0);
+	}
+
+	@Test
+	public void testRoundingDoesNotBuildUp() {
+		final RollingAccumulator accumulator = new RollingAccumulator();
+		for (int k = 0; k < 2500; k++) {
+			accumulator.add(DatasetFactory.createFromObject(new double[] { 0.1 * k, 1e10 + k }, 2), 2);
+		}
+		final double[] sum = accumulator.getSum().getData();
+		assertEquals(0.1 * 2498 + 0.1 * 2499, sum[0], 1e-9);
+		assertEquals(2e10 + 2498 + 2499, sum[1], 1e-3);
+	}
+
+	@Test
+	public void testSumCopied() {
+		final RollingAccumulator accumulator = new RollingAccumulator();
+		accumulator.add(image(1), 2);
+		final DoubleDataset sum = accumulator.getSum();
+		sum.getData()[0] = 100;
+		assertEquals(1, accumulator.getSum().getData()[0], 0);
+
+		accumulator.clear();
+		assertEquals(0, accumulator.size());
+		assertNull(accumulator.getSum());
+	}
+
+	/**
+	 * @return 2x2 image of k, 2k, 3k and 4k
+	 */
+	private static Dataset image(int k) {
+		return DatasetFactory.createFromObject(new int[] { k, 2 * k, 3 * k, 4 * k }, 2, 2);
+	}
+}
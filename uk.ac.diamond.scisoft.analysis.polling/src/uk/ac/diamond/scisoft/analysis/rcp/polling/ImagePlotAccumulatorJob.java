@@ -10,11 +10,10 @@
 package uk.ac.diamond.scisoft.analysis.rcp.polling;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
 import org.eclipse.january.dataset.Dataset;
-import org.eclipse.january.dataset.DatasetFactory;
-import org.eclipse.january.dataset.IDataset;
 
 import uk.ac.diamond.scisoft.analysis.SDAPlotter;
 import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
@@ -25,31 +24,63 @@ public class ImagePlotAccumulatorJob extends FilenameReaderUpdateOnlyJob {
 	private static final Object PLOT_VIEW_NAME = "PlotViewName";
 	private static final Object MAX_IMAGES_TO_ACCUMULATE = "MaxImagesToAccumulate";
 	
+	private final RollingAccumulator accumulator = new RollingAccumulator();
+
+	/**
+	 * MaxImagesToAccumulate the accumulator was filled for, or 0 if it is to be
+	 * filled again from all the filenames
+	 */
+	private int window;
+
+	@Override
+	protected void processNewFiles(List<String> newFilenames, boolean reset) {
+		super.processNewFiles(newFilenames, reset);
+		if (reset) {
+			window = 0;
+		}
+		// a larger window needs older images, which are loaded with the whole list
+		if (window > 0 && getMaxImages() <= window) {
+			load(newFilenames, getMaxImages());
+		}
+	}
+
 	@Override
 	protected void processFile(ArrayList<String> filenames) {
 		try {	
-			// get the end of the list
-			int listEnd = filenames.size()-1;
-
-			ArrayList<IDataset> images = new ArrayList<IDataset>();
-			
-			int position = 0;
-			while (listEnd-position >= 0 && position < Integer.parseInt(getJobParameters().get(MAX_IMAGES_TO_ACCUMULATE))) {
-				IDataHolder data = LoaderFactory.getData(filenames.get(listEnd-position));
-				images.add(data.getDataset(0));
-				position++;
-			}			
-				
-			Dataset accumulator =  DatasetFactory.zeros(images.get(0).getShape());
-			for(int i = 0; i < images.size(); i++) {
-				accumulator.iadd(images.get(i));
+			final int max = getMaxImages();
+			if (max > window) {
+				accumulator.clear();
+				load(filenames, max);
+			} else {
+				accumulator.trim(max);
+			}
+			window = max;
+			Dataset sum = accumulator.getSum();
+			if (sum != null) {
+				SDAPlotter.imagePlot(getJobParameters().get(PLOT_VIEW_NAME), sum);
 			}
-			
-			SDAPlotter.imagePlot(getJobParameters().get(PLOT_VIEW_NAME), accumulator);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 		
 	}
 
+	/**
+	 * Adds the newest images which can be in the window
+	 */
+	private void load(List<String> filenames, int max) {
+		for (int i = Math.max(0, filenames.size() - max); i < filenames.size(); i++) {
+			try {
+				IDataHolder data = LoaderFactory.getData(filenames.get(i));
+				accumulator.add(data.getDataset(0), max);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private int getMaxImages() {
+		return Math.max(1, Integer.parseInt(getJobParameters().get(MAX_IMAGES_TO_ACCUMULATE)));
+	}
+
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.rcp.polling;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.stream.IntStream;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.IDataset;
+
+/**
+ * The sum of the last few images added. Adding an image adds it to the sum and
+ * takes off the image which falls out of the window, so the cost of an image does
+ * not grow with the size of the window. The sum is made again from the images kept
+ * every so often so that rounding errors do not build up.
+ * <p>
+ * The images are held in the type they were loaded as, so the memory taken is the
+ * window times the size of one image as loaded, plus the sum in float64. Images are
+ * not copied unless they are views or of a type which is not summed directly, so
+ * they must not be changed once added.
+ * <p>
+ * Large images are summed in tiles in parallel, unless the system property
+ * {@value #PARALLEL_PROPERTY} is false.
+ * <p>
+ * Not thread safe.
+ */
+class RollingAccumulator {
+
+	static final String PARALLEL_PROPERTY = "uk.ac.diamond.scisoft.analysis.polling.parallelAccumulate";
+
+	private static final boolean PARALLEL = Boolean.parseBoolean(System.getProperty(PARALLEL_PROPERTY, "true"));
+
+	/**
+	 * Images with fewer pixels are summed on the calling thread.
+	 */
+	private static final int PARALLEL_THRESHOLD = 1 << 18;
+
+	private static final int TILE_SIZE = 1 << 16;
+
+	/**
+	 * Images taken off before the sum is made again.
+	 */
+	private static final int RESUM_INTERVAL = 1000;
+
+	/**
+	 * Primitive arrays of the images held
+	 */
+	private final Deque<Object> frames = new ArrayDeque<Object>();
+	private int[]         shape;
+	private DoubleDataset sum;
+	private int           evictions;
+
+	/**
+	 * Adds an image, taking off the oldest images if there are then more than the window holds.
+	 * An image of a different shape to those held starts a new sum.
+	 * @param image
+	 * @param window number of images summed
+	 */
+	void add(IDataset image, int window) {
+		final int[] frameShape = image.getShape();
+		if (shape == null || !Arrays.equals(shape, frameShape)) {
+			clear();
+			shape = frameShape;
+			sum = DatasetFactory.zeros(DoubleDataset.class, shape);
+		}
+		final Object data = getData(image);
+		frames.addLast(data);
+		apply(sum.getData(), data, 1);
+		trim(window);
+	}
+
+	/**
+	 * Takes off the oldest images until no more than the window are held.
+	 * @param window
+	 */
+	void trim(int window) {
+		window = Math.max(1, window);
+		if (frames.size() <= window) return;
+		while (frames.size() > window) {
+			final Object oldest = frames.removeFirst();
+			if (++evictions < RESUM_INTERVAL) {
+				apply(sum.getData(), oldest, -1);
+			}
+		}
+		if (evictions >= RESUM_INTERVAL) {
+			evictions = 0;
+			final double[] total = sum.getData();
+			Arrays.fill(total, 0);
+			for (Object frame : frames) {
+				apply(total, frame, 1);
+			}
+		}
+	}
+
+	/**
+	 * @return the elements of the image in a primitive array of its own type, or in
+	 *         float64 if of a type which is not summed directly
+	 */
+	private static Object getData(IDataset image) {
+		Dataset dataset = DatasetUtils.convertToDataset(image);
+		if (dataset.getElementsPerItem() == 1) {
+			if (dataset.getStrides() != null) {
+				dataset = dataset.clone(); // a view shares the buffer of a larger dataset
+			}
+			final Object buffer = dataset.getBuffer();
+			if (buffer instanceof double[] || buffer instanceof float[] || buffer instanceof long[]
+					|| buffer instanceof int[] || buffer instanceof short[] || buffer instanceof byte[]) {
+				return buffer;
+			}
+		}
+		return DatasetUtils.copy(DoubleDataset.class, dataset).getData();
+	}
+
+	/**
+	 * Adds or takes an image off the sum
+	 */
+	private static void apply(final double[] total, final Object frame, final int sign) {
+		if (!PARALLEL || total.length < PARALLEL_THRESHOLD) {
+			apply(total, frame, sign, 0, total.length);
+			return;
+		}
+		final int tiles = (total.length + TILE_SIZE - 1) / TILE_SIZE;
+		IntStream.range(0, tiles).parallel().forEach(t -> {
+			final int from = t * TILE_SIZE;
+			apply(total, frame, sign, from, Math.min(total.length, from + TILE_SIZE));
+		});
+	}
+
+	/**
+	 * Adds the elements times the sign, which is exact as the sign is 1 or -1
+	 */
+	private static void apply(double[] total, Object frame, double sign, int from, int to) {
+		if (frame instanceof double[]) {
+			final double[] f = (double[]) frame;
+			for (int i = from; i < to; i++) total[i] += sign * f[i];
+		} else if (frame instanceof float[]) {
+			final float[] f = (float[]) frame;
+			for (int i = from; i < to; i++) total[i] += sign * f[i];
+		} else if (frame instanceof long[]) {
+			final long[] f = (long[]) frame;
+			for (int i = from; i < to; i++) total[i] += sign * f[i];
+		} else if (frame instanceof int[]) {
+			final int[] f = (int[]) frame;
+			for (int i = from; i < to; i++) total[i] += sign * f[i];
+		} else if (frame instanceof short[]) {
+			final short[] f = (short[]) frame;
+			for (int i = from; i < to; i++) total[i] += sign * f[i];
+		} else {
+			final byte[] f = (byte[]) frame;
+			for (int i = from; i < to; i++) total[i] += sign * f[i];
+		}
+	}
+
+	/**
+	 * @return number of images summed
+	 */
+	int size() {
+		return frames.size();
+	}
+
+	/**
+	 * @return a copy of the sum, or null if no images have been added
+	 */
+	DoubleDataset getSum() {
+		return sum == null || frames.isEmpty() ? null : sum.clone();
+	}
+
+	void clear() {
+		frames.clear();
+		shape = null;
+		sum = null;
+		evictions = 0;
+	}
+}
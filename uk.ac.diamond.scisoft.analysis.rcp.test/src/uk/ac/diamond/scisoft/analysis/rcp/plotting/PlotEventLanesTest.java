@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.rcp.plotting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.plotclient.PlotEvent;
+import uk.ac.diamond.scisoft.analysis.plotclient.PlotEventLanes;
+import uk.ac.diamond.scisoft.analysis.plotclient.PlotEventLanes.Lane;
+import uk.ac.diamond.scisoft.analysis.plotserver.DataBean;
+import uk.ac.diamond.scisoft.analysis.plotserver.GuiBean;
+import uk.ac.diamond.scisoft.analysis.plotserver.GuiParameters;
+
+public class PlotEventLanesTest {
+
+	private PlotEventLanes lanes;
+
+	@Before
+	public void setup() {
+		lanes = new PlotEventLanes();
+	}
+
+	@Test
+	public void testReplacingDataCoalesced() throws Exception {
+		lanes.offer(createDataEvent(GuiParameters.PLOTOP_NONE));
+		final PlotEvent newest = createDataEvent(GuiParameters.PLOTOP_UPDATE);
+		lanes.offer(newest);
+
+		assertEquals(1, lanes.getDepth(Lane.DATA));
+		assertEquals(1, lanes.getCoalesced(Lane.DATA));
+		assertSame(newest, lanes.take());
+		assertTrue(lanes.isEmpty());
+	}
+
+	@Test
+	public void testConsecutiveAddsKept() throws Exception {
+		final PlotEvent first  = createDataEvent(GuiParameters.PLOTOP_ADD);
+		final PlotEvent second = createDataEvent(GuiParameters.PLOTOP_ADD);
+		lanes.offer(first);
+		lanes.offer(second);
+
+		assertEquals(2, lanes.getDepth(Lane.DATA));
+		assertEquals(0, lanes.getCoalesced(Lane.DATA));
+		assertSame(first, lanes.take());
+		assertSame(second, lanes.take());
+		assertTrue(lanes.isEmpty());
+	}
+
+	@Test
+	public void testReplacingDataAfterAdd() throws Exception {
+		final PlotEvent add = createDataEvent(GuiParameters.PLOTOP_ADD);
+		lanes.offer(add);
+		lanes.offer(createDataEvent(GuiParameters.PLOTOP_NONE));
+		final PlotEvent newest = createDataEvent(GuiParameters.PLOTOP_NONE);
+		lanes.offer(newest);
+
+		// The add is kept and taken first, only the replacing events after it are coalesced
+		assertEquals(2, lanes.getDepth(Lane.DATA));
+		assertSame(add, lanes.take());
+		assertSame(newest, lanes.take());
+	}
+
+	@Test
+	public void testDataNotCoalescedAcrossRoi() throws Exception {
+		final PlotEvent data = createDataEvent(GuiParameters.PLOTOP_NONE);
+		final PlotEvent roi = createRoiEvent();
+		final PlotEvent newest = createDataEvent(GuiParameters.PLOTOP_NONE);
+		lanes.offer(data);
+		assertEquals(Lane.ROI, lanes.offer(roi));
+		lanes.offer(newest);
+
+		// The region was queued after the first data so must be taken after it
+		assertEquals(0, lanes.getCoalesced(Lane.DATA));
+		assertSame(data, lanes.take());
+		assertSame(roi, lanes.take());
+		assertSame(newest, lanes.take());
+	}
+
+	@Test
+	public void testRoiOrderKept() throws Exception {
+		final PlotEvent gui = createGuiEvent(GuiParameters.PLOTID, "a");
+		final PlotEvent first = createRoiEvent();
+		final PlotEvent data = createDataEvent(GuiParameters.PLOTOP_UPDATE);
+		final PlotEvent second = createRoiEvent();
+		lanes.offer(gui);
+		lanes.offer(first);
+		lanes.offer(data);
+		lanes.offer(second);
+
+		assertEquals(2, lanes.getDepth(Lane.ROI));
+		assertSame(gui, lanes.take());
+		assertSame(first, lanes.take());
+		assertSame(data, lanes.take());
+		assertSame(second, lanes.take());
+		assertEquals(0, lanes.getCoalesced(Lane.ROI));
+	}
+
+	@Test
+	public void testGuiMerged() throws Exception {
+		lanes.offer(createGuiEvent(GuiParameters.PLOTID, "a"));
+		final PlotEvent newest = createGuiEvent(GuiParameters.TITLE, "b");
+		lanes.offer(newest);
+
+		assertEquals(1, lanes.getDepth(Lane.GUI));
+		assertEquals(1, lanes.getCoalesced(Lane.GUI));
+		final PlotEvent taken = lanes.take();
+		assertSame(newest, taken);
+		assertEquals("a", taken.getStashedGuiBean().get(GuiParameters.PLOTID));
+		assertEquals("b", taken.getStashedGuiBean().get(GuiParameters.TITLE));
+	}
+
+	@Test
+	public void testGuiNotMergedAcrossRoi() throws Exception {
+		final PlotEvent gui = createGuiEvent(GuiParameters.PLOTID, "a");
+		final PlotEvent roi = createRoiEvent();
+		final PlotEvent newest = createGuiEvent(GuiParameters.TITLE, "b");
+		lanes.offer(gui);
+		lanes.offer(roi);
+		lanes.offer(newest);
+
+		assertEquals(2, lanes.getDepth(Lane.GUI));
+		assertEquals(0, lanes.getCoalesced(Lane.GUI));
+		assertSame(gui, lanes.take());
+		assertSame(roi, lanes.take());
+		assertSame(newest, lanes.take());
+		assertFalse(newest.getStashedGuiBean().containsKey(GuiParameters.PLOTID));
+	}
+
+	@Test
+	public void testFullDataLaneDropsOldestReplaceable() throws Exception {
+		lanes = new PlotEventLanes(3);
+		final PlotEvent add = createDataEvent(GuiParameters.PLOTOP_ADD);
+		final PlotEvent oldest = createDataEvent(GuiParameters.PLOTOP_NONE);
+		lanes.offer(add);
+		lanes.offer(oldest);
+		lanes.offer(createRoiEvent()); // stops the next one coalescing
+		final PlotEvent middle = createDataEvent(GuiParameters.PLOTOP_NONE);
+		lanes.offer(middle);
+		lanes.offer(createRoiEvent());
+		final PlotEvent newest = createDataEvent(GuiParameters.PLOTOP_NONE);
+		lanes.offer(newest);
+
+		assertEquals(3, lanes.getDepth(Lane.DATA));
+		assertEquals(2, lanes.getDepth(Lane.ROI));
+		assertEquals(4, lanes.getOffered(Lane.DATA));
+		assertEquals(1, lanes.getDropped(Lane.DATA));
+		assertEquals(0, lanes.getDropped(Lane.ROI));
+		assertSame(add, lanes.take());
+		lanes.take(); // first region
+		assertSame(middle, lanes.take());
+	}
+
+	@Test
+	public void testFullGuiLaneDropsOldest() throws Exception {
+		lanes = new PlotEventLanes(2);
+		final PlotEvent[] events = new PlotEvent[3];
+		for (int i = 0; i < events.length; i++) {
+			events[i] = new PlotEvent(); // no stashed bean so never merged
+			events[i].setGuiBean(new GuiBean());
+			lanes.offer(events[i]);
+		}
+
+		assertEquals(2, lanes.getDepth(Lane.GUI));
+		assertEquals(1, lanes.getDropped(Lane.GUI));
+		assertSame(events[1], lanes.take());
+		assertSame(events[2], lanes.take());
+	}
+
+	@Test
+	public void testFullAddLaneBlocks() throws Exception {
+		lanes = new PlotEventLanes(2);
+		lanes.offer(createDataEvent(GuiParameters.PLOTOP_ADD));
+		lanes.offer(createDataEvent(GuiParameters.PLOTOP_ADD));
+		final CountDownLatch added = new CountDownLatch(1);
+		final Thread producer = new Thread(() -> {
+			lanes.offer(createDataEvent(GuiParameters.PLOTOP_ADD));
+			added.countDown();
+		});
+		producer.start();
+
+		assertFalse(added.await(200, TimeUnit.MILLISECONDS));
+		lanes.take();
+		assertTrue(added.await(5, TimeUnit.SECONDS));
+		assertEquals(2, lanes.getDepth(Lane.DATA));
+		assertEquals(0, lanes.getDropped(Lane.DATA));
+	}
+
+	@Test
+	public void testCloseReleasesBlockedProducer() throws Exception {
+		lanes = new PlotEventLanes(1);
+		lanes.offer(createRoiEvent());
+		final CountDownLatch done = new CountDownLatch(1);
+		final Thread producer = new Thread(() -> {
+			lanes.offer(createRoiEvent());
+			done.countDown();
+		});
+		producer.start();
+
+		assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+		lanes.close();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(1, lanes.getDepth(Lane.ROI));
+		assertEquals(1, lanes.getDropped(Lane.ROI));
+	}
+
+	@Test
+	public void testClearCountsDropped() throws Exception {
+		lanes.offer(createDataEvent(GuiParameters.PLOTOP_NONE));
+		lanes.offer(createRoiEvent());
+		lanes.offer(createGuiEvent(GuiParameters.TITLE, "a"));
+		assertEquals(3, lanes.size());
+
+		lanes.clear();
+		assertTrue(lanes.isEmpty());
+		for (Lane lane : Lane.values()) {
+			assertEquals(0, lanes.getDepth(lane));
+			assertEquals(1, lanes.getOffered(lane));
+			assertEquals(1, lanes.getDropped(lane));
+		}
+	}
+
+	private static PlotEvent createGuiEvent(GuiParameters key, String value) {
+		final GuiBean bean = new GuiBean();
+		bean.put(key, value);
+		final PlotEvent evt = new PlotEvent();
+		evt.setStashedGuiBean(bean);
+		evt.setGuiBean(new GuiBean());
+		return evt;
+	}
+
+	private static PlotEvent createRoiEvent() {
+		final GuiBean bean = new GuiBean();
+		bean.put(GuiParameters.ROICLEARALL, Boolean.TRUE);
+		final PlotEvent evt = new PlotEvent();
+		evt.setStashedGuiBean(bean);
+		return evt;
+	}
+
+	private static PlotEvent createDataEvent(String plotOperation) {
+		final GuiBean gui = new GuiBean();
+		gui.put(GuiParameters.PLOTOPERATION, plotOperation);
+		final DataBean data = new DataBean();
+		data.setGuiParameters(gui);
+		final PlotEvent evt = new PlotEvent();
+		evt.setDataBean(data);
+		return evt;
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.rcp.plotting.rpc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.plotclient.rpc.AnalysisRpcAsyncExecDispatcher;
+
+/**
+ * Runs the dispatcher with a single thread standing in for the UI thread.
+ */
+public class AnalysisRpcAsyncExecDispatcherTest {
+
+	public static class Service {
+		private int calls;
+
+		public String count(String name) {
+			return name + (++calls);
+		}
+
+		public String next(String name) {
+			return name + (++calls);
+		}
+
+		public String thread() {
+			return Thread.currentThread().getName();
+		}
+
+		public String fail() {
+			throw new IllegalStateException("fail");
+		}
+	}
+
+	private static class TestDispatcher extends AnalysisRpcAsyncExecDispatcher {
+		private final Service service;
+		private final ExecutorService ui;
+
+		TestDispatcher(Service service, ExecutorService ui, String... workerMethods) {
+			this(service, ui, Arrays.asList(workerMethods), Collections.<String>emptyList());
+		}
+
+		TestDispatcher(Service service, ExecutorService ui, List<String> workerMethods, List<String> coalescedMethods) {
+			super(Service.class, service, workerMethods, coalescedMethods);
+			this.service = service;
+			this.ui = ui;
+		}
+
+		Object call(String name, Object... args) throws Exception {
+			for (Method method : Service.class.getMethods()) {
+				if (method.getName().equals(name)) {
+					return invoke(method, service, args);
+				}
+			}
+			throw new NoSuchMethodException(name);
+		}
+
+		@Override
+		protected boolean isUIThread() {
+			return Thread.currentThread().getName().equals("ui");
+		}
+
+		@Override
+		protected void asyncExec(Runnable r) {
+			ui.execute(r);
+		}
+	}
+
+	private ExecutorService ui;
+	private ExecutorService clients;
+
+	@Before
+	public void setUp() {
+		ui = Executors.newSingleThreadExecutor(r -> new Thread(r, "ui"));
+		clients = Executors.newFixedThreadPool(8);
+	}
+
+	@After
+	public void tearDown() {
+		ui.shutdownNow();
+		clients.shutdownNow();
+	}
+
+	@Test
+	public void testRunsOnUIOrWorker() throws Exception {
+		TestDispatcher dispatcher = new TestDispatcher(new Service(), ui, "count");
+		Assert.assertEquals("ui", dispatcher.call("thread"));
+		Assert.assertEquals("x1", dispatcher.call("count", "x"));
+		Assert.assertEquals(1, dispatcher.getWorkerCalls());
+		Assert.assertEquals(1, dispatcher.getUICalls());
+	}
+
+	@Test
+	public void testEqualCallsCoalesced() throws Exception {
+		final TestDispatcher dispatcher = new TestDispatcher(new Service(), ui, Collections.<String>emptyList(),
+				Arrays.asList("count"));
+		CountDownLatch busy = block();
+
+		List<Future<Object>> results = new ArrayList<Future<Object>>();
+		for (int i = 0; i < 8; i++) {
+			results.add(clients.submit(() -> dispatcher.call("count", "x")));
+		}
+		while (dispatcher.getUICalls() < 8) {
+			Thread.sleep(10);
+		}
+		busy.countDown();
+		for (Future<Object> result : results) {
+			Assert.assertEquals("x1", result.get(10, TimeUnit.SECONDS));
+		}
+		Assert.assertEquals(7, dispatcher.getCoalesced());
+
+		// Once run, a new call is queued again
+		Assert.assertEquals("x2", dispatcher.call("count", "x"));
+
+		// Equal calls to a method not named as free of side effects are each run
+		busy = block();
+		results.clear();
+		for (int i = 0; i < 8; i++) {
+			results.add(clients.submit(() -> dispatcher.call("next", "y")));
+		}
+		while (dispatcher.getUICalls() < 17) {
+			Thread.sleep(10);
+		}
+		busy.countDown();
+		final Set<Object> values = new HashSet<Object>();
+		for (Future<Object> result : results) {
+			values.add(result.get(10, TimeUnit.SECONDS));
+		}
+		Assert.assertEquals(8, values.size());
+		Assert.assertEquals(7, dispatcher.getCoalesced());
+	}
+
+	@Test
+	public void testDifferentCallsNotCoalesced() throws Exception {
+		final TestDispatcher dispatcher = new TestDispatcher(new Service(), ui);
+		Assert.assertEquals("a1", dispatcher.call("count", "a"));
+		Assert.assertEquals("b2", dispatcher.call("count", "b"));
+		Assert.assertEquals(0, dispatcher.getCoalesced());
+	}
+
+	@Test
+	public void testException() throws Exception {
+		TestDispatcher dispatcher = new TestDispatcher(new Service(), ui);
+		try {
+			dispatcher.call("fail");
+			Assert.fail("Exception expected");
+		} catch (InvocationTargetException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		TestDispatcher dispatcher = new TestDispatcher(new Service(), ui);
+		dispatcher.setTimeout(100, TimeUnit.MILLISECONDS);
+		final CountDownLatch busy = block();
+		try {
+			dispatcher.call("thread");
+			Assert.fail("Timeout expected");
+		} catch (TimeoutException e) {
+			Assert.assertEquals(1, dispatcher.getTimeouts());
+		} finally {
+			busy.countDown();
+		}
+	}
+
+	@Test
+	public void testTimedOutCallNotRun() throws Exception {
+		TestDispatcher dispatcher = new TestDispatcher(new Service(), ui);
+		dispatcher.setTimeout(100, TimeUnit.MILLISECONDS);
+		final CountDownLatch busy = block();
+		try {
+			dispatcher.call("count", "x");
+			Assert.fail("Timeout expected");
+		} catch (TimeoutException e) {
+			Assert.assertEquals(1, dispatcher.getCancelled());
+		} finally {
+			busy.countDown();
+		}
+		dispatcher.setTimeout(10, TimeUnit.SECONDS);
+		Assert.assertEquals("x1", dispatcher.call("count", "x"));
+	}
+
+	/**
+	 * @return latch to count down when the UI thread should go on
+	 */
+	private CountDownLatch block() {
+		final CountDownLatch busy = new CountDownLatch(1);
+		ui.execute(() -> {
+			try {
+				busy.await();
+			} catch (InterruptedException e) {
+				// finish
+			}
+		});
+		return busy;
+	}
+}
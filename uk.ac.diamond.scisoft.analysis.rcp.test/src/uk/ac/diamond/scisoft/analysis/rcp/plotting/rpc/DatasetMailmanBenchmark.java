@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.rcp.plotting.rpc;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.IDataset;
+
+import uk.ac.diamond.scisoft.analysis.AnalysisRpcClientProvider;
+import uk.ac.diamond.scisoft.analysis.AnalysisRpcServerProvider;
+import uk.ac.diamond.scisoft.analysis.plotclient.dataset.DatasetMailman;
+import uk.ac.diamond.scisoft.analysis.plotclient.dataset.IDatasetMailman;
+import uk.ac.diamond.scisoft.analysis.plotclient.dataset.MappedDatasets;
+import uk.ac.diamond.scisoft.analysis.rpc.AnalysisRpcGenericInstanceDispatcher;
+
+/**
+ * Not a unit test, run as a java application to compare sending detector frames to the
+ * {@link DatasetMailman} over RPC with {@link IDatasetMailman#send(String, Map)} against
+ * sending a handle to a memory mapped file with {@link IDatasetMailman#sendMapped(String, Map)}.
+ * A frame counts as sent when a listener has received it.
+ *
+ * Arguments (all optional): [frame width] [frames]
+ * the default is 10 frames of 2048 by 2048 doubles, after warming up.
+ */
+public class DatasetMailmanBenchmark {
+
+	private static final String SERVICE = "DatasetMailmanBenchmark";
+
+	public static void main(String[] args) throws Exception {
+
+		final int width  = args.length>0 ? Integer.parseInt(args[0]) : 2048;
+		final int frames = args.length>1 ? Integer.parseInt(args[1]) : 10;
+
+		final DatasetMailman mailman = DatasetMailman.getLocalManager();
+		// Without the display thread so that the transport alone is measured
+		AnalysisRpcServerProvider.getInstance().addHandler(SERVICE,
+				new AnalysisRpcGenericInstanceDispatcher(IDatasetMailman.class, mailman));
+
+		final Semaphore received = new Semaphore(0);
+		mailman.addMailListener(evt -> received.release());
+
+		final Dataset frame = DatasetFactory.createRange(width * width).reshape(width, width);
+		frame.setName("frame");
+		final double megabytes = width * width * 8 / (1024d * 1024d);
+
+		final Path dir = Files.isDirectory(Paths.get("/dev/shm")) ? Paths.get("/dev/shm") : Paths.get(System.getProperty("java.io.tmpdir"));
+		final Path file = Files.createTempFile(dir, "mailman", ".bin");
+		try {
+			// Warm up, then measure
+			sendRpc(frame, 2, received);
+			sendMapped(frame, file, 2, received);
+
+			final long rpc    = sendRpc(frame, frames, received);
+			final long mapped = sendMapped(frame, file, frames, received);
+
+			System.out.println("Sent "+frames+" frames of "+width+"x"+width+" doubles ("+String.format("%.1f", megabytes)+" MB)");
+			print("RPC    ", rpc,    frames, megabytes);
+			print("Mapped ", mapped, frames, megabytes);
+		} finally {
+			Files.deleteIfExists(file);
+			mailman.clear();
+		}
+	}
+
+	private static long sendRpc(IDataset frame, int frames, Semaphore received) throws Exception {
+		final Map<String, IDataset> data = Collections.singletonMap(frame.getName(), frame);
+		final long start = System.nanoTime();
+		for (int i = 0; i < frames; i++) {
+			AnalysisRpcClientProvider.getInstance().request(SERVICE, "send", "frame", data);
+		}
+		received.acquire(frames);
+		return System.nanoTime()-start;
+	}
+
+	private static long sendMapped(IDataset frame, Path file, int frames, Semaphore received) throws Exception {
+		final long start = System.nanoTime();
+		for (int i = 0; i < frames; i++) {
+			// Writing the file stands in for the sender filling its buffer
+			final String handle = MappedDatasets.write(file, frame);
+			AnalysisRpcClientProvider.getInstance().request(SERVICE, "sendMapped", "frame",
+					Collections.singletonMap(frame.getName(), handle));
+		}
+		received.acquire(frames);
+		return System.nanoTime()-start;
+	}
+
+	private static void print(String label, long nanos, int frames, double megabytes) {
+		final double seconds = nanos / 1e9;
+		System.out.println(label+String.format("%8.1f ms %8.2f frames/s %8.1f MB/s",
+				nanos / 1e6, frames / seconds, frames * megabytes / seconds));
+	}
+}
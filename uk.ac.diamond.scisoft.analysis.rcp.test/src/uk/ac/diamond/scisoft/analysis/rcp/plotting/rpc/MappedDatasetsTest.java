@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.rcp.plotting.rpc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.IDataset;
+import org.eclipse.january.dataset.Slice;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.plotclient.dataset.MappedDatasets;
+
+public class MappedDatasetsTest {
+
+	private Path dir;
+	private Path file;
+
+	@Before
+	public void setup() throws Exception {
+		dir  = Files.createTempDirectory("mapped_test");
+		file = dir.resolve("frame.bin");
+	}
+
+	@After
+	public void dispose() throws Exception {
+		try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+			for (Path p : (Iterable<Path>)files::iterator) Files.delete(p);
+		}
+		Files.delete(dir);
+	}
+
+	@Test
+	public void testRoundTripOfEachType() throws Exception {
+		checkRoundTrip(new byte[] { 1, -2, 3, -4, 5, -6 }, "int8");
+		checkRoundTrip(new short[] { 1, -2, 3, -4, 5, Short.MAX_VALUE }, "int16");
+		checkRoundTrip(new int[] { 1, -2, 3, -4, 5, Integer.MIN_VALUE }, "int32");
+		checkRoundTrip(new long[] { 1, -2, 3, -4, 5, Long.MAX_VALUE }, "int64");
+		checkRoundTrip(new float[] { 1.5f, -2, 3, -4, 5, Float.NaN }, "float32");
+		checkRoundTrip(new double[] { 1.5, -2, 3, -4, 5, Double.MIN_VALUE }, "float64");
+	}
+
+	private void checkRoundTrip(Object array, String dtype) throws Exception {
+		final Dataset data = DatasetFactory.createFromObject(array, 2, 3);
+		final String handle = MappedDatasets.write(file, data);
+		assertTrue(handle, handle.contains("dtype=" + dtype + ";"));
+		assertTrue(handle, handle.contains("shape=2,3;"));
+
+		final Dataset read = MappedDatasets.read("frame", handle);
+		assertEquals("frame", read.getName());
+		assertEquals(data.getClass(), read.getClass());
+		assertArrayEquals(new int[] { 2, 3 }, read.getShape());
+		assertTrue(dtype, Objects.deepEquals(array, read.getBuffer()));
+	}
+
+	@Test
+	public void testBigEndianAtOffset() throws Exception {
+		final ByteBuffer buffer = ByteBuffer.allocate(16 + 4 * 4).order(ByteOrder.BIG_ENDIAN);
+		buffer.position(16);
+		buffer.putInt(1).putInt(-2).putInt(300).putInt(Integer.MAX_VALUE);
+		Files.write(file, buffer.array());
+
+		final Dataset read = MappedDatasets.read("big", "file=" + file + ";offset=16;dtype=int32;shape=2,2;order=big");
+		assertArrayEquals(new int[] { 2, 2 }, read.getShape());
+		assertArrayEquals(new int[] { 1, -2, 300, Integer.MAX_VALUE }, (int[]) read.getBuffer());
+	}
+
+	@Test
+	public void testLittleEndianByDefault() throws Exception {
+		final ByteBuffer buffer = ByteBuffer.allocate(3 * 8).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putDouble(0.5).putDouble(-1).putDouble(1e300);
+		Files.write(file, buffer.array());
+
+		final Dataset read = MappedDatasets.read("little", " file = " + file + " ; dtype = float64 ; shape = 3 ");
+		assertArrayEquals(new double[] { 0.5, -1, 1e300 }, (double[]) read.getBuffer(), 0);
+	}
+
+	@Test
+	public void testSlicedViewWritten() throws Exception {
+		final Dataset data = DatasetFactory.createRange(12).reshape(3, 4);
+		final Dataset view = data.getSliceView(new Slice(1, 3), new Slice(null, null, 2));
+
+		final Dataset read = MappedDatasets.read("view", MappedDatasets.write(file, view));
+		assertArrayEquals(new int[] { 2, 2 }, read.getShape());
+		assertArrayEquals(new double[] { 4, 6, 8, 10 }, (double[]) read.getBuffer(), 0);
+	}
+
+	@Test
+	public void testTransposedViewWritten() throws Exception {
+		final Dataset data = DatasetFactory.createRange(6).reshape(2, 3);
+		final Dataset view = data.getTransposedView();
+
+		final Dataset read = MappedDatasets.read("view", MappedDatasets.write(file, view));
+		assertArrayEquals(new int[] { 3, 2 }, read.getShape());
+		assertArrayEquals(new double[] { 0, 3, 1, 4, 2, 5 }, (double[]) read.getBuffer(), 0);
+	}
+
+	@Test
+	public void testZeroDimensional() throws Exception {
+		final Dataset data = DatasetFactory.createFromObject(new double[] { 42 });
+		data.setShape();
+		final String handle = MappedDatasets.write(file, data);
+		assertTrue(handle, handle.contains("shape=;"));
+
+		final Dataset read = MappedDatasets.read("scalar", handle);
+		assertEquals(0, read.getRank());
+		assertEquals(42, read.getDouble(), 0);
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		Files.write(file, new byte[0]);
+
+		final Dataset read = MappedDatasets.read("empty", "file=" + file + ";dtype=int16;shape=0,3");
+		assertArrayEquals(new int[] { 0, 3 }, read.getShape());
+		assertEquals(0, read.getSize());
+	}
+
+	@Test
+	public void testReadMapKeepsOrder() throws Exception {
+		final Path other = dir.resolve("other.bin");
+		final Map<String, String> handles = new LinkedHashMap<String, String>();
+		handles.put("b", MappedDatasets.write(file, DatasetFactory.createFromObject(new int[] { 1 })));
+		handles.put("a", MappedDatasets.write(other, DatasetFactory.createFromObject(new int[] { 2, 3 })));
+
+		final Map<String, IDataset> data = MappedDatasets.read(handles);
+		assertArrayEquals(new String[] { "b", "a" }, data.keySet().toArray());
+		assertEquals("a", data.get("a").getName());
+		assertEquals(3, data.get("a").getInt(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingShape() throws Exception {
+		MappedDatasets.read("bad", "file=" + file + ";dtype=int8");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownType() throws Exception {
+		Files.write(file, new byte[16]);
+		MappedDatasets.read("bad", "file=" + file + ";dtype=complex128;shape=1");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownOrder() throws Exception {
+		Files.write(file, new byte[4]);
+		MappedDatasets.read("bad", "file=" + file + ";dtype=int32;shape=1;order=middle");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeDimension() throws Exception {
+		MappedDatasets.read("bad", "file=" + file + ";dtype=int32;shape=2,-1");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDimensionNotNumber() throws Exception {
+		MappedDatasets.read("bad", "file=" + file + ";dtype=int32;shape=2,x");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooLarge() throws Exception {
+		MappedDatasets.read("bad", "file=" + file + ";dtype=float64;shape=65536,65536");
+	}
+}
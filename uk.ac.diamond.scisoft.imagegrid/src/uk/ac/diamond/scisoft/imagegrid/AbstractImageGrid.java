@@ -28,19 +28,13 @@ public abstract class AbstractImageGrid {
 	public static int MAXMEMORYUSAGE = 1024 * 1024 * 60;
 	protected int gridWidth;
 	protected int gridHeight;
-	protected AbstractGridEntry[] table;
+	protected final GridTable table;
 	protected int nextEntryX = 0;
 	protected int nextEntryY = 0;
 	protected GridEntryMonitor monitor = null;
 
 	public AbstractImageGrid() {
-		gridWidth = 10;
-		gridHeight = 10;
-		table = new AbstractGridEntry[gridWidth * gridHeight];
-		int i = 0;
-		for (int y = 0; y < gridHeight; y++)
-			for (int x = 0; x < gridWidth; x++)
-				table[i++] = null;
+		this(10, 10);
 	}
 
 	public AbstractImageGrid(int width, int height) {
@@ -48,37 +42,46 @@ public abstract class AbstractImageGrid {
 		gridHeight = height;
 		nextEntryX = 0;
 		nextEntryY = 0;
-		table = new AbstractGridEntry[gridWidth * gridHeight];
-		int i = 0;
-		for (int y = 0; y < gridHeight; y++)
-			for (int x = 0; x < gridWidth; x++)
-				table[i++] = null;
+		table = new GridTable(gridWidth, gridHeight);
 	}
 
 	public void addEntry(AbstractGridEntry newEntry) {
+		final int x, y;
 		synchronized (table) {
-			table[nextEntryX + nextEntryY * gridWidth] = newEntry;
+			x = nextEntryX;
+			y = nextEntryY;
+			table.set(x, y, newEntry);
 		}
 		if (monitor != null)
-			monitor.addEntry(newEntry, nextEntryX, nextEntryY);
+			monitor.addEntry(newEntry, x, y);
 		synchronized (table) {
 			determineNextEntryPos();
 		}
 	}
 
 	public void setSize(int newWidth, int newHeight) {
-		resizeGrid(newWidth, newHeight);
+		synchronized (table) {
+			resizeGrid(newWidth, newHeight);
+		}
 	}
 
 	abstract public void setThumbnailSize(int size);
 
+	/**
+	 * Puts an entry at the given column and row, adding columns and rows if needed.
+	 * The entries already in the grid keep their place and an entry already at this
+	 * place is disposed.
+	 */
 	public void addEntry(AbstractGridEntry newEntry, int xPos, int yPos) {
+		final AbstractGridEntry old;
 		synchronized (table) {
 			if (xPos > gridWidth - 1 || yPos > gridHeight - 1)
-				resizeGrid(Math.max(xPos + 1, gridWidth), Math.max(yPos + 1, gridHeight));
+				growGrid(Math.max(xPos + 1, gridWidth), Math.max(yPos + 1, gridHeight));
 
-			table[xPos + yPos * gridWidth] = newEntry;
+			old = table.set(xPos, yPos, newEntry);
 		}
+		if (old != null && old != newEntry)
+			old.dispose();
 
 		if (monitor != null)
 			monitor.addEntry(newEntry, xPos, yPos);
@@ -88,7 +91,7 @@ public abstract class AbstractImageGrid {
 	}
 
 	protected void determineNextEntryPos() {
-		while (table[nextEntryX + nextEntryY * gridWidth] != null) {
+		while (table.get(nextEntryX, nextEntryY) != null) {
 			nextEntryX++;
 			if (nextEntryX > gridWidth - 1) {
 				nextEntryX = 0;
@@ -100,31 +103,42 @@ public abstract class AbstractImageGrid {
 		}
 	}
 
-	protected void resizeGrid(int newWidth, int newHeight) {
-		AbstractGridEntry[] newTable = new AbstractGridEntry[newWidth * newHeight];
-		for (int y = 0; y < Math.min(gridHeight, newHeight); y++) {
-			for (int x = 0; x < Math.min(gridWidth, newWidth); x++) {
-				newTable[x + y * newWidth] = table[x + y * gridWidth];
-				table[x + y * gridWidth] = null;
-			}
+	/**
+	 * Adds columns and rows for an entry placed outside the grid. Unlike
+	 * {@link #resizeGrid(int, int)} the entries keep their column and row.
+	 */
+	private void growGrid(int newWidth, int newHeight) {
+		if (newWidth > gridWidth) {
+			table.widen(newWidth);
+			gridWidth = newWidth;
 		}
-		for (int y = gridHeight; y < newHeight; y++) {
-			for (int x = gridWidth; x < newWidth; x++) {
-				newTable[x + y * newWidth] = null;
-			}
+		resizeGrid(gridWidth, newHeight);
+	}
+
+	/**
+	 * Changes the number of columns and rows without copying the entries. When the
+	 * number of columns changes, as when the grid is given a new size, the entries are
+	 * reflowed in reading order.
+	 */
+	protected void resizeGrid(int newWidth, int newHeight) {
+		if (newWidth != gridWidth) {
+			final int next = nextEntryX + nextEntryY * gridWidth;
+			nextEntryX = next % newWidth;
+			nextEntryY = next / newWidth;
+			// Keep every entry in the grid after reflowing
+			newHeight = Math.max(newHeight, (table.getExtent() + newWidth - 1) / newWidth);
 		}
-		monitor.gridResize(newWidth, newHeight);
-		table = newTable;
+		table.resize(newWidth, newHeight);
 		gridWidth = newWidth;
 		gridHeight = newHeight;
+		if (monitor != null)
+			monitor.gridResize(newWidth, newHeight);
 	}
 
 	public AbstractGridEntry getGridEntry(int x, int y) {
 		AbstractGridEntry returnGrid = null;
 		synchronized (table) {
-			if (x < gridWidth && y < gridHeight) {
-				returnGrid = table[x + y * gridWidth];
-			}
+			returnGrid = table.get(x, y);
 		}
 		return returnGrid;
 	}
@@ -151,15 +165,13 @@ public abstract class AbstractImageGrid {
 
 	public ArrayList<GridImageEntry> getListOfEntries() {
 		ArrayList<GridImageEntry> returnList = new ArrayList<GridImageEntry>();
-		int i = 0;
-		for (int y = 0; y < gridHeight; y++)
-			for (int x = 0; x < gridWidth; x++) {
-				if (table[i] != null) {
-					GridImageEntry entry = new GridImageEntry(table[i].getFilename(), x, y);
-					returnList.add(entry);
-				}
-				i++;
+		synchronized (table) {
+			for (int i = 0; i < table.getExtent(); i++) {
+				AbstractGridEntry entry = table.get(i);
+				if (entry != null)
+					returnList.add(new GridImageEntry(entry.getFilename(), i % gridWidth, i / gridWidth));
 			}
+		}
 		return returnList;
 	}
 }
@@ -0,0 +1,168 @@
+/*-
+ * Copyright (c) 2012-2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.imagegrid;
+
+import java.util.Arrays;
+
+import uk.ac.diamond.scisoft.imagegrid.gridentry.AbstractGridEntry;
+
+/**
+ * The entries of an image grid in reading order, held in fixed size pages which are
+ * made when first written to. Adding rows never copies entries, only the small array
+ * of pages grows, and changing the number of columns reflows the entries by working
+ * out their place from their index rather than moving them.
+ *
+ * Not thread safe, the grid synchronizes on the table.
+ */
+public final class GridTable {
+
+	private static final int PAGE_BITS = 10;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private AbstractGridEntry[][] pages;
+	private int width;
+	private int height;
+	private int count;
+	private int extent;
+
+	public GridTable(int width, int height) {
+		this.pages = new AbstractGridEntry[Math.max(1, (width * height + PAGE_SIZE - 1) >> PAGE_BITS)][];
+		this.width = Math.max(1, width);
+		this.height = Math.max(0, height);
+	}
+
+	/**
+	 * @return number of columns
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return number of rows
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return number of entries in the table
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return one more than the highest index holding an entry
+	 */
+	public int getExtent() {
+		return extent;
+	}
+
+	/**
+	 * @param index in reading order
+	 * @return entry or null
+	 */
+	public AbstractGridEntry get(int index) {
+		if (index < 0 || index >= extent)
+			return null;
+		final AbstractGridEntry[] page = pages[index >> PAGE_BITS];
+		return page == null ? null : page[index & PAGE_MASK];
+	}
+
+	/**
+	 * @return entry at column x of row y or null
+	 */
+	public AbstractGridEntry get(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			return null;
+		return get(x + y * width);
+	}
+
+	/**
+	 * Puts an entry at column x of row y, adding rows if needed.
+	 * @return entry replaced or null
+	 */
+	public AbstractGridEntry set(int x, int y, AbstractGridEntry entry) {
+		if (x < 0 || x >= width || y < 0)
+			throw new IndexOutOfBoundsException("No column " + x + " in a grid of width " + width);
+		if (y >= height)
+			height = y + 1;
+		return set(x + y * width, entry);
+	}
+
+	private AbstractGridEntry set(int index, AbstractGridEntry entry) {
+		final int p = index >> PAGE_BITS;
+		if (p >= pages.length) {
+			if (entry == null)
+				return null;
+			pages = Arrays.copyOf(pages, Math.max(p + 1, pages.length * 2));
+		}
+		AbstractGridEntry[] page = pages[p];
+		if (page == null) {
+			if (entry == null)
+				return null;
+			page = pages[p] = new AbstractGridEntry[PAGE_SIZE];
+		}
+		final AbstractGridEntry old = page[index & PAGE_MASK];
+		page[index & PAGE_MASK] = entry;
+		if (old == null && entry != null) {
+			count++;
+			if (index >= extent)
+				extent = index + 1;
+		} else if (old != null && entry == null) {
+			count--;
+			if (index == extent - 1) {
+				while (extent > 0 && get(extent - 1) == null)
+					extent--;
+			}
+		}
+		return old;
+	}
+
+	/**
+	 * Adds columns, unlike {@link #resize(int, int)} every entry keeps its column and row.
+	 * @param newWidth not less than the current number of columns
+	 */
+	public void widen(int newWidth) {
+		if (newWidth < width)
+			throw new IllegalArgumentException("Cannot widen a grid of width " + width + " to " + newWidth);
+		// From the end, as each entry moves to the same or a higher index
+		for (int i = extent - 1; i >= width; i--) {
+			final AbstractGridEntry entry = get(i);
+			if (entry == null)
+				continue;
+			set(i, null);
+			set(i % width + (i / width) * newWidth, entry);
+		}
+		width = newWidth;
+	}
+
+	/**
+	 * Changes the number of columns and rows. Entries keep their place in reading
+	 * order, those which no longer fit in the grid are dropped.
+	 */
+	public void resize(int newWidth, int newHeight) {
+		newWidth = Math.max(1, newWidth);
+		newHeight = Math.max(0, newHeight);
+		final long cells = (long) newWidth * newHeight;
+		for (int i = extent - 1; i >= cells; i--)
+			set(i, null);
+		width = newWidth;
+		height = newHeight;
+	}
+
+	public void clear() {
+		Arrays.fill(pages, null);
+		count = 0;
+		extent = 0;
+	}
+}
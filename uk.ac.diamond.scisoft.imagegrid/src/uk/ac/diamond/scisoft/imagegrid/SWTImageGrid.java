@@ -123,7 +123,7 @@ public class SWTImageGrid extends AbstractImageGrid
 		gc.setBackground(white);
 		for (int y = 0; y < gridHeight; y++)
 			for (int x = 0; x < gridWidth; x++)
-				if (table[x + y * gridWidth] != null) {
+				if (table.get(x, y) != null) {
 					gc.drawRectangle((int) (x * unitWidth) - 1, (int) (y * unitHeight) - 1, 3, 3);
 				}
 		float numVisX = (float) (client.width) / (float) (currentTileWidth + GRIDXGAPINPIXELS);
@@ -160,8 +160,8 @@ public class SWTImageGrid extends AbstractImageGrid
 		gc.setBackground(white);
 		for (int y = 0; y < gridHeight; y++)
 			for (int x = 0; x < gridWidth; x++)
-				if (table[x + y * gridWidth] != null) {
-					if (((SWTGridEntry) table[x + y * gridWidth]).hasImage())
+				if (table.get(x, y) != null) {
+					if (((SWTGridEntry) table.get(x, y)).hasImage())
 						gc.fillOval((int) (x * unitWidth), (int) (y * unitHeight), 2, 2);
 					else
 						gc.drawOval((int) (x * unitWidth), (int) (y * unitHeight), 2, 2);
@@ -258,18 +258,26 @@ public class SWTImageGrid extends AbstractImageGrid
 			int rectX = -1;
 			int rectY = -1;
 			toolTipEntry = null;
+			currentTileWidth = Math.max(thumbSize, MINTHUMBWIDTH);
+			currentTileHeight = Math.max(thumbSize, MINTHUMBHEIGHT);
+			// Only look at the cells near the view rather than the whole grid
+			Rectangle bounds = canvas.getBounds();
+			int stepX = currentTileWidth + GRIDXGAPINPIXELS;
+			int stepY = currentTileHeight + GRIDYGAPINPIXELS;
+			int firstX = Math.max(0, (-scrollX - currentTileWidth * 3) / stepX);
+			int firstY = Math.max(0, (-scrollY - currentTileHeight * 3) / stepY);
+			int lastX = Math.min(gridWidth, (bounds.width - scrollX + currentTileWidth * 3) / stepX + 1);
+			int lastY = Math.min(gridHeight, (bounds.height - scrollY + currentTileHeight * 3) / stepY + 1);
 			synchronized (table) {
-				for (int y = 0; y < gridHeight; y++) {
-					for (int x = 0; x < gridWidth; x++) {
-						if (table[x + y * gridWidth] != null) {
-							currentTileWidth = Math.max(thumbSize, MINTHUMBWIDTH);
-							currentTileHeight = Math.max(thumbSize, MINTHUMBHEIGHT);
+				for (int y = firstY; y < lastY; y++) {
+					for (int x = firstX; x < lastX; x++) {
+						if (table.get(x, y) != null) {
 							int xPos = scrollX + x * (currentTileWidth + GRIDXGAPINPIXELS);
 							int yPos = scrollY + y * (currentTileHeight + GRIDYGAPINPIXELS);
 							if (xPos > -currentTileWidth * 3 && xPos < canvas.getBounds().width + currentTileWidth * 3
 									&& yPos > -currentTileHeight * 3
 									&& yPos < canvas.getBounds().height + currentTileHeight * 3) {
-								SWTGridEntry entry = (SWTGridEntry) table[x + y * gridWidth];
+								SWTGridEntry entry = (SWTGridEntry) table.get(x, y);
 								if (mouseButtonMode == 1)
 									entry.setStatus(0);
 
@@ -348,13 +356,14 @@ public class SWTImageGrid extends AbstractImageGrid
 	@Override
 	public void dispose() {
 		nextEntryX = nextEntryY = 0;
-		for (int y = 0; y < gridHeight; y++)
-			for (int x = 0; x < gridWidth; x++) {
-				AbstractGridEntry entry = table[x + y * gridWidth];
+		synchronized (table) {
+			for (int i = 0; i < table.getExtent(); i++) {
+				AbstractGridEntry entry = table.get(i);
 				if (entry != null)
 					entry.dispose();
-				table[x + y * gridWidth] = null;
 			}
+			table.clear();
+		}
 		monitor.dispose();
 		monitor = null;
 		if (blue != null) {
@@ -402,8 +411,8 @@ public class SWTImageGrid extends AbstractImageGrid
 		synchronized (table) {
 			for (int y = 0; y < gridHeight; y++) {
 				for (int x = 0; x < gridWidth; x++) {
-					if (table[x + y * gridWidth] != null) {
-						SWTGridEntry entry = (SWTGridEntry) table[x + y * gridWidth];
+					if (table.get(x, y) != null) {
+						SWTGridEntry entry = (SWTGridEntry) table.get(x, y);
 						int xPos = scrollX + x * (currentTileWidth + GRIDXGAPINPIXELS);
 						int yPos = scrollY + y * (currentTileHeight + GRIDYGAPINPIXELS);
 						if (mouseButtonMode == 1)
@@ -449,8 +458,8 @@ public class SWTImageGrid extends AbstractImageGrid
 		int prevRectY = 0;
 		for (int y = 0; y < gridHeight; y++) {
 			for (int x = 0; x < gridWidth; x++) {
-				if (table[x + y * gridWidth] != null) {
-					SWTGridEntry entry = (SWTGridEntry) table[x + y * gridWidth];
+				if (table.get(x, y) != null) {
+					SWTGridEntry entry = (SWTGridEntry) table.get(x, y);
 					int xPos = scrollX + x * (currentTileWidth + GRIDXGAPINPIXELS);
 					int yPos = scrollY + y * (currentTileHeight + GRIDYGAPINPIXELS);
 					if (mouseX >= xPos && mouseX <= (xPos + currentTileWidth) && mouseY >= yPos
@@ -476,23 +485,23 @@ public class SWTImageGrid extends AbstractImageGrid
 			maxEntry = prevEntry;
 			prevEntry = temp;
 		}
-		int endEntry = gridWidth * gridHeight;
+		int endEntry = Math.min(gridWidth * gridHeight, table.getExtent());
 		if (rectX != -1 && rectY != -1) {
 			for (int listNr = prevEntry; listNr < maxEntry; listNr++)
-				if (table[listNr] != null) {
-					SWTGridEntry entry = (SWTGridEntry) table[listNr];
+				if (table.get(listNr) != null) {
+					SWTGridEntry entry = (SWTGridEntry) table.get(listNr);
 					entry.setStatus(AbstractGridEntry.SELECTEDSTATUS);
 				}
 			if ((mouseButtonMode & CTRL_MASK) != CTRL_MASK) {
 				for (int listNr = 0; listNr < prevEntry; listNr++)
-					if (table[listNr] != null) {
-						SWTGridEntry entry = (SWTGridEntry) table[listNr];
+					if (table.get(listNr) != null) {
+						SWTGridEntry entry = (SWTGridEntry) table.get(listNr);
 						entry.setStatus(0);
 					}
 
 				for (int listNr = maxEntry + 1; listNr < endEntry; listNr++)
-					if (table[listNr] != null) {
-						SWTGridEntry entry = (SWTGridEntry) table[listNr];
+					if (table.get(listNr) != null) {
+						SWTGridEntry entry = (SWTGridEntry) table.get(listNr);
 						entry.setStatus(0);
 					}
 			}
@@ -572,8 +581,8 @@ public class SWTImageGrid extends AbstractImageGrid
 		synchronized (table) {
 			for (int y = 0; y < gridHeight; y++)
 				for (int x = 0; x < gridWidth; x++)
-					if (table[x + y * gridWidth] != null) {
-						SWTGridEntry entry = (SWTGridEntry) table[x + y * gridWidth];
+					if (table.get(x, y) != null) {
+						SWTGridEntry entry = (SWTGridEntry) table.get(x, y);
 						if (entry.getStatus() == AbstractGridEntry.SELECTEDSTATUS)
 							selection.add(entry.getFilename());
 					}
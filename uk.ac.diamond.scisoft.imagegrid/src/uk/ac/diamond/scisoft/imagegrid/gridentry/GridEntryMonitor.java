@@ -10,45 +10,57 @@
 package uk.ac.diamond.scisoft.imagegrid.gridentry;
 
 import java.awt.Rectangle;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import uk.ac.diamond.scisoft.imagegrid.AbstractImageGrid;
 import uk.ac.diamond.scisoft.imagegrid.thumbnail.IThumbnailLoadService;
 
 /**
- *
+ * Decides which entries of a grid have their thumbnails decoded. Those shown are
+ * loaded first, then those the view is moving towards, up to as many as the memory
+ * budget allows. Entries leaving the cache area are deactivated.
  */
 public class GridEntryMonitor {
 
+	private static final Logger logger = LoggerFactory.getLogger(GridEntryMonitor.class);
+
 	private AbstractImageGrid grid;
 	private Rectangle innerCacheArea;
 	private Rectangle fullCacheArea;
 	private Rectangle totalGridArea;
-	private ExecutorService execSvc = null;	
 	private IThumbnailLoadService service = null;
-	private final static int BUFFERWIDTH = 10;
 	private int totalImagesNumber = 0;
-	
+	private final PrefetchPlanner planner = new PrefetchPlanner();
+
+	// Entries decoded before they were shown, not yet shown
+	private final Set<AbstractGridEntry> prefetched =
+			Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<AbstractGridEntry, Boolean>()));
+	private long hits, misses, prefetches, wasted;
+
+	/**
+	 * @param grid
+	 * @param width columns shown
+	 * @param height rows shown
+	 * @param numImages most thumbnails to hold decoded, usually worked out from
+	 *        {@link AbstractImageGrid#MAXMEMORYUSAGE}
+	 * @param service
+	 */
 	public GridEntryMonitor(AbstractImageGrid grid,
 							int width, int height, int numImages, IThumbnailLoadService service) {
 		this.grid = grid;
 		this.totalImagesNumber = numImages;
 		innerCacheArea = new Rectangle(0,0,width,height);
 		totalGridArea = new Rectangle(0,0,grid.getGridWidth(),grid.getGridHeight());
-	    float aspect = (float)grid.getGridWidth() / (float)grid.getGridHeight();
-		int dim = (int)Math.sqrt(numImages);
-	    int xDim = (int)(dim * aspect);
-	    int yDim = (int)(dim * (1.0f/aspect));
-	    if (xDim < width+BUFFERWIDTH) {
-	    	xDim = width+BUFFERWIDTH;
-	    	yDim = numImages / xDim;
-	    }
-		fullCacheArea = new Rectangle(0,0,xDim,yDim);
+		fullCacheArea = planner.plan(innerCacheArea, totalGridArea.width, totalGridArea.height, totalImagesNumber);
 		
-		execSvc = Executors.newFixedThreadPool(2);
+		// The service decodes on its own threads, nearest the visible area first.
 		this.service = service;
-		execSvc.execute(service);		
+		service.setVisibleArea(innerCacheArea, fullCacheArea);
 	}
 	
 	public void resizeDisplayArea(int newWidth, int newHeight) {
@@ -56,88 +68,46 @@ public class GridEntryMonitor {
 								 (int)innerCacheArea.getY(), 
 								 newWidth, newHeight);
 		recomputeTotalCacheArea(grid.getGridWidth(),grid.getGridHeight());
+		service.setVisibleArea(innerCacheArea, fullCacheArea);
 	}
 	
 	public void addEntry(AbstractGridEntry newEntry, int x, int y) {
 		if (innerCacheArea.contains(x,y)) {
-			service.addLoadJob(newEntry, true);
-		} else {
-			if (fullCacheArea.contains(x,y)) {
-				service.addLoadJob(newEntry, false);
-			}
+			service.addLoadJob(newEntry, x, y);
+		} else if (fullCacheArea.contains(x,y)) {
+			prefetch(newEntry, x, y);
 		}
 	}
-	
-	private Rectangle[] subtraction(Rectangle a, Rectangle b) {
-		Rectangle c = a.intersection(b);
-		// now overlap so return the second rectangle
-		if (c.width == -1 && c.height == -1) {
-			return new Rectangle[]{b};
-		} 
-		// easy case we only have one rectangle
-		if (c.height == b.height) {
-			// check from which side we need to subtract
-			if (b.x < a.x) {
-				c.setLocation(b.x,b.y);
-				c.setSize(b.width-c.width, b.height);
-			} else {
-				c.setLocation(a.x+a.width+1,b.y);
-				c.setSize(b.width-c.width, b.height);				
-			}
-			return new Rectangle[]{c};
-		} else	if (c.width == b.width) {
-			if (b.y < a.y) {
-				c.setLocation(b.x,b.y);
-				c.setSize(b.width, b.height - c.height);
-			} else {
-				c.setLocation(b.x,a.y+a.height);
-				c.setSize(b.width,b.height - c.height);
-			}
-			return new Rectangle[]{c};	
-		// more complicated case we have two separate rectangles	
-		} else {
-			if (b.x < a.x) {
-				Rectangle d = new Rectangle(b.x,b.y,c.x-b.x,b.height);
-				Rectangle e = null;
-				if (b.y < a.y) {
-					e = new Rectangle(c.x,b.y,c.width,c.y-b.y);
-				} else {
-					e = new Rectangle(c.x,c.y+c.height,c.width,b.height-c.height);
-				}
-				return new Rectangle[]{d,e};
-			} 
-			Rectangle d = new Rectangle(c.x+c.width,b.y,b.width-c.width,b.height);
-			Rectangle e = null;
-			if (b.y < a.y) {
-				e = new Rectangle(c.x,b.y,c.width,b.height-c.height);
-			} else {
-				e = new Rectangle(c.x,b.y+c.height,c.width,b.height-c.height);
-			}
-			return new Rectangle[]{d,e};
-		}
+
+	private void prefetch(AbstractGridEntry entry, int x, int y) {
+		if (prefetched.add(entry)) prefetches++;
+		service.addLoadJob(entry, x, y);
 	}
-	
-	private void checkOnReloadPrimary() {
+
+	/**
+	 * Loads the entries which have come into view and counts whether they were
+	 * decoded in time.
+	 */
+	private void checkOnReloadPrimary(Rectangle oldInner) {
 		for (int y = innerCacheArea.y; y < innerCacheArea.y+innerCacheArea.height; y++)
 			for (int x = innerCacheArea.x; x < innerCacheArea.x+innerCacheArea.width; x++) {
-					AbstractGridEntry entry = grid.getGridEntry(x, y);
-					if (entry != null && entry.isDeactivated() && entry.getStatus() != AbstractGridEntry.INVALIDSTATUS)
-						service.addLoadJob(entry, true);
+				if (oldInner != null && oldInner.contains(x, y)) continue;
+				AbstractGridEntry entry = grid.getGridEntry(x, y);
+				if (entry == null || entry.getStatus() == AbstractGridEntry.INVALIDSTATUS) continue;
+				prefetched.remove(entry);
+				if (entry.isDeactivated()) {
+					misses++;
+					service.addLoadJob(entry, x, y);
+				} else {
+					hits++;
+				}
 		}		
 	}
 	
 	private void recomputeTotalCacheArea(int width, int height)
     {
-	    float aspect = (float)width / (float)height;
-		int dim = (int)Math.sqrt(totalImagesNumber);
-	    int xDim = (int)(dim * aspect);
-	    int yDim = (int)(dim * (1.0f/aspect));
-	    int minWidth = Math.min(innerCacheArea.width, width);
-	    if (xDim < minWidth+BUFFERWIDTH) {
-	    	xDim = minWidth+BUFFERWIDTH;
-	    	yDim = totalImagesNumber / xDim;
-	    }
-		fullCacheArea.setBounds(fullCacheArea.x,fullCacheArea.y,xDim,yDim);	
+		Rectangle area = planner.plan(innerCacheArea, width, height, totalImagesNumber);
+		fullCacheArea.setBounds(fullCacheArea.x,fullCacheArea.y,area.width,area.height);	
     }
  	public void gridResize(int newWidth, int newHeight)
 	{
@@ -146,50 +116,37 @@ public class GridEntryMonitor {
 	}
 	
 	public void updateMonitorPosition(int x, int y) {
+		Rectangle oldInner = new Rectangle(innerCacheArea);
 		innerCacheArea.setLocation(x, y);
-		// Check if we are outside the fullCacheArea
-//		if (!fullCacheArea.contains(innerCacheArea)) {
-		service.clearHighPriorityQueue();
-		checkOnReloadPrimary();
-		
-	//	}
-		int cacheDistX = Math.min((fullCacheArea.width >> 1), fullCacheArea.width-innerCacheArea.width-2);
-		int cacheDistY = Math.min((fullCacheArea.height >> 1), fullCacheArea.height-innerCacheArea.height-2);
-		int fcx = x-cacheDistX;
-		int fcy = y-cacheDistY;
-		if (fcx < 0) fcx = 0;
-		if (fullCacheArea.width >= totalGridArea.width) fcx = 0;
-		if (fcy < 0) fcy = 0;
-		if (fullCacheArea.height >= totalGridArea.height) fcy = 0;
-		Rectangle newFullCacheArea = new Rectangle(fcx,fcy,fullCacheArea.width,fullCacheArea.height);
-		if (!fullCacheArea.contains(newFullCacheArea)) {
-			service.clearLowPriorityQueue();
-			// compute out of cache areas
-			Rectangle[] outAreas = subtraction(newFullCacheArea, fullCacheArea);
+		planner.moved(x, y, System.nanoTime());
+		Rectangle newFullCacheArea = planner.plan(innerCacheArea, totalGridArea.width, totalGridArea.height, totalImagesNumber);
+
+		// Entries still queued are loaded nearest the new position and the cells
+		// it is heading for first, those now outside the cache are not loaded at all.
+		service.setVisibleArea(planner.lookahead(innerCacheArea, newFullCacheArea), newFullCacheArea);
+		checkOnReloadPrimary(oldInner);
+
+		if (!newFullCacheArea.equals(fullCacheArea)) {
 			// purge old entries from memory
-			for (int i = 0; i < outAreas.length; i++) {
-				Rectangle purgeArea = outAreas[i];
-				for (int ry = 0; ry < purgeArea.height; ry++) {
-					for (int rx = 0; rx < purgeArea.width; rx++) {
-						int xPos = rx + purgeArea.x;
-						int yPos = ry + purgeArea.y;
-						AbstractGridEntry entry = grid.getGridEntry(xPos, yPos);
-						if (entry != null)
-							entry.deActivate();
+			Rectangle old = fullCacheArea;
+			for (int yPos = old.y; yPos < old.y + old.height; yPos++) {
+				for (int xPos = old.x; xPos < old.x + old.width; xPos++) {
+					if (newFullCacheArea.contains(xPos, yPos)) continue;
+					AbstractGridEntry entry = grid.getGridEntry(xPos, yPos);
+					if (entry != null) {
+						if (prefetched.remove(entry) && !entry.isDeactivated()) wasted++;
+						entry.deActivate();
 					}
-				}					
+				}
 			}
 			// compute new need to cache areas and load
 			// entries
-			for (int ry = 0; ry < newFullCacheArea.height; ry++) {
-				for (int rx = 0; rx < newFullCacheArea.width; rx++) {
-					int xPos = rx + newFullCacheArea.x;
-					int yPos = ry + newFullCacheArea.y;
-					if (!innerCacheArea.contains(xPos, yPos)) {
-						AbstractGridEntry entry = grid.getGridEntry(xPos, yPos);
-						if (entry != null && entry.isDeactivated()) {
-							service.addLoadJob(entry, false);
-						}
+			for (int yPos = newFullCacheArea.y; yPos < newFullCacheArea.y + newFullCacheArea.height; yPos++) {
+				for (int xPos = newFullCacheArea.x; xPos < newFullCacheArea.x + newFullCacheArea.width; xPos++) {
+					if (old.contains(xPos, yPos) || innerCacheArea.contains(xPos, yPos)) continue;
+					AbstractGridEntry entry = grid.getGridEntry(xPos, yPos);
+					if (entry != null && entry.isDeactivated()) {
+						prefetch(entry, xPos, yPos);
 					}
 				}
 			}
@@ -204,11 +161,46 @@ public class GridEntryMonitor {
 	public Rectangle getSecondaryCacheArea() {
 		return fullCacheArea;
 	}
+
+	/**
+	 * @return entries which were already decoded when they came into view
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return entries which had to be decoded when they came into view
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return entries queued for decoding before they were shown
+	 */
+	public long getPrefetches() {
+		return prefetches;
+	}
+
+	/**
+	 * @return prefetched entries which were decoded and then dropped without being shown
+	 */
+	public long getWasted() {
+		return wasted;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("cache %dx%d at %d,%d, %d hits, %d misses, %d prefetched, %d wasted",
+				fullCacheArea.width, fullCacheArea.height, fullCacheArea.x, fullCacheArea.y, hits, misses, prefetches, wasted);
+	}
 	
 	public void dispose() {
+		logger.debug("Image grid {}", this);
 		stopLoading();
-		service.shutdown();
-		execSvc.shutdownNow(); // We do not want these threads to be doing work now!
+		prefetched.clear();
+		service.shutdown(); // We do not want these threads to be doing work now!
 	}
 
 	public void stopLoading() {
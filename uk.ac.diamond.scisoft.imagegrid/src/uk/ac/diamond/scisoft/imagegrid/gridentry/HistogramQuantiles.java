@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.imagegrid.gridentry;
+
+import org.eclipse.january.dataset.CompoundDataset;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.IndexIterator;
+
+/**
+ * Finds the thresholds used to colour a thumbnail from a histogram of its pixels
+ * rather than by sorting them. Two passes are made, one for the range and one to
+ * fill the bins, so a threshold is within a bin width of the exact quantile.
+ * NaN and infinite pixels are left out.
+ */
+final class HistogramQuantiles {
+
+	/**
+	 * Enough to tell apart the levels of a 256 colour palette on most images.
+	 */
+	private static final int BINS = 4096;
+
+	private HistogramQuantiles() {
+	}
+
+	/**
+	 * @param d image
+	 * @param lo fraction of pixels below the low threshold, 0 for the minimum
+	 * @param hi fraction of pixels below the high threshold, 1 for the maximum
+	 * @return low and high thresholds
+	 */
+	static double[] getThresholds(Dataset d, double lo, double hi) {
+		if (d instanceof CompoundDataset) {
+			// The thresholds of the image are those which suit every channel
+			final CompoundDataset c = (CompoundDataset) d;
+			final double[] m = getThresholds(c.getElementsView(0), lo, hi);
+			for (int i = 1; i < c.getElementsPerItem(); i++) {
+				final double[] t = getThresholds(c.getElementsView(i), lo, hi);
+				m[0] = Math.max(m[0], t[0]);
+				m[1] = Math.min(m[1], t[1]);
+			}
+			return m;
+		}
+
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		long count = 0;
+		IndexIterator it = d.getIterator();
+		while (it.hasNext()) {
+			final double v = d.getElementDoubleAbs(it.index);
+			if (Double.isNaN(v) || Double.isInfinite(v)) continue;
+			if (v < min) min = v;
+			if (v > max) max = v;
+			count++;
+		}
+		if (count == 0) return new double[] {0, 0};
+		if ((lo <= 0 && hi >= 1) || min == max) return new double[] {min, max};
+
+		final long[] bins = new long[BINS];
+		final double scale = BINS / (max - min);
+		it = d.getIterator();
+		while (it.hasNext()) {
+			final double v = d.getElementDoubleAbs(it.index);
+			if (Double.isNaN(v) || Double.isInfinite(v)) continue;
+			bins[Math.min(BINS - 1, (int) ((v - min) * scale))]++;
+		}
+
+		return new double[] {
+			lo > 0 ? getQuantile(bins, count, lo, min, max) : min,
+			hi < 1 ? getQuantile(bins, count, hi, min, max) : max
+		};
+	}
+
+	/**
+	 * @return value below which the fraction q of the counted pixels lie, found by
+	 *         interpolating within the bin it falls in.
+	 */
+	private static double getQuantile(long[] bins, long count, double q, double min, double max) {
+		final double rank = q * (count - 1);
+		final double width = (max - min) / bins.length;
+		long below = 0;
+		for (int i = 0; i < bins.length; i++) {
+			final long n = bins[i];
+			if (n > 0 && below + n > rank) {
+				return Math.min(max, min + width * (i + (rank - below + 0.5) / n));
+			}
+			below += n;
+		}
+		return max;
+	}
+}
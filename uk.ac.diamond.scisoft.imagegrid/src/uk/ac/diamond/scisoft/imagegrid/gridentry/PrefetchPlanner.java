@@ -0,0 +1,124 @@
+/*-
+ * Copyright (c) 2012-2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.imagegrid.gridentry;
+
+import java.awt.Rectangle;
+
+/**
+ * Works out which part of the grid to keep decoded from how many thumbnails the
+ * memory budget allows and from how fast the view is scrolling. The cache area is
+ * as large as the budget and, when scrolling, lies mostly ahead of the view.
+ */
+class PrefetchPlanner {
+
+	/**
+	 * Columns kept either side of the view when the grid is wider than it.
+	 */
+	static final int BUFFERWIDTH = 10;
+
+	/**
+	 * Moves further apart than this start a new scroll, in nanoseconds.
+	 */
+	private static final long GESTURE_GAP = 500_000_000L;
+
+	/**
+	 * How far ahead of the view, in seconds of travel, is loaded first.
+	 */
+	private static final double LOOKAHEAD = 0.25;
+
+	/**
+	 * Largest share of the spare cache area put ahead of the view.
+	 */
+	private static final double MAX_LEAD = 0.9;
+
+	private int    lastX, lastY;
+	private long   lastTime = -1;
+	private double vx, vy; // cells per second
+
+	/**
+	 * Records a move of the view to a new top left cell.
+	 * @param nanos time of the move
+	 */
+	void moved(int x, int y, long nanos) {
+		if (lastTime < 0 || nanos - lastTime > GESTURE_GAP) {
+			vx = 0;
+			vy = 0;
+		} else if (nanos > lastTime) {
+			final double dt = (nanos - lastTime) / 1e9;
+			vx = 0.5 * vx + 0.5 * (x - lastX) / dt;
+			vy = 0.5 * vy + 0.5 * (y - lastY) / dt;
+		}
+		lastX = x;
+		lastY = y;
+		lastTime = nanos;
+	}
+
+	double getVelocityX() {
+		return vx;
+	}
+
+	double getVelocityY() {
+		return vy;
+	}
+
+	/**
+	 * @param inner cells shown
+	 * @param gridWidth
+	 * @param gridHeight
+	 * @param budget number of thumbnails which may be decoded at once
+	 * @return cells to keep decoded, holding the shown cells where the grid allows
+	 */
+	Rectangle plan(Rectangle inner, int gridWidth, int gridHeight, int budget) {
+		budget = Math.max(budget, inner.width * inner.height);
+
+		int w = Math.min(gridWidth, inner.width + BUFFERWIDTH);
+		if (w < inner.width) w = inner.width;
+		int h = Math.max(inner.height, budget / Math.max(1, w));
+		if (h > gridHeight && gridHeight > 0) {
+			// Everything in a column fits so spend the rest on columns
+			h = Math.max(inner.height, gridHeight);
+			w = Math.max(w, Math.min(gridWidth, budget / Math.max(1, h)));
+		}
+
+		final int x = place(inner.x, inner.width, w, gridWidth, vx, inner.width);
+		final int y = place(inner.y, inner.height, h, gridHeight, vy, inner.height);
+		return new Rectangle(x, y, w, h);
+	}
+
+	/**
+	 * @return start of a span of the cache which holds the view, with more of the
+	 *         spare length on the side the view is moving to.
+	 */
+	private static int place(int start, int length, int span, int total, double velocity, int page) {
+		final int spare = Math.max(0, span - length);
+		// a page a second or faster puts most of the cache ahead
+		final double speed = Math.min(1, Math.abs(velocity) / Math.max(1, page));
+		final double lead = 0.5 + (MAX_LEAD - 0.5) * speed;
+		final int ahead = (int) Math.round(spare * lead);
+		int from = velocity < 0 ? start - ahead : start - (spare - ahead);
+		if (from + span > total) from = total - span;
+		if (from < 0) from = 0;
+		return from;
+	}
+
+	/**
+	 * @return the shown cells and those the view will reach soon, which are
+	 *         loaded before the rest of the cache.
+	 */
+	Rectangle lookahead(Rectangle inner, Rectangle full) {
+		final int dx = (int) Math.round(vx * LOOKAHEAD);
+		final int dy = (int) Math.round(vy * LOOKAHEAD);
+		if (dx == 0 && dy == 0) return inner;
+		final Rectangle ahead = new Rectangle(inner);
+		ahead.translate(dx, dy);
+		final Rectangle area = inner.union(ahead).intersection(full);
+		return area.isEmpty() ? inner : area.union(inner);
+	}
+}
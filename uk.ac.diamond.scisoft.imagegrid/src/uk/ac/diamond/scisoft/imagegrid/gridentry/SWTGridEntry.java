@@ -10,21 +10,16 @@
 package uk.ac.diamond.scisoft.imagegrid.gridentry;
 
 import java.awt.Dimension;
-import java.io.IOException;
 
 import org.dawnsci.plotting.services.util.SWTImageUtils;
 import org.eclipse.dawnsci.plotting.api.histogram.IPaletteService;
-import org.eclipse.january.dataset.CompoundDataset;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetUtils;
 import org.eclipse.january.dataset.IDataset;
-import org.eclipse.january.dataset.Stats;
-import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.ImageData;
-import org.eclipse.swt.graphics.ImageLoader;
 import org.eclipse.swt.graphics.PaletteData;
 import org.eclipse.swt.graphics.RGB;
 import org.eclipse.swt.widgets.Canvas;
@@ -43,10 +38,12 @@ public class SWTGridEntry extends AbstractGridEntry {
 	private static final Logger logger = LoggerFactory.getLogger(SWTGridEntry.class);
 	private double loThreshold = 0.0;
 	private double hiThreshold = 0.98;
+	// Only made and used by paint() on the display thread
 	private static Color green = null;
 	private static Color red = null;
 	private static Color blue = null;
-	private static long lastREDRAWinMillis = 0; 
+	// Only read and set in runnables run on the display thread
+	private static volatile long lastREDRAWinMillis = 0;
 	
 	private Image gridImage;
 	private Dimension imageDim;
@@ -97,11 +94,7 @@ public class SWTGridEntry extends AbstractGridEntry {
 		this.additionalInfo = null;
 		if (gridImage != null)
 			gridImage.dispose();
-		if (thumbnailFilename != null) {
-			java.io.File imageFile = new java.io.File(thumbnailFilename);
-			imageFile.delete();
-			thumbnailFilename = null;
-		}
+		ThumbnailCache.getDefault().remove(this);
 	}
 
 	@Override
@@ -113,33 +106,33 @@ public class SWTGridEntry extends AbstractGridEntry {
 	@Override
 	public void deActivate() {
 		if (gridImage != null) {
-			try {
-				if (thumbnailFilename == null) {
-					java.io.File  file = java.io.File.createTempFile("tmp_thumb", ".png");
-					file.deleteOnExit(); // We try to ensure that the thing does get removed.
-					
-					thumbnailFilename = file.getAbsolutePath();
-					ImageLoader loader = new ImageLoader();
-					loader.data = new ImageData[]{gridImage.getImageData()};
-					loader.save(thumbnailFilename, SWT.IMAGE_PNG);
-				}
-			} catch (IOException e) {
-				logger.error("Cannot cache thubnail in image explorer", e);
-			} 
-			
+			// Pixels are kept in memory rather than in temporary files
+			final ThumbnailCache cache = ThumbnailCache.getDefault();
+			if (!cache.contains(this)) {
+				cache.put(this, gridImage.getImageData());
+			}
 			gridImage.dispose();
 			gridImage = null;
 		}
 	}
 
-	public void loadThumbImage() {
+	/**
+	 * Shows the thumbnail kept when this entry was deactivated. The pixels are
+	 * inflated on the calling thread, the image is made on the display thread.
+	 * @return false if the thumbnail is no longer kept and has to be loaded again.
+	 */
+	public boolean loadThumbImage() {
 		if (gridImage == null) {
 			
-			if (canvas.isDisposed() || isDisposed) return;
+			if (canvas.isDisposed() || isDisposed) return true;
+			final ImageData data = ThumbnailCache.getDefault().get(this);
+			if (data == null) return false;
 			canvas.getDisplay().asyncExec(new Runnable() {
 				@Override
 				public void run() {
-					gridImage = new Image(canvas.getDisplay(),thumbnailFilename);
+					// An image may have been made meanwhile by another decoder
+					if (canvas.isDisposed() || isDisposed || gridImage != null) return;
+					gridImage = new Image(canvas.getDisplay(), data);
 					// make sure system doesn't get flooded with redraw requests
 					if (System.currentTimeMillis()-lastREDRAWinMillis > 20) {
 						canvas.redraw();
@@ -150,6 +143,7 @@ public class SWTGridEntry extends AbstractGridEntry {
 		} else {
 			logger.warn("Something is wrong");
 		}
+		return true;
 	}
 
 	@Override
@@ -157,96 +151,48 @@ public class SWTGridEntry extends AbstractGridEntry {
 		return gridImage == null;
 	}
 
-	private double[] minMax(CompoundDataset d, double lo, double hi) {
-		int e = d.getElementsPerItem();
-		double[] mm;
-		if (hi < 1) {
-			if (lo > 0) {
-				mm = Stats.quantile(d.getElementsView(0), lo, hi);
-				for (int i = 1; i < e; i++) {
-					double[] ti = Stats.quantile(d.getElementsView(i), lo, hi);
-					mm[0] = Math.max(mm[0], ti[0]);
-					mm[1] = Math.min(mm[1], ti[1]);
-				}
-			} else {
-				Dataset v = d.getElementsView(0);
-				mm = new double[] {v.min().doubleValue(), Stats.quantile(v, hi)};
-				for (int i = 1; i < e; i++) {
-					v = d.getElementsView(i);
-					double tl = v.min().doubleValue();
-					mm[0] = Math.max(mm[0], tl);
-					double th = Stats.quantile(v, hi);
-					mm[1] = Math.min(mm[1], th);
-				}
-			}
-		} else if (lo > 0) {
-			Dataset v = d.getElementsView(0);
-			mm = new double[] {Stats.quantile(v, lo), v.max().doubleValue()};
-			for (int i = 1; i < e; i++) {
-				v = d.getElementsView(i);
-				double tl = Stats.quantile(v, lo);
-				mm[0] = Math.max(mm[0], tl);
-				double th = v.max().doubleValue();
-				mm[1] = Math.min(mm[1], th);
-			}
-		} else {
-			Dataset v = d.getElementsView(0);
-			mm = new double[] {v.min().doubleValue(), v.max().doubleValue()};
-			for (int i = 1; i < e; i++) {
-				v = d.getElementsView(i);
-				double tl = v.min().doubleValue();
-				mm[0] = Math.max(mm[0], tl);
-				double th = v.max().doubleValue();
-				mm[1] = Math.min(mm[1], th);
-			}
-		}
-		return mm;
-	}
-
 	@Override
 	public void createImage(final IDataset ids) {
 		if (canvas.isDisposed() || isDisposed) return;
 
+		// The thresholds and pixels are worked out on the calling thread so that
+		// only making the image is left to the display thread.
+		final ImageData imgD;
+		final int[] shape = ids.getShape();
+		try {
+			if (shape.length != 2) {
+				setStatus(INVALIDSTATUS);
+				return;
+			}
+			final Dataset ds = DatasetUtils.convertToDataset(ids);
+			final double[] m = HistogramQuantiles.getThresholds(ds, loThreshold, hiThreshold);
+			// Old mapping not necessary anymore 
+//			int redSelect = GlobalColourMaps.colourSelectList.get(colourMapChoice * 4);
+//			int greenSelect = GlobalColourMaps.colourSelectList.get(colourMapChoice * 4 + 1);
+//			int blueSelect = GlobalColourMaps.colourSelectList.get(colourMapChoice * 4 + 2);
+//			AbstractMapFunction redFunc = GlobalColourMaps.mappingFunctions.get(Math.abs(redSelect));
+//			AbstractMapFunction greenFunc = GlobalColourMaps.mappingFunctions.get(Math.abs(greenSelect));
+//			AbstractMapFunction blueFunc = GlobalColourMaps.mappingFunctions.get(Math.abs(blueSelect));
+//			ImageData imgD = SWTImageUtils.createImageData(ds, m[0], m[1], redFunc, greenFunc, blueFunc,
+//					(redSelect < 0), (greenSelect < 0), (blueSelect < 0));
+			imgD = SWTImageUtils.createImageData(ds, m[0], m[1], paletteData);
+		} catch (Exception e) {
+			setStatus(INVALIDSTATUS);
+			logger.debug(e.getMessage());
+			return;
+		}
+
 		canvas.getDisplay().asyncExec(new Runnable() {
 			@Override
 			public void run() {
-				final Dataset ds = DatasetUtils.convertToDataset(ids);
-
-				final int[] shape = ds.getShape();
+				if (canvas.isDisposed() || isDisposed) return;
 				try {
-					if (shape.length == 2) {
-						double[] m = new double[2];
-						if (ds instanceof CompoundDataset) {
-							m = minMax((CompoundDataset) ds, loThreshold, hiThreshold);
-						} else {
-							if (hiThreshold < 1) {
-								if (loThreshold > 0) {
-									m = Stats.quantile(ds, loThreshold, hiThreshold);
-								} else {
-									m = new double[] {ds.min().doubleValue(), Stats.quantile(ds, hiThreshold)};
-								}
-							} else if (loThreshold > 0) {
-								m = new double[] {Stats.quantile(ds, loThreshold), ds.max().doubleValue()};
-							} else {
-								m = new double[] {ds.min().doubleValue(), ds.max().doubleValue()};
-							}
-						}
-						// Old mapping not necessary anymore 
-//						int redSelect = GlobalColourMaps.colourSelectList.get(colourMapChoice * 4);
-//						int greenSelect = GlobalColourMaps.colourSelectList.get(colourMapChoice * 4 + 1);
-//						int blueSelect = GlobalColourMaps.colourSelectList.get(colourMapChoice * 4 + 2);
-//						AbstractMapFunction redFunc = GlobalColourMaps.mappingFunctions.get(Math.abs(redSelect));
-//						AbstractMapFunction greenFunc = GlobalColourMaps.mappingFunctions.get(Math.abs(greenSelect));
-//						AbstractMapFunction blueFunc = GlobalColourMaps.mappingFunctions.get(Math.abs(blueSelect));
-//						ImageData imgD = SWTImageUtils.createImageData(ds, m[0], m[1], redFunc, greenFunc, blueFunc,
-//								(redSelect < 0), (greenSelect < 0), (blueSelect < 0));
-						ImageData imgD = SWTImageUtils.createImageData(ds, m[0], m[1], paletteData);
-						gridImage = new Image(canvas.getDisplay(), imgD);
-						imageDim = new Dimension(shape[1], shape[0]);
-						canvas.redraw();
-					} else {
-						setStatus(INVALIDSTATUS);
-					}
+					// Replace rather than leak an image made meanwhile by another decoder
+					final Image old = gridImage;
+					gridImage = new Image(canvas.getDisplay(), imgD);
+					if (old != null) old.dispose();
+					imageDim = new Dimension(shape[1], shape[0]);
+					canvas.redraw();
 				} catch (Exception e) {
 					setStatus(INVALIDSTATUS);
 					logger.debug(e.getMessage());
@@ -318,7 +264,7 @@ public class SWTGridEntry extends AbstractGridEntry {
 	}
 
 	public boolean hasThumbnailImage() {
-		return thumbnailFilename != null;
+		return ThumbnailCache.getDefault().contains(this);
 	}
 	
 	public boolean hasImage() {
@@ -333,11 +279,7 @@ public class SWTGridEntry extends AbstractGridEntry {
 			!gridImage.isDisposed())
 			gridImage.dispose();
 		
-        if (thumbnailFilename != null)	
-        {
-        	java.io.File imageFile = new java.io.File(thumbnailFilename);
-        	imageFile.delete();
-        }
+		ThumbnailCache.getDefault().remove(this);
 	}
 
 	@Override
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.imagegrid.gridentry;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the pixels of thumbnails which have been scrolled out of view, deflated in
+ * memory, so that they can be shown again without reading the image file or writing
+ * temporary files. The least recently used thumbnails are dropped when the cache is
+ * over its budget, their entries are then loaded from the image file again.
+ */
+public final class ThumbnailCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(ThumbnailCache.class);
+
+	/**
+	 * Budget in megabytes of the cache shared by all image grids, default 64.
+	 */
+	public static final String SIZE_PROPERTY = "uk.ac.diamond.scisoft.imagegrid.thumbnailCacheMB";
+
+	/**
+	 * Bytes taken by a cached thumbnail besides its pixels.
+	 */
+	private static final int OVERHEAD = 128;
+
+	private static ThumbnailCache instance;
+
+	/**
+	 * @return the cache shared by all image grids.
+	 */
+	public static synchronized ThumbnailCache getDefault() {
+		if (instance == null) {
+			instance = new ThumbnailCache(Math.max(1, Integer.getInteger(SIZE_PROPERTY, 64))*1024L*1024L);
+		}
+		return instance;
+	}
+
+	private final long budget;
+	private final Map<Object, Thumbnail> thumbnails;
+	private long usage;
+	private long hits, misses, evictions;
+
+	public ThumbnailCache(long budget) {
+		this.budget = budget;
+		this.thumbnails = new LinkedHashMap<Object, Thumbnail>(89, 0.75f, true);
+	}
+
+	/**
+	 * The pixels of one thumbnail and what is needed to make its ImageData again.
+	 */
+	private static final class Thumbnail {
+		final int width, height, depth, scanlinePad, transparentPixel;
+		final PaletteData palette;
+		final int length;
+		final byte[] deflated;
+
+		Thumbnail(ImageData data, byte[] deflated) {
+			this.width            = data.width;
+			this.height           = data.height;
+			this.depth            = data.depth;
+			this.scanlinePad      = data.scanlinePad;
+			this.transparentPixel = data.transparentPixel;
+			this.palette          = data.palette;
+			this.length           = data.data.length;
+			this.deflated         = deflated;
+		}
+
+		long getSize() {
+			return deflated.length + OVERHEAD;
+		}
+
+		ImageData inflate() throws DataFormatException {
+			final byte[] pixels = new byte[length];
+			final Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(deflated);
+				int done = 0;
+				while (done < length && !inflater.finished()) {
+					final int read = inflater.inflate(pixels, done, length-done);
+					if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+					done += read;
+				}
+				if (done != length) throw new DataFormatException("Thumbnail has "+done+" bytes, expected "+length);
+			} finally {
+				inflater.end();
+			}
+			final ImageData data = new ImageData(width, height, depth, palette, scanlinePad, pixels);
+			data.transparentPixel = transparentPixel;
+			return data;
+		}
+	}
+
+	/**
+	 * Deflates and keeps the pixels of a thumbnail, replacing any kept for the same key.
+	 * The alpha channel, if any, is not kept.
+	 *
+	 * @param key usually the grid entry
+	 * @param data
+	 */
+	public void put(Object key, ImageData data) {
+		if (data == null || data.data == null) return;
+
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		final byte[] deflated;
+		try {
+			deflater.setInput(data.data);
+			deflater.finish();
+			byte[] out = new byte[Math.max(64, data.data.length/4)];
+			int size = 0;
+			while (!deflater.finished()) {
+				if (size == out.length) out = Arrays.copyOf(out, out.length*2);
+				size += deflater.deflate(out, size, out.length-size);
+			}
+			deflated = Arrays.copyOf(out, size);
+		} finally {
+			deflater.end();
+		}
+
+		final Thumbnail thumbnail = new Thumbnail(data, deflated);
+		if (thumbnail.getSize() > budget) return;
+		synchronized (thumbnails) {
+			final Thumbnail old = thumbnails.put(key, thumbnail);
+			if (old != null) usage -= old.getSize();
+			usage += thumbnail.getSize();
+			trim();
+		}
+	}
+
+	private void trim() {
+		final Iterator<Thumbnail> it = thumbnails.values().iterator();
+		while (usage > budget && it.hasNext()) {
+			usage -= it.next().getSize();
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return true if the pixels of this thumbnail are kept, they may still be dropped
+	 *         before they are asked for.
+	 */
+	public boolean contains(Object key) {
+		synchronized (thumbnails) {
+			return thumbnails.containsKey(key);
+		}
+	}
+
+	/**
+	 * Makes the ImageData of a thumbnail again, it is inflated on the calling thread.
+	 *
+	 * @param key
+	 * @return the thumbnail or null if it is not kept.
+	 */
+	public ImageData get(Object key) {
+		final Thumbnail thumbnail;
+		synchronized (thumbnails) {
+			thumbnail = thumbnails.get(key);
+			if (thumbnail == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+		}
+		try {
+			return thumbnail.inflate();
+		} catch (DataFormatException e) {
+			logger.error("Cannot inflate cached thumbnail", e);
+			remove(key);
+			return null;
+		}
+	}
+
+	public void remove(Object key) {
+		synchronized (thumbnails) {
+			final Thumbnail old = thumbnails.remove(key);
+			if (old != null) usage -= old.getSize();
+		}
+	}
+
+	public void clear() {
+		synchronized (thumbnails) {
+			thumbnails.clear();
+			usage = 0;
+		}
+	}
+
+	/**
+	 * @return bytes taken by the kept thumbnails.
+	 */
+	public long getMemoryUsage() {
+		synchronized (thumbnails) {
+			return usage;
+		}
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return number of thumbnails kept.
+	 */
+	public int size() {
+		synchronized (thumbnails) {
+			return thumbnails.size();
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (thumbnails) {
+			return String.format("%d thumbnails in %d of %d kB, %d hits, %d misses, %d dropped",
+					thumbnails.size(), usage/1024, budget/1024, hits, misses, evictions);
+		}
+	}
+}
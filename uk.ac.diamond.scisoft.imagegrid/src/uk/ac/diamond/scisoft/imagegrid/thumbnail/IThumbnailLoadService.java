@@ -1,12 +1,12 @@
 /*-
  * Copyright 2016 Diamond Light Source Ltd.
- * 
+ *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
- * 
+ *
  *   http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
@@ -16,17 +16,47 @@
 
 package uk.ac.diamond.scisoft.imagegrid.thumbnail;
 
+import java.awt.Rectangle;
+
 import uk.ac.diamond.scisoft.imagegrid.gridentry.AbstractGridEntry;
 
 /**
  * Interface used to make GridEntryMonitor more flexible
  */
-public interface IThumbnailLoadService extends Runnable {
+public interface IThumbnailLoadService {
 
+	/**
+	 * Queue an entry whose place in the grid is not known.
+	 * @param entry
+	 * @param highPriority if true loaded with the visible entries.
+	 */
 	public void addLoadJob(AbstractGridEntry entry, boolean highPriority);
 
+	/**
+	 * Queue an entry at a place in the grid. Entries nearer the visible area are
+	 * loaded first, an entry already queued is moved rather than queued twice.
+	 * @param entry
+	 * @param x column in the grid
+	 * @param y row in the grid
+	 */
+	public void addLoadJob(AbstractGridEntry entry, int x, int y);
+
+	/**
+	 * Called when the grid is scrolled. Queued entries are ordered again by their
+	 * distance from the new visible area, those outside the retained area are dropped.
+	 * @param visible grid cells shown
+	 * @param retained grid cells still worth loading, may be null to keep all.
+	 */
+	public void setVisibleArea(Rectangle visible, Rectangle retained);
+
+	/**
+	 * Drops queued entries which are not visible.
+	 */
 	public void clearLowPriorityQueue();
-	
+
+	/**
+	 * Drops queued entries which are visible.
+	 */
 	public void clearHighPriorityQueue();
 
 	public void shutdown();
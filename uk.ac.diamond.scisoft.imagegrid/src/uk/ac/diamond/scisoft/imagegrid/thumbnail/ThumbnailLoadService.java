@@ -8,124 +8,272 @@
  */
 package uk.ac.diamond.scisoft.imagegrid.thumbnail;
 
-import java.util.ArrayDeque;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.january.dataset.IDataset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import uk.ac.diamond.scisoft.analysis.utils.ImageThumbnailLoader;
 import uk.ac.diamond.scisoft.imagegrid.gridentry.AbstractGridEntry;
 import uk.ac.diamond.scisoft.imagegrid.gridentry.SWTGridEntry;
 
 /**
+ * Decodes thumbnails on a pool of threads, one per core by default. Entries nearest
+ * the visible part of the grid are decoded first, entries scrolled well out of view
+ * are dropped before they are decoded and each entry is queued once at most. An entry
+ * being decoded is not queued again until its decoding is done.
  *
+ * The loaders which read the files are not known to be safe to call from more than
+ * one thread, so only one file is read at a time unless {@link #LOADER_PROPERTY} says
+ * otherwise. The other threads meanwhile scale and colour the thumbnails already read
+ * or inflate those kept in the {@link uk.ac.diamond.scisoft.imagegrid.gridentry.ThumbnailCache}.
  */
 public class ThumbnailLoadService implements IThumbnailLoadService {
 
-	protected boolean terminate = false;
-	protected ArrayDeque<AbstractGridEntry> highPriorityQueue;
-	protected ArrayDeque<AbstractGridEntry> lowPriorityQueue;
-	protected final Semaphore locker = new Semaphore(1);
+	private static final Logger logger = LoggerFactory.getLogger(ThumbnailLoadService.class);
+
+	/**
+	 * Number of threads decoding thumbnails, the default is the number of cores.
+	 */
+	public static final String THREAD_PROPERTY = "uk.ac.diamond.scisoft.imagegrid.decoderThreads";
+
+	/**
+	 * Number of files read at once by the loaders, the default is one. Only set higher
+	 * if the loaders of the files shown are known to be reentrant.
+	 */
+	public static final String LOADER_PROPERTY = "uk.ac.diamond.scisoft.imagegrid.loaderThreads";
+
+	/**
+	 * Distance of entries with no place in the grid which are not high priority.
+	 */
+	private static final int FAR = Integer.MAX_VALUE/2;
+
+	protected volatile boolean terminate = false;
+
+	private final ThreadPoolExecutor           decoders;
+	private final Map<AbstractGridEntry, LoadJob> pending;
+	private final AtomicInteger                sequence;
+	private final Semaphore                    loaders;
+	private Rectangle                          visible;
 
 	public ThumbnailLoadService() {
-		highPriorityQueue = new ArrayDeque<AbstractGridEntry>();
-		lowPriorityQueue = new ArrayDeque<AbstractGridEntry>();
+		this(Math.max(1, Integer.getInteger(THREAD_PROPERTY, Runtime.getRuntime().availableProcessors())));
 	}
 
-	@Override
-	public void run() {
-		while (!terminate) {
+	public ThumbnailLoadService(int threads) {
+		pending  = new IdentityHashMap<AbstractGridEntry, LoadJob>(89);
+		sequence = new AtomicInteger(0);
+		loaders  = new Semaphore(Math.max(1, Math.min(threads, Integer.getInteger(LOADER_PROPERTY, 1))));
+		final AtomicInteger count = new AtomicInteger(0);
+		decoders = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), r -> {
+			final Thread thread = new Thread(r, "Thumbnail decoder "+count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY+1);
+			return thread;
+		});
+		decoders.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * A queued entry. Jobs are ordered by their distance when queued, a job whose
+	 * entry is queued again or dropped is marked cancelled and skipped when reached.
+	 * A running job stays pending until it is done, so that its entry is not decoded
+	 * twice at once.
+	 */
+	private class LoadJob implements Runnable, Comparable<LoadJob> {
+
+		private final AbstractGridEntry entry;
+		private final int x, y;
+		private final int distance;
+		private final int order;
+		private volatile boolean cancelled;
+		private boolean running; // guarded by pending
+
+		LoadJob(AbstractGridEntry entry, int x, int y, int distance) {
+			this.entry    = entry;
+			this.x        = x;
+			this.y        = y;
+			this.distance = distance;
+			this.order    = sequence.getAndIncrement();
+		}
+
+		boolean isPlaced() {
+			return x>-1 && y>-1;
+		}
+
+		@Override
+		public int compareTo(LoadJob o) {
+			if (distance!=o.distance) return distance<o.distance ? -1 : 1;
+			return Integer.compare(order, o.order);
+		}
 
-			AbstractGridEntry entry = null;
-			synchronized (highPriorityQueue) {
-				if (highPriorityQueue.size() > 0)
-					entry = highPriorityQueue.pop();
+		@Override
+		public void run() {
+			synchronized (pending) {
+				if (cancelled || terminate) return;
+				running = true;
 			}
-			if (entry != null)
+			try {
 				processJob(entry);
-			else {
-				synchronized (lowPriorityQueue) {
-					if (lowPriorityQueue.size() > 0)
-						entry = lowPriorityQueue.pop();
-				}
-				if (entry != null)
-					processJob(entry);
-				else {
-					try {
-						synchronized (this) {
-							wait();
-						}
-					} catch (InterruptedException ex) {
-					}
+			} catch (InterruptedException ne) {
+				return; // Shut down
+			} catch (Exception ne) {
+				logger.debug("Cannot load thumbnail of "+entry.getFilename(), ne);
+			} finally {
+				synchronized (pending) {
+					pending.remove(entry, this);
 				}
 			}
 		}
 	}
 
-	protected void loadAndCreateThumbnailImage(AbstractGridEntry entry) {
-//		IDataset ds = ImageThumbnailLoader.loadImage(entry.getFilename(), true, false);
-		IDataset ds = ImageThumbnailLoader.getThumbnail(entry.getFilename(), (IDataset) entry.getAdditionalInfo());
+	private void loadAndCreateThumbnailImage(AbstractGridEntry entry) throws InterruptedException {
+		final IDataset ds;
+		loaders.acquire();
+		try {
+			ds = loadThumbnail(entry);
+		} finally {
+			loaders.release();
+		}
+		if (terminate) return;
 		entry.createImage(ds);
-		locker.release();
 	}
 
-	private void processJob(AbstractGridEntry entry) {
-		try {
-			locker.acquire();
-		} catch (InterruptedException e1) {
-			e1.printStackTrace();
-		}
+	/**
+	 * Reads the thumbnail of an entry, never called by more threads at once than
+	 * {@link #LOADER_PROPERTY} allows.
+	 * @param entry
+	 * @return thumbnail
+	 */
+	protected IDataset loadThumbnail(AbstractGridEntry entry) {
+//		return ImageThumbnailLoader.loadImage(entry.getFilename(), true, false);
+		return ImageThumbnailLoader.getThumbnail(entry.getFilename(), (IDataset) entry.getAdditionalInfo());
+	}
+
+	private void processJob(AbstractGridEntry entry) throws InterruptedException {
 		if (entry instanceof SWTGridEntry) {
-			if (!((SWTGridEntry) entry).hasThumbnailImage()) {
+			// The cached thumbnail may have been dropped since it was kept
+			if (!((SWTGridEntry) entry).hasThumbnailImage() || !((SWTGridEntry) entry).loadThumbImage()) {
 				loadAndCreateThumbnailImage(entry);
-			} else {
-				((SWTGridEntry) entry).loadThumbImage();
-				try {
-					Thread.sleep(30);
-				} catch (InterruptedException ex) {
-				}
-				locker.release();
 			}
 		}
 	}
 
 	@Override
-	public synchronized void addLoadJob(AbstractGridEntry entry, boolean highPriority) {
-		notify();
-		if (highPriority) {
-			synchronized (highPriorityQueue) {
-				highPriorityQueue.add(entry);
-			}
-		} else {
-			synchronized (lowPriorityQueue) {
-				lowPriorityQueue.add(entry);
+	public void addLoadJob(AbstractGridEntry entry, boolean highPriority) {
+		queue(entry, -1, -1, highPriority ? 0 : FAR);
+	}
+
+	@Override
+	public void addLoadJob(AbstractGridEntry entry, int x, int y) {
+		queue(entry, x, y, -1);
+	}
+
+	/**
+	 * @param distance if negative worked out from x and y
+	 */
+	private void queue(AbstractGridEntry entry, int x, int y, int distance) {
+		synchronized (pending) {
+			if (terminate) return;
+			final LoadJob old = pending.get(entry);
+			if (old!=null && old.running) return; // The thumbnail is on its way
+			final LoadJob job = new LoadJob(entry, x, y, distance<0 ? distance(x, y) : distance);
+			pending.put(entry, job);
+			if (old!=null) {
+				old.cancelled = true;
+				decoders.remove(old);
 			}
+			decoders.execute(job);
 		}
 	}
 
+	/**
+	 * @return number of cells from the visible area, 0 if inside it.
+	 */
+	private int distance(int x, int y) {
+		final Rectangle area = visible;
+		if (area==null) return 0;
+		final int dx = x<area.x ? area.x-x : Math.max(0, x-(area.x+area.width-1));
+		final int dy = y<area.y ? area.y-y : Math.max(0, y-(area.y+area.height-1));
+		return Math.max(dx, dy);
+	}
+
 	@Override
-	public synchronized void clearLowPriorityQueue() {
-		synchronized (lowPriorityQueue) {
-			lowPriorityQueue.clear();
+	public void setVisibleArea(Rectangle visibleArea, Rectangle retained) {
+		synchronized (pending) {
+			this.visible = new Rectangle(visibleArea);
+			if (terminate) return;
+
+			// Take the waiting jobs out and put them back in order of the new distances.
+			final List<LoadJob> jobs = new ArrayList<LoadJob>(pending.size());
+			for (LoadJob job : pending.values()) {
+				if (!job.running) {
+					job.cancelled = true;
+					jobs.add(job);
+				}
+			}
+			decoders.getQueue().clear();
+			pending.values().removeIf(job -> job.cancelled);
+			for (LoadJob job : jobs) {
+				if (!job.isPlaced()) {
+					queue(job.entry, -1, -1, job.distance);
+				} else if (retained==null || retained.contains(job.x, job.y) || visibleArea.contains(job.x, job.y)) {
+					queue(job.entry, job.x, job.y, -1);
+				}
+			}
 		}
 	}
 
 	@Override
-	public synchronized void clearHighPriorityQueue() {
-		synchronized (highPriorityQueue) {
-			highPriorityQueue.clear();
-		}
+	public void clearLowPriorityQueue() {
+		clear(false);
 	}
 
 	@Override
-	public synchronized void shutdown() {
-		notify();
-		synchronized (highPriorityQueue) {
-			highPriorityQueue.clear();
+	public void clearHighPriorityQueue() {
+		clear(true);
+	}
+
+	private void clear(boolean visibleJobs) {
+		synchronized (pending) {
+			for (LoadJob job : pending.values()) {
+				if (!job.running && (job.distance==0)==visibleJobs) job.cancelled = true;
+			}
+			pending.values().removeIf(job -> job.cancelled);
+			decoders.getQueue().removeIf(job -> ((LoadJob)job).cancelled);
+		}
+	}
+
+	/**
+	 * @return number of entries waiting to be decoded or being decoded.
+	 */
+	public int getPendingCount() {
+		synchronized (pending) {
+			return pending.size();
 		}
-		synchronized (lowPriorityQueue) {
-			lowPriorityQueue.clear();
+	}
+
+	public int getThreadCount() {
+		return decoders.getMaximumPoolSize();
+	}
+
+	@Override
+	public void shutdown() {
+		synchronized (pending) {
+			terminate = true;
+			for (LoadJob job : pending.values()) job.cancelled = true;
+			pending.clear();
 		}
-		terminate = true;
+		decoders.shutdownNow();
 	}
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.qstatmonitor.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+/**
+ * Times reading qstat -xml output into a document and pulling the columns out of it,
+ * as the monitor used to, against reading it with {@link QStatParser} and working out
+ * the changes from the last poll.
+ * <p>
+ * Takes the path of recorded qstat -xml output, or makes up the output of 20000 jobs.
+ */
+public class QStatParserBenchmark {
+
+	private static final int JOBS = 20000;
+	private static final int RUNS = 20;
+
+	public static void main(String[] args) throws Exception {
+		final String xml = args.length > 0 ? new String(Files.readAllBytes(Paths.get(args[0])), StandardCharsets.UTF_8)
+				: createXML(JOBS, 0);
+		final String next = args.length > 1 ? new String(Files.readAllBytes(Paths.get(args[1])), StandardCharsets.UTF_8)
+				: createXML(JOBS, 1);
+		final byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+		final byte[] nextBytes = next.getBytes(StandardCharsets.UTF_8);
+
+		for (int warm = 0; warm < 5; warm++) {
+			readDocument(xml);
+			QStatSnapshot.reconcile(QStatParser.parse(new ByteArrayInputStream(bytes)),
+					QStatParser.parse(new ByteArrayInputStream(nextBytes)));
+		}
+
+		int jobs = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			jobs = readDocument(xml).get(0).size();
+		}
+		final long document = (System.nanoTime() - start) / RUNS;
+
+		start = System.nanoTime();
+		QStatSnapshot previous = null;
+		for (int i = 0; i < RUNS; i++) {
+			previous = QStatParser.parse(new ByteArrayInputStream(bytes));
+		}
+		final long parse = (System.nanoTime() - start) / RUNS;
+
+		start = System.nanoTime();
+		QStatDelta delta = null;
+		for (int i = 0; i < RUNS; i++) {
+			delta = QStatSnapshot.reconcile(previous, QStatParser.parse(new ByteArrayInputStream(nextBytes)));
+		}
+		final long update = (System.nanoTime() - start) / RUNS;
+
+		System.out.println(jobs + " jobs, " + bytes.length / 1024 + " kB");
+		System.out.printf("document:          %8.2f ms%n", document / 1e6);
+		System.out.printf("stream:            %8.2f ms%n", parse / 1e6);
+		System.out.printf("stream and delta:  %8.2f ms (%s)%n", update / 1e6, delta);
+	}
+
+	/**
+	 * Reads the columns as the monitor did before {@link QStatParser}
+	 */
+	private static List<List<String>> readDocument(String xml) throws Exception {
+		final List<List<String>> lists = new ArrayList<List<String>>();
+		for (int c = 0; c < QStatSnapshot.TAGS.length; c++) {
+			lists.add(new ArrayList<String>());
+		}
+		DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+		Document doc = builder.parse(new InputSource(new StringReader(xml)));
+		doc.getDocumentElement().normalize();
+		NodeList jobs = doc.getElementsByTagName("job_list");
+		for (int j = 0; j < jobs.getLength(); j++) {
+			Element job = (Element) jobs.item(j);
+			for (int c = 0; c < QStatSnapshot.TAGS.length; c++) {
+				NodeList tags = job.getElementsByTagName(QStatSnapshot.TAGS[c]);
+				lists.get(c).add(tags.getLength() == 0 ? "" : tags.item(0).getTextContent());
+			}
+		}
+		return lists;
+	}
+
+	/**
+	 * Makes up qstat -xml output. Each poll finishes the first 1% of the jobs, starts
+	 * some of the queued jobs and submits as many jobs as finished.
+	 * @param jobs
+	 * @param poll
+	 */
+	static String createXML(int jobs, int poll) {
+		final int churn = jobs / 100;
+		final int first = poll * churn;
+		final int queued = first + jobs / 2 + churn / 2; // first job still queued
+		final StringBuilder xml = new StringBuilder(jobs * 400);
+		xml.append("<?xml version='1.0'?>\n<job_info  xmlns:xsd=\"http://arc.liv.ac.uk/repos/darcs/sge/source/dist/util/resources/schemas/qstat/qstat.xsd\">\n");
+		xml.append("  <queue_info>\n");
+		appendJobs(xml, first, queued, true);
+		xml.append("  </queue_info>\n  <job_info>\n");
+		appendJobs(xml, queued, first + jobs, false);
+		xml.append("  </job_info>\n</job_info>\n");
+		return xml.toString();
+	}
+
+	private static void appendJobs(StringBuilder xml, int from, int to, boolean running) {
+		for (int j = from; j < to; j++) {
+			xml.append("    <job_list state=\"").append(running ? "running" : "pending").append("\">\n");
+			xml.append("      <JB_job_number>").append(1000000 + j).append("</JB_job_number>\n");
+			xml.append("      <JAT_prio>0.5").append(j % 7).append("000</JAT_prio>\n");
+			xml.append("      <JB_name>job_").append(j % 500).append(".sh</JB_name>\n");
+			xml.append("      <JB_owner>user").append(j % 40).append("</JB_owner>\n");
+			xml.append("      <state>").append(running ? "r" : "qw").append("</state>\n");
+			xml.append("      <JB_submission_time>2012-06-0").append(1 + j % 9).append("T12:00:00</JB_submission_time>\n");
+			xml.append("      <queue_name>").append(running ? "medium.q@node" + (j % 300) : "").append("</queue_name>\n");
+			xml.append("      <slots>").append(1 + j % 4).append("</slots>\n");
+			if (j % 10 == 0) {
+				xml.append("      <tasks>1-").append(1 + j % 100).append(":1</tasks>\n");
+			}
+			xml.append("    </job_list>\n");
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.qstatmonitor.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static uk.ac.diamond.scisoft.qstatmonitor.api.QStatSnapshotTest.job;
+import static uk.ac.diamond.scisoft.qstatmonitor.api.QStatSnapshotTest.xml;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.qstatmonitor.api.QStatSampler.Subscription;
+
+public class QStatSamplerTest {
+
+	private static final long LONG_INTERVAL = 10000; // no run is due by its interval within a test
+
+	/**
+	 * Gives the same output until told otherwise, optionally waiting for a permit
+	 * before each fetch returns
+	 */
+	private static class FakeFetcher implements QStatSampler.Fetcher {
+		private final BlockingQueue<String> fetched = new LinkedBlockingQueue<String>();
+		private final Semaphore permits;
+		private volatile String output = xml(job("1", "r", "1", ""));
+		private volatile boolean failing;
+
+		FakeFetcher(boolean gated) {
+			permits = gated ? new Semaphore(0) : null;
+		}
+
+		@Override
+		public byte[] fetch(String query, String user) throws IOException {
+			fetched.add(user);
+			if (permits != null) {
+				permits.acquireUninterruptibly();
+			}
+			if (failing) {
+				throw new IOException("qstat not found");
+			}
+			return output.getBytes(StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * @return user of the query fetched next, waiting for it to start
+		 */
+		String awaitFetch() throws InterruptedException {
+			final String user = fetched.poll(5, TimeUnit.SECONDS);
+			assertNotNull("Query was not run", user);
+			return user;
+		}
+	}
+
+	private static class Recorder implements QStatSampler.Listener {
+		private final BlockingQueue<Object> told = new LinkedBlockingQueue<Object>();
+
+		@Override
+		public void sampled(QStatSnapshot snapshot) {
+			told.add(snapshot);
+		}
+
+		@Override
+		public void failed(Exception e) {
+			told.add(e);
+		}
+
+		Object await() throws InterruptedException {
+			final Object o = told.poll(5, TimeUnit.SECONDS);
+			assertNotNull("Listener was not told", o);
+			return o;
+		}
+	}
+
+	@Test
+	public void testSubscribersShareQuery() throws Exception {
+		final FakeFetcher fetcher = new FakeFetcher(false);
+		final QStatSampler sampler = new QStatSampler(fetcher);
+		final Recorder first = new Recorder();
+		final Recorder second = new Recorder();
+		final Recorder other = new Recorder();
+
+		final Subscription a = sampler.subscribe("qstat", "user", LONG_INTERVAL, first);
+		fetcher.awaitFetch();
+		final QStatSnapshot snapshot = (QStatSnapshot) first.await();
+
+		// sampled within the interval, so the second subscriber is given the same sample
+		final Subscription b = sampler.subscribe("qstat", "user", LONG_INTERVAL, second);
+		assertSame(snapshot, second.await());
+		assertEquals(1, sampler.size());
+		assertEquals(1, b.getSamples());
+
+		// one run for both, the unchanged output is not parsed again
+		b.refresh();
+		fetcher.awaitFetch();
+		assertSame(snapshot, first.await());
+		assertSame(snapshot, second.await());
+		assertEquals(2, a.getSamples());
+
+		final Subscription c = sampler.subscribe("qstat", "someone", LONG_INTERVAL, other);
+		assertEquals("someone", fetcher.awaitFetch());
+		other.await();
+		assertEquals(2, sampler.size());
+
+		a.cancel();
+		assertEquals(2, sampler.size());
+		b.cancel();
+		c.cancel();
+		assertEquals(0, sampler.size());
+		assertNull(fetcher.fetched.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testUnchangedOutputBacksOff() throws Exception {
+		final FakeFetcher fetcher = new FakeFetcher(true);
+		final QStatSampler sampler = new QStatSampler(fetcher);
+		final long interval = 10;
+		final Subscription s = sampler.subscribe("qstat", "user", interval, new Recorder());
+		try {
+			fetcher.awaitFetch();
+			fetcher.permits.release();
+			// each run is scheduled once the one before has finished
+			for (long expected : new long[] { 1, 2, 3, QStatSampler.MAXIMUM_BACKOFF, QStatSampler.MAXIMUM_BACKOFF }) {
+				fetcher.awaitFetch();
+				assertEquals(expected * interval, s.getDelay());
+				fetcher.permits.release();
+			}
+
+			fetcher.awaitFetch();
+			fetcher.output = xml(job("1", "r", "1", ""), job("2", "qw", "1", ""));
+			fetcher.permits.release();
+			fetcher.awaitFetch();
+			assertEquals(interval, s.getDelay());
+		} finally {
+			s.cancel();
+			fetcher.permits.release(100);
+		}
+	}
+
+	@Test
+	public void testRefreshRestartsBackoff() throws Exception {
+		final FakeFetcher fetcher = new FakeFetcher(false);
+		final QStatSampler sampler = new QStatSampler(fetcher);
+		final Recorder recorder = new Recorder();
+		final Subscription s = sampler.subscribe("qstat", "user", LONG_INTERVAL, recorder);
+		try {
+			fetcher.awaitFetch();
+			recorder.await();
+			awaitDelay(s, LONG_INTERVAL);
+
+			// run at once rather than at the delay, and put off only as after one unchanged run
+			for (int i = 0; i < 3; i++) {
+				s.refresh();
+				fetcher.awaitFetch();
+				recorder.await();
+				awaitDelay(s, QStatSampler.getDelay(LONG_INTERVAL, 1));
+			}
+			assertEquals(4, s.getSamples());
+		} finally {
+			s.cancel();
+		}
+	}
+
+	@Test
+	public void testRefreshWhileRunning() throws Exception {
+		final FakeFetcher fetcher = new FakeFetcher(true);
+		final QStatSampler sampler = new QStatSampler(fetcher);
+		final Subscription s = sampler.subscribe("qstat", "user", LONG_INTERVAL, new Recorder());
+		try {
+			fetcher.awaitFetch();
+			fetcher.permits.release();
+			awaitDelay(s, LONG_INTERVAL);
+
+			s.refresh();
+			fetcher.awaitFetch();
+			s.refresh(); // run again once this unchanged run finishes, without counting it
+			fetcher.permits.release();
+			fetcher.awaitFetch();
+			fetcher.permits.release();
+			awaitDelay(s, QStatSampler.getDelay(LONG_INTERVAL, 1));
+			assertEquals(3, s.getSamples());
+		} finally {
+			s.cancel();
+			fetcher.permits.release(100);
+		}
+	}
+
+	@Test
+	public void testFailureTold() throws Exception {
+		final FakeFetcher fetcher = new FakeFetcher(false);
+		fetcher.failing = true;
+		final QStatSampler sampler = new QStatSampler(fetcher);
+		final Recorder recorder = new Recorder();
+		final Subscription s = sampler.subscribe("qstat", "user", LONG_INTERVAL, recorder);
+		try {
+			assertTrue(recorder.await() instanceof IOException);
+			assertEquals(1, s.getFailures());
+
+			fetcher.failing = false;
+			s.refresh();
+			assertTrue(recorder.await() instanceof QStatSnapshot);
+			assertEquals(1, s.getFailures());
+		} finally {
+			s.cancel();
+		}
+	}
+
+	/**
+	 * Listeners are told before the next run is scheduled
+	 */
+	private static void awaitDelay(Subscription s, long expected) throws InterruptedException {
+		final long end = System.currentTimeMillis() + 5000;
+		while (s.getDelay() != expected && System.currentTimeMillis() < end) {
+			Thread.sleep(5);
+		}
+		assertEquals(expected, s.getDelay());
+	}
+
+	@Test
+	public void testDelay() {
+		assertEquals(1000, QStatSampler.getDelay(1000, 0));
+		assertEquals(2000, QStatSampler.getDelay(1000, 1));
+		assertEquals(QStatSampler.MAXIMUM_BACKOFF * 1000, QStatSampler.getDelay(1000, 100));
+		assertEquals(QStatSampler.MAXIMUM_DELAY, QStatSampler.getDelay(30000, 3));
+		assertEquals(100000, QStatSampler.getDelay(100000, 3)); // never less than the interval
+	}
+}
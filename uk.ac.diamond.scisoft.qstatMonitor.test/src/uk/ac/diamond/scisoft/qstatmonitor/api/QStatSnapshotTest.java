@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.qstatmonitor.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class QStatSnapshotTest {
+
+	@Test
+	public void testParse() throws Exception {
+		final QStatSnapshot snapshot = parse(job("1", "r", "4", ""), job("2", "qw", "1", "1-10:1"));
+
+		assertEquals(2, snapshot.size());
+		assertEquals("1", snapshot.getKey(0));
+		assertEquals("2.1-10:1", snapshot.getKey(1));
+		assertEquals("qw", snapshot.get(1, QStatSnapshot.STATE));
+		assertEquals(4, snapshot.getSlots(0));
+		assertEquals(1, snapshot.indexOf("2.1-10:1"));
+		assertEquals(-1, snapshot.indexOf("2"));
+	}
+
+	@Test
+	public void testReconcileFirst() throws Exception {
+		final QStatSnapshot next = parse(job("1", "r", "1", ""), job("2", "qw", "1", ""));
+		final QStatDelta delta = QStatSnapshot.reconcile(null, next);
+
+		assertEquals(2, delta.getInserted());
+		assertEquals(0, delta.getRemoved().length);
+		assertEquals(0, delta.getUpdated().length);
+		assertArrayEquals(new String[] { "1", "2" }, delta.getSnapshot().getColumn(QStatSnapshot.JOB_NUMBER));
+	}
+
+	@Test
+	public void testReconcileUnchanged() throws Exception {
+		final String[] jobs = { job("1", "r", "1", ""), job("2", "qw", "1", "") };
+		final QStatDelta delta = QStatSnapshot.reconcile(parse(jobs), parse(jobs));
+
+		assertTrue(delta.toString(), delta.isEmpty());
+	}
+
+	@Test
+	public void testReconcileKeepsShownOrder() throws Exception {
+		final QStatSnapshot previous = parse(job("1", "r", "1", ""), job("2", "qw", "1", ""), job("3", "qw", "1", ""),
+				job("4", "qw", "1", "1-4:1"));
+		// 1 finished, 3 started, 5 submitted and the rest listed in another order
+		final QStatSnapshot next = parse(job("5", "qw", "2", ""), job("3", "r", "1", ""), job("4", "qw", "1", "1-4:1"),
+				job("2", "qw", "1", ""));
+		final QStatDelta delta = QStatSnapshot.reconcile(previous, next);
+
+		assertArrayEquals(new int[] { 0 }, delta.getRemoved());
+		assertEquals(1, delta.getInserted());
+		assertArrayEquals(new int[] { 1 }, delta.getUpdated()); // job 3, after job 1 is removed
+		final QStatSnapshot shown = delta.getSnapshot();
+		assertArrayEquals(new String[] { "2", "3", "4", "5" }, shown.getColumn(QStatSnapshot.JOB_NUMBER));
+		assertArrayEquals(new String[] { "qw", "r", "qw", "qw" }, shown.getColumn(QStatSnapshot.STATE));
+		assertEquals(2, shown.getSlots(3));
+	}
+
+	@Test
+	public void testReconcileTasksAreJobs() throws Exception {
+		final QStatSnapshot previous = parse(job("7", "qw", "1", "1-10:1"));
+		final QStatSnapshot next = parse(job("7", "r", "1", "1"), job("7", "qw", "1", "2-10:1"));
+		final QStatDelta delta = QStatSnapshot.reconcile(previous, next);
+
+		assertArrayEquals(new int[] { 0 }, delta.getRemoved());
+		assertEquals(2, delta.getInserted());
+		assertArrayEquals(new String[] { "1", "2-10:1" }, delta.getSnapshot().getColumn(QStatSnapshot.TASKS));
+	}
+
+	@Test
+	public void testReconcileDuplicateKey() throws Exception {
+		final QStatSnapshot previous = parse(job("1", "r", "1", ""), job("1", "r", "1", ""));
+		final QStatSnapshot next = parse(job("1", "r", "1", ""));
+		final QStatDelta delta = QStatSnapshot.reconcile(previous, next);
+
+		assertArrayEquals(new int[] { 1 }, delta.getRemoved());
+		assertEquals(0, delta.getInserted());
+		assertEquals(1, delta.getSnapshot().size());
+	}
+
+	@Test
+	public void testConvertLeavesEmptyListsOnFailure() {
+		@SuppressWarnings("unchecked")
+		final ArrayList<String>[] lists = new ArrayList[QStatSnapshot.TAGS.length];
+		assertNull(QStatMonitorAPI.convertXMLToStringArrays(lists, "<?xml version='1.0'?><job_info><job_list>"));
+		for (ArrayList<String> list : lists) {
+			assertTrue(list.isEmpty());
+		}
+	}
+
+	@Test
+	public void testConvert() {
+		@SuppressWarnings("unchecked")
+		final ArrayList<String>[] lists = new ArrayList[QStatSnapshot.TAGS.length];
+		QStatMonitorAPI.convertXMLToStringArrays(lists, xml(job("1", "r", "4", ""), job("2", "qw", "1", "")));
+		assertEquals("[1, 2]", lists[QStatSnapshot.JOB_NUMBER].toString());
+		assertEquals("[4, 1]", lists[QStatSnapshot.SLOTS].toString());
+	}
+
+	static QStatSnapshot parse(String... jobs) throws Exception {
+		return QStatParser.parse(new StringReader(xml(jobs)));
+	}
+
+	/**
+	 * @return qstat -xml output of the jobs
+	 */
+	static String xml(String... jobs) {
+		final StringBuilder xml = new StringBuilder("<?xml version='1.0'?>\n<job_info>\n  <queue_info>\n");
+		for (String job : jobs) {
+			xml.append(job);
+		}
+		return xml.append("  </queue_info>\n</job_info>\n").toString();
+	}
+
+	static String job(String number, String state, String slots, String tasks) {
+		final StringBuilder xml = new StringBuilder("    <job_list>\n");
+		xml.append("      <JB_job_number>").append(number).append("</JB_job_number>\n");
+		xml.append("      <JAT_prio>0.50000</JAT_prio>\n");
+		xml.append("      <JB_name>job_").append(number).append(".sh</JB_name>\n");
+		xml.append("      <JB_owner>user</JB_owner>\n");
+		xml.append("      <state>").append(state).append("</state>\n");
+		xml.append("      <JB_submission_time>2012-06-01T12:00:00</JB_submission_time>\n");
+		xml.append("      <queue_name></queue_name>\n");
+		xml.append("      <slots>").append(slots).append("</slots>\n");
+		if (!tasks.isEmpty()) {
+			xml.append("      <tasks>").append(tasks).append("</tasks>\n");
+		}
+		return xml.append("    </job_list>\n").toString();
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.qstatmonitor.views;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class JobStateHistoryTest {
+
+	private static final double DELTA = 1e-9;
+
+	private static final int TIME    = 0;
+	private static final int RUNNING = 1 + JobStateHistory.RUNNING;
+
+	@Test
+	public void testSamplesKeptAsTheyAre() {
+		final JobStateHistory history = new JobStateHistory();
+		history.add(0, 1, 2, 3);
+		history.add(0.25, 4, 5, 6);
+		history.add(0.5, 7, 8, 9);
+
+		final double[][] series = history.getSeries(0, 1, 100);
+		assertEquals(3, history.size());
+		assertArrayEquals(new double[] { 0, 0.25, 0.5 }, series[TIME], DELTA);
+		assertArrayEquals(new double[] { 1, 4, 7 }, series[1 + JobStateHistory.SUSPENDED], DELTA);
+		assertArrayEquals(new double[] { 2, 5, 8 }, series[1 + JobStateHistory.QUEUED], DELTA);
+		assertArrayEquals(new double[] { 3, 6, 9 }, series[RUNNING], DELTA);
+	}
+
+	@Test
+	public void testMinuteMeansBeforeSamples() {
+		// sampled each second, so the first 100 samples are only kept as minute means
+		final JobStateHistory history = new JobStateHistory();
+		final int n = JobStateHistory.RAW_CAPACITY + 100;
+		for (int i = 0; i < n; i++) {
+			history.add(i / 60.0, 0, 0, i);
+		}
+		assertEquals(JobStateHistory.RAW_CAPACITY, history.size());
+
+		final double[][] series = history.getSeries(0, n, Integer.MAX_VALUE);
+		assertEquals(2 + JobStateHistory.RAW_CAPACITY, series[TIME].length);
+		assertEquals(29.5 / 60, series[TIME][0], DELTA);
+		assertEquals(29.5, series[RUNNING][0], DELTA);
+		assertEquals(89.5 / 60, series[TIME][1], DELTA);
+		assertEquals(89.5, series[RUNNING][1], DELTA);
+		assertEquals(100 / 60.0, series[TIME][2], DELTA);
+		assertEquals(n - 1, series[RUNNING][series[RUNNING].length - 1], DELTA);
+		assertIncreasing(series[TIME]);
+	}
+
+	@Test
+	public void testHourMeansBeforeMinutes() {
+		// sampled every ten seconds for two and a half days
+		final JobStateHistory history = new JobStateHistory();
+		final int minutes = 60 * 60;
+		for (int m = 0; m < minutes; m++) {
+			for (int s = 0; s < 60; s += 10) {
+				history.add(m + s / 60.0, 0, 0, m);
+			}
+		}
+
+		final double[][] series = history.getSeries(0, minutes, Integer.MAX_VALUE);
+		// the minute ring starts at the last minute of hour 11, the one before the minute in progress
+		final int hours = 12;
+		final int firstMinute = minutes - 1 - JobStateHistory.MINUTE_CAPACITY;
+		for (int h = 0; h < hours; h++) {
+			assertEquals(h * 60 + 29.5 + 25 / 60.0, series[TIME][h], DELTA);
+			assertEquals(h * 60 + 29.5, series[RUNNING][h], DELTA);
+		}
+		assertEquals(firstMinute + 25 / 60.0, series[TIME][hours], DELTA);
+		assertEquals(firstMinute, series[RUNNING][hours], DELTA);
+		assertIncreasing(series[TIME]);
+	}
+
+	@Test
+	public void testHourMeansBeforeSlowSamples() {
+		// sampled each minute, so the samples go back further than the minute means
+		final JobStateHistory history = new JobStateHistory();
+		final int minutes = 3 * 24 * 60;
+		for (int m = 0; m < minutes; m++) {
+			history.add(m, 0, 0, m);
+		}
+
+		final double[][] series = history.getSeries(0, minutes, Integer.MAX_VALUE);
+		final int firstSample = minutes - JobStateHistory.RAW_CAPACITY;
+		final int hours = firstSample / 60;
+		assertEquals(hours + JobStateHistory.RAW_CAPACITY, series[TIME].length);
+		assertEquals((hours - 1) * 60 + 29.5, series[TIME][hours - 1], DELTA);
+		assertEquals(firstSample, series[TIME][hours], DELTA);
+		assertIncreasing(series[TIME]);
+	}
+
+	@Test
+	public void testRange() {
+		final JobStateHistory history = new JobStateHistory();
+		for (int i = 0; i < 100; i++) {
+			history.add(i / 100.0, 0, 0, i);
+		}
+
+		final double[][] series = history.getSeries(0.195, 0.295, 100);
+		assertEquals(10, series[TIME].length);
+		assertEquals(20, series[RUNNING][0], DELTA);
+		assertEquals(29, series[RUNNING][9], DELTA);
+	}
+
+	@Test
+	public void testReducedToMeans() {
+		final JobStateHistory history = new JobStateHistory();
+		for (int i = 0; i < 100; i++) {
+			history.add(i / 100.0, 0, 0, i);
+		}
+
+		final double[][] series = history.getSeries(0, 1, 10);
+		assertEquals(10, series[TIME].length);
+		for (int p = 0; p < 10; p++) {
+			assertEquals(p * 10 + 4.5, series[RUNNING][p], DELTA);
+			assertEquals((p * 10 + 4.5) / 100, series[TIME][p], DELTA);
+		}
+
+		assertEquals(1, history.getSeries(0, 1, 0)[TIME].length);
+		assertEquals(49.5, history.getSeries(0, 1, 1)[RUNNING][0], DELTA);
+	}
+
+	@Test
+	public void testClear() {
+		final JobStateHistory history = new JobStateHistory();
+		history.add(0, 0, 0, 100);
+		history.add(0.5, 0, 0, 100);
+		history.clear();
+		assertEquals(0, history.size());
+		assertEquals(0, history.getSeries(0, 10, 100)[TIME].length);
+
+		history.add(0.75, 0, 0, 1);
+		history.add(1, 0, 0, 1);
+		history.add(2, 0, 0, 1);
+		final double[][] series = history.getSeries(0, 10, 100);
+		assertArrayEquals(new double[] { 1, 1, 1 }, series[RUNNING], DELTA);
+	}
+
+	private static void assertIncreasing(double[] times) {
+		for (int i = 1; i < times.length; i++) {
+			assertTrue("Time " + i + " not after the one before", times[i] > times[i - 1]);
+		}
+	}
+}
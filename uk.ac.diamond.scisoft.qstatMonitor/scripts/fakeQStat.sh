@@ -0,0 +1,23 @@
+#!/bin/bash
+# Stands in for getQStatXML.sh without a cluster. Start the monitor with
+#   -Duk.ac.diamond.scisoft.qstatmonitor.qstatScript=<path of this script>
+# and QSTAT_RECORDINGS set to a folder of recorded "qstat -xml" output files,
+# which are written out in turn, one per query, going back to the first after
+# the last. The query and user arguments are ignored.
+
+if [ -z "$QSTAT_RECORDINGS" ] || [ ! -d "$QSTAT_RECORDINGS" ]; then
+	echo "QSTAT_RECORDINGS is not set to a folder of recorded qstat output."
+	exit 1
+fi
+
+recordings=("$QSTAT_RECORDINGS"/*)
+if [ ! -f "${recordings[0]}" ]; then
+	echo "No recorded qstat output in $QSTAT_RECORDINGS."
+	exit 1
+fi
+
+counter="$QSTAT_RECORDINGS/.next" # not matched by the glob
+next=$(cat "$counter" 2> /dev/null)
+next=${next:-0}
+cat "${recordings[$((next % ${#recordings[@]}))]}"
+echo $((next + 1)) > "$counter"
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.qstatmonitor.api;
+
+/**
+ * The changes from the jobs shown to the jobs fetched. Applied in order, removing
+ * the removed rows, adding the inserted rows at the end and refreshing the updated
+ * rows turns the rows shown into those of {@link #getSnapshot()}.
+ */
+public final class QStatDelta {
+
+	private final QStatSnapshot snapshot;
+	private final int[] removed;
+	private final int inserted;
+	private final int[] updated;
+
+	QStatDelta(QStatSnapshot snapshot, int[] removed, int inserted, int[] updated) {
+		this.snapshot = snapshot;
+		this.removed = removed;
+		this.inserted = inserted;
+		this.updated = updated;
+	}
+
+	/**
+	 * @return the jobs fetched, in the order they are shown after the changes
+	 */
+	public QStatSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @return rows of the jobs shown which are gone, in ascending order
+	 */
+	public int[] getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return number of jobs added after the jobs kept
+	 */
+	public int getInserted() {
+		return inserted;
+	}
+
+	/**
+	 * @return rows, after the removals, of the jobs kept whose values changed
+	 */
+	public int[] getUpdated() {
+		return updated;
+	}
+
+	public boolean isEmpty() {
+		return removed.length == 0 && inserted == 0 && updated.length == 0;
+	}
+
+	@Override
+	public String toString() {
+		return removed.length + " removed, " + inserted + " inserted, " + updated.length + " updated of "
+				+ snapshot.size();
+	}
+}
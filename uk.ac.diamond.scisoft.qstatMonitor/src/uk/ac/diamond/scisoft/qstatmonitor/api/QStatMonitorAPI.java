@@ -8,23 +8,19 @@
  */
 package uk.ac.diamond.scisoft.qstatmonitor.api;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
+import java.util.Arrays;
 
-public class QStatMonitorAPI {
+import javax.xml.stream.XMLStreamException;
 
-	private static Process process = null;
+public class QStatMonitorAPI {
 
 	public static void main(String[] args) {
 		// System.out.println(getAbsoluteScriptPath());
@@ -48,47 +44,116 @@ public class QStatMonitorAPI {
 	}
 
 	/**
-	 * Runs given command with arguments and returns the output as a String
+	 * Runs the qstat query and reads the jobs it returns
 	 * 
-	 * @param cmd
-	 *            command to run, this will usually be the script that is ran
-	 * @param argment
-	 *            the first argument, this will be the main qstat query
+	 * @param argument
+	 *            the qstat query
 	 * @param userString
 	 *            the user name pattern to filter the users by in the query
-	 * @return
+	 * @return jobs
+	 * @throws IOException
+	 *             if the query cannot be run or does not return XML
+	 * @throws XMLStreamException
+	 *             if the XML cannot be read
 	 */
-	public static String runScriptAndGetOutput(String cmd, String argment,
-			String userString) {
-		String result = "";
+	public static QStatSnapshot getSnapshot(String argument, String userString) throws IOException, XMLStreamException {
+		return parseOutput(argument, runQuery(argument, userString));
+	}
+
+	/**
+	 * Name of the system property which gives a script to run in place of
+	 * getQStatXML.sh, with the same arguments, for example one which writes
+	 * recorded qstat output so that the monitor can be run without a cluster
+	 */
+	public static final String SCRIPT_PROPERTY = "uk.ac.diamond.scisoft.qstatmonitor.qstatScript";
+
+	/**
+	 * Runs the qstat query
+	 * 
+	 * @return output of the query
+	 * @throws IOException
+	 *             if the query cannot be run
+	 */
+	static byte[] runQuery(String argument, String userString) throws IOException {
+		String script = System.getProperty(SCRIPT_PROPERTY);
+		if (script == null || script.isEmpty()) {
+			script = getAbsoluteScriptPath() + "getQStatXML.sh";
+		}
+		return runScript(script, argument, userString);
+	}
+
+	/**
+	 * Reads the jobs from the output of a qstat query
+	 * 
+	 * @throws IOException
+	 *             if the output does not contain XML
+	 * @throws XMLStreamException
+	 *             if the XML cannot be read
+	 */
+	static QStatSnapshot parseOutput(String argument, byte[] output) throws IOException, XMLStreamException {
+		int start = indexOf(output, XML_HEADER);
+		if (start < 0) {
+			throw new IOException("Can not find XML header in output of " + argument);
+		}
+		return QStatParser.parse(new ByteArrayInputStream(output, start, output.length - start));
+	}
+
+	private static final byte[] XML_HEADER = "<?xml version='1.0'?".getBytes(StandardCharsets.US_ASCII);
 
+	private static byte[] runScript(String cmd, String argment, String userString) throws IOException {
 		ProcessBuilder processBuilder;
 		if (userString != null && !userString.equals("")) {
 			processBuilder = new ProcessBuilder(cmd, argment, userString);
 		} else {
 			processBuilder = new ProcessBuilder(cmd, argment);
 		}
-
 		processBuilder.redirectErrorStream(true);
+		Process process = processBuilder.start();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+		try (InputStream in = process.getInputStream()) {
+			byte[] buffer = new byte[1 << 16];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+		}
 		try {
-			process = processBuilder.start();
-		} catch (IOException ioe) {
-			System.out.println(ioe);
-			process = null;
+			process.waitFor();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
+		return out.toByteArray();
+	}
 
-		if (process != null) {
-			BufferedReader brOut = new BufferedReader(new InputStreamReader(
-					process.getInputStream()));
-			String line = null;
-			try {
-				while ((line = brOut.readLine()) != null) {
-					result += "\n" + line;
-				}
-				brOut.close();
-			} catch (IOException ioe) {
-				System.out.println(ioe);
+	private static int indexOf(byte[] data, byte[] target) {
+		outer: for (int i = 0; i <= data.length - target.length; i++) {
+			for (int j = 0; j < target.length; j++) {
+				if (data[i + j] != target[j]) continue outer;
 			}
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Runs given command with arguments and returns the output as a String
+	 * 
+	 * @param cmd
+	 *            command to run, this will usually be the script that is ran
+	 * @param argment
+	 *            the first argument, this will be the main qstat query
+	 * @param userString
+	 *            the user name pattern to filter the users by in the query
+	 * @return
+	 */
+	public static String runScriptAndGetOutput(String cmd, String argment,
+			String userString) {
+		String result = "";
+		try {
+			result = "\n" + new String(runScript(cmd, argment, userString));
+		} catch (IOException ioe) {
+			System.out.println(ioe);
 		}
 
 		int startOfXmlIndex = result.indexOf("<?xml version='1.0'?");
@@ -117,29 +182,9 @@ public class QStatMonitorAPI {
 			lists[i] = new ArrayList<String>();
 		}
 		try {
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory
-					.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-			InputSource is = new InputSource(new StringReader(xmlString));
-			Document doc = dBuilder.parse(is);
-			doc.getDocumentElement().normalize();
-
-			NodeList nList = doc.getElementsByTagName("job_list");
-
-			for (int temp = 0; temp < nList.getLength(); temp++) {
-				Node nNode = nList.item(temp);
-				if (nNode.getNodeType() == Node.ELEMENT_NODE) {
-					Element eElement = (Element) nNode;
-					lists[0].add(getTagValue("JB_job_number", eElement));
-					lists[1].add(getTagValue("JAT_prio", eElement));
-					lists[2].add(getTagValue("JB_name", eElement));
-					lists[3].add(getTagValue("JB_owner", eElement));
-					lists[4].add(getTagValue("state", eElement));
-					lists[5].add(getTagValue("JB_submission_time", eElement));
-					lists[6].add(getTagValue("queue_name", eElement));
-					lists[7].add(getTagValue("slots", eElement));
-					lists[8].add(getTagValue("tasks", eElement));
-				}
+			QStatSnapshot snapshot = QStatParser.parse(new StringReader(xmlString));
+			for (int i = 0; i < lists.length; i++) {
+				lists[i].addAll(Arrays.asList(snapshot.getColumn(i)));
 			}
 		} catch (Exception e) {
 			System.out.println("Error parsing XML");
@@ -149,22 +194,6 @@ public class QStatMonitorAPI {
 		return lists;
 	}
 
-	/**
-	 * @param sTag
-	 * @param eElement
-	 * @return
-	 */
-	private static String getTagValue(String sTag, Element eElement) {
-		try {
-			NodeList nlList = eElement.getElementsByTagName(sTag).item(0)
-					.getChildNodes();
-			Node nValue = (Node) nlList.item(0);
-			return nValue.getNodeValue();
-		} catch (NullPointerException e) {
-			return "";
-		}
-	}
-
 	/**
 	 * Gets the absolute path of the script where it is been run from, this
 	 * script folder is in the same directory as the scr folder
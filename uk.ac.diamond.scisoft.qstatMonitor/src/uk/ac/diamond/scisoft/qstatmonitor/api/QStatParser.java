@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.qstatmonitor.api;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the XML written by qstat -xml in one pass, without building a document, into
+ * a {@link QStatSnapshot}. Values which repeat from job to job, such as owners, states
+ * and queues, are held once.
+ */
+public final class QStatParser {
+
+	private static final XMLInputFactory FACTORY = createFactory();
+
+	private static XMLInputFactory createFactory() {
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
+	}
+
+	private static final Map<String, Integer> COLUMNS = new HashMap<String, Integer>();
+	static {
+		for (int c = 0; c < QStatSnapshot.TAGS.length; c++) {
+			COLUMNS.put(QStatSnapshot.TAGS[c], c);
+		}
+	}
+
+	private static final String JOB = "job_list";
+
+	private QStatParser() {
+	}
+
+	public static QStatSnapshot parse(InputStream in) throws XMLStreamException {
+		return parse(FACTORY.createXMLStreamReader(in));
+	}
+
+	public static QStatSnapshot parse(Reader in) throws XMLStreamException {
+		return parse(FACTORY.createXMLStreamReader(in));
+	}
+
+	private static QStatSnapshot parse(XMLStreamReader reader) throws XMLStreamException {
+		final int width = QStatSnapshot.TAGS.length;
+		String[][] columns = new String[width][256];
+		final Map<String, String> values = new HashMap<String, String>();
+		final String[] job = new String[width];
+		int size = 0;
+		int depth = 0;     // within a job
+		int column = -1;   // of the element being read
+		final StringBuilder text = new StringBuilder();
+
+		try {
+			while (reader.hasNext()) {
+				switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					if (depth > 0) {
+						depth++;
+						if (depth == 2) {
+							final Integer c = COLUMNS.get(reader.getLocalName());
+							column = c == null ? -1 : c;
+							text.setLength(0);
+						}
+					} else if (JOB.equals(reader.getLocalName())) {
+						depth = 1;
+						Arrays.fill(job, "");
+					}
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+					if (column >= 0) text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if (depth == 0) break;
+					if (depth == 2 && column >= 0) {
+						// first value of the tag in the job, as was read from the document before
+						if (job[column].isEmpty()) job[column] = share(values, text.toString().trim());
+						column = -1;
+					} else if (depth == 1) {
+						if (size == columns[0].length) {
+							for (int c = 0; c < width; c++) columns[c] = Arrays.copyOf(columns[c], size * 2);
+						}
+						for (int c = 0; c < width; c++) columns[c][size] = job[c];
+						size++;
+					}
+					depth--;
+					break;
+				default:
+					break;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return new QStatSnapshot(columns, size);
+	}
+
+	private static String share(Map<String, String> values, String value) {
+		if (value.isEmpty()) return "";
+		final String shared = values.putIfAbsent(value, value);
+		return shared == null ? value : shared;
+	}
+}
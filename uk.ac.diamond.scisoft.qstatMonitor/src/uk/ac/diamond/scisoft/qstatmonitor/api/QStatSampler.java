@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.qstatmonitor.api;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs qstat queries for all the monitors in the process. Monitors which subscribe to
+ * the same query and user share one run of the query, made as often as the most
+ * frequent of them asks. While the output of a query does not change, it is run less
+ * often, down to {@value #MAXIMUM_BACKOFF} times its refresh interval; refreshing a
+ * subscription runs it at once and starts putting it off again from its refresh
+ * interval.
+ * <p>
+ * The script run can be replaced with the system property
+ * {@value QStatMonitorAPI#SCRIPT_PROPERTY}, so a fake qstat can be used without a
+ * cluster.
+ */
+public final class QStatSampler {
+
+	private static final Logger logger = LoggerFactory.getLogger(QStatSampler.class);
+
+	/**
+	 * Most times the refresh interval by which a query whose output does not change
+	 * is put off.
+	 */
+	static final int MAXIMUM_BACKOFF = 4;
+
+	/**
+	 * Longest a query whose output does not change is put off, or its refresh
+	 * interval if that is longer.
+	 */
+	static final long MAXIMUM_DELAY = 60000;
+
+	private static final int THREADS = 2;
+
+	/**
+	 * Told of each sample of a query, on a sampler thread.
+	 */
+	public interface Listener {
+
+		/**
+		 * @param snapshot jobs returned by the query, the same instance as the last
+		 *        sample if the output of the query has not changed
+		 */
+		void sampled(QStatSnapshot snapshot);
+
+		/**
+		 * @param e why the query could not be run or read
+		 */
+		void failed(Exception e);
+	}
+
+	/**
+	 * Runs a query
+	 */
+	interface Fetcher {
+		byte[] fetch(String query, String user) throws IOException;
+	}
+
+	private static final QStatSampler DEFAULT = new QStatSampler(QStatMonitorAPI::runQuery);
+
+	/**
+	 * @return the sampler shared by all monitors
+	 */
+	public static QStatSampler getDefault() {
+		return DEFAULT;
+	}
+
+	private final Fetcher fetcher;
+	private final ScheduledThreadPoolExecutor executor;
+	private final Map<String, Sample> samples = new HashMap<String, Sample>(); // guarded by this
+
+	QStatSampler(Fetcher fetcher) {
+		this.fetcher = fetcher;
+		executor = new ScheduledThreadPoolExecutor(THREADS, r -> {
+			Thread thread = new Thread(r, "QStat sampler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Subscribes to a query, which is run at once unless it was run within the refresh
+	 * interval.
+	 * @param query the qstat query
+	 * @param user the user name pattern to filter the users by in the query
+	 * @param interval refresh interval in milliseconds, or 0 to only run the query
+	 *        at once and when refreshed
+	 * @param listener
+	 * @return subscription, to be cancelled when no longer needed
+	 */
+	public Subscription subscribe(String query, String user, long interval, Listener listener) {
+		final String key = query + '\0' + (user == null ? "" : user);
+		final Subscription subscription;
+		synchronized (this) {
+			Sample sample = samples.get(key);
+			if (sample == null) {
+				sample = new Sample(key, query, user);
+				samples.put(key, sample);
+			}
+			subscription = new Subscription(sample, Math.max(0, interval), listener);
+			sample.subscriptions.add(subscription);
+
+			// a sample taken within the refresh interval is shared rather than run again
+			final QStatSnapshot last = sample.last;
+			if (last != null && interval > 0 && System.nanoTime() - sample.lastTime < TimeUnit.MILLISECONDS.toNanos(interval)) {
+				executor.execute(() -> subscription.tell(last, null));
+				sample.reschedule();
+				return subscription;
+			}
+		}
+		subscription.refresh();
+		return subscription;
+	}
+
+	/**
+	 * @return number of queries being sampled
+	 */
+	public synchronized int size() {
+		return samples.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "QStatSampler" + samples.values();
+	}
+
+	/**
+	 * @param interval refresh interval in milliseconds
+	 * @param unchanged number of samples in a row whose output did not change
+	 * @return delay till the next sample in milliseconds
+	 */
+	static long getDelay(long interval, int unchanged) {
+		final long delay = interval * Math.min(1 + unchanged, MAXIMUM_BACKOFF);
+		return Math.min(delay, Math.max(interval, MAXIMUM_DELAY));
+	}
+
+	/**
+	 * A monitor's interest in a query
+	 */
+	public final class Subscription {
+
+		private final Sample sample;
+		private final long interval;
+		private final Listener listener;
+		private volatile boolean cancelled;
+
+		private Subscription(Sample sample, long interval, Listener listener) {
+			this.sample = sample;
+			this.interval = interval;
+			this.listener = listener;
+		}
+
+		/**
+		 * Runs the query as soon as it is not running already, and then puts it off
+		 * from its refresh interval again.
+		 */
+		public void refresh() {
+			if (cancelled) return;
+			synchronized (QStatSampler.this) {
+				sample.unchanged = 0;
+				sample.request();
+			}
+		}
+
+		/**
+		 * Stops telling the listener of samples. The query stops being run once it has
+		 * no subscriptions.
+		 */
+		public void cancel() {
+			if (cancelled) return;
+			cancelled = true;
+			synchronized (QStatSampler.this) {
+				sample.subscriptions.remove(this);
+				if (sample.subscriptions.isEmpty()) {
+					if (sample.next != null) {
+						sample.next.cancel(false);
+						sample.next = null;
+					}
+					samples.remove(sample.key);
+				} else {
+					sample.reschedule();
+				}
+			}
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * @return number of times the query was run
+		 */
+		public long getSamples() {
+			return sample.count;
+		}
+
+		/**
+		 * @return number of times the query failed
+		 */
+		public long getFailures() {
+			return sample.failures;
+		}
+
+		/**
+		 * @return time taken to run the query the last time, in nanoseconds
+		 */
+		public long getLastLatency() {
+			return sample.lastLatency;
+		}
+
+		/**
+		 * @return mean time taken to run the query, in nanoseconds
+		 */
+		public long getMeanLatency() {
+			final long count = sample.count;
+			return count == 0 ? 0 : sample.totalLatency / count;
+		}
+
+		/**
+		 * @return longest time taken to run the query, in nanoseconds
+		 */
+		public long getMaxLatency() {
+			return sample.maxLatency;
+		}
+
+		/**
+		 * @return milliseconds between the last sample and the next
+		 */
+		public long getDelay() {
+			return sample.delay;
+		}
+
+		private void tell(QStatSnapshot snapshot, Exception failure) {
+			if (cancelled) return;
+			try {
+				if (failure == null) {
+					listener.sampled(snapshot);
+				} else {
+					listener.failed(failure);
+				}
+			} catch (RuntimeException e) {
+				logger.error("QStat sample listener failed", e);
+			}
+		}
+	}
+
+	/**
+	 * The runs of one query and user
+	 */
+	private final class Sample implements Runnable {
+
+		private final String key;
+		private final String query;
+		private final String user;
+		private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+		// guarded by the sampler
+		private ScheduledFuture<?> next;
+		private boolean running;
+		private boolean requested;
+		private int unchanged;
+
+		// only set by the sampler thread running the query
+		private byte[] lastOutput;
+		private volatile QStatSnapshot last;
+		private volatile long lastTime;
+
+		private volatile long count;
+		private volatile long failures;
+		private volatile long lastLatency;
+		private volatile long totalLatency;
+		private volatile long maxLatency;
+		private volatile long delay;
+
+		Sample(String key, String query, String user) {
+			this.key = key;
+			this.query = query;
+			this.user = user;
+		}
+
+		/**
+		 * Runs the query now, or once the run going finishes
+		 */
+		void request() {
+			if (running) {
+				requested = true;
+				return;
+			}
+			if (next != null) {
+				next.cancel(false);
+			}
+			next = executor.schedule(this, 0, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Schedules the next run from the refresh intervals of the subscriptions
+		 */
+		void reschedule() {
+			if (running || requested) return;
+			if (next != null) {
+				next.cancel(false);
+				next = null;
+			}
+			long interval = Long.MAX_VALUE;
+			for (Subscription s : subscriptions) {
+				if (s.interval > 0) interval = Math.min(interval, s.interval);
+			}
+			if (interval != Long.MAX_VALUE) {
+				delay = getDelay(interval, unchanged);
+				next = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		@Override
+		public void run() {
+			synchronized (QStatSampler.this) {
+				if (subscriptions.isEmpty() || running) return;
+				running = true;
+				requested = false;
+				next = null;
+			}
+
+			QStatSnapshot snapshot = null;
+			Exception failure = null;
+			boolean changed = true;
+			final long start = System.nanoTime();
+			try {
+				final byte[] output = fetcher.fetch(query, user);
+				if (last != null && Arrays.equals(output, lastOutput)) {
+					snapshot = last;
+					changed = false;
+				} else {
+					snapshot = QStatMonitorAPI.parseOutput(query, output);
+					last = snapshot;
+					lastOutput = output;
+				}
+			} catch (Exception e) {
+				failure = e;
+				changed = false; // put off a failing query too
+				last = null;
+				lastOutput = null;
+				failures++;
+			}
+			lastTime = System.nanoTime();
+			final long latency = lastTime - start;
+			lastLatency = latency;
+			totalLatency += latency;
+			maxLatency = Math.max(maxLatency, latency);
+			count++;
+			if (logger.isDebugEnabled()) {
+				logger.debug("Ran {} for {} in {} ms{}", query, user, latency / 1000000,
+						changed ? "" : ", unchanged");
+			}
+
+			for (Subscription s : subscriptions) {
+				s.tell(snapshot, failure);
+			}
+
+			synchronized (QStatSampler.this) {
+				running = false;
+				if (requested) {
+					// refreshed while running, so the count starts again from the next run
+					unchanged = 0;
+				} else {
+					unchanged = changed ? 0 : unchanged + 1;
+				}
+				if (subscriptions.isEmpty()) return;
+				if (requested) {
+					requested = false;
+					request();
+				} else {
+					reschedule();
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return query + " for " + user + ": " + subscriptions.size() + " subscriptions, " + count + " samples, "
+					+ failures + " failures, " + (count == 0 ? 0 : totalLatency / count / 1000000) + " ms mean latency, "
+					+ delay + " ms delay";
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.qstatmonitor.api;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The jobs returned by one qstat query, held as a column of strings for each field.
+ * A job is keyed by its job number and, for array jobs, its tasks.
+ */
+public final class QStatSnapshot {
+
+	public static final int JOB_NUMBER      = 0;
+	public static final int PRIORITY        = 1;
+	public static final int JOB_NAME        = 2;
+	public static final int OWNER           = 3;
+	public static final int STATE           = 4;
+	public static final int SUBMISSION_TIME = 5;
+	public static final int QUEUE_NAME      = 6;
+	public static final int SLOTS           = 7;
+	public static final int TASKS           = 8;
+
+	/**
+	 * The XML tag of each column
+	 */
+	public static final String[] TAGS = {"JB_job_number", "JAT_prio", "JB_name", "JB_owner", "state",
+			"JB_submission_time", "queue_name", "slots", "tasks"};
+
+	private final String[][] columns;
+	private final int size;
+	private Map<String, Integer> index;
+
+	QStatSnapshot(String[][] columns, int size) {
+		this.columns = columns;
+		this.size = size;
+	}
+
+	/**
+	 * @return number of jobs
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param row
+	 * @param column one of the column constants
+	 * @return value, empty if the job has none
+	 */
+	public String get(int row, int column) {
+		if (row < 0 || row >= size) throw new IndexOutOfBoundsException("No job " + row + " of " + size);
+		return columns[column][row];
+	}
+
+	/**
+	 * @return number of slots of the job, 0 if not known
+	 */
+	public int getSlots(int row) {
+		try {
+			return Integer.parseInt(get(row, SLOTS));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the key of the job in the row
+	 */
+	public String getKey(int row) {
+		final String tasks = get(row, TASKS);
+		return tasks.isEmpty() ? get(row, JOB_NUMBER) : get(row, JOB_NUMBER) + '.' + tasks;
+	}
+
+	/**
+	 * @param key
+	 * @return row of the job with the key, -1 if none
+	 */
+	public synchronized int indexOf(String key) {
+		if (index == null) {
+			index = new HashMap<String, Integer>(size * 2);
+			for (int row = 0; row < size; row++) {
+				index.put(getKey(row), row);
+			}
+		}
+		final Integer row = index.get(key);
+		return row == null ? -1 : row;
+	}
+
+	/**
+	 * @param column one of the column constants
+	 * @return copy of the values of the column
+	 */
+	public String[] getColumn(int column) {
+		return Arrays.copyOf(columns[column], size);
+	}
+
+	boolean sameRow(int row, QStatSnapshot other, int otherRow) {
+		for (int c = 0; c < columns.length; c++) {
+			if (!columns[c][row].equals(other.columns[c][otherRow])) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Works out how the jobs changed from one snapshot to the next.
+	 * @param previous jobs shown, may be null
+	 * @param next jobs fetched
+	 * @return changes, with the next jobs ordered as the previous jobs with the new jobs after them
+	 */
+	public static QStatDelta reconcile(QStatSnapshot previous, QStatSnapshot next) {
+		if (previous == null) {
+			return new QStatDelta(next, new int[0], next.size, new int[0]);
+		}
+
+		final int[] order = new int[next.size]; // rows of next in the order shown
+		final boolean[] placed = new boolean[next.size];
+		int[] removed = new int[16];
+		int removedCount = 0;
+		int[] updated = new int[16];
+		int updatedCount = 0;
+		int shown = 0;
+		for (int row = 0; row < previous.size; row++) {
+			final int at = next.indexOf(previous.getKey(row));
+			if (at < 0 || placed[at]) {
+				if (removedCount == removed.length) removed = Arrays.copyOf(removed, removedCount * 2);
+				removed[removedCount++] = row;
+				continue;
+			}
+			placed[at] = true;
+			if (!previous.sameRow(row, next, at)) {
+				if (updatedCount == updated.length) updated = Arrays.copyOf(updated, updatedCount * 2);
+				updated[updatedCount++] = shown;
+			}
+			order[shown++] = at;
+		}
+		final int kept = shown;
+		for (int row = 0; row < next.size; row++) {
+			if (!placed[row]) order[shown++] = row;
+		}
+
+		final String[][] columns = new String[next.columns.length][];
+		for (int c = 0; c < columns.length; c++) {
+			final String[] from = next.columns[c];
+			final String[] to = columns[c] = new String[next.size];
+			for (int i = 0; i < next.size; i++) {
+				to[i] = from[order[i]];
+			}
+		}
+		return new QStatDelta(new QStatSnapshot(columns, next.size), Arrays.copyOf(removed, removedCount),
+				next.size - kept, Arrays.copyOf(updated, updatedCount));
+	}
+}
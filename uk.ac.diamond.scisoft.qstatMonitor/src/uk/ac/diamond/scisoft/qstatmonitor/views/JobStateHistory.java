@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.qstatmonitor.views;
+
+import java.util.Arrays;
+
+/**
+ * The number of suspended, queued and running slots over time, kept in rings of
+ * fixed size so that it takes the same memory however long the monitor runs. The
+ * latest samples are kept as they are, older ones as means over each minute, and
+ * older ones still as means over each hour.
+ * <p>
+ * Not thread safe.
+ */
+class JobStateHistory {
+
+	static final int SUSPENDED = 0;
+	static final int QUEUED    = 1;
+	static final int RUNNING   = 2;
+
+	static final int RAW_CAPACITY    = 3600;
+	static final int MINUTE_CAPACITY = 2 * 24 * 60;
+	static final int HOUR_CAPACITY   = 366 * 24;
+
+	private final Ring raw    = new Ring(RAW_CAPACITY);
+	private final Ring minute = new Ring(MINUTE_CAPACITY);
+	private final Ring hour   = new Ring(HOUR_CAPACITY);
+	private final Bucket minuteBucket = new Bucket(minute, 1);
+	private final Bucket hourBucket   = new Bucket(hour, 60);
+
+	/**
+	 * @param time in minutes, not before the time of the last sample
+	 */
+	void add(double time, int suspended, int queued, int running) {
+		raw.add(time, suspended, queued, running);
+		minuteBucket.add(time, suspended, queued, running);
+		hourBucket.add(time, suspended, queued, running);
+	}
+
+	void clear() {
+		raw.clear();
+		minute.clear();
+		hour.clear();
+		minuteBucket.clear();
+		hourBucket.clear();
+	}
+
+	/**
+	 * @return number of samples held as they are
+	 */
+	int size() {
+		return raw.size;
+	}
+
+	/**
+	 * Gets the history between two times, from the finest samples which cover each part
+	 * of it, averaged over equal spans of time so there are no more points than asked for.
+	 * @param from in minutes
+	 * @param to in minutes
+	 * @param points most points returned, such as the width of the plot in pixels
+	 * @return times followed by the suspended, queued and running slots at those times
+	 */
+	double[][] getSeries(double from, double to, int points) {
+		final Ring[] tiers = {hour, minute, raw};
+		int count = 0;
+		for (Ring tier : tiers) count += tier.size;
+		final double[][] series = new double[4][count];
+
+		int n = 0;
+		for (int t = 0; t < tiers.length; t++) {
+			// coarser samples only fill in before the finer ones start, and when
+			// sampled slowly the raw samples can go back further than the minutes
+			double before = Double.POSITIVE_INFINITY;
+			for (int f = t + 1; f < tiers.length; f++) {
+				if (tiers[f].size > 0) {
+					before = Math.min(before, tiers[f].get(0, 0));
+				}
+			}
+			final Ring tier = tiers[t];
+			for (int i = 0; i < tier.size; i++) {
+				final double time = tier.get(i, 0);
+				if (time >= before) break;
+				if (time < from || time > to) continue;
+				for (int c = 0; c < 4; c++) {
+					series[c][n] = tier.get(i, c);
+				}
+				n++;
+			}
+		}
+		return reduce(series, n, Math.max(1, points));
+	}
+
+	/**
+	 * Averages the points falling in each of equal spans of time, to leave no more
+	 * than asked for
+	 */
+	private static double[][] reduce(double[][] series, int n, int points) {
+		final double[][] result = new double[series.length][];
+		if (n <= points) {
+			for (int c = 0; c < series.length; c++) {
+				result[c] = Arrays.copyOf(series[c], n);
+			}
+			return result;
+		}
+		for (int c = 0; c < series.length; c++) {
+			result[c] = new double[points];
+		}
+		final double first = series[0][0];
+		final double span = (series[0][n - 1] - first) / points;
+		int p = 0;
+		int i = 0;
+		while (i < n) {
+			final int bin = bin(series[0][i], first, span, points);
+			int end = i + 1;
+			while (end < n && bin(series[0][end], first, span, points) == bin) {
+				end++;
+			}
+			for (int c = 0; c < series.length; c++) {
+				double sum = 0;
+				for (int j = i; j < end; j++) sum += series[c][j];
+				result[c][p] = sum / (end - i);
+			}
+			p++;
+			i = end;
+		}
+		for (int c = 0; c < series.length; c++) {
+			result[c] = Arrays.copyOf(result[c], p);
+		}
+		return result;
+	}
+
+	private static int bin(double time, double first, double span, int points) {
+		return span > 0 ? Math.min(points - 1, (int) ((time - first) / span)) : 0;
+	}
+
+	/**
+	 * Columns of the time and slots, overwriting the oldest once full
+	 */
+	private static class Ring {
+		private final double[][] columns;
+		private int start;
+		private int size;
+
+		Ring(int capacity) {
+			columns = new double[4][capacity];
+		}
+
+		void add(double time, double suspended, double queued, double running) {
+			final int capacity = columns[0].length;
+			final int at = (start + size) % capacity;
+			columns[0][at] = time;
+			columns[1 + SUSPENDED][at] = suspended;
+			columns[1 + QUEUED][at] = queued;
+			columns[1 + RUNNING][at] = running;
+			if (size < capacity) {
+				size++;
+			} else {
+				start = (start + 1) % capacity;
+			}
+		}
+
+		double get(int i, int column) {
+			return columns[column][(start + i) % columns[0].length];
+		}
+
+		void clear() {
+			start = 0;
+			size = 0;
+		}
+	}
+
+	/**
+	 * Sums the samples of a period and adds their means to a ring when the period ends
+	 */
+	private static class Bucket {
+		private final Ring ring;
+		private final double minutes;
+		private long period = Long.MIN_VALUE;
+		private final double[] sums = new double[4];
+		private int count;
+
+		Bucket(Ring ring, double minutes) {
+			this.ring = ring;
+			this.minutes = minutes;
+		}
+
+		void add(double time, int suspended, int queued, int running) {
+			final long p = (long) Math.floor(time / minutes);
+			if (p != period) {
+				flush();
+				period = p;
+			}
+			sums[0] += time;
+			sums[1 + SUSPENDED] += suspended;
+			sums[1 + QUEUED] += queued;
+			sums[1 + RUNNING] += running;
+			count++;
+		}
+
+		private void flush() {
+			if (count > 0) {
+				ring.add(sums[0] / count, sums[1 + SUSPENDED] / count, sums[1 + QUEUED] / count,
+						sums[1 + RUNNING] / count);
+			}
+			Arrays.fill(sums, 0);
+			count = 0;
+		}
+
+		void clear() {
+			period = Long.MIN_VALUE;
+			Arrays.fill(sums, 0);
+			count = 0;
+		}
+	}
+}
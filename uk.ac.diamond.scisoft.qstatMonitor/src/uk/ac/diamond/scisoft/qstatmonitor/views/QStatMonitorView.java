@@ -8,22 +8,18 @@
  */
 package uk.ac.diamond.scisoft.qstatmonitor.views;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.jobs.IJobChangeEvent;
 import org.eclipse.core.runtime.jobs.ISchedulingRule;
 import org.eclipse.core.runtime.jobs.Job;
-import org.eclipse.core.runtime.jobs.JobChangeAdapter;
 import org.eclipse.dawnsci.plotting.api.IPlottingSystem;
 import org.eclipse.dawnsci.plotting.api.PlotType;
 import org.eclipse.dawnsci.plotting.api.PlottingFactory;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
-import org.eclipse.january.dataset.DoubleDataset;
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.preference.PreferenceDialog;
@@ -33,6 +29,8 @@ import org.eclipse.swt.SWT;
 import org.eclipse.swt.SWTException;
 import org.eclipse.swt.custom.SashForm;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableColumn;
 import org.eclipse.swt.widgets.TableItem;
@@ -46,7 +44,9 @@ import org.eclipse.ui.part.ViewPart;
 import org.eclipse.ui.progress.UIJob;
 
 import uk.ac.diamond.scisoft.qstatmonitor.Activator;
-import uk.ac.diamond.scisoft.qstatmonitor.api.QStatMonitorAPI;
+import uk.ac.diamond.scisoft.qstatmonitor.api.QStatDelta;
+import uk.ac.diamond.scisoft.qstatmonitor.api.QStatSampler;
+import uk.ac.diamond.scisoft.qstatmonitor.api.QStatSnapshot;
 import uk.ac.diamond.scisoft.qstatmonitor.preferences.QStatMonitorPreferenceConstants;
 import uk.ac.diamond.scisoft.qstatmonitor.preferences.QStatMonitorPreferencePage;
 
@@ -58,6 +58,9 @@ public class QStatMonitorView extends ViewPart {
 
 	// Table and plot views fill sashform with ratio 2:1
 	private static final int[] SASH_FORM_RATIO = {2, 1};
+
+	// Points plotted when the width of the plot is not known
+	private static final int DEFAULT_PLOT_WIDTH = 1000;
 	
 	// Query string constants
 	private static final String QSTAT_COMMAND = "qstat";
@@ -73,21 +76,12 @@ public class QStatMonitorView extends ViewPart {
 			"Tasks"};
 
 	/* Table data */
-	private ArrayList<String> jobNumberList = new ArrayList<String>();
-	private ArrayList<String> priorityList = new ArrayList<String>();
-	private ArrayList<String> jobNameList = new ArrayList<String>();
-	private ArrayList<String> ownerList = new ArrayList<String>();
-	private ArrayList<String> stateList = new ArrayList<String>();
-	private ArrayList<String> submissionTimeList = new ArrayList<String>();
-	private ArrayList<String> queueNameList = new ArrayList<String>();
-	private ArrayList<String> slotsList = new ArrayList<String>();
-	private ArrayList<String> tasksList = new ArrayList<String>();
+	private volatile QStatSnapshot fetched; // last fetched
+	private QStatSnapshot shown;            // in the table, only used in the UI thread
+	private QStatSnapshot shownFrom;        // fetched snapshot last shown
 
 	/* Plot data */
-	private ArrayList<Double> timeList = new ArrayList<Double>();
-	private ArrayList<Integer> suspendedList = new ArrayList<Integer>();
-	private ArrayList<Integer> runningList = new ArrayList<Integer>();
-	private ArrayList<Integer> queuedList = new ArrayList<Integer>();
+	private final JobStateHistory history = new JobStateHistory();
 
 	/* Preference values */
 	private int refreshInterval; // in milliseconds
@@ -105,8 +99,11 @@ public class QStatMonitorView extends ViewPart {
 	private Action openPreferencesAction = new OpenPreferencesAction();
 	private Action showPlotAction = new ShowPlotAction();
 
+	/* Sampling */
+	private final QStatSampler.Listener sampleListener = new SampleListener();
+	private QStatSampler.Subscription subscription;
+
 	/* Jobs */
-	private Job fetchQStatInfoJob = new FetchQStatInfoJob();
 	private UIJob fillTableJob = new FillTableJob();
 	private UIJob plotDataJob = new PlotDataJob();
 
@@ -197,20 +194,9 @@ public class QStatMonitorView extends ViewPart {
 
 		// TODO: Is this really needed?
 		// Ensures jobs do not run concurrently
-		fetchQStatInfoJob.setRule(rule);
 		fillTableJob.setRule(rule);
 		plotDataJob.setRule(rule);
 
-		// On completion of FetchQStatInfoJob, schedules FillTableJob and plotDataJob
-		fetchQStatInfoJob.addJobChangeListener(new JobChangeAdapter() {
-			@Override
-			public void done(IJobChangeEvent event) {
-				super.done(event);
-				fillTableJob.schedule();
-				plotDataJob.schedule();
-			}
-		});
-
 		// Initialise preference variables and establish callback on-change
 		IPreferenceStore preferenceStore = Activator.getDefault().getPreferenceStore();
 		initialisePreferenceVariables(preferenceStore);
@@ -220,16 +206,21 @@ public class QStatMonitorView extends ViewPart {
 	}
 
 	/**
-	 * Starts the QStat service by scheduling the getQstatInfoJob
+	 * Starts the QStat service by subscribing to the query in the shared sampler,
+	 * which runs the query at once and then, if automatic refresh is enabled, at
+	 * the refresh interval
 	 */
 	private void startQStatService() {
-		// Stops any on-going jobs
-		cancelJob(fetchQStatInfoJob);
+		// Stops any on-going sampling
+		if (subscription != null) {
+			subscription.cancel();
+		}
 		cancelJob(plotDataJob);
 
 		resetPlot();
 
-		fetchQStatInfoJob.schedule();
+		subscription = QStatSampler.getDefault().subscribe(qStatQuery, userArg,
+				refreshOption ? refreshInterval : 0, sampleListener);
 	}
 
 	@Override
@@ -303,7 +294,20 @@ public class QStatMonitorView extends ViewPart {
 	 * @param parent
 	 */
 	private void setupTable(Composite parent) {
-		table = new Table(parent, SWT.MULTI | SWT.BORDER | SWT.FULL_SELECTION);
+		table = new Table(parent, SWT.MULTI | SWT.BORDER | SWT.FULL_SELECTION | SWT.VIRTUAL);
+		table.addListener(SWT.SetData, new Listener() {
+			@Override
+			public void handleEvent(Event event) {
+				// Items are only filled in when shown
+				TableItem item = (TableItem) event.item;
+				int row = event.index;
+				if (shown != null && row >= 0 && row < shown.size()) {
+					for (int i = 0; i < TABLE_COL_LABELS.length; i++) {
+						item.setText(i, shown.get(row, i));
+					}
+				}
+			}
+		});
 		table.setLinesVisible(true);
 		table.setHeaderVisible(true);
 		for (int i = 0; i < TABLE_COL_LABELS.length; i++) {
@@ -315,14 +319,11 @@ public class QStatMonitorView extends ViewPart {
 	}
 
 	/**
-	 * Resets the time and clears the plot lists
+	 * Resets the time and clears the plot history
 	 */
 	public void resetPlot() {
 		startTime = System.nanoTime();
-		timeList.clear();
-		suspendedList.clear();
-		runningList.clear();
-		queuedList.clear();
+		history.clear();
 	}
 
 	/**
@@ -374,7 +375,9 @@ public class QStatMonitorView extends ViewPart {
 
 	@Override
 	public void dispose() {
-		cancelJob(fetchQStatInfoJob);
+		if (subscription != null) {
+			subscription.cancel();
+		}
 		plottingSystem.dispose();
 		super.dispose();
 	}
@@ -390,66 +393,20 @@ public class QStatMonitorView extends ViewPart {
 	}
 
 	/**
-	 * Runs QStat query and stores retrieved items in corresponding arrays
+	 * Stores the jobs of each sample and redraws the table and plot
 	 */
-	class FetchQStatInfoJob extends Job {
-
-		// QStat data returned as array of lists
-		@SuppressWarnings("unchecked")
-		private final ArrayList<String>[] lists = (ArrayList<String>[]) new ArrayList[9];
-
-		public FetchQStatInfoJob() {
-			super("Fetching QStat Info");
-		}
+	class SampleListener implements QStatSampler.Listener {
 
-		@SuppressWarnings("deprecation")
 		@Override
-		protected IStatus run(IProgressMonitor monitor) {
-			try {
-				Thread fetchTableListsThread = new Thread() {
-					public void run() {
-						QStatMonitorAPI.getTableLists(qStatQuery, userArg, lists);
-					}
-				};
-
-				fetchTableListsThread.start();
-
-				// Loop until thread has retrieved table lists
-				while (fetchTableListsThread.isAlive()) {
-					if (monitor.isCanceled()) {
-						// Temporary fix to immediately end job on cancel request
-						fetchTableListsThread.stop();
-						return Status.CANCEL_STATUS;
-					}
-				}
-
-				assignTableData();
-			} catch (StringIndexOutOfBoundsException e) {
-				return Status.CANCEL_STATUS;
-				// TODO: Not catching invalid queries
-			} catch (NullPointerException npe) {
-				displayDescInvalidQuery();
-				return Status.CANCEL_STATUS;
-			}
-
-			// Reschedule job if automatic refresh enabled
-			if (refreshOption) {
-				schedule(refreshInterval);
-			}
-
-			return Status.OK_STATUS;
+		public void sampled(QStatSnapshot snapshot) {
+			fetched = snapshot;
+			fillTableJob.schedule();
+			plotDataJob.schedule();
 		}
 
-		private void assignTableData() {
-			jobNumberList = lists[0];
-			priorityList = lists[1];
-			jobNameList = lists[2];
-			ownerList = lists[3];
-			stateList = lists[4];
-			submissionTimeList = lists[5];
-			queueNameList = lists[6];
-			slotsList = lists[7];
-			tasksList = lists[8];
+		@Override
+		public void failed(Exception e) {
+			displayDescInvalidQuery();
 		}
 
 		/**
@@ -468,8 +425,9 @@ public class QStatMonitorView extends ViewPart {
 	}
 
 	/**
-	 * Removes all current items from the table, then adds the contents of the arrays to
-	 * the relevant columns, then packs the table
+	 * Removes the rows of jobs which have gone, adds rows for new jobs and clears the
+	 * rows of changed jobs, the table fills in the rows as they are shown. The columns
+	 * are packed when the table is first filled.
 	 */
 	class FillTableJob extends UIJob {
 
@@ -480,9 +438,16 @@ public class QStatMonitorView extends ViewPart {
 		@Override
 		public IStatus runInUIThread(IProgressMonitor monitor) {
 			try {
-				table.removeAll();
-				fillTable();
-				packTable();
+				final QStatSnapshot next = fetched;
+				if (next == null || next == shownFrom || table.isDisposed()) {
+					return Status.OK_STATUS;
+				}
+				final boolean first = shown == null || shown.size() == 0;
+				fillTable(QStatSnapshot.reconcile(shown, next));
+				shownFrom = next;
+				if (first) {
+					packTable();
+				}
 				updateContentDescription();
 			} catch (SWTException e) {
 				return Status.CANCEL_STATUS;
@@ -490,18 +455,14 @@ public class QStatMonitorView extends ViewPart {
 			return Status.OK_STATUS;
 		}
 
-		private void fillTable() {
-			for (int i = 0; i < jobNumberList.size(); i++) {
-				TableItem item = new TableItem(table, SWT.NONE);
-				item.setText(0, jobNumberList.get(i));
-				item.setText(1, priorityList.get(i));
-				item.setText(2, jobNameList.get(i));
-				item.setText(3, ownerList.get(i));
-				item.setText(4, stateList.get(i));
-				item.setText(5, submissionTimeList.get(i));
-				item.setText(6, queueNameList.get(i));
-				item.setText(7, slotsList.get(i));
-				item.setText(8, tasksList.get(i));
+		private void fillTable(QStatDelta delta) {
+			shown = delta.getSnapshot();
+			if (delta.getRemoved().length > 0) {
+				table.remove(delta.getRemoved());
+			}
+			table.setItemCount(shown.size());
+			for (int row : delta.getUpdated()) {
+				table.clear(row);
 			}
 		}
 
@@ -519,7 +480,7 @@ public class QStatMonitorView extends ViewPart {
 		 * Updates content description to show number of tasks displayed in the table
 		 */
 		private void updateContentDescription() {
-			int numItems = jobNumberList.size();
+			int numItems = shown.size();
 			if (numItems == 1) {
 				setContentDescription("Showing 1 task.");
 			} else {
@@ -545,64 +506,72 @@ public class QStatMonitorView extends ViewPart {
 		}
 
 		/**
-		 * Updates the plot lists
+		 * Adds the slots in each state to the plot history
 		 */
 		private void updatePlotLists() {
-			Double test = getElapsedMinutes();
-			timeList.add(test);
 			int suspended = 0;
 			int running = 0;
 			int queued = 0;
-			for (int i = 0; i < jobNumberList.size(); i++) {
-				if (stateList.get(i).equalsIgnoreCase("s")) {
-					suspended += Integer.parseInt(slotsList.get(i));
+			final QStatSnapshot jobs = fetched;
+			for (int i = 0; jobs != null && i < jobs.size(); i++) {
+				String state = jobs.get(i, QStatSnapshot.STATE);
+				if (state.equalsIgnoreCase("s")) {
+					suspended += jobs.getSlots(i);
 				} else {
-					if (stateList.get(i).equalsIgnoreCase("r")) {
-						running += Integer.parseInt(slotsList.get(i));
+					if (state.equalsIgnoreCase("r")) {
+						running += jobs.getSlots(i);
 					} else {
-						if (stateList.get(i).contains("q")
-								|| stateList.get(i).contains("Q")) {
-							queued += Integer.parseInt(slotsList.get(i));
+						if (state.contains("q")
+								|| state.contains("Q")) {
+							queued += jobs.getSlots(i);
 						}
 					}
 				}
 			}
-			suspendedList.add(suspended);
-			runningList.add(running);
-			queuedList.add(queued);
+			history.add(getElapsedMinutes(), suspended, queued, running);
 		}
 
 		/**
-		 * Plots the plot list values to the plot view
+		 * Plots the history since the time was last reset, with no more points than
+		 * the plot is pixels wide
 		 */
 		private void plotResults() {
-			if (!timeList.isEmpty()) {
-				DoubleDataset timeDataset = DatasetFactory.createFromList(DoubleDataset.class, timeList);
-				timeDataset.setName("Time (mins)");
+			if (history.size() > 0) {
+				double[][] series = history.getSeries(0, getElapsedMinutes(), getPlotWidth());
 
-				Dataset[] datasetArr = getDataToPlot();
+				Dataset timeDataset = getDataset(series[0], "Time (mins)");
+
+				Dataset[] datasetArr = getDataToPlot(series);
 
 				plotData(timeDataset, datasetArr);
 			}
 		}
 
-		private Dataset getIntegerDataset(ArrayList<Integer> list, String name) {
-			Dataset dataset = DatasetFactory.createFromList(list);
+		private int getPlotWidth() {
+			if (plottingSystem.isDisposed() || plottingSystem.getPlotComposite() == null) {
+				return DEFAULT_PLOT_WIDTH;
+			}
+			int width = plottingSystem.getPlotComposite().getSize().x;
+			return width > 0 ? width : DEFAULT_PLOT_WIDTH;
+		}
+
+		private Dataset getDataset(double[] values, String name) {
+			Dataset dataset = DatasetFactory.createFromObject(values);
 			dataset.setName(name);
 			return dataset;
 		}
 
-		private Dataset[] getDataToPlot() {
-			Dataset suspendedDataset = getIntegerDataset(suspendedList, "Suspended");
-			Dataset queuedDataset = getIntegerDataset(queuedList, "Queued");
-			Dataset runningDataset = getIntegerDataset(runningList, "Running");
+		private Dataset[] getDataToPlot(double[][] series) {
+			Dataset suspendedDataset = getDataset(series[1 + JobStateHistory.SUSPENDED], "Suspended");
+			Dataset queuedDataset = getDataset(series[1 + JobStateHistory.QUEUED], "Queued");
+			Dataset runningDataset = getDataset(series[1 + JobStateHistory.RUNNING], "Running");
 
 			Dataset[] datasetArr = {suspendedDataset, queuedDataset, runningDataset};
 
 			return datasetArr;
 		}
 
-		private void plotData(DoubleDataset timeDataset, Dataset[] datasetArr) {
+		private void plotData(Dataset timeDataset, Dataset[] datasetArr) {
 			try {
 				// Required in the situation where plotData() is called after
 				// plottingSystem is disposed
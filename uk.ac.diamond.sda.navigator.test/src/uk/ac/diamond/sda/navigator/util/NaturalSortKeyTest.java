@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NaturalSortKeyTest {
+
+	@Test
+	public void testNumbersByValue() {
+		assertOrder("ipp_9.tif", "ipp_10.tif", "ipp_100.tif");
+		assertOrder("ipp_12345_00001.tif", "ipp_12345_00002.tif", "ipp_12345_00010.tif", "ipp_12346_00001.tif");
+		assertOrder("scan", "scan1", "scan_1");
+	}
+
+	@Test
+	public void testCase() {
+		assertOrder("a.dat", "B.dat", "c.dat");
+		assertOrder("Data.nxs", "data.nxs");
+		assertTrue(key("Data.nxs").compareTo(key("Data.nxs"))==0);
+	}
+
+	@Test
+	public void testLeadingZeros() {
+		assertOrder("f_1.h5", "f_01.h5", "f_001.h5", "f_2.h5");
+		assertOrder("f_0.h5", "f_00.h5", "f_1.h5");
+		assertOrder("0", "00", "1");
+		assertOrder("ipp_0_00895.cbf", "ipp_1_00852.tif", "ipp_10_00001.tif");
+	}
+
+	private static void assertOrder(String... names) {
+		final List<NaturalSortKey> keys = new ArrayList<NaturalSortKey>();
+		for (int i = names.length-1; i > -1; i--) keys.add(key(names[i]));
+		Collections.shuffle(keys, new Random(1));
+		Collections.sort(keys);
+		final List<String> sorted = new ArrayList<String>();
+		for (NaturalSortKey key : keys) sorted.add(key.getName());
+		assertEquals(Arrays.asList(names), sorted);
+	}
+
+	private static NaturalSortKey key(String name) {
+		return new NaturalSortKey(name);
+	}
+}
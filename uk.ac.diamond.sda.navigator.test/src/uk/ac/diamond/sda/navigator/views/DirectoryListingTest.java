@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.diamond.sda.navigator.util.FileEntry;
+import uk.ac.diamond.sda.navigator.util.FileEntry.Kind;
+import uk.ac.diamond.sda.navigator.util.StackIndex;
+
+public class DirectoryListingTest {
+
+	private static final Path DIR = Paths.get("/dls/i03/data");
+
+	private DirectoryListing listing;
+
+	@Before
+	public void setup() {
+		final List<FileEntry> entries = new ArrayList<FileEntry>();
+		entries.add(new FileEntry(DIR.resolve("ipp_10.tif"),  Kind.FILE,      300, 1000));
+		entries.add(new FileEntry(DIR.resolve("processed"),   Kind.DIRECTORY, 0,   5000));
+		entries.add(new FileEntry(DIR.resolve("ipp_9.tif"),   Kind.FILE,      100, 3000));
+		entries.add(new FileEntry(DIR.resolve("Ipp_2.tif"),   Kind.FILE,      200, 2000));
+		entries.add(new FileEntry(DIR.resolve("a_scan"),      Kind.DIRECTORY, 0,   4000));
+		listing = new DirectoryListing(entries);
+	}
+
+	@Test
+	public void testDirsFirst() {
+		assertEquals(names("a_scan", "processed", "Ipp_2.tif", "ipp_9.tif", "ipp_10.tif"), listing.getPaths(FileSortType.ALPHA_NUMERIC_DIRS_FIRST));
+	}
+
+	@Test
+	public void testAlphaNumeric() {
+		assertEquals(names("a_scan", "Ipp_2.tif", "ipp_9.tif", "ipp_10.tif", "processed"), listing.getPaths(FileSortType.ALPHA_NUMERIC));
+	}
+
+	@Test
+	public void testEntries() {
+		assertEquals(5, listing.size());
+		assertTrue(listing.getEntry(DIR.resolve("processed")).isDirectory());
+		assertEquals(300, listing.getEntry(DIR.resolve("ipp_10.tif")).getSize());
+		assertNull(listing.getEntry(DIR.resolve("missing.tif")));
+	}
+
+	@Test
+	public void testApply() {
+		final List<FileEntry> changed = new ArrayList<FileEntry>();
+		changed.add(new FileEntry(DIR.resolve("ipp_11.tif"), Kind.FILE, 50,  6000));
+		changed.add(new FileEntry(DIR.resolve("ipp_9.tif"),  Kind.FILE, 500, 7000)); // Modified
+		changed.add(new FileEntry(DIR.resolve("b_scan"),     Kind.DIRECTORY, 0, 6000));
+
+		final DirectoryListing updated = listing.apply(changed, Arrays.asList(DIR.resolve("Ipp_2.tif")), FileSortType.ALPHA_NUMERIC_DIRS_FIRST, null);
+		assertEquals(names("a_scan", "b_scan", "processed", "ipp_9.tif", "ipp_10.tif", "ipp_11.tif"), updated.getPaths(FileSortType.ALPHA_NUMERIC_DIRS_FIRST));
+		assertEquals(500, updated.getEntry(DIR.resolve("ipp_9.tif")).getSize());
+
+		// The original is not changed
+		assertEquals(5, listing.size());
+		assertEquals(100, listing.getEntry(DIR.resolve("ipp_9.tif")).getSize());
+	}
+
+	@Test
+	public void testApplyCollapsed() {
+		final StackCollapser collapser = new StackCollapser(Pattern.compile("(.+)_(\\d+)\\.(\\w+)"));
+		final List<FileEntry> entries = new ArrayList<FileEntry>();
+		entries.add(new FileEntry(DIR.resolve("ipp_1.tif"), Kind.FILE, 10, 1000));
+		final StackIndex.Builder stacks = new StackIndex.Builder();
+		final DirectoryListing collapsed = new DirectoryListing(collapser.collapse(entries, stacks), stacks.build());
+		assertTrue(collapsed.getStubs().isEmpty());
+
+		final DirectoryListing updated = collapsed.apply(Arrays.asList(new FileEntry(DIR.resolve("ipp_2.tif"), Kind.FILE, 10, 2000),
+				                                                      new FileEntry(DIR.resolve("other.txt"), Kind.FILE, 10, 2000)),
+				                                        new ArrayList<Path>(), FileSortType.ALPHA_NUMERIC_DIRS_FIRST, collapser);
+		assertEquals(names("ipp_1.tif", "other.txt"), updated.getPaths(FileSortType.ALPHA_NUMERIC_DIRS_FIRST));
+		assertTrue(updated.getStubs().contains("ipp"));
+		assertTrue(updated.isCollapsed("ipp_3.tif", collapser));
+		assertEquals(2, updated.getStacks().getStack("ipp").getCount());
+
+		final DirectoryListing deleted = updated.apply(new ArrayList<FileEntry>(), Arrays.asList(DIR.resolve("ipp_2.tif")), FileSortType.ALPHA_NUMERIC_DIRS_FIRST, collapser);
+		assertEquals(1, deleted.getStacks().getStack("ipp").getCount());
+		assertTrue(deleted.getStubs().isEmpty());
+	}
+
+	@Test
+	public void testListedFrameDeleted() {
+		final StackCollapser collapser = new StackCollapser(Pattern.compile("(.+)_(\\d+)\\.(\\w+)"));
+		final List<FileEntry> entries = new ArrayList<FileEntry>();
+		for (int i = 1; i <= 3; i++) entries.add(new FileEntry(DIR.resolve("ipp_"+i+".tif"), Kind.FILE, 10, 1000));
+		entries.add(new FileEntry(DIR.resolve("other_1.tif"), Kind.FILE, 10, 1000));
+		final StackIndex.Builder stacks = new StackIndex.Builder();
+		final DirectoryListing collapsed = new DirectoryListing(collapser.collapse(entries, stacks), stacks.build());
+		assertEquals(names("ipp_1.tif", "other_1.tif"), collapsed.getPaths(FileSortType.ALPHA_NUMERIC));
+
+		// Another frame is listed in place of the one deleted
+		final List<Path> deleted = Arrays.asList(DIR.resolve("ipp_1.tif"), DIR.resolve("other_1.tif"));
+		assertEquals(Collections.singleton("ipp"), collapsed.getOrphanedStacks(deleted, collapser));
+		final List<FileEntry> promoted = Arrays.asList(new FileEntry(DIR.resolve("ipp_2.tif"), Kind.FILE, 10, 1000));
+		final DirectoryListing updated = collapsed.apply(new ArrayList<FileEntry>(), deleted, promoted, FileSortType.ALPHA_NUMERIC, collapser);
+		assertEquals(names("ipp_2.tif"), updated.getPaths(FileSortType.ALPHA_NUMERIC));
+		assertEquals(2, updated.getStacks().getStack("ipp").getCount());
+
+		// Not when the rest of the stack goes too
+		assertTrue(updated.getOrphanedStacks(Arrays.asList(DIR.resolve("ipp_2.tif"), DIR.resolve("ipp_3.tif")), collapser).isEmpty());
+		// Nor when a frame which is not listed goes
+		assertTrue(updated.getOrphanedStacks(Arrays.asList(DIR.resolve("ipp_3.tif")), collapser).isEmpty());
+	}
+
+	@Test
+	public void testNameOrderAsSortNatural() {
+		// Detector style names keep their order. SortNatural skips zeros so a run
+		// number of 0 is not used here, the keys put it before 1 as expected.
+		final List<FileEntry> entries = new ArrayList<FileEntry>();
+		final List<Path>      names   = new ArrayList<Path>();
+		final Random random = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			final Path path = DIR.resolve(String.format("%s_%d_%05d.%s", random.nextBoolean() ? "ipp" : "Pilatus", random.nextInt(20)+1, random.nextInt(2000), random.nextBoolean() ? "tif" : "cbf"));
+			if (names.contains(path)) continue;
+			entries.add(new FileEntry(path, Kind.FILE, 0, 0));
+			names.add(path);
+		}
+		final SortNatural<String> natural = new SortNatural<String>(false);
+		Collections.sort(names, (p1, p2) -> natural.compare(p1.getFileName().toString(), p2.getFileName().toString()));
+		assertEquals(names, new DirectoryListing(entries).getPaths(FileSortType.ALPHA_NUMERIC));
+	}
+
+	private static List<Path> names(String... names) {
+		final List<Path> paths = new ArrayList<Path>(names.length);
+		for (String name : names) paths.add(DIR.resolve(name));
+		return paths;
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import uk.ac.diamond.sda.navigator.views.DirectoryScanPool.Priority;
+
+/**
+ * Not a unit test, run as a java application to compare scanning a synthetic tree
+ * with one thread (as the navigator used to) against the scan pool.
+ *
+ * Arguments (all optional): [directory] [number of sub-directories] [files per sub-directory]
+ * the default is 50 directories of 10000 files, 500k files, in a temporary directory.
+ * Point it at an NFS mount to see the real difference.
+ */
+public class DirectoryScanBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		final Path root   = args.length>0 ? Paths.get(args[0]) : Files.createTempDirectory("scan_benchmark");
+		final int  ndirs  = args.length>1 ? Integer.parseInt(args[1]) : 50;
+		final int  nfiles = args.length>2 ? Integer.parseInt(args[2]) : 10000;
+		final boolean created = args.length<1;
+
+		try {
+			createTree(root, ndirs, nfiles);
+
+			run(root, ndirs, 1); // Warm up the cache for both
+			run(root, ndirs, 1);
+			run(root, ndirs, DirectoryScanPool.getDefaultThreadCount());
+			run(root, ndirs, Runtime.getRuntime().availableProcessors());
+		} finally {
+			if (created) delete(root);
+		}
+	}
+
+	/**
+	 * Queues every directory as prefetch work then expands the last one, as happens
+	 * when the user opens a directory while its siblings are being counted.
+	 */
+	private static void run(Path root, int ndirs, int threads) throws Exception {
+
+		final CountDownLatch   done  = new CountDownLatch(1);
+		final DirectoryScanPool pool = new DirectoryScanPool("Benchmark scan", Thread.NORM_PRIORITY, threads, new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+
+		final AtomicLong total    = new AtomicLong(0);
+		final AtomicLong expanded = new AtomicLong(0);
+		final long start = System.nanoTime();
+		try {
+			for (int i = 0; i < ndirs-1; i++) {
+				final Path dir = root.resolve(dirName(i));
+				pool.submit(dir, Priority.PREFETCH, new Runnable() {
+					@Override
+					public void run() {
+						total.addAndGet(count(dir));
+					}
+				});
+			}
+			final Path dir = root.resolve(dirName(ndirs-1));
+			pool.submit(dir, Priority.EXPAND, new Runnable() {
+				@Override
+				public void run() {
+					total.addAndGet(count(dir));
+					expanded.set(System.nanoTime());
+				}
+			});
+
+			if (!done.await(10, TimeUnit.MINUTES)) throw new Exception("Benchmark timed out!");
+			final long end = System.nanoTime();
+
+			System.out.println(String.format("Threads %2d: time to first child shown %8.1f ms, time to full count %8.1f ms, %d files",
+					                         threads, (expanded.get()-start)/1e6, (end-start)/1e6, total.get()));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * The same work per entry as ThreadingFileContentProvider does when counting.
+	 */
+	private static int count(Path dir) {
+		int count = 0;
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+			for (Path p : ds) {
+				if (!Files.isDirectory(p)) count+=1;
+			}
+		} catch (IOException ne) {
+			ne.printStackTrace();
+		}
+		return count;
+	}
+
+	private static void createTree(Path root, int ndirs, int nfiles) throws IOException {
+		for (int i = 0; i < ndirs; i++) {
+			final Path dir = root.resolve(dirName(i));
+			if (Files.isDirectory(dir)) continue;
+			Files.createDirectories(dir);
+			for (int j = 0; j < nfiles; j++) {
+				Files.createFile(dir.resolve(String.format("ipp_%05d_%05d.tif", i, j)));
+			}
+		}
+	}
+
+	private static String dirName(int i) {
+		return String.format("scan_%05d", i);
+	}
+
+	private static void delete(Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
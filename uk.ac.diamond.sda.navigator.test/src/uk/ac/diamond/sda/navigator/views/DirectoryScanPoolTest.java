@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.diamond.sda.navigator.views.DirectoryScanPool.Priority;
+
+public class DirectoryScanPoolTest {
+
+	private DirectoryScanPool pool;
+	private CountDownLatch    idle;
+	private CountDownLatch    release;
+	private List<String>      order;
+
+	@Before
+	public void setup() throws Exception {
+		idle    = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+		order   = new CopyOnWriteArrayList<String>();
+		pool    = new DirectoryScanPool("Test scan", Thread.NORM_PRIORITY, 1, new Runnable() {
+			@Override
+			public void run() {
+				idle.countDown();
+			}
+		});
+	}
+
+	@After
+	public void dispose() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void testExpandJumpsPrefetch() throws Exception {
+
+		block();
+		pool.submit("a", Priority.PREFETCH, record("a"));
+		pool.submit("b", Priority.PREFETCH, record("b"));
+		pool.submit("c", Priority.EXPAND,   record("c"));
+		pool.submit("d", Priority.PREFETCH, record("d"));
+		release.countDown();
+
+		assertTrue(idle.await(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("block", "c", "d", "b", "a"), order);
+	}
+
+	@Test
+	public void testDuplicatesIgnored() throws Exception {
+
+		block();
+		assertTrue(pool.submit("a", Priority.PREFETCH, record("a")));
+		assertTrue(pool.submit("b", Priority.PREFETCH, record("b")));
+		assertTrue(pool.submit("a", Priority.EXPAND,   record("a")));
+		assertFalse(pool.submit("block", Priority.EXPAND, record("block")));
+		assertEquals(3, pool.getPendingCount());
+		release.countDown();
+
+		assertTrue(idle.await(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("block", "a", "b"), order);
+		assertTrue(pool.isIdle());
+	}
+
+	@Test
+	public void testConcurrentScans() throws Exception {
+
+		final DirectoryScanPool multi = new DirectoryScanPool("Test multi", Thread.NORM_PRIORITY, 4, null);
+		try {
+			final CountDownLatch running = new CountDownLatch(4);
+			for (int i = 0; i < 4; i++) {
+				multi.submit(i, Priority.PREFETCH, new Runnable() {
+					@Override
+					public void run() {
+						running.countDown();
+						try {
+							running.await(10, TimeUnit.SECONDS);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				});
+			}
+			// Only true if all four scans ran at the same time
+			assertTrue(running.await(10, TimeUnit.SECONDS));
+		} finally {
+			multi.shutdown();
+		}
+	}
+
+	/**
+	 * Occupy the single thread so that later submissions queue up.
+	 */
+	private void block() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		pool.submit("block", Priority.EXPAND, new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				order.add("block");
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		});
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+	}
+
+	private Runnable record(final String name) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				order.add(name);
+			}
+		};
+	}
+}
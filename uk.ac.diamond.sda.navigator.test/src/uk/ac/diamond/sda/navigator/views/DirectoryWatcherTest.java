@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectoryWatcherTest {
+
+	private Path                                       dir;
+	private LinkedBlockingQueue<DirectoryWatcher.Delta> deltas;
+	private DirectoryWatcher                           watcher;
+
+	@Before
+	public void setup() throws Exception {
+		dir     = Files.createTempDirectory("watcher_test");
+		deltas  = new LinkedBlockingQueue<DirectoryWatcher.Delta>();
+		watcher = new DirectoryWatcher((d, delta) -> deltas.add(delta), 200, 100);
+	}
+
+	@After
+	public void dispose() throws Exception {
+		watcher.dispose();
+		try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+			for (Path p : (Iterable<Path>)files::iterator) Files.delete(p);
+		}
+		Files.delete(dir);
+	}
+
+	@Test
+	public void testBurstCoalesced() throws Exception {
+
+		watcher.watch(dir);
+		waitForWatch(watcher);
+		Files.createFile(dir.resolve("keep.txt"));
+		for (int i = 0; i < 20; i++) Files.createFile(dir.resolve("frame_"+i+".tif"));
+		Files.delete(dir.resolve("keep.txt"));
+
+		final Set<Path> changed = new HashSet<Path>();
+		final Set<Path> deleted = new HashSet<Path>();
+		boolean unknown = false;
+		int updates = 0;
+		// Inotify may report in more than one batch, but never one per file.
+		DirectoryWatcher.Delta delta = deltas.poll(10, TimeUnit.SECONDS);
+		while (delta!=null) {
+			updates++;
+			changed.addAll(delta.getChanged());
+			changed.removeAll(delta.getDeleted());
+			deleted.addAll(delta.getDeleted());
+			unknown = unknown || delta.isUnknown();
+			delta = deltas.poll(1, TimeUnit.SECONDS);
+		}
+		assertTrue(updates<5);
+		if (!unknown) {
+			assertEquals(20, changed.size());
+			assertTrue(deleted.contains(dir.resolve("keep.txt")));
+		}
+	}
+
+	@Test
+	public void testChangedBeforeWatched() throws Exception {
+
+		// As if the listing was read long enough ago for the modified time to show a change
+		Files.setLastModifiedTime(dir, FileTime.fromMillis(System.currentTimeMillis()-10000));
+		final long listed = DirectoryWatcher.lastModified(dir);
+		Files.createFile(dir.resolve("missed.txt"));
+
+		watcher.watch(dir, listed);
+		final DirectoryWatcher.Delta delta = deltas.poll(10, TimeUnit.SECONDS);
+		assertTrue(delta!=null && delta.isUnknown());
+	}
+
+	@Test
+	public void testUnchangedBeforeWatched() throws Exception {
+
+		Files.setLastModifiedTime(dir, FileTime.fromMillis(System.currentTimeMillis()-10000));
+		watcher.watch(dir, DirectoryWatcher.lastModified(dir));
+		waitForWatch(watcher);
+		assertEquals(null, deltas.poll(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testUnwatch() throws Exception {
+		watcher.watch(dir);
+		watcher.unwatch(dir);
+		Files.createFile(dir.resolve("ignored.txt"));
+		assertEquals(null, deltas.poll(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testPolled() throws Exception {
+		final String type = Files.getFileStore(dir).type();
+		System.setProperty(DirectoryWatcher.POLL_TYPES_PROPERTY, type);
+		try {
+			final DirectoryWatcher poller = new DirectoryWatcher((d, delta) -> deltas.add(delta), 50, 100);
+			try {
+				poller.watch(dir);
+				waitForWatch(poller);
+				Thread.sleep(1100); // Some file systems only keep the modified time to the second
+				Files.createFile(dir.resolve("new.txt"));
+				final DirectoryWatcher.Delta delta = deltas.poll(10, TimeUnit.SECONDS);
+				assertTrue(delta!=null && delta.isUnknown());
+			} finally {
+				poller.dispose();
+			}
+		} finally {
+			System.clearProperty(DirectoryWatcher.POLL_TYPES_PROPERTY);
+		}
+	}
+
+	/**
+	 * Directories are registered on the watcher's thread
+	 */
+	private void waitForWatch(DirectoryWatcher w) throws InterruptedException {
+		for (int i = 0; i < 500 && !w.isWatching(dir); i++) Thread.sleep(10);
+		assertTrue(w.isWatching(dir));
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import uk.ac.diamond.sda.navigator.util.NaturalSortKey;
+
+/**
+ * Not a unit test, run as a java application to compare sorting detector file names
+ * with {@link SortNatural} against sorting their {@link NaturalSortKey}s, including
+ * the time to make the keys.
+ *
+ * Arguments (all optional): [number of names] [rounds]
+ * the default is 100000 names like ipp_12345_00001.tif, sorted 10 times after warming up.
+ */
+public class NaturalSortBenchmark {
+
+	public static void main(String[] args) {
+
+		final int size   = args.length>0 ? Integer.parseInt(args[0]) : 100000;
+		final int rounds = args.length>1 ? Integer.parseInt(args[1]) : 10;
+
+		final String[] names = createNames(size);
+
+		// Warm up, then measure
+		for (int i = 0; i < 5; i++) {
+			sortNatural(names);
+			sortKeys(names);
+		}
+
+		long natural = 0, keys = 0;
+		long naturalBytes = 0, keysBytes = 0;
+		for (int i = 0; i < rounds; i++) {
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			sortNatural(names);
+			natural      += System.nanoTime()-start;
+			naturalBytes += allocatedBytes()-bytes;
+
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			sortKeys(names);
+			keys      += System.nanoTime()-start;
+			keysBytes += allocatedBytes()-bytes;
+		}
+
+		System.out.println("Sorted "+size+" names "+rounds+" times");
+		report("SortNatural     ", natural, naturalBytes, rounds);
+		report("NaturalSortKey  ", keys,    keysBytes,    rounds);
+	}
+
+	private static String[] createNames(int size) {
+		final List<String> names = new ArrayList<String>(size);
+		// A few scans of many frames each, as a detector writes them
+		final int frames = 1000;
+		for (int i = 0; names.size() < size; i++) {
+			for (int j = 1; j <= frames && names.size() < size; j++) {
+				names.add(String.format("ipp_%05d_%05d.tif", 12345+i, j));
+			}
+		}
+		Collections.shuffle(names, new Random(12345));
+		return names.toArray(new String[names.size()]);
+	}
+
+	private static String sortNatural(String[] names) {
+		final String[] copy = names.clone();
+		Arrays.sort(copy, new SortNatural<String>(false));
+		return copy[0];
+	}
+
+	private static String sortKeys(String[] names) {
+		final NaturalSortKey[] keys = new NaturalSortKey[names.length];
+		for (int i = 0; i < names.length; i++) keys[i] = new NaturalSortKey(names[i]);
+		Arrays.sort(keys);
+		return keys[0].getName();
+	}
+
+	private static void report(String label, long nanos, long bytes, int rounds) {
+		final String mem = bytes<0 ? "unknown" : (bytes/rounds/1024/1024)+" MB";
+		System.out.println(label+(nanos/rounds/1000000)+" ms, allocated "+mem+" per sort");
+	}
+
+	/**
+	 * @return bytes allocated by this thread so far, or a negative number if the
+	 *         JVM cannot tell us.
+	 */
+	private static long allocatedBytes() {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean)bean).getCurrentThreadAllocatedBytes();
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PathPrefixIndexTest {
+
+	private PathPrefixIndex index;
+
+	@Before
+	public void setup() {
+		index = new PathPrefixIndex();
+		index.add(Paths.get("/dls/i03/data"));
+		index.add(Paths.get("/dls/i03/data/2016"));
+		index.add(Paths.get("/dls/i03/data/2016/cm1234"));
+		index.add(Paths.get("/dls/i03/data-old"));
+		index.add(Paths.get("/dls/i04/data"));
+	}
+
+	@Test
+	public void testRemoveSubtree() {
+		final List<Path> removed = index.removeSubtree(Paths.get("/dls/i03/data"));
+		assertEquals(set("/dls/i03/data", "/dls/i03/data/2016", "/dls/i03/data/2016/cm1234"), new HashSet<Path>(removed));
+		assertEquals(2, index.size());
+		assertTrue(index.contains(Paths.get("/dls/i03/data-old")));
+		assertTrue(index.contains(Paths.get("/dls/i04/data")));
+	}
+
+	@Test
+	public void testRemoveSubtreeNotInIndex() {
+		// Parent directory which was never cached itself
+		final List<Path> removed = index.removeSubtree(Paths.get("/dls/i03"));
+		assertEquals(4, removed.size());
+		assertEquals(1, index.size());
+		assertTrue(index.removeSubtree(Paths.get("/dls/b16")).isEmpty());
+	}
+
+	@Test
+	public void testRemove() {
+		assertTrue(index.remove(Paths.get("/dls/i03/data/2016")));
+		assertFalse(index.remove(Paths.get("/dls/i03/data/2016")));
+		assertFalse(index.contains(Paths.get("/dls/i03/data/2016")));
+		assertTrue(index.contains(Paths.get("/dls/i03/data/2016/cm1234")));
+		assertEquals(4, index.size());
+		assertEquals(4, index.getPaths().size());
+	}
+
+	@Test
+	public void testRoot() {
+		index.add(Paths.get("/"));
+		assertTrue(index.contains(Paths.get("/")));
+		assertEquals(6, index.removeSubtree(Paths.get("/")).size());
+		assertEquals(0, index.size());
+		assertTrue(index.getPaths().isEmpty());
+	}
+
+	private static Set<Path> set(String... paths) {
+		final Set<Path> ret = new HashSet<Path>();
+		for (String path : paths) ret.add(Paths.get(path));
+		return ret;
+	}
+}
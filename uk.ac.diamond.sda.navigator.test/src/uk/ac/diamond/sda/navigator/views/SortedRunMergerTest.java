@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SortedRunMergerTest {
+
+	@Test
+	public void testMergeAsWeGo() {
+
+		final SortNatural<String>     natural = new SortNatural<String>(false);
+		final SortedRunMerger<String> merger  = new SortedRunMerger<String>(natural);
+		final List<String>            names   = new ArrayList<String>();
+		for (int i = 0; i < 5000; i++) names.add(String.format("ipp_%d_%05d.tif", i%7, i));
+		Collections.shuffle(names, new Random(1234));
+
+		int next = 100;
+		for (int i = 0; i < names.size(); i++) {
+			merger.add(names.get(i));
+			if (merger.size()>=next) {
+				final List<String> partial = merger.merge();
+				final List<String> expected = new ArrayList<String>(names.subList(0, i+1));
+				Collections.sort(expected, natural);
+				assertEquals(expected, partial);
+				next*=2;
+			}
+		}
+
+		final List<String> all = merger.merge();
+		Collections.sort(names, natural);
+		assertEquals(names, all);
+	}
+
+	@Test
+	public void testEmpty() {
+		final SortedRunMerger<String> merger = new SortedRunMerger<String>(new SortNatural<String>(false));
+		assertTrue(merger.merge().isEmpty());
+		merger.add("b");
+		merger.add("a");
+		assertEquals(Arrays.asList("a", "b"), merger.merge());
+		assertEquals(Arrays.asList("a", "b"), merger.merge());
+	}
+}
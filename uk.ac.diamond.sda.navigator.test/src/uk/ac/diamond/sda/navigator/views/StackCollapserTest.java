@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import uk.ac.diamond.sda.navigator.util.FileEntry;
+import uk.ac.diamond.sda.navigator.util.FileEntry.Kind;
+import uk.ac.diamond.sda.navigator.util.StackIndex;
+
+public class StackCollapserTest {
+
+	private static final Path DIR = Paths.get("/dls/i03/data");
+
+	private final StackCollapser collapser = new StackCollapser(Pattern.compile("(.+)_(\\d+)\\.(\\w+)"));
+
+	@Test
+	public void testLargeStack() {
+
+		// Big enough to be split over threads, with frames 101 and 5000 missing.
+		final List<FileEntry> entries = new ArrayList<FileEntry>();
+		for (int i = 1; i <= 12002; i++) {
+			if (i==101 || i==5000) continue;
+			entries.add(file(String.format("ipp_12345_%05d.tif", i)));
+		}
+		entries.add(4000, file("notes.txt"));
+		entries.add(file("ipp_12346_00001.cbf"));
+		entries.add(new FileEntry(DIR.resolve("processed_1.dir"), Kind.DIRECTORY, 0, 0));
+
+		final StackIndex.Builder builder = new StackIndex.Builder();
+		final List<FileEntry> listed = collapser.collapse(entries, builder);
+		final StackIndex stacks = builder.build();
+
+		assertEquals(names("ipp_12345_00001.tif", "notes.txt", "ipp_12346_00001.cbf", "processed_1.dir"), names(listed));
+
+		final StackIndex.Stack stack = stacks.getStack("ipp_12345");
+		assertEquals(12000, stack.getCount());
+		assertEquals(1,     stack.getFirst());
+		assertEquals(12002, stack.getLast());
+		assertEquals(2,     stack.getGaps());
+		assertEquals("tif", stack.getExtension());
+
+		assertTrue(stacks.getStubs().contains("ipp_12345"));
+		assertFalse(stacks.getStubs().contains("ipp_12346")); // Only one file, not collapsed
+		assertTrue(stacks.contains("ipp_12346"));
+		assertNull(stacks.getStack("processed"));
+	}
+
+	@Test
+	public void testSameAsSequential() {
+
+		final List<FileEntry> entries = new ArrayList<FileEntry>();
+		for (int scan = 0; scan < 20; scan++) {
+			for (int i = 0; i < 500; i++) entries.add(file("scan"+scan+"_"+i+".cbf"));
+			entries.add(file("scan"+scan+".nxs"));
+		}
+		Collections.shuffle(entries, new Random(7));
+
+		final List<FileEntry> listed = collapser.collapse(entries, new StackIndex.Builder());
+
+		// One at a time, as the watcher adds them
+		final StackIndex.Builder builder = new StackIndex.Builder();
+		final List<FileEntry> expected = new ArrayList<FileEntry>();
+		for (FileEntry entry : entries) expected.addAll(collapser.collapse(Collections.singletonList(entry), builder));
+
+		assertEquals(40, listed.size());
+		assertEquals(names(expected), names(listed));
+	}
+
+	@Test
+	public void testBatches() {
+		final StackIndex.Builder builder = new StackIndex.Builder();
+		assertEquals(2, collapser.collapse(List.of(file("a_1.tif"), file("b_7.tif")), builder).size());
+		assertEquals(0, collapser.collapse(List.of(file("a_2.tif"), file("b_3.tif")), builder).size());
+
+		final StackIndex.Stack stack = builder.build().getStack("b");
+		assertEquals(3, stack.getFirst());
+		assertEquals(7, stack.getLast());
+		assertEquals(3, stack.getGaps());
+		assertEquals("b", collapser.getStackId("b_7.tif"));
+		assertNull(collapser.getStackId("notes.txt"));
+	}
+
+	@Test
+	public void testName() {
+		final StackIndex.Builder builder = new StackIndex.Builder();
+		collapser.collapse(List.of(file("ipp_1.tif"), file("ipp_2.tif")), builder);
+		assertEquals("ipp_*.tif", builder.build().getStack("ipp").getName());
+
+		// A pattern without an extension group
+		final StackCollapser noExtension = new StackCollapser(Pattern.compile("(.+)_(\\d+)\\..*"));
+		final StackIndex.Builder other = new StackIndex.Builder();
+		noExtension.collapse(List.of(file("ipp_1.tif"), file("ipp_2.tif")), other);
+		assertEquals("ipp_*", other.build().getStack("ipp").getName());
+	}
+
+	private static FileEntry file(String name) {
+		return new FileEntry(DIR.resolve(name), Kind.FILE, 1, 1);
+	}
+
+	private static List<String> names(String... names) {
+		return List.of(names);
+	}
+
+	private static List<String> names(List<FileEntry> entries) {
+		final List<String> names = new ArrayList<String>(entries.size());
+		for (FileEntry entry : entries) names.add(entry.getName());
+		return names;
+	}
+}
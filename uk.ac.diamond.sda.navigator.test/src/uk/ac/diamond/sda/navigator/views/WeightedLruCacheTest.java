@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WeightedLruCacheTest {
+
+	private Set<String>                    pinned;
+	private WeightedLruCache<String, int[]> cache;
+
+	@Before
+	public void setup() {
+		pinned = new HashSet<String>();
+		// Weigh by the length of the array, like the number of entries in a listing
+		cache  = new WeightedLruCache<String, int[]>(100, value -> value.length, pinned::contains);
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		cache.put("a", new int[40]);
+		cache.put("b", new int[40]);
+		cache.get("a");
+		cache.put("c", new int[40]);
+
+		assertTrue(cache.containsKey("a"));
+		assertFalse(cache.containsKey("b"));
+		assertTrue(cache.containsKey("c"));
+		assertEquals(80, cache.getWeight());
+		assertEquals(1, cache.getEvictionCount());
+	}
+
+	@Test
+	public void testOneLargeValue() {
+		cache.put("a", new int[10]);
+		cache.put("b", new int[10]);
+		cache.put("big", new int[95]);
+
+		assertEquals(1, cache.size());
+		assertTrue(cache.containsKey("big"));
+		assertEquals(2, cache.getEvictionCount());
+	}
+
+	@Test
+	public void testPinnedNotEvicted() {
+		pinned.add("a");
+		cache.put("a", new int[60]);
+		cache.put("b", new int[30]);
+		cache.put("c", new int[30]);
+
+		assertTrue(cache.containsKey("a"));
+		assertFalse(cache.containsKey("b"));
+
+		// Over the maximum when only pinned remain
+		pinned.add("c");
+		cache.put("d", new int[50]);
+		assertEquals(140, cache.getWeight());
+		assertEquals(3, cache.size());
+	}
+
+	@Test
+	public void testCounters() {
+		cache.put("a", new int[1]);
+		cache.get("a");
+		cache.get("a");
+		assertNull(cache.get("b"));
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testPeekDoesNotReorderOrCount() {
+		cache.put("a", new int[40]);
+		cache.put("b", new int[40]);
+		assertEquals(40, cache.peek("a").length);
+		assertNull(cache.peek("x"));
+		cache.put("c", new int[40]);
+
+		// "a" was only peeked at, so it is still the least recently used
+		assertNull(cache.peek("a"));
+		assertTrue(cache.containsKey("b"));
+		assertEquals(0, cache.getHitCount());
+		assertEquals(0, cache.getMissCount());
+	}
+
+	@Test
+	public void testPeekAfterRemove() {
+		cache.put("a/b",   new int[10]);
+		cache.put("a/b/c", new int[10]);
+		cache.put("d",     new int[10]);
+		cache.removeIf(key -> key.startsWith("a/"));
+		assertNull(cache.peek("a/b"));
+		cache.remove("d");
+		assertNull(cache.peek("d"));
+		cache.put("d", new int[10]);
+		cache.clear();
+		assertNull(cache.peek("d"));
+	}
+
+	@Test
+	public void testRemove() {
+		cache.put("a/b",   new int[10]);
+		cache.put("a/b/c", new int[10]);
+		cache.put("d",     new int[10]);
+		cache.removeIf(key -> key.startsWith("a/"));
+		assertEquals(1, cache.size());
+		assertEquals(10, cache.getWeight());
+		cache.remove("d");
+		assertEquals(0, cache.getWeight());
+	}
+}
@@ -24,6 +24,8 @@ import org.eclipse.jface.viewers.ILightweightLabelDecorator;
 //import org.slf4j.LoggerFactory;
 import org.eclipse.jface.viewers.LabelProvider;
 
+import uk.ac.diamond.sda.navigator.util.FileEntry;
+
 public class LightweightMetadataDecorator extends LabelProvider implements ILightweightLabelDecorator {
 
 	public static final String ID = "uk.ac.diamond.sda.navigator.metadataDecorator";
@@ -64,10 +66,12 @@ public class LightweightMetadataDecorator extends LabelProvider implements ILigh
 			IPath path = ifile.getLocation();
 			if (path != null) {
 				File file = path.toFile();
-				String lastModified = new SimpleDateFormat("dd/MM/yy hh:mm aaa").format(new Date(file.lastModified()));
+				// Size and date come from one read of the attributes, not a stat each
+				FileEntry entry = FileEntry.readQuietly(file.toPath());
+				String lastModified = new SimpleDateFormat("dd/MM/yy hh:mm aaa").format(new Date(entry.getLastModified()));
 				String filePermission = getFilePermission(file);
 				// file size - date of last modification - file permissions
-				decoration.addSuffix("  " + readableFileSize(file.length()) + "  " + lastModified);// +"  "+filePermission);
+				decoration.addSuffix("  " + readableFileSize(entry.getSize()) + "  " + lastModified);// +"  "+filePermission);
 				// Image overlay decoration according to file permission:
 				if (filePermission.equals("- - -")) {
 					ImageDescriptor lockOverlay = ImageDescriptor.createFromFile(this.getClass(),
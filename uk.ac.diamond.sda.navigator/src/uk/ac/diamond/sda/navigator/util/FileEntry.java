@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The name, kind, size and modified time of a file, read with one call to
+ * the file system. On NFS each stat is a round trip so when listing a directory
+ * we read these once and reuse them for rendering and sorting.
+ */
+public final class FileEntry {
+
+	public enum Kind {
+		DIRECTORY, FILE, OTHER;
+	}
+
+	private final Path   path;
+	private final String name;
+	private final NaturalSortKey sortKey;
+	private final Kind   kind;
+	private final long   size;
+	private final long   lastModified;
+
+	public FileEntry(Path path, Kind kind, long size, long lastModified) {
+		this.path         = path;
+		final Path fname  = path.getFileName();
+		this.name         = fname!=null ? fname.toString() : path.toString();
+		this.sortKey      = new NaturalSortKey(name);
+		this.kind         = kind;
+		this.size         = size;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Reads the attributes of the file, following links as Files.isDirectory(...) does.
+	 * @param path
+	 * @return entry
+	 * @throws IOException
+	 */
+	public static FileEntry read(Path path) throws IOException {
+		return create(path, Files.readAttributes(path, BasicFileAttributes.class));
+	}
+
+	/**
+	 * Reads the attributes of the file, if they cannot be read (for instance a
+	 * broken link) an entry of kind OTHER is returned.
+	 * @param path
+	 * @return entry, never null
+	 */
+	public static FileEntry readQuietly(Path path) {
+		try {
+			return read(path);
+		} catch (IOException ne) {
+			return new FileEntry(path, Kind.OTHER, 0, 0);
+		}
+	}
+
+	public static FileEntry create(Path path, BasicFileAttributes attr) {
+		final Kind kind = attr.isDirectory() ? Kind.DIRECTORY : attr.isRegularFile() ? Kind.FILE : Kind.OTHER;
+		return new FileEntry(path, kind, attr.size(), attr.lastModifiedTime().toMillis());
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return key for sorting by name, made when the entry is read so that
+	 *         sorting does not have to prepare the name for each comparison.
+	 */
+	public NaturalSortKey getSortKey() {
+		return sortKey;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public boolean isDirectory() {
+		return kind==Kind.DIRECTORY;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	@Override
+	public String toString() {
+		return name+" ("+kind+", "+size+" bytes)";
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.util;
+
+/**
+ * A file name prepared once for natural, case insensitive, ordering so that sorting
+ * a directory does not lower case or scan the names again on every comparison.
+ *
+ * The name is folded to lower case and the runs of digits found, comparing two keys
+ * then walks the characters without allocating. Runs of digits compare by value, so
+ * ipp_9.tif is before ipp_10.tif, other characters compare as characters. Names which
+ * are equal apart from leading zeros are ordered by fewer zeros first and names equal
+ * apart from case by {@link String#compareTo(String)}, so only equal names compare as 0.
+ */
+public final class NaturalSortKey implements Comparable<NaturalSortKey> {
+
+	private static final int[] NO_NUMBERS = new int[0];
+
+	private final String name;
+	private final char[] folded;
+	/**
+	 * For each run of digits: start, first digit which is not a leading zero, end.
+	 */
+	private final int[]  numbers;
+
+	public NaturalSortKey(String name) {
+		this.name   = name;
+		this.folded = name.toCharArray();
+
+		int runs = 0;
+		for (int i = 0; i < folded.length; i++) {
+			folded[i] = Character.toLowerCase(folded[i]);
+			if (Character.isDigit(folded[i]) && (i==0 || !Character.isDigit(folded[i-1]))) runs++;
+		}
+
+		this.numbers = runs>0 ? new int[runs*3] : NO_NUMBERS;
+		int n = 0;
+		for (int i = 0; i < folded.length;) {
+			if (!Character.isDigit(folded[i])) {
+				i++;
+				continue;
+			}
+			numbers[n] = i;
+			while (i<folded.length && folded[i]=='0') i++;
+			numbers[n+1] = i;
+			while (i<folded.length && Character.isDigit(folded[i])) i++;
+			// A run of only zeros, keep the last so that its value is compared
+			if (numbers[n+1]==i) numbers[n+1] = i-1;
+			numbers[n+2] = i;
+			n+=3;
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int compareTo(NaturalSortKey o) {
+
+		final char[] a = folded;
+		final char[] b = o.folded;
+		int i = 0, j = 0;   // Position in each name
+		int ra = 0, rb = 0; // Next run of digits in each name
+		int zeros = 0;      // Difference in leading zeros of the first numbers which differ only by them
+
+		while (i<a.length && j<b.length) {
+			final char ca = a[i];
+			final char cb = b[j];
+
+			// Both names reach runs of digits at the same time, we are always at their start
+			if (Character.isDigit(ca) && Character.isDigit(cb)) {
+				final int sa = numbers[ra+1],   ea = numbers[ra+2];
+				final int sb = o.numbers[rb+1], eb = o.numbers[rb+2];
+				if (ea-sa != eb-sb) return ea-sa < eb-sb ? -1 : 1;
+				for (int k = 0; k < ea-sa; k++) {
+					if (a[sa+k]!=b[sb+k]) return a[sa+k]<b[sb+k] ? -1 : 1;
+				}
+				if (zeros==0) zeros = (sa-i) - (sb-j);
+				i = ea;
+				j = eb;
+				ra+=3;
+				rb+=3;
+				continue;
+			}
+			if (ca!=cb) return ca<cb ? -1 : 1;
+			i++;
+			j++;
+		}
+		if (i<a.length) return 1;
+		if (j<b.length) return -1;
+		if (zeros!=0)   return zeros<0 ? -1 : 1;
+		return name.compareTo(o.name);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this==o) return true;
+		if (!(o instanceof NaturalSortKey)) return false;
+		return name.equals(((NaturalSortKey)o).name);
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.util;
+
+import java.text.NumberFormat;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The data collections (image stacks) found in one directory, with the range of
+ * frames in each. Made when the directory is listed so that labels can say how many
+ * frames a collapsed stack has without reading the directory again.
+ *
+ * An index is not changed once built, use {@link #toBuilder()} to make a changed copy.
+ */
+public final class StackIndex {
+
+	/**
+	 * The frames of one data collection, for instance ipp_12345_00001.tif to
+	 * ipp_12345_12000.tif are stack ipp_12345 with frames 1 to 12000.
+	 */
+	public static final class Stack {
+
+		private final String id;
+		private final String extension;
+		private final long   first;
+		private final long   last;
+		private final int    count;
+
+		Stack(String id, String extension, long first, long last, int count) {
+			this.id        = id;
+			this.extension = extension;
+			this.first     = first;
+			this.last      = last;
+			this.count     = count;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * @return for instance "ipp_12345_*.tif", or "ipp_12345_*" if the extension is not known.
+		 */
+		public String getName() {
+			return extension!=null ? id+"_*."+extension : id+"_*";
+		}
+
+		/**
+		 * @return extension of the first file seen, may be null.
+		 */
+		public String getExtension() {
+			return extension;
+		}
+
+		/**
+		 * @return lowest frame number, or -1 if the frames are not numbered.
+		 */
+		public long getFirst() {
+			return first;
+		}
+
+		/**
+		 * @return highest frame number, or -1 if the frames are not numbered.
+		 */
+		public long getLast() {
+			return last;
+		}
+
+		/**
+		 * @return number of files in the stack.
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * @return number of frames missing between first and last, assuming no frame
+		 *         number is repeated.
+		 */
+		public long getGaps() {
+			if (first<0) return 0;
+			return Math.max(0, last-first+1-count);
+		}
+
+		/**
+		 * @return for instance "stack of 12,000 frames (1-12,000)"
+		 */
+		public String getDescription() {
+			final NumberFormat format = NumberFormat.getIntegerInstance();
+			final StringBuilder buf = new StringBuilder("stack of ");
+			buf.append(format.format(count));
+			buf.append(count==1 ? " frame" : " frames");
+			if (first>-1) {
+				buf.append(" (");
+				buf.append(format.format(first));
+				buf.append("-");
+				buf.append(format.format(last));
+				final long gaps = getGaps();
+				if (gaps>0) buf.append(", ").append(format.format(gaps)).append(" missing");
+				buf.append(")");
+			}
+			return buf.toString();
+		}
+
+		@Override
+		public String toString() {
+			return id+" "+getDescription();
+		}
+	}
+
+	/**
+	 * Adds frames to an index, not thread safe.
+	 */
+	public static final class Builder {
+
+		private final Map<String, long[]> ranges;     // first, last, count
+		private final Map<String, String> extensions;
+
+		public Builder() {
+			this.ranges     = new LinkedHashMap<String, long[]>(31);
+			this.extensions = new LinkedHashMap<String, String>(31);
+		}
+
+		/**
+		 * @param id of the stack
+		 * @param frame number or -1 if not known
+		 * @param extension may be null
+		 * @return true if the stack was already in the index.
+		 */
+		public boolean add(String id, long frame, String extension) {
+			final long[] range = ranges.get(id);
+			if (range==null) {
+				ranges.put(id, new long[]{frame, frame, 1});
+				extensions.put(id, extension);
+				return false;
+			}
+			add(range, frame, frame, 1);
+			return true;
+		}
+
+		/**
+		 * Adds all the frames of a stack at once, as when putting together
+		 * stacks found in parts of a directory.
+		 * @return true if the stack was already in the index.
+		 */
+		public boolean add(String id, long first, long last, int count, String extension) {
+			final long[] range = ranges.get(id);
+			if (range==null) {
+				ranges.put(id, new long[]{first, last, count});
+				extensions.put(id, extension);
+				return false;
+			}
+			add(range, first, last, count);
+			return true;
+		}
+
+		private static void add(long[] range, long first, long last, int count) {
+			if (first>-1) {
+				range[0] = range[0]<0 ? first : Math.min(range[0], first);
+				range[1] = Math.max(range[1], last);
+			}
+			range[2]+=count;
+		}
+
+		/**
+		 * Removes a frame, the first and last frame are not changed.
+		 * @param id
+		 */
+		public void remove(String id) {
+			final long[] range = ranges.get(id);
+			if (range==null) return;
+			if (--range[2]<1) {
+				ranges.remove(id);
+				extensions.remove(id);
+			}
+		}
+
+		public boolean contains(String id) {
+			return ranges.containsKey(id);
+		}
+
+		public StackIndex build() {
+			final Map<String, Stack> stacks = new LinkedHashMap<String, Stack>(Math.max(16, (int)(ranges.size()/0.75f)+1));
+			for (Map.Entry<String, long[]> entry : ranges.entrySet()) {
+				final long[] range = entry.getValue();
+				stacks.put(entry.getKey(), new Stack(entry.getKey(), extensions.get(entry.getKey()), range[0], range[1], (int)range[2]));
+			}
+			return new StackIndex(stacks);
+		}
+	}
+
+	private final Map<String, Stack> stacks;
+	private final Set<String>        stubs;
+
+	private StackIndex(Map<String, Stack> stacks) {
+		this.stacks = stacks;
+		final Set<String> collapsed = new HashSet<String>(31);
+		for (Stack stack : stacks.values()) if (stack.getCount()>1) collapsed.add(stack.getId());
+		this.stubs = Collections.unmodifiableSet(collapsed);
+	}
+
+	/**
+	 * @return ids of the stacks with more than one file, which are shown as one entry.
+	 */
+	public Set<String> getStubs() {
+		return stubs;
+	}
+
+	/**
+	 * @param id
+	 * @return true if any file of this stack was seen.
+	 */
+	public boolean contains(String id) {
+		return stacks.containsKey(id);
+	}
+
+	/**
+	 * @param id
+	 * @return stack or null
+	 */
+	public Stack getStack(String id) {
+		return stacks.get(id);
+	}
+
+	/**
+	 * @return number of stacks, including those with one file.
+	 */
+	public int size() {
+		return stacks.size();
+	}
+
+	public Builder toBuilder() {
+		final Builder builder = new Builder();
+		for (Stack stack : stacks.values()) {
+			builder.add(stack.getId(), stack.getFirst(), stack.getLast(), stack.getCount(), stack.getExtension());
+		}
+		return builder;
+	}
+
+	@Override
+	public String toString() {
+		return stacks.values().toString();
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import uk.ac.diamond.sda.navigator.util.FileEntry;
+import uk.ac.diamond.sda.navigator.util.StackIndex;
+
+/**
+ * The contents of one directory as read in a single pass, with the attributes
+ * of each entry so that rendering and sorting do not stat the files again.
+ *
+ * The sorted order is worked out for a given {@link FileSortType} when it is
+ * asked for, changing the sort does not need another scan.
+ *
+ * A listing is not changed once made, apart from the time its directory was read.
+ * Changes seen in the directory give a new listing with
+ * {@link #apply(Collection, Collection, Collection, FileSortType, StackCollapser)}.
+ */
+class DirectoryListing {
+
+	/**
+	 * Rough memory used per entry by the Path, name, sort key, FileEntry and index.
+	 */
+	private static final int BYTES_PER_ENTRY = 448;
+
+	private final FileEntry[]          entries;
+	private final Map<Path, FileEntry> index;
+	private final StackIndex           stacks;
+
+	private FileSortType sort;
+	private List<Path>   sorted;
+
+	private volatile long modified = NO_TIME;
+
+	/**
+	 * The modified time of a listing which does not know when its directory was read.
+	 */
+	static final long NO_TIME = Long.MIN_VALUE;
+
+	DirectoryListing(List<FileEntry> entries) {
+		this(entries, null);
+	}
+
+	/**
+	 * @param entries
+	 * @param stacks may be null, data collections seen in this directory if collapsing.
+	 */
+	DirectoryListing(List<FileEntry> entries, StackIndex stacks) {
+		this.stacks  = stacks;
+		this.entries = entries.toArray(new FileEntry[entries.size()]);
+		this.index   = new HashMap<Path, FileEntry>(Math.max(16, (int)(this.entries.length/0.75f)+1));
+		for (FileEntry entry : this.entries) index.put(entry.getPath(), entry);
+	}
+
+	int size() {
+		return entries.length;
+	}
+
+	/**
+	 * @return estimated memory used by this listing in bytes.
+	 */
+	long estimateBytes() {
+		return 64L + (long)entries.length*BYTES_PER_ENTRY;
+	}
+
+	/**
+	 * @return stubs of collapsed data collections, may be null.
+	 */
+	Set<String> getStubs() {
+		return stacks!=null ? stacks.getStubs() : null;
+	}
+
+	/**
+	 * @return data collections in this directory, null if not collapsing.
+	 */
+	StackIndex getStacks() {
+		return stacks;
+	}
+
+	/**
+	 * @return modified time of the directory read just before this listing was made,
+	 *         or {@link #NO_TIME} if not known.
+	 */
+	long getModified() {
+		return modified;
+	}
+
+	void setModified(long modified) {
+		this.modified = modified;
+	}
+
+	/**
+	 *
+	 * @param path
+	 * @return the entry or null if the path is not in this directory.
+	 */
+	FileEntry getEntry(Path path) {
+		return index.get(path);
+	}
+
+	/**
+	 * @param name of a file not in this listing
+	 * @param collapser finds the data collection of a file name.
+	 * @return true if the file was left out as part of a data collection already listed.
+	 */
+	boolean isCollapsed(String name, StackCollapser collapser) {
+		if (stacks==null) return false;
+		final String id = collapser.getStackId(name);
+		return id!=null && stacks.contains(id);
+	}
+
+	/**
+	 * @param deleted paths removed, which need not be in the listing
+	 * @param collapser may be null, finds the data collection of a file name when collapsing.
+	 * @return ids of the data collections whose listed file is deleted but which have
+	 *         other files left, one of which should be listed in its place.
+	 */
+	Set<String> getOrphanedStacks(Collection<Path> deleted, StackCollapser collapser) {
+		if (collapser==null || stacks==null) return Collections.emptySet();
+		final Map<String, Integer> left     = new HashMap<String, Integer>(7);
+		final Set<String>          orphaned = new HashSet<String>(7);
+		for (Path path : deleted) {
+			final Path name = path.getFileName();
+			final String id = name!=null ? collapser.getStackId(name.toString()) : null;
+			final StackIndex.Stack stack = id!=null ? stacks.getStack(id) : null;
+			if (stack==null) continue;
+			left.put(id, left.getOrDefault(id, stack.getCount())-1);
+			if (index.containsKey(path)) orphaned.add(id);
+		}
+		orphaned.removeIf(id -> left.get(id)<1);
+		return orphaned;
+	}
+
+	/**
+	 * Makes a new listing with changes seen in the directory.
+	 * @see #apply(Collection, Collection, Collection, FileSortType, StackCollapser)
+	 */
+	DirectoryListing apply(Collection<FileEntry> changed, Collection<Path> deleted, FileSortType sort, StackCollapser collapser) {
+		return apply(changed, deleted, Collections.emptyList(), sort, collapser);
+	}
+
+	/**
+	 * Makes a new listing with changes seen in the directory. The new entries are
+	 * sorted on their own and merged with this listing in one pass.
+	 *
+	 * @param changed entries created or modified
+	 * @param deleted paths removed, which need not be in the listing
+	 * @param promoted files already counted in a data collection, listed in place of its
+	 *        deleted file, see {@link #getOrphanedStacks(Collection, StackCollapser)}
+	 * @param sort order of the new listing
+	 * @param collapser may be null, finds the data collection of a file name when collapsing.
+	 * @return new listing
+	 */
+	DirectoryListing apply(Collection<FileEntry> changed, Collection<Path> deleted, Collection<FileEntry> promoted, FileSortType sort, StackCollapser collapser) {
+
+		final Set<Path>       removed  = new HashSet<Path>(deleted);
+		final List<FileEntry> modified = new ArrayList<FileEntry>();
+		final List<FileEntry> created  = new ArrayList<FileEntry>(changed.size());
+		final Set<Path>       listed   = new HashSet<Path>(promoted.size()*2);
+		for (FileEntry entry : promoted) listed.add(entry.getPath());
+		for (FileEntry entry : changed) {
+			if (listed.contains(entry.getPath())) continue; // Already counted, the promoted entry is as new
+			if (index.containsKey(entry.getPath())) {
+				removed.add(entry.getPath()); // Modified, replaced by the new entry
+				modified.add(entry);
+			} else {
+				created.add(entry);
+			}
+		}
+
+		final StackIndex.Builder builder = collapser!=null && stacks!=null ? stacks.toBuilder() : null;
+		final List<FileEntry> added;
+		if (builder!=null) {
+			// Frames which are deleted no longer count, the range is kept.
+			for (Path path : deleted) {
+				final Path name = path.getFileName();
+				final String id = name!=null ? collapser.getStackId(name.toString()) : null;
+				if (id!=null) builder.remove(id);
+			}
+			added = collapser.collapse(created, builder);
+		} else {
+			added = created;
+		}
+		added.addAll(promoted);
+		added.addAll(modified);
+
+		final Comparator<FileEntry> comparator = getComparator(sort);
+		added.sort(comparator);
+
+		final FileEntry[] current;
+		synchronized (this) {
+			getPaths(sort);
+			current = entries.clone();
+		}
+
+		final List<FileEntry> merged = new ArrayList<FileEntry>(current.length+added.size());
+		int j = 0;
+		for (FileEntry entry : current) {
+			if (removed.contains(entry.getPath())) continue;
+			while (j<added.size() && comparator.compare(added.get(j), entry)<0) merged.add(added.get(j++));
+			merged.add(entry);
+		}
+		while (j<added.size()) merged.add(added.get(j++));
+
+		final DirectoryListing ret = new DirectoryListing(merged, builder!=null ? builder.build() : stacks);
+		ret.getPaths(sort); // Already sorted, linear
+		return ret;
+	}
+
+	/**
+	 * @param sort
+	 * @return paths sorted by the given type, unmodifiable.
+	 */
+	synchronized List<Path> getPaths(FileSortType sort) {
+		if (sorted==null || this.sort!=sort) {
+			Arrays.sort(entries, getComparator(sort));
+			final Path[] paths = new Path[entries.length];
+			for (int i = 0; i < entries.length; i++) paths[i] = entries[i].getPath();
+			this.sorted = Collections.unmodifiableList(Arrays.asList(paths));
+			this.sort   = sort;
+		}
+		return sorted;
+	}
+
+	private static final Comparator<FileEntry> NAME = new Comparator<FileEntry>() {
+		@Override
+		public int compare(FileEntry o1, FileEntry o2) {
+			return o1.getSortKey().compareTo(o2.getSortKey());
+		}
+	};
+
+	private static final Comparator<FileEntry> DIRS_FIRST = new Comparator<FileEntry>() {
+		@Override
+		public int compare(FileEntry o1, FileEntry o2) {
+			return Boolean.compare(!o1.isDirectory(), !o2.isDirectory());
+		}
+	};
+
+	static Comparator<FileEntry> getComparator(FileSortType sort) {
+		switch(sort) {
+		case ALPHA_NUMERIC:
+			return NAME;
+		case ALPHA_NUMERIC_DIRS_FIRST:
+		default:
+			return DIRS_FIRST.thenComparing(NAME);
+		}
+	}
+}
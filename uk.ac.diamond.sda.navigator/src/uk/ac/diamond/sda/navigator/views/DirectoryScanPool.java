@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of threads which scan directories for the {@link ThreadingFileContentProvider}.
+ *
+ * Sibling directories are scanned concurrently so that one slow directory (for instance
+ * on an NFS share) does not hold up every other expand. Requests for an element which is
+ * already queued or being scanned are not queued again and a directory the user has
+ * expanded jumps ahead of queued prefetch work. Within the same priority the newest
+ * request is taken first, as the single thread used to do with offerFirst().
+ */
+class DirectoryScanPool {
+
+	/**
+	 * The number of threads may be set using this system property.
+	 */
+	static final String THREAD_PROPERTY = "uk.ac.diamond.sda.navigator.scanThreads";
+
+	private static final int DEFAULT_THREADS = 4;
+	private static final int MAXIMUM_THREADS = 32;
+
+	/**
+	 * Order of this enum is the order in which work is done.
+	 */
+	enum Priority {
+		/**
+		 * The user has asked to see the children, for instance by expanding.
+		 */
+		EXPAND,
+		/**
+		 * We are finding the size in advance of the user asking.
+		 */
+		PREFETCH;
+	}
+
+	private final ThreadPoolExecutor     executor;
+	private final Map<Object, ScanTask>  pending;
+	private final AtomicLong             sequence;
+	private final Runnable               idleListener;
+
+	/**
+	 *
+	 * @param name used for the threads
+	 * @param threadPriority priority of the threads
+	 * @param idleListener may be null, called from a worker when the last pending scan is done.
+	 */
+	DirectoryScanPool(final String name, final int threadPriority, Runnable idleListener) {
+		this(name, threadPriority, getDefaultThreadCount(), idleListener);
+	}
+
+	DirectoryScanPool(final String name, final int threadPriority, int threads, Runnable idleListener) {
+
+		if (threads<1) throw new IllegalArgumentException("The number of threads must be at least one!");
+
+		this.pending      = new HashMap<Object, ScanTask>(89);
+		this.sequence     = new AtomicLong(0);
+		this.idleListener = idleListener;
+
+		final AtomicInteger count = new AtomicInteger(0);
+		final ThreadFactory factory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, name+" "+count.incrementAndGet());
+				thread.setPriority(threadPriority);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(89), factory);
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	static int getDefaultThreadCount() {
+		final int threads = Integer.getInteger(THREAD_PROPERTY, DEFAULT_THREADS);
+		return Math.max(1, Math.min(threads, MAXIMUM_THREADS));
+	}
+
+	/**
+	 * Queue a scan. If a scan of the same key is already running the request is ignored
+	 * as the running scan will publish the result. If one is queued, it is replaced by
+	 * a request with the more urgent of the two priorities which jumps ahead of older work.
+	 *
+	 * @param key normally the Path being scanned
+	 * @param priority
+	 * @param scan
+	 * @return true if the scan was queued
+	 */
+	synchronized boolean submit(Object key, Priority priority, Runnable scan) {
+
+		if (executor.isShutdown()) return false;
+
+		final ScanTask current = pending.get(key);
+		if (current!=null) {
+			if (current.running) return false;
+			executor.remove(current);
+			if (current.priority.compareTo(priority)<0) priority = current.priority;
+		}
+		final ScanTask task = new ScanTask(key, priority, sequence.incrementAndGet(), scan);
+		pending.put(key, task);
+		executor.execute(task);
+		return true;
+	}
+
+	/**
+	 *
+	 * @return true if nothing is queued or running.
+	 */
+	synchronized boolean isIdle() {
+		return pending.isEmpty();
+	}
+
+	/**
+	 *
+	 * @return number of scans queued or running.
+	 */
+	synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	int getThreadCount() {
+		return executor.getMaximumPoolSize();
+	}
+
+	/**
+	 * Removes all queued scans, running scans are allowed to finish.
+	 */
+	synchronized void clear() {
+		executor.getQueue().clear();
+		pending.values().removeIf(task -> !task.running);
+	}
+
+	/**
+	 * Clears the queue and stops the threads once running scans are complete.
+	 */
+	void shutdown() {
+		clear();
+		executor.shutdown();
+	}
+
+	private void started(ScanTask task) {
+		synchronized (this) {
+			if (pending.get(task.key)!=task) return;
+			task.running = true;
+		}
+	}
+
+	private void finished(ScanTask task) {
+		final boolean idle;
+		synchronized (this) {
+			pending.remove(task.key, task);
+			idle = pending.isEmpty();
+		}
+		if (idle && idleListener!=null) idleListener.run();
+	}
+
+	private class ScanTask implements Runnable, Comparable<ScanTask> {
+
+		private final Object   key;
+		private final Priority priority;
+		private final long     seq;
+		private final Runnable scan;
+		private volatile boolean running;
+
+		ScanTask(Object key, Priority priority, long seq, Runnable scan) {
+			this.key      = key;
+			this.priority = priority;
+			this.seq      = seq;
+			this.scan     = scan;
+		}
+
+		@Override
+		public void run() {
+			started(this);
+			if (!running) return; // Superseded by a later request
+			try {
+				scan.run();
+			} finally {
+				finished(this);
+			}
+		}
+
+		@Override
+		public int compareTo(ScanTask o) {
+			final int pri = priority.compareTo(o.priority);
+			if (pri!=0) return pri;
+			return Long.compare(o.seq, seq); // Newest first
+		}
+	}
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the directories shown in the navigator and reports what changed in them,
+ * so that the cached listing can be updated rather than read again.
+ *
+ * Local directories use a {@link WatchService}. On network file systems, where inotify
+ * does not see changes made by other hosts, the directory's modified time is polled
+ * instead and a change is reported without the names, for the listener to work out.
+ *
+ * Events are gathered and passed to the listener at most once per interval for each
+ * directory, so a detector writing a frame every few milliseconds gives one update
+ * per interval rather than one per file.
+ *
+ * Directories are registered on the watcher's thread, as finding the file store can
+ * block on a network file system. Files created or deleted after the listing was read
+ * but before the directory was registered are found from the directory's modified time
+ * and reported as an unknown change.
+ */
+class DirectoryWatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(DirectoryWatcher.class);
+
+	/**
+	 * Time in ms over which changes to a directory are put together into one update.
+	 */
+	static final String INTERVAL_PROPERTY      = "uk.ac.diamond.sda.navigator.watchInterval";
+	/**
+	 * Time in ms between polls of directories on network file systems.
+	 */
+	static final String POLL_INTERVAL_PROPERTY = "uk.ac.diamond.sda.navigator.pollInterval";
+	/**
+	 * Comma separated file store types which are polled rather than watched.
+	 */
+	static final String POLL_TYPES_PROPERTY    = "uk.ac.diamond.sda.navigator.pollFileSystems";
+
+	private static final String DEFAULT_POLL_TYPES = "nfs,nfs4,cifs,smbfs,smb3,fuse.sshfs,9p,lustre,gpfs";
+
+	/**
+	 * Coarsest modified time kept by the file systems we know of, a directory changed
+	 * within this many ms of being read may not show a new modified time.
+	 */
+	private static final long TIME_RESOLUTION = 2000;
+
+	/**
+	 * The changes in one directory since the last update.
+	 */
+	static class Delta {
+		private final Set<Path> changed = new LinkedHashSet<Path>();
+		private final Set<Path> deleted = new LinkedHashSet<Path>();
+		private boolean unknown;
+
+		/**
+		 * @return files created or modified, which should be read again.
+		 */
+		Set<Path> getChanged() {
+			return changed;
+		}
+
+		Set<Path> getDeleted() {
+			return deleted;
+		}
+
+		/**
+		 * @return true if events were lost or the directory is polled, the
+		 *         listener should compare the directory with what it has.
+		 */
+		boolean isUnknown() {
+			return unknown;
+		}
+
+		void changed(Path path) {
+			deleted.remove(path);
+			changed.add(path);
+		}
+
+		void deleted(Path path) {
+			changed.remove(path);
+			deleted.add(path);
+		}
+	}
+
+	interface IDirectoryChangeListener {
+		/**
+		 * Called from the watcher's thread, never with an empty delta.
+		 * @param dir
+		 * @param delta
+		 */
+		void directoryChanged(Path dir, Delta delta);
+	}
+
+	private final IDirectoryChangeListener listener;
+	private final long                     interval;
+	private final long                     pollInterval;
+	private final Set<String>              pollTypes;
+
+	private final ScheduledExecutorService scheduler;
+	private final Map<Path, WatchKey>      watched;
+	private final Map<Path, Long>          polled;   // Directory to last modified time
+	private final Map<Path, Delta>         pending;
+	private final Map<Path, Object>        registering; // Directory to the call of watch registering it
+
+	private WatchService        watchService;
+	private Thread              watchThread;
+	private ScheduledFuture<?>  pollTask;
+	private ScheduledFuture<?>  flushTask;
+
+	DirectoryWatcher(IDirectoryChangeListener listener) {
+		this(listener, Long.getLong(INTERVAL_PROPERTY, 250), Long.getLong(POLL_INTERVAL_PROPERTY, 2000));
+	}
+
+	DirectoryWatcher(IDirectoryChangeListener listener, long interval, long pollInterval) {
+		this.listener     = listener;
+		this.interval     = Math.max(1, interval);
+		this.pollInterval = Math.max(1, pollInterval);
+		this.pollTypes    = new HashSet<String>(Arrays.asList(System.getProperty(POLL_TYPES_PROPERTY, DEFAULT_POLL_TYPES).split(",")));
+		this.watched      = new HashMap<Path, WatchKey>(7);
+		this.polled       = new HashMap<Path, Long>(7);
+		this.pending      = new HashMap<Path, Delta>(7);
+		this.registering  = new HashMap<Path, Object>(7);
+		this.scheduler    = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "Navigator directory updates");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Start reporting changes in this directory from now on, does nothing if already watched.
+	 * @param dir
+	 */
+	void watch(Path dir) {
+		watch(dir, DirectoryListing.NO_TIME);
+	}
+
+	/**
+	 * Start reporting changes in this directory, does nothing if already watched. Returns
+	 * at once, the directory is registered on the watcher's thread.
+	 * @param dir
+	 * @param since modified time of the directory read before it was listed, if it has
+	 *        changed since then an unknown change is reported once it is registered.
+	 *        {@link DirectoryListing#NO_TIME} to only report changes from now on.
+	 */
+	synchronized void watch(Path dir, long since) {
+
+		if (scheduler.isShutdown()) return;
+		if (watched.containsKey(dir) || polled.containsKey(dir) || registering.containsKey(dir)) return;
+
+		final Object token = new Object();
+		registering.put(dir, token);
+		try {
+			scheduler.execute(() -> register(dir, since, token));
+		} catch (RejectedExecutionException disposed) {
+			registering.remove(dir);
+		}
+	}
+
+	private void register(Path dir, long since, Object token) {
+
+		// The file store and times may block on a network file system, so are not read while synchronized
+		boolean poll = isPolled(dir);
+		synchronized (this) {
+			if (registering.get(dir)!=token) return; // Unwatched meanwhile
+			if (!poll) {
+				try {
+					if (watchService==null) startWatchService(dir);
+					watched.put(dir, dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+				} catch (IOException | UnsupportedOperationException ne) {
+					logger.debug("Cannot watch "+dir+", it will be polled.", ne);
+					poll = true;
+				}
+			}
+		}
+		// Read after registering, later changes give events or a new time when polled
+		final long time = lastModified(dir);
+		synchronized (this) {
+			if (!registering.remove(dir, token)) return; // Unwatched meanwhile
+			if (poll) {
+				polled.put(dir, time);
+				if (pollTask==null) {
+					pollTask = scheduler.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+				}
+			}
+			if (since!=DirectoryListing.NO_TIME && (time!=since || System.currentTimeMillis()-since<TIME_RESOLUTION)) {
+				// Changed, or may have, between being listed and being registered
+				added(dir, null, true);
+			}
+		}
+	}
+
+	/**
+	 * Stop reporting changes in this directory and any below it.
+	 * @param dir
+	 */
+	synchronized void unwatch(Path dir) {
+		for (Path path : watched.keySet().toArray(new Path[watched.size()])) {
+			if (path.startsWith(dir)) watched.remove(path).cancel();
+		}
+		polled.keySet().removeIf(path -> path.startsWith(dir));
+		pending.keySet().removeIf(path -> path.startsWith(dir));
+		registering.keySet().removeIf(path -> path.startsWith(dir));
+	}
+
+	/**
+	 * @return true if changes are being reported, false if not or not yet registered.
+	 */
+	synchronized boolean isWatching(Path dir) {
+		return watched.containsKey(dir) || polled.containsKey(dir);
+	}
+
+	void dispose() {
+		synchronized (this) {
+			watched.clear();
+			polled.clear();
+			pending.clear();
+			registering.clear();
+		}
+		scheduler.shutdownNow();
+		if (watchService!=null) {
+			try {
+				watchService.close();
+			} catch (IOException ne) {
+				logger.debug("Cannot close watch service", ne);
+			}
+		}
+	}
+
+	private boolean isPolled(Path dir) {
+		try {
+			return pollTypes.contains(Files.getFileStore(dir).type());
+		} catch (IOException ne) {
+			return true;
+		}
+	}
+
+	private void startWatchService(Path dir) throws IOException {
+		watchService = dir.getFileSystem().newWatchService();
+		final WatchService service = watchService;
+		watchThread = new Thread("Navigator directory watcher") {
+			@Override
+			public void run() {
+				try {
+					while(true) {
+						final WatchKey key = service.take();
+						final Path dir = (Path)key.watchable();
+						for (WatchEvent<?> event : key.pollEvents()) {
+							if (event.kind()==OVERFLOW) {
+								added(dir, null, true);
+							} else {
+								final Path path = dir.resolve((Path)event.context());
+								added(dir, path, event.kind()==ENTRY_DELETE);
+							}
+						}
+						if (!key.reset()) {
+							synchronized (DirectoryWatcher.this) {
+								watched.remove(dir, key);
+							}
+						}
+					}
+				} catch (InterruptedException | ClosedWatchServiceException ne) {
+					return;
+				}
+			}
+		};
+		watchThread.setDaemon(true);
+		watchThread.start();
+	}
+
+	/**
+	 * @param dir
+	 * @param path null if events were lost
+	 * @param deleted if path is not null, true if it was deleted
+	 */
+	private synchronized void added(Path dir, Path path, boolean deleted) {
+
+		if (!isWatching(dir)) return;
+		Delta delta = pending.get(dir);
+		if (delta==null) {
+			delta = new Delta();
+			pending.put(dir, delta);
+		}
+		if (path==null) {
+			delta.unknown = true;
+		} else if (deleted) {
+			delta.deleted(path);
+		} else {
+			delta.changed(path);
+		}
+		if (flushTask==null && !scheduler.isShutdown()) {
+			flushTask = scheduler.schedule(this::flush, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void flush() {
+		final Map<Path, Delta> deltas;
+		synchronized (this) {
+			flushTask = null;
+			if (pending.isEmpty()) return;
+			deltas = new HashMap<Path, Delta>(pending);
+			pending.clear();
+		}
+		for (Map.Entry<Path, Delta> entry : deltas.entrySet()) {
+			try {
+				listener.directoryChanged(entry.getKey(), entry.getValue());
+			} catch (Exception ne) {
+				logger.debug("Cannot update "+entry.getKey(), ne);
+			}
+		}
+	}
+
+	private void poll() {
+		final Map<Path, Long> dirs;
+		synchronized (this) {
+			dirs = new HashMap<Path, Long>(polled);
+		}
+		for (Map.Entry<Path, Long> entry : dirs.entrySet()) {
+			final long time = lastModified(entry.getKey());
+			if (time==entry.getValue()) continue;
+			synchronized (this) {
+				if (polled.replace(entry.getKey(), entry.getValue(), time)) added(entry.getKey(), null, true);
+			}
+		}
+	}
+
+	/**
+	 * @return modified time of the directory in ms, or -1 if it cannot be read.
+	 */
+	static long lastModified(Path dir) {
+		try {
+			return Files.getLastModifiedTime(dir).toMillis();
+		} catch (IOException ne) {
+			return -1;
+		}
+	}
+}
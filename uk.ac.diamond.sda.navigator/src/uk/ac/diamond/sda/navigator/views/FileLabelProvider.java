@@ -15,8 +15,6 @@ import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
-import java.util.regex.Matcher;
 
 import org.dawb.common.util.io.FileUtils;
 import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
@@ -39,8 +37,10 @@ import uk.ac.diamond.osgi.services.ServiceProvider;
 import uk.ac.diamond.scisoft.analysis.utils.OSUtils;
 import uk.ac.diamond.sda.intro.navigator.NavigatorRCPActivator;
 import uk.ac.diamond.sda.navigator.preference.FileNavigatorPreferenceConstants;
+import uk.ac.diamond.sda.navigator.util.FileEntry;
 import uk.ac.diamond.sda.navigator.util.NIOUtils;
 import uk.ac.diamond.sda.navigator.util.NavigatorUtils;
+import uk.ac.diamond.sda.navigator.util.StackIndex;
 
 class FileLabelProvider extends ColumnLabelProvider {
 
@@ -51,6 +51,7 @@ class FileLabelProvider extends ColumnLabelProvider {
 	private StructuredViewer viewer;
 	private boolean          showCollapsedFiles;
 	private IPropertyChangeListener propertyListenner;
+	private StackCollapser   collapser;
 
 	public FileLabelProvider(StructuredViewer viewer, final int column) {
 		
@@ -118,25 +119,29 @@ class FileLabelProvider extends ColumnLabelProvider {
 			boolean showComment = store.getBoolean(FileNavigatorPreferenceConstants.SHOW_COMMENT_COLUMN);
 			boolean showScanCmd = store.getBoolean(FileNavigatorPreferenceConstants.SHOW_SCANCMD_COLUMN);
 			
+			// Use the attributes read when the directory was listed, rather than stat again
+			final FileEntry entry = getEntry(node);
+
 			// Only read attributes if we need them!
-			Map<Integer, String> attr = showComment||showScanCmd ? getH5Attributes(node) : null;
+			Map<Integer, String> attr = showComment||showScanCmd ? getH5Attributes(node, entry) : null;
 	
 			String ret;
 			switch(columnIndex) {
 			case 0:
 				String name = NIOUtils.getRoots().contains(node)
 				            ? getRootLabel(node)
-				            : getName(node);
+				            : getName(node, entry);
 				ret = name;
 				break;
 			case 1:
-				ret = dateFormat.format(Files.getLastModifiedTime(node).toMillis());
+				ret = dateFormat.format(entry!=null ? entry.getLastModified() : Files.getLastModifiedTime(node).toMillis());
 				break;
 			case 2:
-				ret = Files.isDirectory(node) ? "Directory" : FileUtils.getFileExtension(node.getFileName().toString());
+				ret = isDirectory(node, entry) ? "Directory" : FileUtils.getFileExtension(node.getFileName().toString());
 			    break;
 			case 3:
-				ret = formatSize(Files.size(node));
+				final StackIndex.Stack stack = getStack(node, entry);
+				ret = stack!=null ? stack.getDescription() : formatSize(entry!=null ? entry.getSize() : Files.size(node));
 				break;
 			case 4:
 				ret = attr!=null&&showComment ? attr.get(4) : null;
@@ -159,45 +164,62 @@ class FileLabelProvider extends ColumnLabelProvider {
 		}
 	}
 	
-	private ILoaderService lservice;
 	/**
 	 * Gets a name, allowing for those folders that have been compressed.
 	 * @param node
 	 * @return name
 	 */
-	private String getName(Path node) {
+	private String getName(Path node, FileEntry entry) {
 		
-		final String name = node.getFileName().toString();
-	    if (!showCollapsedFiles)     return name;
-		if (Files.isDirectory(node)) return name;
-			
- 
-        IFileContentProvider prov = viewer.getContentProvider() instanceof IFileContentProvider
-					             ? (IFileContentProvider)viewer.getContentProvider()
-					             : null;	
-		if (prov == null) return name;
+		final String name = entry!=null ? entry.getName() : node.getFileName().toString();
+		final StackIndex.Stack stack = getStack(node, entry);
+		if (stack!=null) return stack.getName();
+		return name;
+
+	}
+
+	/**
+	 * @return the data collection shown as this file, or null if it is not collapsed.
+	 */
+	private StackIndex.Stack getStack(Path node, FileEntry entry) {
+		
+	    if (!showCollapsedFiles)     return null;
+		if (isDirectory(node, entry)) return null;
+		
+        IFileContentProvider prov = getContentProvider();	
+		if (prov == null) return null;
 		        	
-        final Set<String> stubs = prov.getStubs(node.getParent()); // TODO Allow for collapsed data collections.
-        if (stubs==null || stubs.isEmpty()) return name;
+        final StackIndex stacks = prov.getStacks(node.getParent());
+        if (stacks==null || stacks.getStubs().isEmpty()) return null;
 
-        if (lservice==null) lservice = NavigatorRCPActivator.getService(ILoaderService.class);
-        final Matcher matcher = lservice.getStackMatcher(name);
+        // Found once, rather than asking the loader service for its pattern on each render
+        if (collapser==null) collapser = StackCollapser.getCollapser(NavigatorRCPActivator.getService(ILoaderService.class));
+        if (collapser==null) return null;
+        
+        final String id = collapser.getStackId(entry!=null ? entry.getName() : node.getFileName().toString());
+        return id!=null && stacks.getStubs().contains(id) ? stacks.getStack(id) : null;
+	}
 
-        if (matcher!=null && matcher.matches()) {
-        	final String stub = matcher.group(1);
-        	final String ext  = matcher.group(3);
-        	if (stubs.contains(stub)) return stub+"_*."+ext;
-        }
-	    
-		return name;
+	private IFileContentProvider getContentProvider() {
+        return viewer.getContentProvider() instanceof IFileContentProvider
+	           ? (IFileContentProvider)viewer.getContentProvider()
+	           : null;	
+	}
+
+	private FileEntry getEntry(Path node) {
+		final IFileContentProvider prov = getContentProvider();
+		return prov!=null ? prov.getEntry(node) : null;
+	}
 
+	private static boolean isDirectory(Path node, FileEntry entry) {
+		return entry!=null ? entry.isDirectory() : Files.isDirectory(node);
 	}
 
 	private Map<Path, Map<Integer, String>> attributes;
 
-	private Map<Integer, String> getH5Attributes(Path node) throws Exception {
+	private Map<Integer, String> getH5Attributes(Path node, FileEntry entry) throws Exception {
 		
-		if (Files.isDirectory(node))          return null;
+		if (isDirectory(node, entry))         return null;
 		if (!HDF5Utils.isHDF5(node.toAbsolutePath().toString())) return null;
 		
 		if (attributes==null) attributes = new HashMap<Path, Map<Integer, String>>(89);
@@ -16,6 +16,12 @@
 
 package uk.ac.diamond.sda.navigator.views;
 
+/**
+ * Orders in which a directory listing is sorted. These are the sorts the view has
+ * always had. It has never sorted by date or size, so neither is offered here,
+ * but each {@link uk.ac.diamond.sda.navigator.util.FileEntry} holds the size and
+ * modified time read with the listing, so such a sort would not stat the files.
+ */
 enum FileSortType {
 	ALPHA_NUMERIC, ALPHA_NUMERIC_DIRS_FIRST;
 }
\ No newline at end of file
@@ -21,6 +21,9 @@ import java.util.Set;
 
 import org.eclipse.jface.viewers.ILazyTreeContentProvider;
 
+import uk.ac.diamond.sda.navigator.util.FileEntry;
+import uk.ac.diamond.sda.navigator.util.StackIndex;
+
 interface IFileContentProvider extends ILazyTreeContentProvider {
 
 	void clear(Path... paths);
@@ -33,4 +36,18 @@ interface IFileContentProvider extends ILazyTreeContentProvider {
 
 	Set<String> getStubs(Path parent);
 
+	/**
+	 * The data collections found when the parent directory was listed.
+	 * @param parent
+	 * @return index or null if not listed or not collapsing.
+	 */
+	StackIndex getStacks(Path parent);
+
+	/**
+	 * The attributes read when the parent directory was listed.
+	 * @param path
+	 * @return entry or null if the parent has not been listed.
+	 */
+	FileEntry getEntry(Path path);
+
 }
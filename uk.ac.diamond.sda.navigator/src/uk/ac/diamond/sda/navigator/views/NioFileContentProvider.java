@@ -22,12 +22,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.regex.Matcher;
 
 import org.eclipse.dawnsci.analysis.api.io.ILoaderService;
 import org.eclipse.jface.preference.IPreferenceStore;
@@ -38,7 +35,9 @@ import org.slf4j.LoggerFactory;
 
 import uk.ac.diamond.sda.intro.navigator.NavigatorRCPActivator;
 import uk.ac.diamond.sda.navigator.preference.FileNavigatorPreferenceConstants;
+import uk.ac.diamond.sda.navigator.util.FileEntry;
 import uk.ac.diamond.sda.navigator.util.NIOUtils;
+import uk.ac.diamond.sda.navigator.util.StackIndex;
 
 class NioFileContentProvider implements IFileContentProvider {
 	
@@ -48,17 +47,11 @@ class NioFileContentProvider implements IFileContentProvider {
 	private FileSortType sort = FileSortType.ALPHA_NUMERIC_DIRS_FIRST;
 	private boolean collapseDatacollections;
 	
-    private final Map<Path, List<Path>>      cachedFileList;
-    private final Map<String, Path>          files;
-    private final Map<String, Path>          dirs;
-	private final Map<Path, Set<String>>     cachedStubs;
+    private final Map<Path, DirectoryListing> cachedFileList;
 	
 	public NioFileContentProvider() {
 		
-		this.cachedFileList = new HashMap<Path, List<Path>>(89);
-		this.files = new TreeMap<String, Path>(new SortNatural<String>(false));
-	    this.dirs  = new TreeMap<String, Path>(new SortNatural<String>(false));
-		this.cachedStubs = new HashMap<Path, Set<String>>();
+		this.cachedFileList = new HashMap<Path, DirectoryListing>(89);
 		
 		final IPreferenceStore store = NavigatorRCPActivator.getDefault().getPreferenceStore();
 		collapseDatacollections = store.getBoolean(FileNavigatorPreferenceConstants.SHOW_COLLAPSED_FILES);
@@ -89,7 +82,7 @@ class NioFileContentProvider implements IFileContentProvider {
 				Path path = paths.size()>index ? paths.get(index) : null;
 				if (path!=null) {
 					treeViewer.replace(parent, index, path);
-					if (Files.isDirectory(path)) {
+					if (isDirectory(path)) {
 						updateChildCount(path, -1);
 					}
 				}
@@ -105,10 +98,11 @@ class NioFileContentProvider implements IFileContentProvider {
 	
 	    int size = 0;
 	    if (cachedFileList.containsKey(element)) {
-	    	size = cachedFileList.get(element).size();
+	    	final DirectoryListing listing = cachedFileList.get(element);
+	    	size = listing!=null ? listing.size() : 0;
 	    } else if (element instanceof Path) {
 			Path path = (Path)element;
-			if (Files.isDirectory(path)) {
+			if (isDirectory(path)) {
 				try {
 					List<Path> paths = getPaths(path);
 					size = paths!=null ? paths.size() : 0;
@@ -136,11 +130,9 @@ class NioFileContentProvider implements IFileContentProvider {
 	public void clear(Path... paths) {
 		if (paths==null) {
 			if (cachedFileList!=null) cachedFileList.clear();
-			if (cachedStubs!=null)    cachedStubs.clear();
 		} else {
 			for (int i = 0; i < paths.length; i++) {
 				if (paths[i]==null) continue;
-				cachedStubs.remove(paths[i]);
 				if (Files.isDirectory(paths[i])) {
 					removeCachedPath(paths[i].getParent());
 				} else {
@@ -169,7 +161,7 @@ class NioFileContentProvider implements IFileContentProvider {
 
 	@Override
 	public void setSort(FileSortType sort) {
-		clear();
+		// The listings are sorted again from their entries when next asked for.
 		this.sort = sort;
 	}
 
@@ -185,80 +177,69 @@ class NioFileContentProvider implements IFileContentProvider {
 	private List<Path> getPaths(Path parent) throws IOException {
 		
 		
-		List<Path> paths = cachedFileList.get(parent);
-		if (paths!=null) return paths;
+		DirectoryListing listing = cachedFileList.get(parent);
+		if (listing!=null) return listing.getPaths(sort);
 		
-		if (Files.isDirectory(parent)) {
+		if (isDirectory(parent)) {
 
-			ILoaderService lservice=null;
-			if (collapseDatacollections) {
-				lservice = NavigatorRCPActivator.getService(ILoaderService.class);
-			}
+			final StackCollapser collapser = collapseDatacollections
+					                       ? StackCollapser.getCollapser(NavigatorRCPActivator.getService(ILoaderService.class))
+					                       : null;
 
 			// Faster way than File.list() in theory
 			// see http://www.rgagnon.com/javadetails/java-get-directory-content-faster-with-many-files.html						
 			try (DirectoryStream<Path> ds = Files.newDirectoryStream(parent)) {
 
-				Set<String> tmp = null;
-
-				if (collapseDatacollections) {
-					tmp = new HashSet<String>(31);
-					cachedStubs.put(parent, new HashSet<String>(31));
-				}
-
+				final List<FileEntry> entries = new ArrayList<FileEntry>(89);
 				for (Path p : ds) {
-
-					final boolean isDir = Files.isDirectory(p);
-					final String  name  = p.getFileName().toString();
-
-					if (!isDir) {
-						if (lservice!=null) {
-							Matcher matcher = lservice.getStackMatcher(name);
-							if (matcher!=null && matcher.matches()) {
-								String id = matcher.group(1);
-
-								// If we already have an item for this scan:
-								if (tmp!=null && tmp.contains(id)) {
-									// We have more than one of them, so they get truncated
-									Set<String> stubs = cachedStubs.get(parent);
-									if (stubs!=null) {
-										stubs.add(id);
-										continue;
-									}
-								}
-
-								// Otherwise allows its index to be added.
-								if (tmp!=null) tmp.add(id);
-							}
-						}
-						files.put(name, p);
-
-					} else if (isDir && sort==FileSortType.ALPHA_NUMERIC_DIRS_FIRST) { // dirs separate
-						dirs.put(name, p);
-					} else {
-						files.put(name, p);
-					}
+					// One stat gives us the kind, size and date, we do not stat again when rendering.
+					entries.add(FileEntry.readQuietly(p));
 				}
 
 				// We precache the directory contents now because we pared them down with the regexp
-				paths = new ArrayList<Path>(files.size()+dirs.size());
-				paths.addAll(dirs.values());
-				paths.addAll(files.values());
-				dirs.clear();
-				files.clear();	
+				if (collapser!=null) {
+					final StackIndex.Builder stacks = new StackIndex.Builder();
+					listing = new DirectoryListing(collapser.collapse(entries, stacks), stacks.build());
+				} else {
+					listing = new DirectoryListing(entries);
+				}
 			} catch (java.nio.file.AccessDeniedException ne) {
 				// We don't care about private dirs
 				logger.debug("Private directory "+parent+" will be ignored.");
 			}
 		}
 
-		cachedFileList.put(parent, paths);
-		return paths;
+		cachedFileList.put(parent, listing);
+		return listing!=null ? listing.getPaths(sort) : null;
+	}
+
+	@Override
+	public FileEntry getEntry(Path path) {
+		if (path==null || path.getParent()==null) return null;
+		final DirectoryListing listing = cachedFileList.get(path.getParent());
+		return listing!=null ? listing.getEntry(path) : null;
+	}
+
+	/**
+	 * Uses the attributes read when the parent was listed, if there are any.
+	 */
+	private boolean isDirectory(Path path) {
+		if (cachedFileList.get(path)!=null) return true;
+		final FileEntry entry = getEntry(path);
+		if (entry!=null) return entry.isDirectory();
+		return Files.isDirectory(path);
 	}
 
 	@Override
 	public Set<String> getStubs(Path parent) {
-		return cachedStubs.get(parent);
+		final DirectoryListing listing = cachedFileList.get(parent);
+		return listing!=null ? listing.getStubs() : null;
+	}
+
+	@Override
+	public StackIndex getStacks(Path parent) {
+		final DirectoryListing listing = cachedFileList.get(parent);
+		return listing!=null ? listing.getStacks() : null;
 	}
 
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A tree of path name elements holding the directories which are cached, so that
+ * everything under a directory can be found in time proportional to the size of
+ * that subtree rather than the size of the cache, and without touching the file system.
+ *
+ * Path.startsWith(...) over the key set of the cache was O(cache size) per clear.
+ * A sorted set is no use either as "/a/b-c" sorts between "/a/b" and "/a/b/c".
+ */
+class PathPrefixIndex {
+
+	private static class Node {
+		private Map<Path, Node> children;
+		private Path            path; // Non-null if the path is in the index
+
+		Node child(Path name, boolean create) {
+			if (children==null) {
+				if (!create) return null;
+				children = new HashMap<Path, Node>(7);
+			}
+			Node node = children.get(name);
+			if (node==null && create) {
+				node = new Node();
+				children.put(name, node);
+			}
+			return node;
+		}
+
+		boolean isEmpty() {
+			return path==null && (children==null || children.isEmpty());
+		}
+	}
+
+	/**
+	 * Each file system root, for instance "/" or "C:\", has its own node.
+	 */
+	private final Map<Path, Node> roots;
+	private int size;
+
+	PathPrefixIndex() {
+		this.roots = new HashMap<Path, Node>(3);
+	}
+
+	synchronized void add(Path path) {
+		Node node = find(path, true);
+		if (node.path==null) size++;
+		node.path = path;
+	}
+
+	synchronized boolean contains(Path path) {
+		final Node node = find(path, false);
+		return node!=null && node.path!=null;
+	}
+
+	synchronized boolean remove(Path path) {
+		final Deque<Node> parents = new ArrayDeque<Node>();
+		final Node node = find(path, false, parents);
+		if (node==null || node.path==null) return false;
+		node.path = null;
+		size--;
+		prune(path, node, parents);
+		return true;
+	}
+
+	/**
+	 * Removes the path and all paths under it.
+	 * @param path
+	 * @return the paths which were in the index.
+	 */
+	synchronized List<Path> removeSubtree(Path path) {
+		final Deque<Node> parents = new ArrayDeque<Node>();
+		final Node node = find(path, false, parents);
+		if (node==null) return new ArrayList<Path>(0);
+
+		final List<Path> removed = new ArrayList<Path>();
+		final Deque<Node> stack = new ArrayDeque<Node>();
+		stack.push(node);
+		while(!stack.isEmpty()) {
+			final Node n = stack.pop();
+			if (n.path!=null) removed.add(n.path);
+			if (n.children!=null) for (Node c : n.children.values()) stack.push(c);
+		}
+		size -= removed.size();
+		node.path     = null;
+		node.children = null;
+		prune(path, node, parents);
+		return removed;
+	}
+
+	/**
+	 * @return a copy of all the paths in the index.
+	 */
+	synchronized List<Path> getPaths() {
+		final List<Path> paths = new ArrayList<Path>(size);
+		final Deque<Node> stack = new ArrayDeque<Node>(roots.values());
+		while(!stack.isEmpty()) {
+			final Node n = stack.pop();
+			if (n.path!=null) paths.add(n.path);
+			if (n.children!=null) for (Node c : n.children.values()) stack.push(c);
+		}
+		return paths;
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	synchronized void clear() {
+		roots.clear();
+		size = 0;
+	}
+
+	private Node find(Path path, boolean create) {
+		return find(path, create, null);
+	}
+
+	/**
+	 * @param path
+	 * @param create
+	 * @param parents if not null, filled with the nodes above the one returned, nearest first.
+	 * @return node, may be null if create is false.
+	 */
+	private Node find(Path path, boolean create, Deque<Node> parents) {
+
+		final Path root = path.getRoot(); // null for relative paths, which HashMap allows
+		Node node = roots.get(root);
+		if (node==null) {
+			if (!create) return null;
+			node = new Node();
+			roots.put(root, node);
+		}
+		for (Path name : path) {
+			if (parents!=null) parents.push(node);
+			node = node.child(name, create);
+			if (node==null) return null;
+		}
+		return node;
+	}
+
+	/**
+	 * Remove empty nodes going up from the one just changed.
+	 */
+	private void prune(Path path, Node node, Deque<Node> parents) {
+		int index = path.getNameCount()-1;
+		while(node.isEmpty() && !parents.isEmpty()) {
+			final Node parent = parents.pop();
+			parent.children.remove(path.getName(index));
+			index--;
+			node = parent;
+		}
+		if (parents.isEmpty() && node.isEmpty()) roots.remove(path.getRoot());
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps a sorted array of everything added so far while a directory is still
+ * being read. Entries are collected into a run, when the caller wants a sorted
+ * snapshot the run is sorted on its own and merged into the sorted array in one
+ * linear pass, rather than sorting everything again.
+ *
+ * If the caller merges each time the number of entries doubles, as the navigator
+ * does when streaming a directory, the total work stays O(n log n).
+ *
+ * Not thread safe, used by the thread scanning the directory.
+ */
+class SortedRunMerger<T> {
+
+	private final Comparator<? super T> comparator;
+
+	private T[] sorted;
+	private T[] run;
+	private int runSize;
+
+	@SuppressWarnings("unchecked")
+	SortedRunMerger(Comparator<? super T> comparator) {
+		this.comparator = comparator;
+		this.sorted     = (T[])new Object[0];
+		this.run        = (T[])new Object[64];
+		this.runSize    = 0;
+	}
+
+	void add(T item) {
+		if (runSize==run.length) run = Arrays.copyOf(run, run.length*2);
+		run[runSize++] = item;
+	}
+
+	/**
+	 * @return number of items added.
+	 */
+	int size() {
+		return sorted.length+runSize;
+	}
+
+	/**
+	 * Sorts the current run and merges it in.
+	 * @return the sorted items added so far, unmodifiable.
+	 */
+	List<T> merge() {
+		if (runSize==0) return Collections.unmodifiableList(Arrays.asList(sorted));
+
+		Arrays.sort(run, 0, runSize, comparator);
+
+		@SuppressWarnings("unchecked")
+		final T[] merged = (T[])new Object[sorted.length+runSize];
+		int i = 0, j = 0, k = 0;
+		while (i<sorted.length && j<runSize) {
+			// Take from the earlier items on ties so that the merge is stable
+			if (comparator.compare(run[j], sorted[i])<0) {
+				merged[k++] = run[j++];
+			} else {
+				merged[k++] = sorted[i++];
+			}
+		}
+		while (i<sorted.length) merged[k++] = sorted[i++];
+		while (j<runSize)       merged[k++] = run[j++];
+
+		Arrays.fill(run, 0, runSize, null);
+		runSize = 0;
+		sorted  = merged;
+		return Collections.unmodifiableList(Arrays.asList(sorted));
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.dawnsci.analysis.api.io.ILoaderService;
+
+import uk.ac.diamond.sda.navigator.util.FileEntry;
+import uk.ac.diamond.sda.navigator.util.StackIndex;
+
+/**
+ * Finds the data collections in a directory listing so that each is shown as one
+ * entry. The stack pattern of the loader service is compiled once and a matcher
+ * reused on each thread, large listings are matched in chunks on the common pool.
+ *
+ * Group 1 of the pattern is the stack id, group 2 the frame number and group 3
+ * the extension, as given by {@link ILoaderService#getStackMatcher(String)}.
+ */
+class StackCollapser {
+
+	/**
+	 * Listings smaller than this are matched on the calling thread.
+	 */
+	private static final int MIN_CHUNK = 2048;
+
+	private static volatile StackCollapser cached;
+
+	/**
+	 * @param service may be null
+	 * @return collapser for the stack pattern of the service, or null if there is none.
+	 */
+	static StackCollapser getCollapser(ILoaderService service) {
+		if (service==null) return null;
+		final Matcher matcher = service.getStackMatcher("");
+		if (matcher==null) return null;
+		final Pattern pattern = matcher.pattern();
+
+		final StackCollapser current = cached;
+		if (current!=null && current.pattern.pattern().equals(pattern.pattern()) && current.pattern.flags()==pattern.flags()) {
+			return current;
+		}
+		final StackCollapser collapser = new StackCollapser(pattern);
+		cached = collapser;
+		return collapser;
+	}
+
+	private final Pattern              pattern;
+	private final ThreadLocal<Matcher> matchers;
+
+	StackCollapser(final Pattern pattern) {
+		this.pattern  = pattern;
+		this.matchers = ThreadLocal.withInitial(() -> pattern.matcher(""));
+	}
+
+	/**
+	 * @param name
+	 * @return the stack id of the file name, or null if it is not part of a stack.
+	 */
+	String getStackId(String name) {
+		final Matcher matcher = matchers.get().reset(name);
+		return matcher.matches() ? matcher.group(1) : null;
+	}
+
+	/**
+	 * Adds the stacks found in the entries to the index, in order.
+	 *
+	 * @param entries to match, files only are matched
+	 * @param stacks stacks found so far, any stack already in here is not listed again
+	 * @return the entries to list, the first file of each new stack and those not in a stack.
+	 */
+	List<FileEntry> collapse(List<FileEntry> entries, StackIndex.Builder stacks) {
+
+		final int      size = entries.size();
+		final String[] ids  = new String[size];
+		final List<Map<String, Part>> parts = match(entries, ids);
+
+		// The first file of each new stack is listed, parts are in the order of the entries.
+		final Map<String, Integer> listed = new HashMap<String, Integer>(31);
+		for (Map<String, Part> chunk : parts) {
+			for (Part part : chunk.values()) {
+				if (!stacks.add(part.id, part.first, part.last, part.count, part.extension)) {
+					listed.put(part.id, part.index);
+				}
+			}
+		}
+
+		final List<FileEntry> ret = new ArrayList<FileEntry>(size);
+		for (int i = 0; i < size; i++) {
+			if (ids[i]!=null) {
+				final Integer index = listed.get(ids[i]);
+				if (index==null || index!=i) continue;
+			}
+			ret.add(entries.get(i));
+		}
+		return ret;
+	}
+
+	private List<Map<String, Part>> match(final List<FileEntry> entries, final String[] ids) {
+
+		final int size    = entries.size();
+		final int threads = ForkJoinPool.getCommonPoolParallelism();
+		final int chunks  = Math.max(1, Math.min(threads, size/MIN_CHUNK));
+
+		final List<Map<String, Part>> ret = new ArrayList<Map<String, Part>>(chunks);
+		if (chunks==1) {
+			ret.add(match(entries, ids, 0, size));
+			return ret;
+		}
+
+		final int chunk = (size+chunks-1)/chunks;
+		final List<Callable<Map<String, Part>>> tasks = new ArrayList<Callable<Map<String, Part>>>(chunks);
+		for (int start = 0; start < size; start+=chunk) {
+			final int from = start;
+			final int to   = Math.min(size, start+chunk);
+			tasks.add(() -> match(entries, ids, from, to));
+		}
+		try {
+			for (Future<Map<String, Part>> result : ForkJoinPool.commonPool().invokeAll(tasks)) ret.add(result.get());
+		} catch (InterruptedException ne) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted finding data collections", ne);
+		} catch (ExecutionException ne) {
+			throw new IllegalStateException("Cannot find data collections", ne.getCause());
+		}
+		return ret;
+	}
+
+	/**
+	 * Matches the entries from (inclusive) to (exclusive), recording the stack id of each.
+	 * @return the part of each stack found in this chunk, in order.
+	 */
+	private Map<String, Part> match(List<FileEntry> entries, String[] ids, int from, int to) {
+
+		final Matcher matcher = pattern.matcher("");
+		final boolean framed  = matcher.groupCount()>=2;
+		final boolean typed   = matcher.groupCount()>=3;
+
+		final Map<String, Part> parts = new LinkedHashMap<String, Part>(31);
+		for (int i = from; i < to; i++) {
+			final FileEntry entry = entries.get(i);
+			if (entry.isDirectory()) continue;
+			matcher.reset(entry.getName());
+			if (!matcher.matches()) continue;
+
+			final String id = matcher.group(1);
+			if (id==null) continue;
+			ids[i] = id;
+
+			final long frame = framed ? getFrame(matcher.group(2)) : -1;
+			final Part part  = parts.get(id);
+			if (part==null) {
+				parts.put(id, new Part(id, i, frame, typed ? matcher.group(3) : null));
+			} else {
+				part.add(frame);
+			}
+		}
+		return parts;
+	}
+
+	private static long getFrame(String number) {
+		if (number==null || number.isEmpty() || number.length()>18) return -1;
+		long frame = 0;
+		for (int i = 0; i < number.length(); i++) {
+			final int digit = Character.digit(number.charAt(i), 10);
+			if (digit<0) return -1;
+			frame = frame*10+digit;
+		}
+		return frame;
+	}
+
+	/**
+	 * The frames of one stack seen in a chunk.
+	 */
+	private static class Part {
+		final String id;
+		final int    index;
+		final String extension;
+		long first, last;
+		int  count;
+
+		Part(String id, int index, long frame, String extension) {
+			this.id        = id;
+			this.index     = index;
+			this.extension = extension;
+			this.first     = frame;
+			this.last      = frame;
+			this.count     = 1;
+		}
+
+		void add(long frame) {
+			if (frame>-1) {
+				first = first<0 ? frame : Math.min(first, frame);
+				last  = Math.max(last, frame);
+			}
+			count++;
+		}
+	}
+}
@@ -14,77 +14,170 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.regex.Matcher;
 
 import org.eclipse.dawnsci.analysis.api.io.ILoaderService;
 import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.viewers.ITreeViewerListener;
+import org.eclipse.jface.viewers.TreeExpansionEvent;
 import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Cursor;
 import org.eclipse.ui.PlatformUI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import uk.ac.diamond.sda.intro.navigator.NavigatorRCPActivator;
 import uk.ac.diamond.sda.navigator.preference.FileNavigatorPreferenceConstants;
+import uk.ac.diamond.sda.navigator.util.FileEntry;
 import uk.ac.diamond.sda.navigator.util.NIOUtils;
+import uk.ac.diamond.sda.navigator.util.StackIndex;
+import uk.ac.diamond.sda.navigator.views.DirectoryScanPool.Priority;
 
 class ThreadingFileContentProvider implements IFileContentProvider {
 	
+	private static final Logger logger = LoggerFactory.getLogger(ThreadingFileContentProvider.class);
 
 	private TreeViewer treeViewer;
 	private FileSortType sort = FileSortType.ALPHA_NUMERIC_DIRS_FIRST;
 	private boolean collapseDatacollections;
 	private LinkedBlockingDeque<UpdateRequest> elementQueue;
-	private LinkedBlockingDeque<UpdateRequest> childQueue;
 	
 	/**
-	 * Two threads with different priorities used.
+	 * Thread used to update elements from the cache.
 	 */
 	private Thread updateElementThread;
 
 	/**
-	 * Two threads with different priorities used.
+	 * Pool of threads used to scan directories for the child count,
+	 * these run at a higher priority to the element thread.
 	 */
-	private Thread updateChildThread;
+	private DirectoryScanPool scanPool;
 
 	/**
 	 * Caching seems to be needed to keep the path sorting
 	 * fast. This used to be a soft reference cache but the 
 	 * file browsing does not really work if you start making the
 	 * cached
+	 * 
+	 * The listing holds the attributes read during the scan so that
+	 * rendering and sorting do not go back to the file system.
+	 * 
+	 * The cache is bounded by the number of entries (or the estimated bytes)
+	 * held in all the listings. Directories expanded in the tree are never
+	 * evicted. The stubs of collapsed data collections are kept with the listing.
 	 */  
-	private Map<Path, List<Path>>    cachedSorting;
-	private Map<Path, Set<String>>   cachedStubs;
-	private Map<Path, ReentrantLock> cachedLocks;
+	private WeightedLruCache<Path, DirectoryListing> cachedSorting;
 	
+	/**
+	 * The directories in cachedSorting, so that a subtree can be removed
+	 * without checking every key in the cache.
+	 */
+	private final PathPrefixIndex cachedPaths;
+	
+	/**
+	 * Listings of large directories which are still being read, shown
+	 * while the scan continues. Moved to cachedSorting when complete.
+	 */
+	private final Map<Path, DirectoryListing> partialListings;
+
+	/**
+	 * Directories whose children were asked for before their listing was ready,
+	 * shown again once it is.
+	 */
+	private final Set<Path> waiting;
+
+	/**
+	 * Directories we have been asked for the children of, until they are collapsed.
+	 */
+	private final Set<Object>     expanded;
+	private ITreeViewerListener   expansionListener;
+	
+	/**
+	 * Reports changes in expanded directories so that their listings are
+	 * updated in place rather than read again.
+	 */
+	private DirectoryWatcher      watcher;
+	
+	/**
+	 * One lock per directory having its listing put in the cache or read by the
+	 * element thread, removed again when no thread holds or waits for it. Scans and
+	 * updates read the directory and find data collections without the lock.
+	 */
+	private final Map<Path, ReentrantLock> locks;
+
+	/**
+	 * Maximum number of entries held in all cached listings.
+	 */
+	static final String CACHE_ENTRIES_PROPERTY = "uk.ac.diamond.sda.navigator.cacheEntries";
+	/**
+	 * If set, maximum estimated bytes held in all cached listings, used instead of the entries.
+	 */
+	static final String CACHE_BYTES_PROPERTY   = "uk.ac.diamond.sda.navigator.cacheBytes";
+	/**
+	 * Number of entries read before a large directory is first shown, the listing
+	 * is shown again each time the number read doubles. Zero shows nothing until the
+	 * whole directory has been read.
+	 */
+	static final String STREAMING_CHUNK_PROPERTY = "uk.ac.diamond.sda.navigator.streamingChunk";
+	private static final int  DEFAULT_STREAMING_CHUNK = 1000;
+	/**
+	 * Largest number of files matched to data collections at once when collapsing.
+	 */
+	private static final int  MAX_COLLAPSE_BATCH = 16384;
+	private static final int  DEFAULT_CACHE_ENTRIES = 1000000;
 
 	public ThreadingFileContentProvider() {
-		this.cachedSorting = new ConcurrentHashMap<Path, List<Path>>(89);
-		this.cachedStubs   = new ConcurrentHashMap<Path, Set<String>>(89);
-		this.cachedLocks   = new ConcurrentHashMap<Path, ReentrantLock>(89);
+		this.expanded      = ConcurrentHashMap.newKeySet();
+		this.cachedPaths   = new PathPrefixIndex();
+		this.partialListings = new ConcurrentHashMap<Path, DirectoryListing>(7);
+		this.waiting       = ConcurrentHashMap.newKeySet();
+		this.cachedSorting = createCache(expanded);
+		cachedSorting.setEvictionListener(cachedPaths::remove);
+		this.locks         = new ConcurrentHashMap<Path, ReentrantLock>(89);
 		
 		this.elementQueue  = new LinkedBlockingDeque<UpdateRequest>(Integer.MAX_VALUE);
-		this.childQueue    = new LinkedBlockingDeque<UpdateRequest>(Integer.MAX_VALUE);
+		this.scanPool      = new DirectoryScanPool("Update child size", CHILD_PRIORITY, new Runnable() {
+			@Override
+			public void run() {
+				clearBusy();
+			}
+		});
 		
 		final IPreferenceStore store = NavigatorRCPActivator.getDefault().getPreferenceStore();
 		collapseDatacollections = store.getBoolean(FileNavigatorPreferenceConstants.SHOW_COLLAPSED_FILES);
 	}
 
 	
+	private static WeightedLruCache<Path, DirectoryListing> createCache(final Set<Object> pinned) {
+		final Long bytes = Long.getLong(CACHE_BYTES_PROPERTY);
+		if (bytes!=null) {
+			return new WeightedLruCache<Path, DirectoryListing>(bytes, DirectoryListing::estimateBytes, pinned::contains);
+		}
+		final long entries = Long.getLong(CACHE_ENTRIES_PROPERTY, DEFAULT_CACHE_ENTRIES);
+		return new WeightedLruCache<Path, DirectoryListing>(entries, listing -> listing.size()+1, pinned::contains);
+	}
+	
 	@Override
 	public void dispose() {
+		if (treeViewer!=null && expansionListener!=null) treeViewer.removeTreeListener(expansionListener);
+		if (watcher!=null) watcher.dispose();
+		watcher = null;
+		logger.debug("Directory cache on dispose: {}", cachedSorting);
 		clearAndStop(null, true);
 		elementQueue = null;
-		childQueue = null;
+		scanPool = null;
 	}
 	
 	@Override
@@ -97,16 +190,13 @@ class ThreadingFileContentProvider implements IFileContentProvider {
 			elementQueue.offerFirst(new BlankUpdateRequest()); // break the queue
 			updateElementThread = null;
 			
-			childQueue.offerFirst(new BlankUpdateRequest()); // break the queue
-			updateChildThread = null;
+			scanPool.shutdown();
 		}
 
 		if (path!=null) {
 			if (elementQueue!=null)  elementQueue.clear();
-			if (childQueue!=null)    childQueue.clear();
-			removeCachedPath(cachedStubs, path);
-			removeCachedPath(cachedLocks, path);
-			Object old = removeCachedPath(cachedSorting, path);
+			if (scanPool!=null)      scanPool.clear();
+			Object old = removeCachedPath(path);
 			if (old==null) {
 				System.err.println("Unexpected clear in "+getClass().getSimpleName());
 				clear();
@@ -120,38 +210,81 @@ class ThreadingFileContentProvider implements IFileContentProvider {
 	public void clear(Path... paths) {
 		if (paths==null || paths.length<1) {
 			if (elementQueue!=null)  elementQueue.clear();
-			if (childQueue!=null)    childQueue.clear();
+			if (scanPool!=null)      scanPool.clear();
 			if (cachedSorting!=null) cachedSorting.clear();
-			if (cachedStubs!=null)   cachedStubs.clear();
-			if (cachedLocks!=null)   cachedLocks.clear();
+			cachedPaths.clear();
+			partialListings.clear();
+			waiting.clear();
 
 		} else {
 			for (int i = 0; i < paths.length; i++) {
 				if (paths[i]==null) continue;
-				removeCachedPath(cachedStubs,   paths[i].getParent());
-				removeCachedPath(cachedLocks,   paths[i].getParent());
-				removeCachedPath(cachedSorting, paths[i].getParent());
+				removeCachedPath(paths[i].getParent());
 			}
+			// Directories deleted elsewhere are found later, off this thread.
+			scheduleSweep();
 		}
 	}
 
-	private Object removeCachedPath(Map<Path, ?> cache, Path delete) {
-		Object ret = cache.remove(delete);
-		for (Path path : cache.keySet()) {
-			if (path.startsWith(delete) || !Files.exists(path)) {
-				cache.remove(path);
-			}
+	/**
+	 * Removes the directory and everything cached below it, without going to the file system.
+	 * @param delete
+	 * @return the listing of the directory removed, if there was one.
+	 */
+	private Object removeCachedPath(Path delete) {
+		if (delete==null) return null;
+		Object ret = cachedSorting.remove(delete);
+		for (Path path : cachedPaths.removeSubtree(delete)) {
+			cachedSorting.remove(path);
 		}
+		partialListings.keySet().removeIf(path -> path.startsWith(delete));
 		return ret;
 	}
 
+	private static final String SWEEP_KEY = "Sweep cached directories";
+
+	/**
+	 * Queues a check that the cached directories still exist, at prefetch priority.
+	 */
+	private void scheduleSweep() {
+		if (scanPool==null) return;
+		scanPool.submit(SWEEP_KEY, Priority.PREFETCH, new Runnable() {
+			@Override
+			public void run() {
+				for (Path path : cachedPaths.getPaths()) {
+					if (!Files.exists(path)) removeCachedPath(path);
+				}
+			}
+		});
+	}
+
 	
 	private static final int ELEMENT_PRIORITY = Thread.MIN_PRIORITY;
 	private static final int CHILD_PRIORITY   = Thread.MAX_PRIORITY;
 	
 	@Override
 	public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+		if (treeViewer!=null && expansionListener!=null) treeViewer.removeTreeListener(expansionListener);
 		treeViewer = (TreeViewer) viewer;
+		expanded.clear();
+		if (expansionListener==null) expansionListener = new ITreeViewerListener() {
+			@Override
+			public void treeExpanded(TreeExpansionEvent event) {
+				expanded.add(event.getElement());
+			}
+			@Override
+			public void treeCollapsed(TreeExpansionEvent event) {
+				final Object element = event.getElement();
+				expanded.remove(element);
+				if (element instanceof Path) {
+					final Path path = (Path)element;
+					expanded.removeIf(e -> e instanceof Path && ((Path)e).startsWith(path));
+					if (watcher!=null) watcher.unwatch(path);
+				}
+			}
+		};
+		treeViewer.addTreeListener(expansionListener);
+		if (watcher==null) watcher = new DirectoryWatcher(this::directoryChanged);
 		treeViewer.refresh();
 	}
 
@@ -159,6 +292,14 @@ class ThreadingFileContentProvider implements IFileContentProvider {
 	public void updateElement(Object parent, int index) {
 
 		if (elementQueue==null) return;
+		// The viewer only asks for the children of expanded elements, which
+		// will also happen if they are expanded programmatically.
+		expanded.add(parent);
+		if (watcher!=null && parent instanceof Path) {
+			final DirectoryListing listing = cachedSorting.peek(parent);
+			// Changes since the listing was read are found when it is registered
+			if (listing!=null) watcher.watch((Path)parent, listing.getModified());
+		}
 		if (PlatformUI.isWorkbenchRunning()) {
 			if (updateElementThread==null) updateElementThread = createUpdateThread(elementQueue, ELEMENT_PRIORITY, "Update directory contents");
 			elementQueue.offerFirst(new ElementUpdateRequest(parent, index));
@@ -177,8 +318,8 @@ class ThreadingFileContentProvider implements IFileContentProvider {
 			treeViewer.replace(parent, index, element);
 			
 			// We correct when they expand, listFiles() could be slow.
-			if (Files.isDirectory(element)) {
-				updateChildCount(element, -1);
+			if (isDirectory(element)) {
+				updateChildCount(element, -1, Priority.PREFETCH);
 			} else {
 				treeViewer.setChildCount(element, 0);
 			}
@@ -187,17 +328,20 @@ class ThreadingFileContentProvider implements IFileContentProvider {
 
 	@Override
 	public void updateChildCount(Object element, int currentChildCount) {
+		updateChildCount(element, currentChildCount, Priority.EXPAND);
+	}
+	
+	private void updateChildCount(Object element, int currentChildCount, Priority priority) {
 		
-		if (childQueue==null) return;
+		if (scanPool==null) return;
 		
-		if (element instanceof Path && !Files.isDirectory((Path)element)) {
+		if (element instanceof Path && !isDirectory((Path)element)) {
 			treeViewer.setChildCount(element, 0);
 			return;
 		}
 		
 		if (PlatformUI.isWorkbenchRunning()) {
-			if (updateChildThread==null) updateChildThread = createUpdateThread(childQueue, CHILD_PRIORITY, "Update child size");
-			childQueue.offerFirst(new ChildUpdateRequest(element, true));
+			scanPool.submit(element, priority, new ChildUpdateRequest(element, true));
 		} else {
 			updateChildCountInternal(element, currentChildCount);
 		}
@@ -208,7 +352,7 @@ class ThreadingFileContentProvider implements IFileContentProvider {
 		
 		if (element==null) return;
 		
-		if (element instanceof Path && Files.isDirectory((Path)element)) {
+		if (element instanceof Path && isDirectory((Path)element)) {
 			treeViewer.setChildCount(element, size);
 		} else if (element instanceof String){
 			treeViewer.setChildCount(element, NIOUtils.getRoots().size());
@@ -220,17 +364,35 @@ class ThreadingFileContentProvider implements IFileContentProvider {
 
 	private List<Path> getFileList(Path node) {
 		
-		if (!Files.isDirectory(node)) return null;
 		if (cachedSorting==null) return null;
 				
-		if (cachedSorting.containsKey(node)) {
-			List<Path> sorted = cachedSorting.get(node);
-			if (sorted!=null) return sorted;
-		}
+		DirectoryListing listing = cachedSorting.peek(node);
+		if (listing==null) listing = partialListings.get(node);
+		if (listing!=null) return listing.getPaths(sort);
 		
 		return null;
 	}
 
+	@Override
+	public FileEntry getEntry(Path path) {
+		if (path==null || cachedSorting==null) return null;
+		final Path parent = path.getParent();
+		if (parent==null) return null;
+		DirectoryListing listing = cachedSorting.peek(parent);
+		if (listing==null) listing = partialListings.get(parent);
+		return listing!=null ? listing.getEntry(path) : null;
+	}
+
+	/**
+	 * Uses the attributes read when the parent was scanned, if there are any.
+	 */
+	private boolean isDirectory(Path path) {
+		if (cachedSorting!=null && cachedSorting.containsKey(path)) return true;
+		final FileEntry entry = getEntry(path);
+		if (entry!=null) return entry.isDirectory();
+		return Files.isDirectory(path);
+	}
+
 
 	@Override
 	public Object getParent(Object element) {
@@ -299,20 +461,24 @@ class ThreadingFileContentProvider implements IFileContentProvider {
 				}
 			} else {				
 				if (queue.isEmpty()) { // Nothing more in queue
-           			if (treeViewer.getControl().isDisposed()) return;
-                    treeViewer.getControl().getDisplay().syncExec(new Runnable() {
-						@Override
-						public void run() {
-							if (treeViewer.getControl().isDisposed()) return;
-							treeViewer.getControl().setCursor(null);
-							isBusy = false;
-						}
-        			});
-            	}
+					clearBusy();
+				}
 			}
 		}
 	}
 	
+	private void clearBusy() {
+		if (treeViewer==null || treeViewer.getControl().isDisposed()) return;
+		treeViewer.getControl().getDisplay().syncExec(new Runnable() {
+			@Override
+			public void run() {
+				if (treeViewer.getControl().isDisposed()) return;
+				treeViewer.getControl().setCursor(null);
+				isBusy = false;
+			}
+		});
+	}
+	
 	private class BlankUpdateRequest extends UpdateRequest {
 
 		@Override
@@ -339,12 +505,18 @@ class ThreadingFileContentProvider implements IFileContentProvider {
 					fa = NIOUtils.getRoots();
 				} else {
 					final Path node = (Path) getElement();
-					ReentrantLock lock = getLock(node);
-					try {
-						lock.lock();
-						fa = getFileList(node);
-					} finally {
-						lock.unlock();
+					final List<Path> partial = partialListings.containsKey(node) ? getFileList(node) : null;
+					if (partial!=null && getIndex()<partial.size()) {
+						// Large directory still being read, do not wait for the scan.
+						fa = partial;
+					} else {
+						final ReentrantLock lock = lock(node);
+						try {
+							fa = getFileList(node);
+							if (fa==null) waiting.add(node); // Shown when its scan is done
+						} finally {
+							unlock(node, lock);
+						}
 					}
 				}
 	
@@ -372,7 +544,10 @@ class ThreadingFileContentProvider implements IFileContentProvider {
 	}
 	
 	
-	private class ChildUpdateRequest extends UpdateRequest {
+	/**
+	 * Run by the scan pool, which clears the busy cursor when it has no more work.
+	 */
+	private class ChildUpdateRequest extends UpdateRequest implements Runnable {
 
 		private boolean updateBusyRequired;
 
@@ -384,115 +559,137 @@ class ThreadingFileContentProvider implements IFileContentProvider {
 		}
 
 
+		@Override
+		public void run() {
+			try {
+				process();
+			} catch (org.eclipse.swt.SWTException swtE) {
+				if (scanPool!=null) scanPool.clear();
+			} catch (Exception ne) {
+				logger.debug("Cannot update child count of "+element, ne);
+			}
+		}
+
 		@Override
 		public boolean process() throws Exception {
 			
-			try {
-				if (cachedSorting.containsKey(element)) return true;
-				
-				if (updateBusyRequired) updateBusy(childQueue, true);
-				
-				int count = 0;
+			// The one lookup which counts, a hit saves scanning the directory.
+			if (cachedSorting.get(element)!=null) return true;
+			
+			if (updateBusyRequired) updateBusy(null, true);
+			
+			int count = 0;
+			
+			if (element instanceof Path) {
+				final Path path = (Path)element;
 				
-				if (element instanceof Path) {
-					final Path path = (Path)element;
+				// We try to get the size but we ignore repeated scans in the same directory
+				// Therefore as we find the number, we populate the cachedSorting as we go.
+				if (Files.isDirectory(path)) {
 					
-					// We try to get the size but we ignore repeated scans in the same directory
-					// Therefore as we find the number, we populate the cachedSorting as we go.
-					if (Files.isDirectory(path)) {
-						
-						ILoaderService lservice=null;
-						if (collapseDatacollections) {
-						    lservice = NavigatorRCPActivator.getService(ILoaderService.class);
-						}
-						
-		    		    final Map<String, Path> files = new TreeMap<String, Path>(new SortNatural<String>(false));
-		    		    final Map<String, Path> dirs  = new TreeMap<String, Path>(new SortNatural<String>(false));
-
-			        	// Faster way than File.list() in theory
-			        	// see http://www.rgagnon.com/javadetails/java-get-directory-content-faster-with-many-files.html						
-				        try (DirectoryStream<Path> ds = Files.newDirectoryStream(path)) {
-				        	
-				        	Set<String> tmp = null;
-				        	
-							if (collapseDatacollections) {
-								tmp = new HashSet<String>(31);
-								cachedStubs.put(path, new HashSet<String>(31));
-							}
+					final StackCollapser collapser = getCollapser();
+					// Read first, so a change during the scan shows when the directory is watched
+					final long modified = DirectoryWatcher.lastModified(path);
+
+		        	// Faster way than File.list() in theory
+		        	// see http://www.rgagnon.com/javadetails/java-get-directory-content-faster-with-many-files.html						
+			        try (DirectoryStream<Path> ds = Files.newDirectoryStream(path)) {
 			        	
-							ReentrantLock lock = getLock(path);
-							try {
-								lock.lock();
-					        	for (Path p : ds) {
-					        		
-					        		final boolean isDir = Files.isDirectory(p);
-					        		final String  name  = p.getFileName().toString();
-					        		
-					        		if (!isDir) {
-					        			if (lservice!=null) {
-					        				Matcher matcher = lservice.getStackMatcher(name);
-					        				if (matcher!=null && matcher.matches()) {
-					        					String id = matcher.group(1);
-
-					        					// If we already have an item for this scan:
-					        					if (tmp!=null && tmp.contains(id)) {
-					        						// We have more than one of them, so they get truncated
-					        						cachedStubs.get(path).add(id);
-					        						continue;
-					        					}
-
-					        					// Otherwise allows its index to be added.
-					        					if (tmp!=null) tmp.add(id);
-					        				}
-					        			}
-						        		files.put(name, p);
-						        		
-					        		} else if (isDir && sort==FileSortType.ALPHA_NUMERIC_DIRS_FIRST) { // dirs separate
-					        			dirs.put(name, p);
+			        	final StackIndex.Builder stacks = collapser!=null ? new StackIndex.Builder() : null;
+		        	
+						boolean streamed = false;
+						try {
+							
+							// Entries are sorted in runs and merged as we go so that large
+							// directories can be shown before the scan is complete.
+							final FileSortType sortType = sort;
+							final SortedRunMerger<FileEntry> entries = new SortedRunMerger<FileEntry>(DirectoryListing.getComparator(sortType));
+							final int chunk = getStreamingChunk();
+							int nextPublish = chunk>0 ? chunk : Integer.MAX_VALUE;
+							
+							// Files are matched to data collections in batches, which are split over threads.
+							final List<FileEntry> batch = new ArrayList<FileEntry>(89);
+							int batchSize = chunk>0 ? Math.min(chunk, MAX_COLLAPSE_BATCH) : MAX_COLLAPSE_BATCH;
+							
+							final Iterator<Path> it = ds.iterator();
+				        	while (it.hasNext() || !batch.isEmpty()) {
+				        		
+				        		if (it.hasNext()) {
+					        		// One stat gives us the kind, size and date, we do not stat again when rendering.
+					        		final FileEntry entry = FileEntry.readQuietly(it.next());
+					        		if (collapser==null) {
+					        			entries.add(entry);
+					        			count+=1;
 					        		} else {
-					        			files.put(name, p);
+					        			batch.add(entry);
+					        			if (batch.size()<batchSize && it.hasNext()) continue;
 					        		}
-					        		count+=1; 
-					        	}
-					        
-				        	
-				        		// We precache the directory contents now because we pared them down with the regexp
-					    	    final List<Path> ret = new ArrayList<Path>(files.size()+dirs.size());
-					    	    ret.addAll(dirs.values());
-					    	    ret.addAll(files.values());
-					    	    dirs.clear();
-					    	    files.clear();
-					    	    cachedSorting.put(path, ret);
-					    	    
-							} finally {
-								lock.unlock();
-							}
-
-				        } catch (IOException ex) {
-				        	// Nothing
-				        }
-					}
-				} else {
-					for (@SuppressWarnings("unused")Path p : NIOUtils.getRoots()) count+=1;
+				        		}
+				        		if (!batch.isEmpty()) {
+				        			for (FileEntry entry : collapser.collapse(batch, stacks)) {
+				        				entries.add(entry);
+				        				count+=1;
+				        			}
+				        			batch.clear();
+				        			batchSize = Math.min(batchSize*2, MAX_COLLAPSE_BATCH);
+				        		}
+				        		
+				        		if (count>=nextPublish) {
+				        			final DirectoryListing partial = new DirectoryListing(entries.merge(), stacks!=null ? stacks.build() : null);
+				        			partial.getPaths(sortType); // Already sorted, linear
+				        			partialListings.put(path, partial);
+				        			streamed = true;
+				        			publish(path, count);
+				        			nextPublish = count*2;
+				        		}
+				        	}
+			        	
+			        		// We precache the directory contents now because we pared them down with the regexp
+				    	    final DirectoryListing listing = new DirectoryListing(entries.merge(), stacks!=null ? stacks.build() : null);
+				    	    listing.getPaths(sortType);
+				    	    listing.setModified(modified);
+				    	    
+				    	    final boolean waited;
+				    	    final ReentrantLock lock = lock(path);
+				    	    try {
+				    	    	cachedSorting.put(path, listing);
+				    	    	cachedPaths.add(path);
+				    	    	waited = waiting.remove(path);
+				    	    } finally {
+				    	    	unlock(path, lock);
+				    	    }
+				    	    
+				    	    if (streamed || waited) {
+				    	    	// Rows already shown may have moved as the runs were merged,
+				    	    	// or were asked for before there was a listing.
+				    	    	publish(path, count);
+				    	    	return true;
+				    	    }
+				    	    
+						} finally {
+							// Also when the scan failed part way, so its partial listing is not shown.
+							if (streamed) partialListings.remove(path);
+						}
+
+			        } catch (IOException ex) {
+			        	// Nothing
+			        }
 				}
-				
-				final int size = count;
-		        
-				if (treeViewer.getControl().isDisposed()) return false;
-				treeViewer.getControl().getDisplay().syncExec(new Runnable() {
-					@Override
-					public void run() {
-						if (treeViewer.getControl().isDisposed()) return;
-						updateChildCountInternal(element, size);
-					}
-				});
-				    
-				
-			} finally {
-				
-			    if (updateBusyRequired) updateBusy(childQueue, false);
+			} else {
+				for (@SuppressWarnings("unused")Path p : NIOUtils.getRoots()) count+=1;
 			}
 			
+			final int size = count;
+	        
+			if (treeViewer.getControl().isDisposed()) return false;
+			treeViewer.getControl().getDisplay().syncExec(new Runnable() {
+				@Override
+				public void run() {
+					if (treeViewer.getControl().isDisposed()) return;
+					updateChildCountInternal(element, size);
+				}
+			});
+			
 			return true;
 
 		}
@@ -500,6 +697,136 @@ class ThreadingFileContentProvider implements IFileContentProvider {
 	}
 	
 
+	/**
+	 * Updates the cached listing of a watched directory with the files which changed,
+	 * then shows the new count. Called by the watcher no more than once per interval.
+	 * The files are read and matched to data collections without the lock, which is
+	 * only held to put the new listing in place of the one it was made from.
+	 */
+	private void directoryChanged(Path dir, DirectoryWatcher.Delta delta) {
+
+		if (cachedSorting==null) return;
+
+		final StackCollapser collapser = getCollapser();
+		final long modified = DirectoryWatcher.lastModified(dir);
+		while (true) {
+			final DirectoryListing listing = cachedSorting.peek(dir);
+			if (listing==null) return; // Will be read when next expanded
+
+			final Set<Path> deleted = new HashSet<Path>(delta.getDeleted());
+			final Set<Path> changed = new LinkedHashSet<Path>(delta.getChanged());
+			if (delta.isUnknown()) {
+				// Events were lost or the directory is polled, compare names only.
+				final Set<Path> seen = new HashSet<Path>(listing.size()*2);
+				try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+					for (Path p : ds) {
+						seen.add(p);
+						if (listing.getEntry(p)!=null) continue;
+						if (collapser!=null && listing.isCollapsed(p.getFileName().toString(), collapser)) continue;
+						changed.add(p);
+					}
+				} catch (IOException ne) {
+					logger.debug("Cannot read changes in "+dir, ne);
+					return;
+				}
+				for (Path p : listing.getPaths(sort)) if (!seen.contains(p)) deleted.add(p);
+			}
+
+			final List<FileEntry> entries = new ArrayList<FileEntry>(changed.size());
+			for (Path p : changed) {
+				try {
+					entries.add(FileEntry.read(p));
+				} catch (IOException gone) {
+					deleted.add(p);
+				}
+			}
+			if (entries.isEmpty() && deleted.isEmpty()) return;
+
+			final List<FileEntry> promoted = getFirstFilesLeft(dir, listing.getOrphanedStacks(deleted, collapser), deleted, collapser);
+			final DirectoryListing updated = listing.apply(entries, deleted, promoted, sort, collapser);
+			updated.setModified(modified);
+
+			final ReentrantLock lock = lock(dir);
+			try {
+				if (cachedSorting.peek(dir)!=listing) continue; // Read again meanwhile, update that one
+				cachedSorting.put(dir, updated);
+			} finally {
+				unlock(dir, lock);
+			}
+
+			// Subdirectories which have gone
+			for (Path p : deleted) {
+				if (cachedPaths.contains(p)) removeCachedPath(p);
+			}
+			publish(dir, updated.size());
+			return;
+		}
+	}
+
+	/**
+	 * Finds a file to list for each data collection whose listed file was deleted.
+	 * @param dir
+	 * @param ids of the data collections
+	 * @param deleted files which are not to be listed
+	 * @param collapser
+	 * @return the first file left of each data collection, in the order of the directory.
+	 */
+	private static List<FileEntry> getFirstFilesLeft(Path dir, Set<String> ids, Set<Path> deleted, StackCollapser collapser) {
+
+		if (ids.isEmpty()) return Collections.emptyList();
+		final Set<String>     left = new HashSet<String>(ids);
+		final List<FileEntry> ret  = new ArrayList<FileEntry>(ids.size());
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+			for (Iterator<Path> it = ds.iterator(); it.hasNext() && !left.isEmpty();) {
+				final Path p = it.next();
+				if (deleted.contains(p)) continue;
+				final String id = collapser.getStackId(p.getFileName().toString());
+				if (id==null || !left.contains(id)) continue;
+				try {
+					final FileEntry entry = FileEntry.read(p);
+					if (entry.isDirectory()) continue;
+					ret.add(entry);
+					left.remove(id);
+				} catch (IOException gone) {
+					// Deleted since, try the next
+				}
+			}
+		} catch (IOException ne) {
+			logger.debug("Cannot find the files left of data collections in "+dir, ne);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return finds the data collections of file names, or null if not collapsing.
+	 */
+	private StackCollapser getCollapser() {
+		if (!collapseDatacollections) return null;
+		return StackCollapser.getCollapser(NavigatorRCPActivator.getService(ILoaderService.class));
+	}
+
+	private static int getStreamingChunk() {
+		return Math.max(0, Integer.getInteger(STREAMING_CHUNK_PROPERTY, DEFAULT_STREAMING_CHUNK));
+	}
+
+	/**
+	 * Shows the count of a directory which is being streamed, without waiting for the display.
+	 * The children already shown are asked for again as they may have moved.
+	 * @param path
+	 * @param size
+	 */
+	private void publish(final Path path, final int size) {
+		if (treeViewer.getControl().isDisposed()) return;
+		treeViewer.getControl().getDisplay().asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				if (treeViewer.getControl().isDisposed()) return;
+				treeViewer.setChildCount(path, size);
+				treeViewer.refresh(path);
+			}
+		});
+	}
+
 	/**
 	 * Method creates a thread to process a queue
 	 */
@@ -543,15 +870,27 @@ class ThreadingFileContentProvider implements IFileContentProvider {
 		return thread;
 	}
 
-	private ReentrantLock getLock(Path path) {
-		ReentrantLock lock;
-		if (cachedLocks.containsKey(path)) {
-			lock = cachedLocks.get(path);
-		} else {
-			lock = new ReentrantLock();
-			cachedLocks.put(path, lock);
+	/**
+	 * Locks a directory, waiting only for threads working on the same directory.
+	 * @param path
+	 * @return the lock held, to be given back to {@link #unlock(Path, ReentrantLock)}
+	 */
+	private ReentrantLock lock(Path path) {
+		while (true) {
+			final ReentrantLock lock = locks.computeIfAbsent(path, p -> new ReentrantLock());
+			lock.lock();
+			if (locks.get(path)==lock) return lock;
+			// Removed by the last holder while we waited, use the one there now.
+			lock.unlock();
 		}
-		return lock;
+	}
+
+	/**
+	 * Unlocks a directory, forgetting its lock if no other thread wants it.
+	 */
+	private void unlock(Path path, ReentrantLock lock) {
+		if (lock.getHoldCount()==1 && !lock.hasQueuedThreads()) locks.remove(path, lock);
+		lock.unlock();
 	}
 
 
@@ -568,7 +907,15 @@ class ThreadingFileContentProvider implements IFileContentProvider {
 
 	@Override
 	public Set<String> getStubs(Path folder) {
-		return cachedStubs.get(folder);
+		final DirectoryListing listing = cachedSorting.peek(folder);
+		return listing!=null ? listing.getStubs() : null;
+	}
+
+	@Override
+	public StackIndex getStacks(Path folder) {
+		DirectoryListing listing = cachedSorting.peek(folder);
+		if (listing==null) listing = partialListings.get(folder);
+		return listing!=null ? listing.getStacks() : null;
 	}
 
 }
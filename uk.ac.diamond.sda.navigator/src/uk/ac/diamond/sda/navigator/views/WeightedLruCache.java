@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.navigator.views;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * A least recently used cache bounded by the total weight of its values rather than
+ * the number of keys. The navigator weighs a directory listing by its number of
+ * entries, one listing can hold 200k paths so counting directories is no use.
+ *
+ * Keys for which the pinned test is true are never evicted, the navigator uses this
+ * to keep the directories expanded in the tree. If only pinned values remain the
+ * cache may go over its maximum weight until they are unpinned.
+ *
+ * All methods are synchronized, reads with get reorder the map. Rendering looks
+ * listings up with peek, so that drawing rows neither counts as a hit nor keeps a
+ * directory from being evicted.
+ */
+class WeightedLruCache<K,V> {
+
+	private final LinkedHashMap<K,V>   map;
+	private final HashMap<K,V>         values; // The same as map, read without reordering it
+	private final ToLongFunction<V>    weigher;
+	private final Predicate<K>         pinned;
+	private final long                 maximumWeight;
+	private Consumer<K>                evictionListener;
+
+	private long totalWeight;
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	/**
+	 *
+	 * @param maximumWeight
+	 * @param weigher weight of a value, must not change while it is in the cache.
+	 * @param pinned may be null, if true for a key that key is not evicted.
+	 */
+	WeightedLruCache(long maximumWeight, ToLongFunction<V> weigher, Predicate<K> pinned) {
+		if (maximumWeight<1) throw new IllegalArgumentException("The maximum weight must be positive!");
+		this.map           = new LinkedHashMap<K,V>(89, 0.75f, true);
+		this.values        = new HashMap<K,V>(89);
+		this.weigher       = weigher;
+		this.pinned        = pinned;
+		this.maximumWeight = maximumWeight;
+	}
+
+	synchronized V get(Object key) {
+		final V value = map.get(key);
+		if (value!=null) {
+			hitCount++;
+		} else {
+			missCount++;
+		}
+		return value;
+	}
+
+	/**
+	 * Does not count as a hit or a miss or change the order.
+	 */
+	synchronized V peek(Object key) {
+		return values.get(key);
+	}
+
+	/**
+	 * Does not count as a hit or a miss or change the order.
+	 */
+	synchronized boolean containsKey(Object key) {
+		return values.containsKey(key);
+	}
+
+	synchronized V put(K key, V value) {
+		final V old = map.put(key, value);
+		values.put(key, value);
+		if (old!=null) totalWeight -= weigher.applyAsLong(old);
+		totalWeight += weigher.applyAsLong(value);
+		evict(key);
+		return old;
+	}
+
+	synchronized V remove(Object key) {
+		final V old = map.remove(key);
+		values.remove(key);
+		if (old!=null) totalWeight -= weigher.applyAsLong(old);
+		return old;
+	}
+
+	/**
+	 * @param filter
+	 * @return the keys removed
+	 */
+	synchronized List<K> removeIf(Predicate<K> filter) {
+		final List<K> removed = new ArrayList<K>();
+		for (Iterator<Map.Entry<K,V>> it = map.entrySet().iterator(); it.hasNext();) {
+			final Map.Entry<K,V> entry = it.next();
+			if (filter.test(entry.getKey())) {
+				totalWeight -= weigher.applyAsLong(entry.getValue());
+				removed.add(entry.getKey());
+				values.remove(entry.getKey());
+				it.remove();
+			}
+		}
+		return removed;
+	}
+
+	synchronized void clear() {
+		map.clear();
+		values.clear();
+		totalWeight = 0;
+	}
+
+	/**
+	 * Evict least recently used until we are under the maximum weight.
+	 * @param keep the key just added, which we do not evict.
+	 */
+	private void evict(K keep) {
+		if (totalWeight<=maximumWeight) return;
+		for (Iterator<Map.Entry<K,V>> it = map.entrySet().iterator(); it.hasNext() && totalWeight>maximumWeight;) {
+			final Map.Entry<K,V> entry = it.next();
+			final K key = entry.getKey();
+			if (key.equals(keep)) continue;
+			if (pinned!=null && pinned.test(key)) continue;
+			totalWeight -= weigher.applyAsLong(entry.getValue());
+			evictionCount++;
+			values.remove(key);
+			it.remove();
+			if (evictionListener!=null) evictionListener.accept(key);
+		}
+	}
+
+	/**
+	 * @param evictionListener called with the key of each value evicted to keep under
+	 *        the maximum weight, from inside the cache lock. Not called for explicit removes.
+	 */
+	synchronized void setEvictionListener(Consumer<K> evictionListener) {
+		this.evictionListener = evictionListener;
+	}
+
+	synchronized int size() {
+		return map.size();
+	}
+
+	synchronized long getWeight() {
+		return totalWeight;
+	}
+
+	long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	synchronized long getMissCount() {
+		return missCount;
+	}
+
+	synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "size="+map.size()+", weight="+totalWeight+"/"+maximumWeight+", hits="+hitCount+", misses="+missCount+", evictions="+evictionCount;
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.polling.jobs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DropFileTailTest {
+
+	private Path         dir;
+	private Path         file;
+	private DropFileTail tail;
+
+	@Before
+	public void setup() throws Exception {
+		dir  = Files.createTempDirectory("drop_file_test");
+		file = dir.resolve("drop.txt");
+		tail = new DropFileTail();
+	}
+
+	@After
+	public void dispose() throws Exception {
+		try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+			for (Path p : (Iterable<Path>)files::iterator) Files.delete(p);
+		}
+		Files.delete(dir);
+	}
+
+	@Test
+	public void testAppendedLinesRead() throws Exception {
+		write("a\nb\n");
+		poll();
+		assertEquals(Arrays.asList("a", "b"), tail.getLines());
+		assertFalse(tail.isReset());
+
+		append("c\r\nd\n");
+		poll();
+		assertEquals(Arrays.asList("c", "d"), tail.getLines());
+		assertFalse(tail.isReset());
+
+		poll();
+		assertEquals(Collections.emptyList(), tail.getLines());
+		assertFalse(tail.isReset());
+	}
+
+	@Test
+	public void testPartialLineHeldBack() throws Exception {
+		write("a\nb");
+		poll();
+		assertEquals(Arrays.asList("a"), tail.getLines());
+
+		append("c\nd");
+		poll();
+		assertEquals(Arrays.asList("bc"), tail.getLines());
+		assertFalse(tail.isReset());
+	}
+
+	@Test
+	public void testUnchangedPartialLineTaken() throws Exception {
+		write("a\nb");
+		poll();
+		assertEquals(Arrays.asList("a"), tail.getLines());
+
+		// The writer has not added to the line since the last poll
+		poll();
+		assertEquals(Arrays.asList("b"), tail.getLines());
+
+		append("\nc\n");
+		poll();
+		assertEquals(Arrays.asList("c"), tail.getLines());
+	}
+
+	@Test
+	public void testTruncatedFileReadAgain() throws Exception {
+		write("a\nb\nc\n");
+		poll();
+
+		write("d\n");
+		poll();
+		assertTrue(tail.isReset());
+		assertEquals(Arrays.asList("d"), tail.getLines());
+	}
+
+	@Test
+	public void testReplacedFileReadAgain() throws Exception {
+		write("a\nb\n");
+		poll();
+
+		// Same size and length of lines, but another file moved over the first
+		final Path other = dir.resolve("drop.tmp");
+		Files.write(other, "c\nd\n".getBytes(Charset.defaultCharset()));
+		Files.move(other, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		poll();
+		assertTrue(tail.isReset());
+		assertEquals(Arrays.asList("c", "d"), tail.getLines());
+	}
+
+	@Test
+	public void testRewrittenInPlaceReadAgain() throws Exception {
+		write("a\nb\n");
+		final FileTime time = Files.getLastModifiedTime(file);
+		poll();
+
+		write("c\nd\n");
+		Files.setLastModifiedTime(file, FileTime.fromMillis(time.toMillis() + 2000));
+		poll();
+		assertTrue(tail.isReset());
+		assertEquals(Arrays.asList("c", "d"), tail.getLines());
+	}
+
+	@Test
+	public void testOtherFileReadFromStart() throws Exception {
+		write("a\n");
+		poll();
+
+		final Path other = dir.resolve("other.txt");
+		Files.write(other, "b\n".getBytes(Charset.defaultCharset()));
+		tail.poll(other.toString());
+		assertTrue(tail.isReset());
+		assertEquals(Arrays.asList("b"), tail.getLines());
+	}
+
+	private void poll() throws Exception {
+		tail.poll(file.toString());
+	}
+
+	private void write(String text) throws Exception {
+		Files.write(file, text.getBytes(Charset.defaultCharset()));
+	}
+
+	private void append(String text) throws Exception {
+		Files.write(file, text.getBytes(Charset.defaultCharset()), StandardOpenOption.APPEND);
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.polling.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class PollSchedulerTest {
+
+	private static final int RUNS = 1000;
+
+	@Test
+	public void testPollTimeSpread() {
+		final Set<Long> delays = new HashSet<Long>();
+		for (int i = 0; i < RUNS; i++) {
+			final long delay = PollScheduler.getDelay(10000, 0);
+			assertAround(10000, delay);
+			delays.add(delay);
+		}
+		assertTrue("Delays not spread: " + delays, delays.size() > 10);
+	}
+
+	@Test
+	public void testFailuresBackOff() {
+		for (int i = 0; i < RUNS; i++) {
+			assertAround(20000, PollScheduler.getDelay(10000, 1));
+			assertAround(80000, PollScheduler.getDelay(10000, 3));
+		}
+	}
+
+	@Test
+	public void testBackOffLimited() {
+		for (int i = 0; i < RUNS; i++) {
+			assertAround(PollScheduler.MAXIMUM_BACKOFF_TIME, PollScheduler.getDelay(10000, 10));
+			assertAround(PollScheduler.MAXIMUM_BACKOFF_TIME, PollScheduler.getDelay(10000, Integer.MAX_VALUE));
+			// never less than the poll time
+			assertAround(600000, PollScheduler.getDelay(600000, 5));
+			assertAround(Long.MAX_VALUE / 2, PollScheduler.getDelay(Long.MAX_VALUE / 2, 3));
+		}
+	}
+
+	@Test
+	public void testShortPollTimeNotSpread() {
+		assertEquals(5, PollScheduler.getDelay(5, 0));
+		assertEquals(10, PollScheduler.getDelay(5, 1));
+	}
+
+	private static void assertAround(long expected, long delay) {
+		final long jitter = (long) (expected * PollScheduler.JITTER);
+		assertTrue(delay + " not within " + jitter + " of " + expected,
+				delay >= expected - jitter && delay <= expected + jitter);
+	}
+}
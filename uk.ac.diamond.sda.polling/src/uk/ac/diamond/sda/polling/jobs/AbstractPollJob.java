@@ -11,18 +11,29 @@ package uk.ac.diamond.sda.polling.jobs;
 
 import java.io.IOException;
 
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
 import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
 
 public abstract class AbstractPollJob extends Job {
 
 	private static final String POLL_TIME = "PollTime";
+	private static final long DEFAULT_POLL_TIME = 10000;
+	private static final long MINIMUM_POLL_TIME = 100;
 	private JobParameters jobParameters = null;
-	private long lastRun;
+	private volatile long lastRun;
+	private volatile long pollInterval = DEFAULT_POLL_TIME;
+	private volatile int failures;
 	private String status = "Starting";
 
-	private void runJob() {
+	/**
+	 * Reads the job parameters again if their file has changed and schedules the job.
+	 */
+	public void poll() {
 		try {
-			jobParameters.refresh();
+			if (jobParameters.refresh()) {
+				pollInterval = parsePollTime(jobParameters.get(POLL_TIME));
+			}
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -31,19 +42,58 @@ public abstract class AbstractPollJob extends Job {
 		this.schedule();
 	}
 
+	/**
+	 * Polls the job if its poll time has passed.
+	 * @return time in ms till the job is next due
+	 */
 	public long timeToSchedule() {
-		long pollTime = (long) (Double.parseDouble(jobParameters.get(POLL_TIME)) * 1000.0);
-		long time = (lastRun + pollTime) - System.currentTimeMillis();
+		long time = getTimeToNextPoll();
 		if (time < 0) {
-			runJob();
-			time = pollTime;
+			poll();
+			time = pollInterval;
 		}
 		return time;
 	}
 
+	/**
+	 * @return time in ms till the poll time has passed since the job last ran, negative if it has
+	 */
+	public long getTimeToNextPoll() {
+		return (lastRun + pollInterval) - System.currentTimeMillis();
+	}
+
+	/**
+	 * @return poll time in ms
+	 */
+	public long getPollInterval() {
+		return pollInterval;
+	}
+
+	/**
+	 * @return number of runs in a row which did not finish OK
+	 */
+	public int getFailures() {
+		return failures;
+	}
+
+	private static long parsePollTime(String pollTime) {
+		if (pollTime == null) return DEFAULT_POLL_TIME;
+		try {
+			return Math.max(MINIMUM_POLL_TIME, (long) (Double.parseDouble(pollTime) * 1000.0));
+		} catch (NumberFormatException e) {
+			return DEFAULT_POLL_TIME;
+		}
+	}
+
 	public AbstractPollJob(String name) {
 		super(name);
 		lastRun = System.currentTimeMillis();
+		addJobChangeListener(new JobChangeAdapter() {
+			@Override
+			public void done(IJobChangeEvent event) {
+				failures = event.getResult() == null || event.getResult().isOK() ? 0 : failures + 1;
+			}
+		});
 	}
 
 	public JobParameters getJobParameters() {
@@ -52,6 +102,7 @@ public abstract class AbstractPollJob extends Job {
 
 	public void setJobParameters(JobParameters jobParameters) {
 		this.jobParameters = jobParameters;
+		pollInterval = parsePollTime(jobParameters.get(POLL_TIME));
 	}
 
 	public String getPollTime() {
@@ -59,7 +110,7 @@ public abstract class AbstractPollJob extends Job {
 	}
 
 	public void setJobParametersFilename(String fileName) throws IOException {
-		jobParameters = new JobParameters(fileName);
+		setJobParameters(new JobParameters(fileName));
 	}
 
 	public String getJobParametersFilename() {
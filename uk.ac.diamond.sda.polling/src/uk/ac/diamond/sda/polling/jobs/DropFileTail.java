@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.sda.polling.jobs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Follows a drop file which has lines added to its end, reading only the lines
+ * added since the last poll. The file is read again from its start if it gets
+ * shorter, is replaced by another file of the same name, or is rewritten without
+ * growing.
+ * <p>
+ * A last line without a line end is taken to be still being written, and is only
+ * read once it is ended or the file has not changed for a poll. The line end then
+ * written after a line read without one does not make an empty line.
+ */
+class DropFileTail {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private File   file;
+	private Object fileKey;
+	private long   offset;       // bytes read up to the end of the last whole line
+	private long   size = -1;    // at the last poll
+	private long   lastModified;
+	private boolean unended;     // last line was read without its line end
+
+	private final List<String> lines = new ArrayList<String>();
+	private boolean reset;
+
+	/**
+	 * Reads the lines added since the last poll.
+	 * @param name of the drop file
+	 * @throws IOException if the file cannot be read
+	 */
+	void poll(String name) throws IOException {
+		lines.clear();
+		reset = false;
+
+		final File current = new File(name);
+		final Path path = current.toPath();
+		final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		final Object key = attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+		final long newSize = attributes.size();
+		final long newModified = attributes.lastModifiedTime().toMillis();
+
+		if (!current.equals(file) || !key.equals(fileKey) || newSize < offset
+				|| (newSize == size && newModified != lastModified)) {
+			// new, rotated, truncated or rewritten in place
+			reset = file != null;
+			file = current;
+			fileKey = key;
+			offset = 0;
+			size = -1;
+			unended = false;
+		}
+
+		if (newSize > offset) {
+			// an unended line which has not changed since the last poll is taken as whole
+			read(path, newSize, newSize == size);
+		}
+		size = newSize;
+		lastModified = newModified;
+	}
+
+	private void read(Path path, long end, boolean takeUnended) throws IOException {
+		final Charset charset = Charset.defaultCharset();
+		final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long position = offset;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			channel.position(offset);
+			while (position < end) {
+				buffer.clear();
+				if (end - position < buffer.capacity()) {
+					buffer.limit((int) (end - position));
+				}
+				final int n = channel.read(buffer);
+				if (n < 0) break;
+				final byte[] bytes = buffer.array();
+				int start = 0;
+				for (int i = 0; i < n; i++) {
+					if (bytes[i] == '\n') {
+						line.write(bytes, start, i - start);
+						if (unended && isLineEnd(line)) {
+							line.reset(); // ends the line already read
+						} else {
+							addLine(line, charset);
+						}
+						unended = false;
+						start = i + 1;
+						offset = position + start;
+					}
+				}
+				line.write(bytes, start, n - start);
+				position += n;
+			}
+		}
+		if (takeUnended && line.size() > 0) {
+			addLine(line, charset);
+			offset = position;
+			unended = true;
+		}
+	}
+
+	private static boolean isLineEnd(ByteArrayOutputStream line) {
+		return line.size() == 0 || (line.size() == 1 && line.toByteArray()[0] == '\r');
+	}
+
+	private void addLine(ByteArrayOutputStream line, Charset charset) {
+		String text = new String(line.toByteArray(), charset);
+		if (text.endsWith("\r")) {
+			text = text.substring(0, text.length() - 1);
+		}
+		lines.add(text);
+		line.reset();
+	}
+
+	/**
+	 * @return lines read by the last poll
+	 */
+	List<String> getLines() {
+		return lines;
+	}
+
+	/**
+	 * @return true if the last poll read the file again from its start, after
+	 *         having read from it before
+	 */
+	boolean isReset() {
+		return reset;
+	}
+}
@@ -9,13 +9,9 @@
 
 package uk.ac.diamond.sda.polling.jobs;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
@@ -27,6 +23,13 @@ public abstract class FilenameReaderJob extends AbstractPollJob {
 	
 	public static final String FILE_NAME = "FileName";
 
+	private final DropFileTail tail = new DropFileTail();
+
+	/**
+	 * All the filenames in the drop file, added to as the file grows
+	 */
+	private final ArrayList<String> filenames = new ArrayList<String>();
+
 	public FilenameReaderJob() {
 		super("Filename Reader Job");
 	}
@@ -35,26 +38,11 @@ public abstract class FilenameReaderJob extends AbstractPollJob {
 	protected IStatus run(IProgressMonitor monitor) {
 		
 		try {
-			File file = new File(getJobParameters().get(FILE_NAME));
-			FileInputStream fin = new FileInputStream(file);
-			BufferedInputStream bis = new BufferedInputStream(fin);
-			BufferedReader br = new BufferedReader(new InputStreamReader(bis));
-			
-			ArrayList<String> filenames = new ArrayList<String>();
-			
-			String filename = br.readLine();
+			ArrayList<String> filenames = readFilenames();
 			// if there is nothing there, throw an exception here to let the user know
-			if(filename == null) {
-				br.close();
+			if(filenames.isEmpty()) {
 				throw new IOException("No File Specified in drop location");
 			}
-			
-			// otherwise try to load in all the image filenames
-			while(filename != null) {
-				filenames.add(filename);
-				filename = br.readLine();
-			}
-			br.close();
 			processFile(filenames);
 		
 		} catch (Exception e) {
@@ -67,5 +55,36 @@ public abstract class FilenameReaderJob extends AbstractPollJob {
 		
 	}
 
+	/**
+	 * Reads the lines added to the drop file since the last call, and passes them to
+	 * {@link #processNewFiles(List, boolean)}.
+	 * @return all the filenames in the drop file
+	 * @throws IOException
+	 */
+	protected ArrayList<String> readFilenames() throws IOException {
+		tail.poll(getJobParameters().get(FILE_NAME));
+		final boolean reset = tail.isReset();
+		if (reset) {
+			filenames.clear();
+		}
+		final List<String> added = tail.getLines();
+		filenames.addAll(added);
+		if (reset || !added.isEmpty()) {
+			processNewFiles(added, reset);
+		}
+		return filenames;
+	}
+
+	/**
+	 * Called with the filenames added to the drop file since it was last read,
+	 * before {@link #processFile(ArrayList)}.
+	 * @param newFilenames
+	 * @param reset true if the drop file was read again from its start, in which case
+	 *        the new filenames are all those in the file
+	 */
+	protected void processNewFiles(List<String> newFilenames, boolean reset) {
+		// by default only the whole list is processed
+	}
+
 	protected abstract void processFile(ArrayList<String> filenames);
 }
@@ -9,13 +9,9 @@
 
 package uk.ac.diamond.sda.polling.jobs;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
@@ -25,37 +21,25 @@ import uk.ac.diamond.sda.polling.Activator;
 
 public abstract class FilenameReaderUpdateOnlyJob extends FilenameReaderJob {
 
-	ArrayList<String>  oldFilenames = new ArrayList<String>();
-	
+	/**
+	 * Number and hash of the filenames read, to tell if the drop file was
+	 * rewritten with the same filenames
+	 */
+	private int     count;
+	private long    hash;
+	private boolean newFiles;
+
 	@Override
 	protected IStatus run(IProgressMonitor monitor) {
 		try {
-			File file = new File(getJobParameters().get(FILE_NAME));
-			FileInputStream fin = new FileInputStream(file);
-			BufferedInputStream bis = new BufferedInputStream(fin);
-			BufferedReader br = new BufferedReader(new InputStreamReader(bis));
-			
-			ArrayList<String> filenames = new ArrayList<String>();
-			
-			String filename = br.readLine();
-			if(filename == null) {
-				br.close();
+			newFiles = false;
+			ArrayList<String> filenames = readFilenames();
+			if(filenames.isEmpty()) {
 				throw new IOException("No File Specified in drop location");
 			}
 			
-			// otherwise try to load in all the image filenames
-			while(filename != null) {
-				filenames.add(filename);
-				filename = br.readLine();
-			}
-			br.close();
-			
-			if(newFilesPresent(oldFilenames, filenames)) {
+			if(newFiles) {
 				processFile(filenames);
-				oldFilenames.clear();
-				for (String string : filenames) {
-					oldFilenames.add(string);
-				}
 			}
 		
 		} catch (Exception e) {
@@ -67,14 +51,25 @@ public abstract class FilenameReaderUpdateOnlyJob extends FilenameReaderJob {
 		return Status.OK_STATUS;
 	}
 
-	private boolean newFilesPresent(ArrayList<String> oldFilenames, ArrayList<String> filenames) {
-		if(oldFilenames.size() != filenames.size()) return true;
-		for(int i = 0; i < oldFilenames.size(); i++) {
-			if(filenames.get(i).compareTo(oldFilenames.get(i)) != 0) {
-				return true;
-			}
+	/**
+	 * Records whether there are new files, overriding methods must call this.
+	 */
+	@Override
+	protected void processNewFiles(List<String> newFilenames, boolean reset) {
+		final int oldCount = count;
+		final long oldHash = hash;
+		if (reset) {
+			count = 0;
+			hash = 0;
+		}
+		for (String filename : newFilenames) {
+			hash = 31 * hash + filename.hashCode();
+		}
+		count += newFilenames.size();
+		// only a rewrite with different filenames counts as new files
+		if (count != oldCount || hash != oldHash) {
+			newFiles = true;
 		}
-		return false;
 	}
 
 }
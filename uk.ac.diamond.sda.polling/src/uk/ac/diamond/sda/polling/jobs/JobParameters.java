@@ -33,12 +33,19 @@ public class JobParameters extends HashMap<String, String> {
 		lastModified = parameterFile.lastModified();
 	}
 
-	public void refresh() throws IOException {
+	/**
+	 * Reads the parameters again if the file has changed.
+	 * @return true if read again
+	 * @throws IOException
+	 */
+	public boolean refresh() throws IOException {
 		long newLastModified = parameterFile.lastModified();
 		if (lastModified != newLastModified) {
 			loadParameterFile();
 			lastModified = newLastModified;
+			return true;
 		}
+		return false;
 	}
 	
 	private void loadParameterFile() throws IOException {
@@ -9,61 +9,178 @@
 
 package uk.ac.diamond.sda.polling.server;
 
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.IJobChangeListener;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+
 import uk.ac.diamond.sda.polling.jobs.AbstractPollJob;
 
-public class PollScheduler implements Runnable {
+/**
+ * Runs each poll job when its poll time has passed. Every job has its own entry
+ * in the queue of a single scheduling thread, which sleeps until the next job is
+ * due, so no time is spent on jobs which are not due. Jobs can be added and
+ * removed while the scheduler runs.
+ * <p>
+ * The time till a job next runs is its poll time, lengthened while the job fails
+ * and spread by a little so that jobs with the same poll time do not all run at
+ * once. Polling a job only schedules it to run, so the next poll is scheduled once
+ * the run is done and whether it failed is known.
+ */
+public class PollScheduler {
+
+	/**
+	 * Largest share of the poll time by which a job is moved, either way.
+	 */
+	static final double JITTER = 0.1;
 
-	private static final int DEFAULT_MAXIMUM_POLL_TIME = 10000;
-	public static boolean SCHEDULER_RUNNING = false;
-	PollServer pollServer = null;
+	/**
+	 * Longest a failing job is put off, or its poll time if that is longer.
+	 */
+	static final long MAXIMUM_BACKOFF_TIME = 300000;
+
+	private final PollServer pollServer;
+	private final Map<AbstractPollJob, ScheduledFuture<?>> scheduled = new ConcurrentHashMap<AbstractPollJob, ScheduledFuture<?>>();
+	private final Set<AbstractPollJob> running = ConcurrentHashMap.newKeySet(); // polled and not yet done
+	private ScheduledThreadPoolExecutor executor;
+
+	private final IJobChangeListener doneListener = new JobChangeAdapter() {
+		@Override
+		public void done(IJobChangeEvent event) {
+			// the job counts its failures in a listener added when it was made, so before this one
+			if (event.getJob() instanceof AbstractPollJob) {
+				polled((AbstractPollJob) event.getJob());
+			}
+		}
+	};
 
 	public PollScheduler(PollServer pollServer) {
 		this.pollServer = pollServer;
 	}
 
-	@Override
 	/**
-	 * check all jobs, if the time till the next poll is negative 
-	 * run the job, if its positive then log it
-	 * Finally wait until the next step
+	 * Starts the scheduling thread, if not running.
 	 */
-	public void run() {
+	public synchronized void start() {
+		if (executor != null) return;
+		executor = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r, "Poll scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.setRemoveOnCancelPolicy(true);
+		pollServer.pollMonitor.pollLoopStart();
+	}
 
-		SCHEDULER_RUNNING = true;
+	/**
+	 * Removes all jobs and stops the scheduling thread, waiting for it to finish.
+	 * @throws InterruptedException
+	 */
+	public void stop() throws InterruptedException {
+		final ScheduledThreadPoolExecutor stopping;
+		synchronized (this) {
+			stopping = executor;
+			executor = null;
+			removeAll();
+		}
+		if (stopping != null) {
+			stopping.shutdownNow();
+			stopping.awaitTermination(10, TimeUnit.SECONDS);
+		}
+	}
 
-		// TODO should make this easily killable
-		while (SCHEDULER_RUNNING) {
+	public synchronized boolean isRunning() {
+		return executor != null;
+	}
 
-			pollServer.pollMonitor.pollLoopStart();
-			long timeTillNextJob = processAllJobs();
+	/**
+	 * Schedules a job to run when its poll time has passed since it last ran.
+	 * @param job
+	 */
+	public synchronized void add(AbstractPollJob job) {
+		if (executor == null || scheduled.containsKey(job)) return;
+		job.addJobChangeListener(doneListener);
+		schedule(job, job.getTimeToNextPoll());
+	}
 
-			try {
-				Thread.sleep(timeTillNextJob);
-			} catch (InterruptedException e) {
-				// Kill the loop and carry on
-				continue;
-			}
+	public synchronized void remove(AbstractPollJob job) {
+		final ScheduledFuture<?> future = scheduled.remove(job);
+		if (future != null) future.cancel(false);
+		job.removeJobChangeListener(doneListener);
+		running.remove(job);
+	}
 
+	public synchronized void removeAll() {
+		for (Map.Entry<AbstractPollJob, ScheduledFuture<?>> e : scheduled.entrySet()) {
+			e.getValue().cancel(false);
+			e.getKey().removeJobChangeListener(doneListener);
 		}
+		scheduled.clear();
+		running.clear();
 	}
 
-	private long processAllJobs() {
-
-		pollServer.pollMonitor.processingJobs();
-
-		long timeTillNextJob = DEFAULT_MAXIMUM_POLL_TIME;
+	/**
+	 * @return number of jobs scheduled
+	 */
+	public int size() {
+		return scheduled.size();
+	}
 
-		for (AbstractPollJob pollJob : this.pollServer.getPollJobs()) {
-			pollServer.pollMonitor.schedulingJob(pollJob);
+	private void schedule(final AbstractPollJob job, long delay) {
+		scheduled.put(job, executor.schedule(() -> poll(job), Math.max(0, delay), TimeUnit.MILLISECONDS));
+	}
 
-			long timeTillNextEvent = pollJob.timeToSchedule();
+	private void poll(AbstractPollJob job) {
+		pollServer.pollMonitor.schedulingJob(job);
+		running.add(job);
+		try {
+			job.poll();
+		} catch (RuntimeException e) {
+			// carry on polling the other jobs
+			e.printStackTrace();
+			polled(job);
+		}
+	}
 
-			if (timeTillNextEvent > 0 && timeTillNextEvent < timeTillNextJob) {
-				timeTillNextJob = timeTillNextEvent;
+	/**
+	 * Schedules the next poll of a job once the run polling it is done
+	 */
+	private void polled(AbstractPollJob job) {
+		// runs not started by the scheduler are not followed by another poll
+		if (!running.remove(job)) return;
+		final long delay = getDelay(job.getPollInterval(), job.getFailures());
+		synchronized (this) {
+			// Only reschedule if not removed while running
+			if (executor != null && scheduled.containsKey(job)) {
+				schedule(job, delay);
 			}
 		}
-		pollServer.pollMonitor.processingJobsComplete(timeTillNextJob);
-		return timeTillNextJob;
+		pollServer.pollMonitor.processingJobsComplete(delay);
 	}
 
+	/**
+	 * @param interval poll time in ms
+	 * @param failures number of times in a row the job has failed
+	 * @return time till the next poll in ms
+	 */
+	static long getDelay(long interval, int failures) {
+		long delay = interval;
+		if (failures > 0) {
+			final long limit = Math.max(interval, MAXIMUM_BACKOFF_TIME);
+			delay = interval << Math.min(failures, 20);
+			if (delay > limit || delay <= 0) delay = limit;
+		}
+		final long jitter = (long) (delay * JITTER);
+		if (jitter > 0) {
+			delay += ThreadLocalRandom.current().nextLong(-jitter, jitter + 1);
+		}
+		return delay;
+	}
 }
@@ -18,6 +18,7 @@ import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IConfigurationElement;
@@ -41,9 +42,9 @@ public class PollServer implements IPropertyChangeListener {
 
 	private static PollServer pollServer = null;
 
-	private static Thread schedulerThread = null;
+	private final PollScheduler scheduler = new PollScheduler(this);
 
-	private Collection<AbstractPollJob> pollJobs = new ArrayList<AbstractPollJob>();
+	private Collection<AbstractPollJob> pollJobs = new CopyOnWriteArrayList<AbstractPollJob>();
 
 	private File pollFileDirectory;
 
@@ -77,6 +78,7 @@ public class PollServer implements IPropertyChangeListener {
 	}
 
 	private void clearAllJobs() {
+		scheduler.removeAll();
 		pollJobs.clear();
 	}
 
@@ -89,6 +91,7 @@ public class PollServer implements IPropertyChangeListener {
 
 		// need to associate this with a
 		pollJobs.add(job);
+		scheduler.add(job);
 	}
 
 	public void runSheduler() {
@@ -97,16 +100,14 @@ public class PollServer implements IPropertyChangeListener {
 		} catch (InterruptedException e) {
 			// Do nothing, it just means this may leave a thread lying around for a bit until it dies
 		}
-		schedulerThread = new Thread(new PollScheduler(this));
-		PollScheduler.SCHEDULER_RUNNING = true;
-		schedulerThread.start();
+		scheduler.start();
+		for (AbstractPollJob job : pollJobs) {
+			scheduler.add(job);
+		}
 	}
 
 	public void stopSheduler() throws InterruptedException {
-		if (schedulerThread != null) {
-			PollScheduler.SCHEDULER_RUNNING = false;
-			schedulerThread.join();
-		}
+		scheduler.stop();
 
 		for (AbstractPollJob job : pollJobs) {
 			job.setStatus("Paused");
@@ -238,6 +239,7 @@ public class PollServer implements IPropertyChangeListener {
 	}
 
 	public void removeJob(AbstractPollJob job) {
+		scheduler.remove(job);
 		pollJobs.remove(job);
 		deleteFile(job);
 	}
@@ -248,6 +250,7 @@ public class PollServer implements IPropertyChangeListener {
 	}
 
 	public void removeAllJobs() {
+		scheduler.removeAll();
 		for (AbstractPollJob job : pollJobs) {
 			deleteFile(job);
 		}
@@ -14,6 +14,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.core.filesystem.EFS;
 import org.eclipse.core.filesystem.IFileStore;
@@ -83,6 +84,7 @@ public class PollingView extends ViewPart implements IPollMonitor {
 	public static final String ID = "uk.ac.diamond.sda.polling.views.SampleView";
 
 	private TableViewer viewer;
+	private final AtomicBoolean refreshQueued = new AtomicBoolean();
 	private Action deleteJobAction;
 	private Action deleteAllJobAction;
 	private Action reloadAllJobAction;
@@ -427,10 +429,13 @@ public class PollingView extends ViewPart implements IPollMonitor {
 
 	@Override
 	public void processingJobsComplete(long timeTillNextJob) {		
+		// Each job reports when polled, only one refresh need wait at a time
+		if (!refreshQueued.compareAndSet(false, true)) return;
 		Display.getDefault().asyncExec (new Runnable () {
 		      @Override
 			public void run () {
-		         viewer.refresh();
+		         refreshQueued.set(false);
+		         if (!viewer.getControl().isDisposed()) viewer.refresh();
 		      }
 		});
 		